@@ -0,0 +1,232 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// CODEC BENCHMARK
+//
+// Measures writing and reading each kind of value that goes over the wire.
+// Values are written to an in-memory stream that is reused, so the numbers are
+// the serializers' own cost (and allocation, with "-prof gc") without any
+// network.
+//
+// Ids come from a TimeUuidGenerator, so they are laid out like the ids the
+// server makes. "textLength" is the
+// length of message bodies, user names and conversation titles. A page is 64
+// messages, which is what a client reading ahead through a conversation gets.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+  private static final int PAGE_SIZE = 64;
+
+  private static final Serializer<Collection<Message>> PAGE =
+      Serializers.collection(Message.SERIALIZER);
+
+  @Param({ "16", "140", "1024" })
+  public int textLength;
+
+  private Uuid id;
+  private Time time;
+  private String text;
+  private User user;
+  private ConversationHeader conversation;
+  private Message message;
+  private Collection<Message> page;
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+  private ByteArrayInputStream intBytes;
+  private ByteArrayInputStream stringBytes;
+  private ByteArrayInputStream uuidBytes;
+  private ByteArrayInputStream timeBytes;
+  private ByteArrayInputStream userBytes;
+  private ByteArrayInputStream conversationBytes;
+  private ByteArrayInputStream messageBytes;
+  private ByteArrayInputStream pageBytes;
+
+  @Setup
+  public void setup() throws IOException {
+
+    final Random random = new Random(textLength);
+    final Uuid.Generator ids = new TimeUuidGenerator(new Uuid(random.nextInt() & Integer.MAX_VALUE));
+
+    id = ids.make();
+    time = Time.now();
+    text = text(random, textLength);
+    user = new User(id, text(random, Math.min(textLength, 32)), time);
+    conversation = new ConversationHeader(ids.make(),
+                                          id,
+                                          time,
+                                          text(random, Math.min(textLength, 64)));
+
+    page = new ArrayList<>();
+    Uuid next = ids.make();
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      final Uuid current = next;
+      next = ids.make();
+      page.add(new Message(current,
+                           next,
+                           Uuid.NULL,
+                           Time.fromMs(time.inMs() + i),
+                           id,
+                           text(random, textLength)));
+    }
+    message = page.iterator().next();
+
+    intBytes = encode(Serializers.INTEGER, textLength);
+    stringBytes = encode(Serializers.STRING, text);
+    uuidBytes = encode(Uuid.SERIALIZER, id);
+    timeBytes = encode(Time.SERIALIZER, time);
+    userBytes = encode(User.SERIALIZER, user);
+    conversationBytes = encode(ConversationHeader.SERIALIZER, conversation);
+    messageBytes = encode(Message.SERIALIZER, message);
+    pageBytes = encode(PAGE, page);
+  }
+
+  @Benchmark
+  public int writeInteger() throws IOException {
+    return write(Serializers.INTEGER, textLength);
+  }
+
+  @Benchmark
+  public Integer readInteger() throws IOException {
+    return read(Serializers.INTEGER, intBytes);
+  }
+
+  @Benchmark
+  public int writeString() throws IOException {
+    return write(Serializers.STRING, text);
+  }
+
+  @Benchmark
+  public String readString() throws IOException {
+    return read(Serializers.STRING, stringBytes);
+  }
+
+  @Benchmark
+  public int writeUuid() throws IOException {
+    return write(Uuid.SERIALIZER, id);
+  }
+
+  @Benchmark
+  public Uuid readUuid() throws IOException {
+    return read(Uuid.SERIALIZER, uuidBytes);
+  }
+
+  @Benchmark
+  public int writeTime() throws IOException {
+    return write(Time.SERIALIZER, time);
+  }
+
+  @Benchmark
+  public Time readTime() throws IOException {
+    return read(Time.SERIALIZER, timeBytes);
+  }
+
+  @Benchmark
+  public int writeUser() throws IOException {
+    return write(User.SERIALIZER, user);
+  }
+
+  @Benchmark
+  public User readUser() throws IOException {
+    return read(User.SERIALIZER, userBytes);
+  }
+
+  @Benchmark
+  public int writeConversation() throws IOException {
+    return write(ConversationHeader.SERIALIZER, conversation);
+  }
+
+  @Benchmark
+  public ConversationHeader readConversation() throws IOException {
+    return read(ConversationHeader.SERIALIZER, conversationBytes);
+  }
+
+  @Benchmark
+  public int writeMessage() throws IOException {
+    return write(Message.SERIALIZER, message);
+  }
+
+  @Benchmark
+  public Message readMessage() throws IOException {
+    return read(Message.SERIALIZER, messageBytes);
+  }
+
+  @Benchmark
+  public int writeMessagePage() throws IOException {
+    return write(PAGE, page);
+  }
+
+  @Benchmark
+  public Collection<Message> readMessagePage() throws IOException {
+    return read(PAGE, pageBytes);
+  }
+
+  // Returns the number of bytes written so that the write cannot be optimized
+  // away.
+  private <T> int write(Serializer<T> serializer, T value) throws IOException {
+    out.reset();
+    serializer.write(out, value);
+    return out.size();
+  }
+
+  private static <T> T read(Serializer<T> serializer, ByteArrayInputStream in) throws IOException {
+    in.reset();
+    return serializer.read(in);
+  }
+
+  private static <T> ByteArrayInputStream encode(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.write(bytes, value);
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  private static String text(Random random, int length) {
+    final StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append(i % 6 == 5 ? ' ' : (char) ('a' + random.nextInt(26)));
+    }
+    return builder.toString();
+  }
+}
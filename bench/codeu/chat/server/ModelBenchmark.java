@@ -0,0 +1,95 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MODEL BENCHMARK
+//
+// Measures adding messages to a Model, which puts each message in the id
+// registry, the by-id and by-time stores and the MessageIndex (appending to the
+// postings of each term in its text). Messages look like the ones the server
+// makes: ids under one server id, creation times that mostly go up and text
+// from a small set of words so that most terms are shared between messages.
+//
+// Each operation adds "size" messages to an empty model. Divide by "size" for
+// the cost of one add.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+  private static final String[] WORDS = {
+    "hello", "hi", "ok", "thanks", "see you", "what time", "lunch?", "done", "nice", "on my way"
+  };
+
+  @Param({ "1000", "10000", "100000" })
+  public int size;
+
+  private Message[] messages;
+
+  @Setup
+  public void setup() {
+
+    final Random random = new Random(size);
+    final Uuid server = new Uuid(1);
+    final Uuid author = new Uuid(server, 2);
+    final long start = System.currentTimeMillis();
+
+    messages = new Message[size];
+
+    for (int i = 0; i < size; i++) {
+      final String text = random.nextInt(4) == 0 ?
+          WORDS[random.nextInt(WORDS.length)] :
+          String.format("%s %08x", WORDS[random.nextInt(WORDS.length)], random.nextInt());
+      // Times go up by a few ms at a time but can be slightly out of order.
+      final Time creation = Time.fromMs(start + 5 * i + random.nextInt(10));
+      messages[i] = new Message(new Uuid(server, random.nextInt() & Integer.MAX_VALUE),
+                                Uuid.NULL,
+                                Uuid.NULL,
+                                creation,
+                                author,
+                                text);
+    }
+  }
+
+  @Benchmark
+  public Model addMessages() {
+    final Model model = new Model();
+    for (final Message message : messages) {
+      model.add(message);
+    }
+    return model;
+  }
+}
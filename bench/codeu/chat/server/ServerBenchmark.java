@@ -0,0 +1,124 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.client.core.Controller;
+import codeu.chat.client.core.View;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.LoopbackConnectionSource;
+
+// SERVER BENCHMARK
+//
+// Measures whole requests - the client writing the request, the server reading
+// it, updating or reading the model and writing the response, and the client
+// reading it - over loopback connections so that no time is spent in the
+// kernel's network stack. Compare with the load generator (LoadMain) to see
+// how much of a request's time is the network.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark {
+
+  private LoopbackConnectionSource source;
+  private Server server;
+  private Thread acceptor;
+
+  private Controller controller;
+  private View view;
+
+  private User user;
+  private ConversationHeader conversation;
+  private Collection<Uuid> recent;
+
+  @Setup
+  public void setup() throws IOException {
+
+    source = new LoopbackConnectionSource();
+    server = new Server(new Uuid(1), new Secret((byte) 1), new NoOpRelay());
+
+    acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            server.handleConnection(source.connect());
+          }
+        } catch (IOException ex) {
+          // The source was closed by the tear down.
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    controller = new Controller(source.client());
+    view = new View(source.client());
+
+    user = controller.newUser("user");
+    conversation = controller.newConversation("conversation", user.id);
+
+    final List<Uuid> ids = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      ids.add(controller.newMessage(user.id, conversation.id, "message " + i).id);
+    }
+    recent = ids;
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    source.close();
+    acceptor.join(1000);
+    server.stop();
+  }
+
+  @Benchmark
+  public Message newMessage() {
+    return controller.newMessage(user.id, conversation.id, "hello");
+  }
+
+  @Benchmark
+  public Collection<Message> getMessages() {
+    return view.getMessages(recent);
+  }
+
+  @Benchmark
+  public Collection<ConversationHeader> getConversations() {
+    return view.getConversations();
+  }
+}
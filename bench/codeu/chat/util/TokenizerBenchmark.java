@@ -0,0 +1,59 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// TOKENIZER BENCHMARK
+//
+// Measures splitting a line into tokens for the kinds of lines the Tokenizer
+// sees: transaction log lines replayed when the server starts and commands
+// typed into the client.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+  @Param({
+    "ADD-USER 1.2086714591 \"alice\" 1500000000000",
+    "ADD-CONVERSATION 1.731894152 1.2086714591 \"weekend plans\" 1500000000123",
+    "ADD-MESSAGE 1.98344123 1.2086714591 1.731894152 \"is anyone around on saturday to help move some boxes?\" 1500000000456",
+    "ADD-INTEREST-CONVERSATION 1.2086714591 1.731894152",
+    "m-add \"hello everyone\""
+  })
+  public String line;
+
+  @Benchmark
+  public void tokenize(Blackhole blackhole) {
+    final Tokenizer tokenizer = new Tokenizer(line);
+    for (String token = tokenizer.next(); token != null; token = tokenizer.next()) {
+      blackhole.consume(token);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// UUID BENCHMARK
+//
+// Measures the Uuid operations that every lookup and every replayed log line
+// goes through, for ids with "depth" links. Equality is checked between two
+// different instances with the same value (the slow case, as the whole chain
+// is walked) and between ids that differ only at the root.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UuidBenchmark {
+
+  @Param({ "1", "2", "3" })
+  public int depth;
+
+  private Uuid id;
+  private Uuid same;
+  private Uuid otherRoot;
+  private String text;
+
+  @Setup
+  public void setup() {
+
+    final Random random = new Random(depth);
+    final int[] links = new int[depth];
+    for (int i = 0; i < depth; i++) {
+      links[i] = random.nextInt() & Integer.MAX_VALUE;
+    }
+
+    id = build(links);
+    same = build(links);
+
+    links[0] = links[0] + 1;
+    otherRoot = build(links);
+
+    text = id.toString();
+  }
+
+  @Benchmark
+  public int hash() {
+    return id.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsSame() {
+    return Uuid.equals(id, same);
+  }
+
+  @Benchmark
+  public boolean equalsOtherRoot() {
+    return Uuid.equals(id, otherRoot);
+  }
+
+  @Benchmark
+  public String format() {
+    return id.toString();
+  }
+
+  @Benchmark
+  public Uuid parse() throws IOException {
+    return Uuid.parse(text);
+  }
+
+  private static Uuid build(int[] links) {
+    Uuid id = null;
+    for (final int link : links) {
+      id = new Uuid(id, link);
+    }
+    return id;
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// STORE BENCHMARK
+//
+// Measures inserting into and reading from a Store at a few sizes. Keys are
+// ints so that the numbers are about the store and not about comparing ids.
+//
+// The insert benchmarks build a whole store of "size" values per operation,
+// as the cost of an insert depends on what is already in the store. Divide
+// by "size" for the cost of one insert. Three key orders are covered:
+//
+//   sequential : keys in increasing order (like times and server ids)
+//   random     : keys in no order
+//   duplicates : keys from a small range so most keys are already in the
+//                store (like names and message text)
+//
+// The lookup benchmarks work on a store of "size" values with the even keys
+// from 0 to 2 * size, so about half of the random keys looked up are missing.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+
+  // How many distinct keys the duplicate heavy insert uses.
+  private static final int DUPLICATE_KEYS = 64;
+
+  // How many values the "range" and "after" benchmarks read.
+  private static final int READ_LENGTH = 64;
+
+  private static final Comparator<Integer> INT_COMPARE = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) {
+      return Integer.compare(a, b);
+    }
+  };
+
+  @Param({ "1000", "10000", "100000" })
+  public int size;
+
+  private Integer[] sequentialKeys;
+  private Integer[] randomKeys;
+  private Integer[] duplicateKeys;
+
+  private Store<Integer, Integer> filled;
+
+  // Keys to look up, used round and round.
+  private Integer[] lookups;
+  private int next;
+
+  @Setup
+  public void setup() {
+
+    final Random random = new Random(size);
+
+    sequentialKeys = new Integer[size];
+    randomKeys = new Integer[size];
+    duplicateKeys = new Integer[size];
+
+    for (int i = 0; i < size; i++) {
+      sequentialKeys[i] = i;
+      randomKeys[i] = random.nextInt();
+      duplicateKeys[i] = random.nextInt(DUPLICATE_KEYS);
+    }
+
+    filled = new Store<>(INT_COMPARE);
+    for (int i = 0; i < size; i++) {
+      filled.insert(2 * i, i);
+    }
+
+    lookups = new Integer[4096];
+    for (int i = 0; i < lookups.length; i++) {
+      lookups[i] = random.nextInt(2 * size);
+    }
+  }
+
+  @Benchmark
+  public Store<Integer, Integer> insertSequential() {
+    return build(sequentialKeys);
+  }
+
+  @Benchmark
+  public Store<Integer, Integer> insertRandom() {
+    return build(randomKeys);
+  }
+
+  @Benchmark
+  public Store<Integer, Integer> insertDuplicates() {
+    return build(duplicateKeys);
+  }
+
+  @Benchmark
+  public Integer first() {
+    return filled.first(lookup());
+  }
+
+  @Benchmark
+  public void range(Blackhole blackhole) {
+    final Integer start = lookup();
+    for (final Integer value : filled.range(start, start + 2 * READ_LENGTH)) {
+      blackhole.consume(value);
+    }
+  }
+
+  @Benchmark
+  public void after(Blackhole blackhole) {
+    int read = 0;
+    for (final Integer value : filled.after(lookup())) {
+      blackhole.consume(value);
+      if (++read == READ_LENGTH) {
+        break;
+      }
+    }
+  }
+
+  @Benchmark
+  public void all(Blackhole blackhole) {
+    for (final Integer value : filled.all()) {
+      blackhole.consume(value);
+    }
+  }
+
+  private Store<Integer, Integer> build(Integer[] keys) {
+    final Store<Integer, Integer> store = new Store<>(INT_COMPARE);
+    for (int i = 0; i < keys.length; i++) {
+      store.insert(keys[i], i);
+    }
+    return store;
+  }
+
+  private Integer lookup() {
+    next = (next + 1) & (lookups.length - 1);
+    return lookups[next];
+  }
+}
@@ -31,6 +31,11 @@
 #   run <class path> [ arguments ... ] : Run the specified class. All arguments
 #                                        after the class path will be passed to
 #                                        the java class when it runs.
+#
+#   bench [ arguments ... ] : Build and run the JMH benchmarks found in the
+#                             bench directory. All arguments are passed to
+#                             JMH (for example a benchmark name pattern).
+#                             The JMH jars must be in third_party.
 ###############################################################################
 
 import os
@@ -47,6 +52,19 @@ CONFIG = {
     'third_party/junit4-4.11.jar',
     'third_party/hamcrest-core-1.3.jar'
   ],
+  'bench' : {
+    'out' : 'bench-bin',
+    'src' : [ 'src', 'bench' ],
+    'libraries' : [
+      'third_party/jmh-core-1.19.jar',
+      'third_party/jmh-generator-annprocess-1.19.jar',
+      'third_party/jopt-simple-4.6.jar',
+      'third_party/commons-math3-3.2.jar'
+    ],
+    # Allocation profiling is always on so that every run shows how much
+    # each benchmark allocates as well as how long it takes.
+    'arguments' : [ '-prof', 'gc' ]
+  },
   'separators' : {
     'nt' : ';',
     'posix' : ':'
@@ -123,12 +141,61 @@ def run(config, start_class_path, arguments):
   print('Run %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
 
 
+# BENCH
+#
+# Build the benchmarks (with the main sources) into their own output directory
+# and run them with JMH. JMH's annotation processor generates the benchmark
+# harness while compiling, so it must be on the class path.
+#
+def bench(config, arguments) :
+  bench_config = config['bench']
+  libraries = config['libraries'] + bench_config['libraries']
+  out = bench_config['out']
+  separator = config['separators'][os.name]
+
+  missing = [ library for library in bench_config['libraries'] if not os.path.isfile(library) ]
+  if missing :
+    print('Bench FAILED - missing libraries (download them from Maven Central):')
+    for library in missing :
+      print('  %s' % library)
+    return
+
+  if not os.path.isdir(out) :
+    os.makedirs(out)
+
+  src_files = [ ]
+  for src_path in bench_config['src'] :
+    for root, dirs, files in os.walk(src_path) :
+      src_files += [ os.path.join(root, file) for file in files if file.endswith('.java') ]
+
+  command = [ ]
+  command += [ 'javac' ]
+  command += [ '-d', out ]
+  command += [ '-cp', separator.join([ out ] + libraries) ]
+  command += src_files
+
+  print('running : %s' % command)
+  if subprocess.call(command) != 0 :
+    print('Bench FAILED - build failed')
+    return
+
+  command = [ ]
+  command += [ 'java' ]
+  command += [ '-cp', separator.join([ out ] + libraries) ]
+  command += [ 'org.openjdk.jmh.Main' ]
+  command += bench_config['arguments']
+  command += arguments
+
+  print('running : %s' % command)
+  print('Bench %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
+
+
 # USAGE
 #
 # Print basic usage info.
 #
 def usage() :
-  print('Usage: python build.py clean | build | rebuild | run | help')
+  print('Usage: python build.py clean | build | rebuild | run | bench | help')
   print('  clean   : Remove all files in the output directory.')
   print('            This does not remove the root of the output tree.')
   print('  build   : Build the full project. This will build all java files')
@@ -137,6 +204,9 @@ def usage() :
   print('  run <class path> [ arguments ... ] : Run the specified class.')
   print('            All arguments after the class path will be passed to')
   print('            the java class when it runs.')
+  print('  bench [ arguments ... ] : Build and run the JMH benchmarks.')
+  print('            All arguments are passed to JMH. Needs the JMH jars')
+  print('            in third_party.')
   print('  help    : Print this helpful message.')
 
 
@@ -161,6 +231,8 @@ def main(args) :
       else :
         print('Run command requires a java class to run.')
         usage();
+    elif 'bench' == command :
+      bench(CONFIG, args[2:])
     else :
       print 'Unknown command: [',
       for x in args :
@@ -0,0 +1,130 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import codeu.chat.util.EventLog;
+import codeu.chat.util.Histogram;
+import codeu.chat.util.Time;
+
+// EVENT LOG MAIN
+//
+// A small tool for reading the event logs written by the server and relay when
+// they are started with "--events=<dir>". It takes a command and either an
+// event log directory or a single event log file:
+//
+//   dump  <path> : print every event, one per line
+//   stats <path> : print count and duration percentiles (in microseconds) for
+//                  each event type and request code
+final class EventLogMain {
+
+  public static void main(String[] args) {
+
+    if (args.length != 2) {
+      usage();
+      System.exit(1);
+    }
+
+    final File path = new File(args[1]);
+    final List<File> files = new ArrayList<>();
+
+    if (path.isDirectory()) {
+      files.addAll(EventLog.files(path));
+    } else {
+      files.add(path);
+    }
+
+    try {
+      switch (args[0]) {
+        case "dump": dump(files); break;
+        case "stats": stats(files); break;
+        default:
+          usage();
+          System.exit(1);
+      }
+    } catch (IOException ex) {
+      System.err.format("Failed to read event log: %s\n", ex.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static void usage() {
+    System.out.println("usage: EventLogMain dump|stats <event log directory or file>");
+  }
+
+  private static void dump(List<File> files) throws IOException {
+    for (final File file : files) {
+      EventLog.read(file, new EventLog.Visitor() {
+        @Override
+        public void onRecord(EventLog.Record record) {
+          System.out.format("%s %-14s code=%-4d first=%s second=%s duration(us)=%d\n",
+                            Time.fromMs(record.time / 1000000),
+                            typeName(record.type),
+                            record.code,
+                            EventLog.unpack(record.first),
+                            EventLog.unpack(record.second),
+                            record.duration / 1000);
+        }
+      });
+    }
+  }
+
+  private static void stats(List<File> files) throws IOException {
+
+    // Keyed by type and then code so that the output comes out grouped.
+    final Map<String, Histogram> durations = new TreeMap<>();
+
+    for (final File file : files) {
+      EventLog.read(file, new EventLog.Visitor() {
+        @Override
+        public void onRecord(EventLog.Record record) {
+
+          // Relay polls use the code for the number of bundles read, which
+          // would split polls into too many groups.
+          final String key = record.type == EventLog.TYPE_RELAY_POLL ?
+              String.format("%-14s", typeName(record.type)) :
+              String.format("%-14s code=%-4d", typeName(record.type), record.code);
+
+          Histogram histogram = durations.get(key);
+          if (histogram == null) {
+            histogram = new Histogram();
+            durations.put(key, histogram);
+          }
+          histogram.record(record.duration / 1000);
+        }
+      });
+    }
+
+    for (final Map.Entry<String, Histogram> entry : durations.entrySet()) {
+      System.out.format("%s %s\n", entry.getKey(), entry.getValue());
+    }
+  }
+
+  private static String typeName(short type) {
+    switch (type) {
+      case EventLog.TYPE_SERVER_REQUEST: return "server-request";
+      case EventLog.TYPE_RELAY_REQUEST: return "relay-request";
+      case EventLog.TYPE_RELAY_POLL: return "relay-poll";
+      case EventLog.TYPE_RELAY_SEND: return "relay-send";
+      default: return String.format("type-%d", type);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat;
+
+import codeu.chat.common.Secret;
+import codeu.chat.load.LoadGenerator;
+import codeu.chat.load.Mix;
+import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.ConnectionSource;
+
+// LOAD MAIN
+//
+// Puts load on a running server (and optionally a relay) and prints how many
+// requests per second it handled and how long they took. The first argument
+// is the server's "<host>@<port>". The rest are optional flags:
+//
+//   --users=<n>           users to make before starting (default 100)
+//   --conversations=<n>   conversations to make before starting (default 20)
+//   --threads=<n>         threads making requests (default 8)
+//   --warmup=<seconds>    time to run before measuring (default 5)
+//   --seconds=<seconds>   time to measure for (default 30)
+//   --mix=<mix>           how often to make each request (default
+//                         send=40,read=40,list=20 - see Mix for the format)
+//   --relay=<host>@<port> the relay to use for relay-write and relay-read
+//   --team=<id>:<secret>  the team to use with the relay (it must be in the
+//                         relay's team file)
+//   --trace-every=<n>     trace one in every n sends (see TraceMain)
+final class LoadMain {
+
+  public static void main(String[] args) {
+
+    if (args.length < 1 || args[0].startsWith("--")) {
+      usage();
+      System.exit(1);
+    }
+
+    int users = 100;
+    int conversations = 20;
+    int threads = 8;
+    long warmupSeconds = 5;
+    long seconds = 30;
+    String mixText = Mix.DEFAULT;
+    RemoteAddress relayAddress = null;
+    Uuid teamId = null;
+    Secret teamSecret = null;
+    int traceEvery = 0;
+
+    final RemoteAddress serverAddress;
+    final Mix mix;
+
+    try {
+      serverAddress = RemoteAddress.parse(args[0]);
+
+      for (int i = 1; i < args.length; i++) {
+        final String arg = args[i];
+        final String value = arg.substring(arg.indexOf('=') + 1);
+
+        if (arg.startsWith("--users=")) {
+          users = Integer.parseInt(value);
+        } else if (arg.startsWith("--conversations=")) {
+          conversations = Integer.parseInt(value);
+        } else if (arg.startsWith("--threads=")) {
+          threads = Integer.parseInt(value);
+        } else if (arg.startsWith("--warmup=")) {
+          warmupSeconds = Long.parseLong(value);
+        } else if (arg.startsWith("--seconds=")) {
+          seconds = Long.parseLong(value);
+        } else if (arg.startsWith("--mix=")) {
+          mixText = value;
+        } else if (arg.startsWith("--relay=")) {
+          relayAddress = RemoteAddress.parse(value);
+        } else if (arg.startsWith("--team=")) {
+          final String[] tokens = value.split(":");
+          teamId = Uuid.parse(tokens[0].trim());
+          teamSecret = Secret.parse(tokens[1].trim());
+        } else if (arg.startsWith("--trace-every=")) {
+          traceEvery = Integer.parseInt(value);
+        } else {
+          throw new IllegalArgumentException(String.format("Unknown argument \"%s\"", arg));
+        }
+      }
+
+      mix = Mix.parse(mixText);
+    } catch (Exception ex) {
+      System.err.format("Failed to read arguments: %s\n", ex.getMessage());
+      usage();
+      System.exit(1);
+      return;
+    }
+
+    final ConnectionSource server = new ClientConnectionSource(serverAddress.host, serverAddress.port);
+    final ConnectionSource relay = relayAddress == null ?
+        null :
+        new ClientConnectionSource(relayAddress.host, relayAddress.port);
+
+    try {
+      final LoadGenerator generator = new LoadGenerator(server, relay, teamId, teamSecret, mix);
+      generator.traceEvery(traceEvery);
+
+      System.out.format("Setting up %d users and %d conversations on %s...\n",
+                        users, conversations, serverAddress);
+      generator.setup(users, conversations);
+
+      System.out.format("Running %s with %d threads (%d seconds warm up, %d seconds measured)...\n",
+                        mix, threads, warmupSeconds, seconds);
+      final LoadGenerator.Report report = generator.run(threads, warmupSeconds * 1000, seconds * 1000);
+
+      System.out.print(report);
+
+      if (traceEvery > 0) {
+        System.out.format("Traced one in every %d sends. To see where the time went run:\n", traceEvery);
+        System.out.format("  TraceMain all %s [<relay or other server> ...]\n", serverAddress);
+      }
+    } catch (Exception ex) {
+      System.err.format("Load run failed: %s\n", ex);
+      System.exit(1);
+    }
+  }
+
+  private static void usage() {
+    System.out.println("usage: LoadMain <host>@<port> [--users=<n>] [--conversations=<n>] [--threads=<n>]");
+    System.out.println("                [--warmup=<seconds>] [--seconds=<seconds>] [--mix=<op>=<weight>,...]");
+    System.out.println("                [--relay=<host>@<port> --team=<id>:<secret>] [--trace-every=<n>]");
+    System.out.println("  operations: send, read, list, relay-write, relay-read");
+  }
+}
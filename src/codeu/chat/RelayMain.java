@@ -15,12 +15,17 @@
 package codeu.chat;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 
 import codeu.chat.common.Secret;
+import codeu.chat.relay.DiskHistory;
+import codeu.chat.relay.History;
+import codeu.chat.relay.MemoryHistory;
 import codeu.chat.relay.Server;
 import codeu.chat.relay.ServerFrontEnd;
+import codeu.chat.util.EventLog;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
@@ -32,8 +37,19 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  private static final int LOG_BUFFER_RECORDS = 8192;
+
+  // When history is kept on disk, start a new segment every 64 MB. By default
+  // keep up to 4 GB or 90 days of history - whichever limit is hit first.
+  private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_MAX_HISTORY_MB = 4096;
+  private static final long DEFAULT_MAX_HISTORY_DAYS = 90;
+
   public static void main(String[] args) {
 
+    // Write logs from a background thread so that logging does not slow down
+    // requests. If the log falls behind, verbose and info lines are dropped.
+    Logger.enableAsyncOutput(LOG_BUFFER_RECORDS, Logger.Overflow.DROP);
     Logger.enableConsoleOutput();
 
     try {
@@ -44,13 +60,31 @@ final class RelayMain {
 
     LOG.info("============================= START OF LOG =============================");
 
+    // An event log can be turned on with "--events=<dir>" anywhere in the
+    // arguments. It is removed before the other arguments are read.
+    args = EventLog.enableFromArgs(args);
+
     final int myPort = Integer.parseInt(args[0]);
 
+    // The history directory is optional. Without it, the relay will only keep
+    // its history in memory and it will be lost when the relay stops. With it
+    // the relay can be given a max size (in MB) and max age (in days).
+    final File historyPath = args.length > 2 ? new File(args[2]) : null;
+    final long maxHistoryMb = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_MAX_HISTORY_MB;
+    final long maxHistoryDays = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_MAX_HISTORY_DAYS;
+
     try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
 
-      // Limit the number of messages that the server tracks to be 1024 and limit the
-      // max number of messages that the relay will send out to be 16.
-      final Server relay = new Server(1024, 16);
+      // Limit the number of messages that the server tracks in memory to be 1024
+      // and limit the max number of messages that the relay will send out to be 16.
+      final History history = historyPath == null ?
+          new MemoryHistory(1024) :
+          new DiskHistory(historyPath,
+                          SEGMENT_BYTES,
+                          maxHistoryMb * 1024 * 1024,
+                          maxHistoryDays * 24 * 60 * 60 * 1000);
+
+      final Server relay = new Server(history, 16);
 
       LOG.info("Relay object created.");
 
@@ -59,7 +93,7 @@ final class RelayMain {
       startRelay(relay, source, args[1]);
 
     } catch (IOException ex) {
-      LOG.error(ex, "Failed to establish server accept port");
+      LOG.error(ex, "Failed to establish server accept port or open history");
     }
   }
 
@@ -70,19 +104,32 @@ final class RelayMain {
     final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
     LOG.info("Relay front end object created.");
 
+    // Connections are handled on their own lane so that reloading the team
+    // file never holds up a server reading from or writing to the relay.
     final Timeline timeline = new Timeline();
+    final Timeline.Lane connectionLane = timeline.lane("client-io", 4, 256);
+    final Timeline.Lane maintenanceLane = timeline.lane("maintenance", 1, 64);
     LOG.info("Relay timeline created.");
 
-    timeline.scheduleNow(new Runnable() {
+    // Load the team data again every minute so that new team entries will be
+    // added to the relay. This won't support updating entries.
+    maintenanceLane.scheduleAtFixedRate(0, 60000, new Runnable() {
       @Override
       public void run() {
         LOG.info("Loading team data...");
         loadTeamInfo(relay, teamFile);
         LOG.info("Done loading team data.");
+      }
+    });
 
-        // Add this again in 1 minute so that new team entries will be added to
-        // the relay. This won't support updating entries.
-        timeline.scheduleIn(60000, this);
+    // Log how each lane is keeping up so that it is possible to see when the
+    // relay is falling behind.
+    maintenanceLane.scheduleAtFixedRate(60000, 60000, new Runnable() {
+      @Override
+      public void run() {
+        for (final Timeline.Lane lane : timeline.lanes()) {
+          LOG.info("Lane %s", lane);
+        }
       }
     });
 
@@ -95,7 +142,7 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        connectionLane.scheduleNow(new Runnable() {
           @Override
           public void run() {
             try {
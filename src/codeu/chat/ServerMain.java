@@ -17,12 +17,16 @@ package codeu.chat;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.server.ClusterRelay;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
+import codeu.chat.util.EventLog;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
 import codeu.chat.util.Uuid;
@@ -35,8 +39,13 @@ final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  private static final int LOG_BUFFER_RECORDS = 8192;
+
   public static void main(String[] args) {
 
+    // Write logs from a background thread so that logging does not slow down
+    // requests. If the log falls behind, verbose and info lines are dropped.
+    Logger.enableAsyncOutput(LOG_BUFFER_RECORDS, Logger.Overflow.DROP);
     Logger.enableConsoleOutput();
 
     try {
@@ -47,20 +56,31 @@ final class ServerMain {
 
     LOG.info("============================= START OF LOG =============================");
 
+    // An event log can be turned on with "--events=<dir>" anywhere in the
+    // arguments. It is removed before the other arguments are read.
+    args = EventLog.enableFromArgs(args);
+
     Uuid id = null;
     Secret secret = null;
     int port = -1;
     // This is the directory where it is safe to store data across runs
     // of the server.
     File persistentPath = null;
-    RemoteAddress relayAddress = null;
+    // The relay is optional. It can be a single relay or, for a relay cluster,
+    // a comma separated list of every node in the cluster. All servers must list
+    // the nodes in the same order.
+    final List<RemoteAddress> relayAddresses = new ArrayList<>();
 
     try {
       id = Uuid.parse(args[0]);
       secret = Secret.parse(args[1]);
       port = Integer.parseInt(args[2]);
       persistentPath = new File(args[3]);
-      relayAddress = args.length > 4 ? RemoteAddress.parse(args[4]) : null;
+      if (args.length > 4) {
+        for (final String address : args[4].split(",")) {
+          relayAddresses.add(RemoteAddress.parse(address.trim()));
+        }
+      }
     } catch (Exception ex) {
       LOG.error(ex, "Failed to read command arguments");
       System.exit(1);
@@ -71,13 +91,15 @@ final class ServerMain {
       System.exit(1);
     }
 
-    try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
-        final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
-    ) {
+    final List<ConnectionSource> relaySources = new ArrayList<>();
+    for (final RemoteAddress address : relayAddresses) {
+      relaySources.add(new ClientConnectionSource(address.host, address.port));
+    }
+
+    try (final ConnectionSource serverSource = ServerConnectionSource.forPort(port)) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      runServer(id, secret, serverSource, relaySources);
 
     } catch (IOException ex) {
 
@@ -89,11 +111,22 @@ final class ServerMain {
   private static void runServer(Uuid id,
                                 Secret secret,
                                 ConnectionSource serverSource,
-                                ConnectionSource relaySource) {
-
-    final Relay relay = relaySource == null ?
-                        new NoOpRelay() :
-                        new RemoteRelay(relaySource);
+                                List<ConnectionSource> relaySources) {
+
+    final Relay relay;
+
+    if (relaySources.isEmpty()) {
+      relay = new NoOpRelay();
+    } else if (relaySources.size() == 1) {
+      relay = new RemoteRelay(relaySources.get(0));
+    } else {
+      final List<Relay> nodes = new ArrayList<>();
+      for (final ConnectionSource source : relaySources) {
+        nodes.add(new RemoteRelay(source));
+      }
+      relay = new ClusterRelay(nodes);
+      LOG.info("Using a relay cluster of %d nodes.", nodes.size());
+    }
 
     final Server server = new Server(id, secret, relay);
 
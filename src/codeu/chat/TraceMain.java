@@ -0,0 +1,144 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import codeu.chat.client.core.Controller;
+import codeu.chat.util.Histogram;
+import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.Spans;
+import codeu.chat.util.connections.ClientConnectionSource;
+
+// TRACE MAIN
+//
+// A small tool for reading the spans recorded for traced requests (see Spans).
+// It asks every given server and relay for its spans, merges them and prints
+// each trace as a timeline of stages. When there is more than one trace it
+// also prints percentiles (in microseconds) for each stage and for the whole
+// trace, from the first stage starting to the last stage ending.
+//
+//   TraceMain <trace | all> <host>@<port> [<host>@<port> ...]
+//
+// The trace is the id in hex. Servers and relays answer the same request, so
+// any mix of them can be listed. Processes sharing one JVM share one span
+// buffer, so spans that come back more than once are only counted once.
+final class TraceMain {
+
+  public static void main(String[] args) {
+
+    if (args.length < 2) {
+      usage();
+      System.exit(1);
+    }
+
+    final long trace;
+    final List<RemoteAddress> addresses = new ArrayList<>();
+
+    try {
+      trace = "all".equals(args[0]) ? 0 : Long.parseUnsignedLong(args[0], 16);
+      for (int i = 1; i < args.length; i++) {
+        addresses.add(RemoteAddress.parse(args[i]));
+      }
+    } catch (Exception ex) {
+      System.err.format("Failed to read arguments: %s\n", ex.getMessage());
+      usage();
+      System.exit(1);
+      return;
+    }
+
+    final Set<Spans.Span> spans = new LinkedHashSet<>();
+
+    for (final RemoteAddress address : addresses) {
+      final Collection<Spans.Span> found =
+          new Controller(new ClientConnectionSource(address.host, address.port)).getSpans(trace);
+      if (found == null) {
+        System.err.format("Failed to get spans from %s\n", address);
+      } else {
+        spans.addAll(found);
+      }
+    }
+
+    final List<Spans.Span> sorted = new ArrayList<>(spans);
+    Collections.sort(sorted, Spans.BY_START);
+
+    // Keep traces in the order that they started.
+    final Map<Long, List<Spans.Span>> traces = new LinkedHashMap<>();
+    for (final Spans.Span span : sorted) {
+      List<Spans.Span> group = traces.get(span.trace);
+      if (group == null) {
+        group = new ArrayList<>();
+        traces.put(span.trace, group);
+      }
+      group.add(span);
+    }
+
+    if (traces.isEmpty()) {
+      System.out.println("No spans found.");
+      return;
+    }
+
+    final Map<Integer, Histogram> stages = new TreeMap<>();
+    final Histogram totals = new Histogram();
+
+    for (final Map.Entry<Long, List<Spans.Span>> entry : traces.entrySet()) {
+
+      final List<Spans.Span> group = entry.getValue();
+      final long first = group.get(0).start;
+
+      long last = first;
+      for (final Spans.Span span : group) {
+        last = Math.max(last, span.start + span.duration);
+
+        Histogram histogram = stages.get(span.stage);
+        if (histogram == null) {
+          histogram = new Histogram();
+          stages.put(span.stage, histogram);
+        }
+        histogram.record(span.duration);
+      }
+
+      totals.record(last - first);
+
+      System.out.format("trace %016x total(us)=%d\n", entry.getKey(), last - first);
+      for (final Spans.Span span : group) {
+        System.out.format("  +%-10d %-13s duration(us)=%d\n",
+                          span.start - first,
+                          Spans.stageName(span.stage),
+                          span.duration);
+      }
+    }
+
+    if (traces.size() > 1) {
+      System.out.println();
+      for (final Map.Entry<Integer, Histogram> entry : stages.entrySet()) {
+        System.out.format("%-13s %s\n", Spans.stageName(entry.getKey()), entry.getValue());
+      }
+      System.out.format("%-13s %s\n", "total", totals);
+    }
+  }
+
+  private static void usage() {
+    System.out.println("usage: TraceMain <trace id in hex | all> <host>@<port> [<host>@<port> ...]");
+  }
+}
@@ -27,6 +27,13 @@ import codeu.chat.util.Uuid;
 
 public final class Chat {
 
+  // The most messages that "m-search" lists.
+  private static final int SEARCH_RESULTS = 20;
+
+  // How many users or conversations "u-search" and "c-search" ask the server
+  // for at a time.
+  private static final int SEARCH_PAGE = 50;
+
   private static File logFile;
   private static PrintWriter pw_log;
 
@@ -35,17 +42,6 @@ public final class Chat {
   //used to access Chat's conversations from outside the user panel
   private UserContext userPanelContext;
 
-  private HashMap<Uuid, Set<Uuid>> userInterestMap = new HashMap<>();
-  private HashMap<Uuid, Set<Uuid>> convoInterestMap = new HashMap<>();
-
-  // Map to enable each user's message counts for followed conversations to be independent
-  private HashMap<Uuid, HashMap<Uuid, Integer>> convoMessageCountsMap = new HashMap<>();
-
-  // Map holding each user's updated conversations for status update
-  private HashMap<Uuid, Set<Uuid>> newConversationsMap = new HashMap<>();
-
-  private HashMap<Uuid, Set<Uuid>> updatedConversationsMap = new HashMap<>();
-
   /**
    * ArrayDeque is a double-ended, self-resizing queue, used
    * to keep track of commands for the transaction log and chat
@@ -170,10 +166,13 @@ public final class Chat {
         System.out.println("    List all users.");
         System.out.println("  u-add <name>");
         System.out.println("    Add a new user with the given name.");
+        System.out.println("  u-search <prefix>");
+        System.out.println("    List users whose names start with the prefix (ignoring case).");
         System.out.println("  u-sign-in <name>");
         System.out.println("    Sign in as the user with the given name.");
-        System.out.println("  info");
-        System.out.println("    Get server version.");
+        System.out.println("  info [stats]");
+        System.out.println("    Get server version. With \"stats\", also show request counts,");
+        System.out.println("    latencies, lanes and relay lag.");
         System.out.println("  exit");
         System.out.println("    Exit the program.");
       }
@@ -196,6 +195,39 @@ public final class Chat {
       }
     });
 
+    // U-SEARCH (search users)
+    //
+    // Add a command to list the users whose names start with some text when
+    // the user enters "u-search" while on the root panel. Users are fetched a
+    // page at a time rather than all at once.
+    //
+    panel.register("u-search", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final String prefix = String.join(" ", args);
+        Uuid after = Uuid.NULL;
+        int found = 0;
+        while (true) {
+          final Collection<User> page = context.searchUsers(prefix, after, SEARCH_PAGE);
+          if (page == null) {
+            System.out.println("ERROR: Failed to search users");
+            return;
+          }
+          for (final User user : page) {
+            System.out.format("USER %s (UUID: %s)\n", user.name, user.id);
+            after = user.id;
+          }
+          found += page.size();
+          if (page.size() < SEARCH_PAGE) {
+            break;
+          }
+        }
+        if (found == 0) {
+          System.out.println("No users found.");
+        }
+      }
+    });
+
     // U-ADD (add user)
     //
     // Add a command to add and sign-in as a new user when the user enters
@@ -262,6 +294,16 @@ public final class Chat {
           System.out.println("Server version: " + info.version.toString());
           System.out.println("Server uptime: " + info.startTime.toString());
         }
+
+        // "info stats" also shows the server's request counts and latencies.
+        if (args.contains("stats")) {
+          final ServerStats stats = context.getStats();
+          if (stats == null) {
+            System.out.println("ERROR: Failed to get server stats.");
+          } else {
+            System.out.print(stats);
+          }
+        }
       }
     });
 
@@ -288,6 +330,8 @@ public final class Chat {
         System.out.println("    List all conversations that the current user can interact with.");
         System.out.println("  c-add <title>");
         System.out.println("    Add a new conversation with the given title and join it as the current user.");
+        System.out.println("  c-search <prefix>");
+        System.out.println("    List conversations whose titles start with the prefix (ignoring case).");
         System.out.println("  c-join <title>");
         System.out.println("    Join the conversation as the current user.");
         System.out.println("  c-interest-list");
@@ -346,11 +390,6 @@ public final class Chat {
           } else {
             panels.push(createConversationPanel(conversation));
 
-            // If this user isn't in the new conversations map, add them with a new Set
-            Set<Uuid> newConversations = newConversationsMap.computeIfAbsent(user.user.id, id -> new HashSet<>());
-            newConversations.add(conversation.conversation.id);
-            newConversationsMap.put(user.user.id, newConversations);
-
             transactionLog.add(String.format("ADD-CONVERSATION %s %s \"%s\" %s",
                     conversation.conversation.id,
                     conversation.conversation.owner,
@@ -364,6 +403,40 @@ public final class Chat {
       }
     });
 
+    // C-SEARCH (search conversations)
+    //
+    // Add a command to list the conversations whose titles start with some
+    // text when the user enters "c-search" while on the user panel.
+    // Conversations are fetched a page at a time rather than all at once.
+    //
+    panel.register("c-search", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final String prefix = String.join(" ", args);
+        Uuid after = Uuid.NULL;
+        int found = 0;
+        while (true) {
+          final Collection<ConversationHeader> page =
+              rootPanelContext.searchConversations(prefix, after, SEARCH_PAGE);
+          if (page == null) {
+            System.out.println("ERROR: Failed to search conversations");
+            return;
+          }
+          for (final ConversationHeader conversation : page) {
+            System.out.format("CONVERSATION %s (UUID: %s)\n", conversation.title, conversation.id);
+            after = conversation.id;
+          }
+          found += page.size();
+          if (page.size() < SEARCH_PAGE) {
+            break;
+          }
+        }
+        if (found == 0) {
+          System.out.println("No conversations found.");
+        }
+      }
+    });
+
     // C-JOIN (join conversation)
     //
     // Add a command that will join a conversation when the user enters
@@ -388,12 +461,7 @@ public final class Chat {
       // Find the first conversation with the given name and return its context.
       // If no conversation has the given name, this will return null.
       private ConversationContext find(String title) {
-        for (final ConversationContext conversation : user.conversations().values()) {
-          if (title.equals(conversation.conversation.title)) {
-            return conversation;
-          }
-        }
-        return null;
+        return rootPanelContext.findConversation(user, title);
       }
     });
 
@@ -405,14 +473,13 @@ public final class Chat {
     panel.register("c-interest-list", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
-        Set<Uuid> interestedConvos = convoInterestMap.get(user.user.id);
-        if(interestedConvos != null){
-          for (final Uuid convoID : interestedConvos) {
-            final ConversationContext conversation = findConversation(convoID);
+        final Interests interests = rootPanelContext.interests().getInterests(user.user.id);
+        if(interests != null){
+          for (final Uuid convoID : interests.conversations) {
             System.out.format(
                     "CONVERSATION %s (UUID: %s)\n",
-                    conversation.conversation.title,
-                    conversation.conversation.id
+                    conversationTitle(convoID),
+                    convoID
             );
           }
         }
@@ -449,12 +516,7 @@ public final class Chat {
       // Find the first conversation with the given name and return its context.
       // If no conversation has the given name, this will return null.
       private ConversationContext findConversation(String title) {
-        for (final ConversationContext conversation : user.conversations().values()) {
-          if (title.equals(conversation.conversation.title)) {
-            return conversation;
-          }
-        }
-        return null;
+        return rootPanelContext.findConversation(user, title);
       }
 
     });
@@ -494,13 +556,13 @@ public final class Chat {
     panel.register("u-interest-list", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
-        if(userInterestMap.get(user.user.id) != null){
-          for (final Uuid userID : userInterestMap.get(user.user.id)) {
-            final UserContext user = findUser(userID);
+        final Interests interests = rootPanelContext.interests().getInterests(user.user.id);
+        if(interests != null){
+          for (final Uuid userID : interests.users) {
             System.out.format(
                     "USER %s (UUID: %s)\n",
-                    user.user.name,
-                    user.user.id
+                    userName(userID),
+                    userID
             );
           }
         }
@@ -574,69 +636,48 @@ public final class Chat {
     panel.register("status-update", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
-        Set<Uuid> followedUsers = userInterestMap.get(user.user.id);
-        Set<Uuid> followedConversations = convoInterestMap.get(user.user.id);
+        // The server counts activity as it happens and starts counting again
+        // after each status update, so this is a single request.
+        final StatusUpdate update = rootPanelContext.interests().statusUpdate(user.user.id);
+
+        if(update == null){
+          System.out.println("ERROR: Failed to get status update");
+          return;
+        }
 
         // If the user follows anyone, print their status
-        if(followedUsers != null && followedUsers.size() > 0){
+        if(update.users.size() > 0){
           System.out.println("============= Followed Users: =============");
 
-          // Iterate through the users and print their new and updated conversations
-          for(Uuid followedUserID : followedUsers){
-            UserContext followedUser = findUser(followedUserID);
-            boolean userActivity = false;
-
-            System.out.format("Name: %s (UUID: %s)\n", followedUser.user.name, followedUser.user.id);
-            System.out.format("\t%s has added and updated these conversations:\n", followedUser.user.name);
-
-            // Iterate through all the conversations this user has and check if they created/updated any
-            for(ConversationContext followedUserConversation : followedUser.conversations().values()) {
-              // If the newConversationsMap has this followed user and this specific conversation, print that they created it
-              if (newConversationsMap.get(followedUserID) != null && newConversationsMap.get(followedUserID).contains(followedUserConversation.conversation.id)) {
-                System.out.format("\t\tCreated: %s (UUID: %s)\n", followedUserConversation.conversation.title, followedUserConversation.conversation.id);
-                newConversationsMap.get(followedUserID).remove(followedUserConversation.conversation.id);
-                userActivity = true;
-              }
-              // If this conversation has a count > 0, print that they updated it
-              if (updatedConversationsMap.get(followedUserID) != null && updatedConversationsMap.get(followedUserID).contains(followedUserConversation.conversation.id)) {
-                System.out.format("\t\tUpdated: %s (UUID: %s)\n", followedUserConversation.conversation.title, followedUserConversation.conversation.id);
-                removeUpdatedConversation(followedUserID, followedUserConversation.conversation.id);
-                userActivity = true;
-              }
-            }
+          // Print each followed user's new and updated conversations
+          for(StatusUpdate.UserActivity activity : update.users){
+            final String name = userName(activity.user);
+
+            System.out.format("Name: %s (UUID: %s)\n", name, activity.user);
+            System.out.format("\t%s has added and updated these conversations:\n", name);
+
+            for(Uuid created : activity.created)
+              System.out.format("\t\tCreated: %s (UUID: %s)\n", conversationTitle(created), created);
+
+            for(Uuid updated : activity.updated)
+              System.out.format("\t\tUpdated: %s (UUID: %s)\n", conversationTitle(updated), updated);
 
             // Specify if the user has no activity
-            if(!userActivity)
+            if(activity.created.isEmpty() && activity.updated.isEmpty())
               System.out.println("\t\tNone.");
           }
         }
 
         // If the user follows any conversations, print their status
-        if(followedConversations != null && followedConversations.size() > 0){
+        if(update.conversations.size() > 0){
           System.out.println("========= Followed Conversations: =========");
 
-          // Iterate through the followed conversations and print their message counts
-          for(Uuid followedConversationID : followedConversations){
-            ConversationContext followedConversation = findConversation(followedConversationID);
-            System.out.format("Name: %s (UUID: %s)\n", followedConversation.conversation.title, followedConversation.conversation.id);
-
-            // Get the message count contributed by ALL users
-            Integer totalMessageCount = (getMessageCount(user.user.id, followedConversationID) == null) ? 0 : getMessageCount(user.user.id, followedConversationID);
-            System.out.format("\tMessages added since last update: %d\n", totalMessageCount);
-
+          // Print the number of messages added by ALL users
+          for(StatusUpdate.ConversationActivity activity : update.conversations){
+            System.out.format("Name: %s (UUID: %s)\n", conversationTitle(activity.conversation), activity.conversation);
+            System.out.format("\tMessages added since last update: %d\n", activity.messages);
           }
         }
-
-        // Reset message count for a fresh new status update
-        HashMap<Uuid, Integer> messageCountsForUser = convoMessageCountsMap.get(user.user.id);
-        if(messageCountsForUser != null){
-          Set<Uuid> conversationsCounts = messageCountsForUser.keySet();
-          for(Uuid convo : conversationsCounts){
-            messageCountsForUser.put(convo, 0);
-            convoMessageCountsMap.put(user.user.id, messageCountsForUser);
-          }
-        }
-
       }
     });
 
@@ -677,6 +718,8 @@ public final class Chat {
         System.out.println("    List all messages in the current conversation.");
         System.out.println("  m-add <message>");
         System.out.println("    Add a new message to the current conversation as the current user.");
+        System.out.println("  m-search <words>");
+        System.out.println("    List the newest messages in the current conversation that contain all the words.");
         System.out.println("  info");
         System.out.println("    Display all info about the current conversation.");
         System.out.println("  back");
@@ -721,12 +764,6 @@ public final class Chat {
         if (message.length() > 0) {
           MessageContext messageContext = conversation.add(message);
 
-          // Increment the message count for every conversation across the board
-          incrementMessageCount(conversation.conversation.id);
-
-          // Only indicate this conversation as updated by THIS user
-          updateConversationsMap(userPanelContext.user.id, conversation.conversation.id);
-
           transactionLog.add(String.format("ADD-MESSAGE %s %s %s \"%s\" %s",
                   messageContext.message.id,
                   messageContext.message.author,
@@ -740,6 +777,35 @@ public final class Chat {
       }
     });
 
+    // M-SEARCH (search messages)
+    //
+    // Add a command to list the newest messages in the current conversation
+    // that contain all the given words when the user enters "m-search" while
+    // on the conversation panel.
+    //
+    panel.register("m-search", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final String query = String.join(" ", args);
+        if (query.trim().isEmpty()) {
+          System.out.println("ERROR: Missing <words>");
+          return;
+        }
+        final Collection<Message> found =
+            rootPanelContext.searchMessages(query, conversation.conversation.id, SEARCH_RESULTS);
+        if (found.isEmpty()) {
+          System.out.println("No messages found.");
+        }
+        for (final Message message : found) {
+          System.out.println();
+          System.out.format("USER : %s\n", message.author);
+          System.out.format("SENT : %s\n", message.creation);
+          System.out.println();
+          System.out.println(message.content);
+        }
+      }
+    });
+
     // INFO
     //
     // Add a command to print info about the current conversation when the user
@@ -760,51 +826,12 @@ public final class Chat {
     return panel;
   }
 
-  private void updateConversationsMap(Uuid user, Uuid convo){
-    Set<Uuid> conversations = updatedConversationsMap.computeIfAbsent(user, convoID -> new HashSet<>());
-
-    conversations.add(convo);
-    updatedConversationsMap.put(user, conversations);
-  }
-
-  private void removeUpdatedConversation(Uuid user, Uuid convo) {
-    if(updatedConversationsMap.containsKey(user) && updatedConversationsMap.get(user) != null){
-      Set<Uuid> conversations = updatedConversationsMap.get(user);
-      conversations.remove(convo);
-      updatedConversationsMap.put(user,conversations);
-    }
-
-  }
-
-  // Increments the message count of a specified conversation of interest
-  // of a specific user.
-  private void incrementMessageCount(Uuid convoID){
-
-    for(UserContext user : rootPanelContext.allUsers().values()){
-      HashMap<Uuid, Integer> convoCount = (convoMessageCountsMap.get(user.user.id) == null) ? new HashMap<>() : convoMessageCountsMap.get(user.user.id);
-      Integer count = (convoCount.get(convoID) == null) ? 0 : convoCount.get(convoID);
-
-      convoCount.put(convoID, count + 1);
-      convoMessageCountsMap.put(user.user.id, convoCount);
-    }
-  }
-
-  // Getter method for conversation message counts in conversations of interest.
-  private Integer getMessageCount(Uuid userID, Uuid convoID){
-    return (convoMessageCountsMap.get(userID) == null) ? 0 : convoMessageCountsMap.get(userID).get(convoID);
-  }
-
   //methods below are helper methods to get a user or conversation from name or Uuid
 
   // Find the first user with the given name and return a user context
   // for that user. If no user is found, the function will return null.
   private UserContext findUser(String name) {
-    for (final UserContext user : rootPanelContext.allUsers().values()) {
-      if (user.user.name.equals(name)) {
-        return user;
-      }
-    }
-    return null;
+    return rootPanelContext.findUser(name);
   }
 
   // Finds the first user with the given Uuid and returns a user context
@@ -816,12 +843,7 @@ public final class Chat {
   // Find the first conversation with the given name and return its context.
   // If no conversation has the given name, this will return null.
   private ConversationContext findConversation(String title) {
-    for (final ConversationContext conversation : userPanelContext.conversations().values()) {
-      if (title.equals(conversation.conversation.title)) {
-        return conversation;
-      }
-    }
-    return null;
+    return rootPanelContext.findConversation(userPanelContext, title);
   }
 
   // Finds the first conversation with the given name and returns its context.
@@ -830,62 +852,45 @@ public final class Chat {
     return userPanelContext.conversations().get(id);
    }
 
-  public void addUserInterest(Uuid userID, Uuid followedUserID){
-    Set<Uuid> userInterest = userInterestMap.computeIfAbsent(userID, followedUser -> new HashSet<>());
+  // Gets the name of a user for printing. Falls back to "?" if the user
+  // cannot be found.
+  private String userName(Uuid id) {
+    final UserContext user = findUser(id);
+    return user == null ? "?" : user.user.name;
+  }
+
+  // Gets the title of a conversation for printing. Falls back to "?" if the
+  // conversation cannot be found.
+  private String conversationTitle(Uuid id) {
+    final ConversationContext conversation = findConversation(id);
+    return conversation == null ? "?" : conversation.conversation.title;
+  }
+
+  // The methods below change the user's interests. Interests are kept on the
+  // server so they are shared by every client the user signs in from.
 
+  public void addUserInterest(Uuid userID, Uuid followedUserID){
     // Check if the user is trying to follow themselves
-    if(userID.id() == followedUserID.id()) {
+    if(Uuid.equals(userID, followedUserID)) {
       System.out.println("ERROR: Cannot add yourself to followed users list!");
       return;
     }
 
-    if(userInterest.contains(followedUserID))
+    if(!rootPanelContext.interests().followUser(userID, followedUserID))
       System.out.println("ERROR: User is already followed!");
-    else {
-      HashMap<Uuid, Integer> followedUserConversations = convoMessageCountsMap.computeIfAbsent(followedUserID, messageCount -> new HashMap<>());
-
-      // Intialize the message count for all of this users conversations to 0
-      for(ConversationContext c : findUser(followedUserID).conversations().values()){
-        followedUserConversations.put(c.conversation.id, 0);
-      }
-
-      convoMessageCountsMap.put(followedUserID, followedUserConversations);
-
-      userInterest.add(followedUserID);
-      userInterestMap.put(userID, userInterest);
-    }
   }
 
   public void addConvoInterest(Uuid userID, Uuid followedConvoID){
-    Set<Uuid> convoInterest = convoInterestMap.computeIfAbsent(userID, followedConvo -> new HashSet<>());
-
-    if(convoInterest.contains(followedConvoID))
-        System.out.println("ERROR: Conversation is already in interest list!");
-    else {
-      convoInterest.add(followedConvoID);
-      convoInterestMap.put(userID, convoInterest);
-
-      HashMap<Uuid, Integer> followedConversations = convoMessageCountsMap.computeIfAbsent(userID, messageCount -> new HashMap<>());
-      followedConversations.put(followedConvoID, 0);
-      convoMessageCountsMap.put(userID, followedConversations);
-    }
+    if(!rootPanelContext.interests().followConversation(userID, followedConvoID))
+      System.out.println("ERROR: Conversation is already in interest list!");
   }
 
   public void removeUserInterest(Uuid userID, Uuid followedUserID){
-    // Only remove the followed user if this user has a Set value mapped to them
-    if(userInterestMap.containsKey(userID))
-      userInterestMap.get(userID).remove(followedUserID);
+    rootPanelContext.interests().unfollowUser(userID, followedUserID);
   }
 
   public void removeConvoInterest(Uuid userID, Uuid convoID){
-    // Only remove the interested convo if the user has a value mapped to them
-    if(convoInterestMap.get(userID) != null && convoMessageCountsMap.get(userID) != null) {
-      convoInterestMap.get(userID).remove(convoID);
-      //stops keeping track of message count
-      convoMessageCountsMap.get(userID).remove(convoID);
-    }
-    else {
+    if(!rootPanelContext.interests().unfollowConversation(userID, convoID))
       System.out.println("ERROR: Conversation was not in interests!");
-    }
   }
 }
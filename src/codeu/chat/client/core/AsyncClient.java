@@ -0,0 +1,604 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Interests;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.StatusUpdate;
+import codeu.chat.common.User;
+import codeu.chat.common.Versions;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Timeline;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Frame;
+
+// ASYNC CLIENT
+//
+// The same requests as View, Controller and BasicInterests, but every call
+// returns straight away with a future for the response. All requests share
+// one connection to the server that is switched into pipelined mode (see
+// Frame) so that many requests can be in flight at once without a connection
+// (and a thread) for each.
+//
+// At most "maxInFlight" requests are sent to the server at once. Requests
+// over that limit wait in order, and once "maxWaiting" requests are waiting
+// new requests fail with a RejectedExecutionException. A request that has
+// not been answered within "timeoutMs" of being sent fails with a
+// TimeoutException. If the connection breaks, every request sent on it fails
+// with an IOException and the next request opens a new connection.
+//
+// Futures are completed on the thread reading from the connection. Work
+// added with "thenApply" and similar runs on that thread too, so it must not
+// block - use the "Async" versions for anything slow.
+public final class AsyncClient implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(AsyncClient.class);
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+  public static final int DEFAULT_MAX_WAITING = 4096;
+  public static final long DEFAULT_TIMEOUT_MS = 30000;
+
+  // Writes the body of a request (everything after the request type).
+  private interface Body {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private static final Body NO_BODY = new Body() {
+    @Override
+    public void write(OutputStream out) { }
+  };
+
+  // CALL
+  //
+  // One request from when it is made until it is answered, times out or fails.
+  private final class Call<T> {
+
+    public final int request;
+    public final Body body;
+    public final int response;
+    public final Serializer<T> serializer;
+
+    public final CompletableFuture<T> future = new CompletableFuture<>();
+    public final AtomicBoolean done = new AtomicBoolean();
+
+    // True once the call has a place in flight, which it must give back when
+    // it finishes. Calls that fail while waiting never had one.
+    public volatile boolean placed;
+
+    public int id;
+    public Link link;
+    public Timeline.Handle timeout;
+
+    public Call(int request, Body body, int response, Serializer<T> serializer) {
+      this.request = request;
+      this.body = body;
+      this.response = response;
+      this.serializer = serializer;
+    }
+
+    public byte[] encode() throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(bytes, request);
+      body.write(bytes);
+      return bytes.toByteArray();
+    }
+
+    public void respond(byte[] bytes) {
+
+      final T value;
+
+      try {
+        final InputStream in = new ByteArrayInputStream(bytes);
+        final int type = Serializers.INTEGER.read(in);
+        if (type != response) {
+          fail(new IOException(String.format(
+              "Expected response %d to request %d but got %d", response, request, type)));
+          return;
+        }
+        value = serializer.read(in);
+      } catch (IOException ex) {
+        fail(ex);
+        return;
+      }
+
+      if (finish()) {
+        future.complete(value);
+      }
+    }
+
+    public void fail(Throwable error) {
+      if (finish()) {
+        future.completeExceptionally(error);
+      }
+    }
+
+    // Mark the call as done and give up its place so that a waiting call can
+    // be sent. Only the first caller gets true.
+    private boolean finish() {
+
+      if (!done.compareAndSet(false, true)) {
+        return false;
+      }
+
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      if (link != null) {
+        link.pending.remove(id, this);
+      }
+
+      if (placed) {
+        release();
+      }
+      return true;
+    }
+  }
+
+  // LINK
+  //
+  // One pipelined connection. The writer thread connects, switches the
+  // connection to pipelining and then writes frames as they are queued. The
+  // reader thread hands each response to the call that is waiting for it.
+  private final class Link {
+
+    public final LinkedBlockingQueue<Frame> outgoing = new LinkedBlockingQueue<>();
+    public final ConcurrentHashMap<Integer, Call<?>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean broken = new AtomicBoolean();
+    private volatile Connection connection;
+
+    private final Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() { write(); }
+    }, "async-client-writer");
+
+    private final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() { read(); }
+    }, "async-client-reader");
+
+    private DataInputStream in;
+
+    public void start() {
+      writer.setDaemon(true);
+      reader.setDaemon(true);
+      writer.start();
+    }
+
+    private void write() {
+      try {
+
+        connection = source.connect();
+
+        final OutputStream out = new BufferedOutputStream(connection.out());
+        Serializers.INTEGER.write(out, NetworkCode.PIPELINE_REQUEST);
+        out.flush();
+
+        in = new DataInputStream(new BufferedInputStream(connection.in()));
+        if (in.readInt() != NetworkCode.PIPELINE_RESPONSE) {
+          throw new IOException("Server does not support pipelined requests");
+        }
+
+        reader.start();
+
+        while (!broken.get()) {
+          final Frame frame = outgoing.take();
+          Frame.write(out, frame.id, frame.bytes);
+          // When requests are arriving quickly, send them together.
+          if (outgoing.isEmpty()) {
+            out.flush();
+          }
+        }
+
+      } catch (InterruptedException ex) {
+        // The link was broken or the client closed.
+      } catch (IOException ex) {
+        LOG.warning("Async client connection failed: %s", ex.getMessage());
+        breakLink(ex);
+      }
+    }
+
+    private void read() {
+      try {
+
+        for (Frame frame = Frame.read(in); frame != null; frame = Frame.read(in)) {
+          final Call<?> call = pending.get(frame.id);
+          if (call != null) {
+            call.respond(frame.bytes);
+          }
+          // Otherwise the call already timed out.
+        }
+
+        breakLink(new IOException("Server closed the connection"));
+
+      } catch (IOException ex) {
+        if (!broken.get()) {
+          LOG.warning("Async client connection failed: %s", ex.getMessage());
+        }
+        breakLink(ex);
+      }
+    }
+
+    // Stop using this connection and fail every call that was sent on it.
+    public void breakLink(Throwable error) {
+
+      if (!broken.compareAndSet(false, true)) {
+        return;
+      }
+
+      synchronized (AsyncClient.this) {
+        if (link == this) {
+          link = null;
+        }
+      }
+
+      writer.interrupt();
+
+      final Connection current = connection;
+      if (current != null) {
+        try {
+          current.close();
+        } catch (IOException ex) {
+          LOG.warning("Failed to close async client connection: %s", ex.getMessage());
+        }
+      }
+
+      for (final Call<?> call : new ArrayList<>(pending.values())) {
+        call.fail(error);
+      }
+    }
+  }
+
+  private final ConnectionSource source;
+  private final int maxInFlight;
+  private final int maxWaiting;
+  private final long timeoutMs;
+
+  // Only used for timeouts. Like the reader and writer, its threads are
+  // daemons so that a client that is never closed does not keep the process
+  // alive.
+  private final Timeline timeline = new Timeline(true);
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  // All guarded by "this".
+  private Link link;
+  private int inFlight = 0;
+  private final ArrayDeque<Call<?>> waiting = new ArrayDeque<>();
+  private boolean closed = false;
+
+  public AsyncClient(ConnectionSource source) {
+    this(source, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_WAITING, DEFAULT_TIMEOUT_MS);
+  }
+
+  public AsyncClient(ConnectionSource source, int maxInFlight, int maxWaiting, long timeoutMs) {
+    this.source = source;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxWaiting = Math.max(0, maxWaiting);
+    this.timeoutMs = Math.max(1, timeoutMs);
+  }
+
+  public CompletableFuture<Collection<User>> getUsers() {
+    return call(NetworkCode.GET_USERS_REQUEST,
+                NO_BODY,
+                NetworkCode.GET_USERS_RESPONSE,
+                Serializers.collection(User.SERIALIZER));
+  }
+
+  public CompletableFuture<Collection<ConversationHeader>> getConversations() {
+    return call(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+                NO_BODY,
+                NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE,
+                Serializers.collection(ConversationHeader.SERIALIZER));
+  }
+
+  public CompletableFuture<Collection<ConversationPayload>> getConversationPayloads(Collection<Uuid> ids) {
+    return call(NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST,
+                idsBody(ids),
+                NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+                Serializers.collection(ConversationPayload.SERIALIZER));
+  }
+
+  public CompletableFuture<Collection<Message>> getMessages(Collection<Uuid> ids) {
+    return call(NetworkCode.GET_MESSAGES_BY_ID_REQUEST,
+                idsBody(ids),
+                NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+                Serializers.collection(Message.SERIALIZER));
+  }
+
+  public CompletableFuture<Collection<Message>> getMessagePage(final Uuid first, final int count) {
+    return call(NetworkCode.GET_MESSAGE_PAGE_REQUEST,
+                new Body() {
+                  @Override
+                  public void write(OutputStream out) throws IOException {
+                    Uuid.SERIALIZER.write(out, first);
+                    Serializers.INTEGER.write(out, count);
+                  }
+                },
+                NetworkCode.GET_MESSAGE_PAGE_RESPONSE,
+                Serializers.collection(Message.SERIALIZER));
+  }
+
+  public CompletableFuture<Versions> getVersions() {
+    return call(NetworkCode.GET_VERSIONS_REQUEST,
+                NO_BODY,
+                NetworkCode.GET_VERSIONS_RESPONSE,
+                Versions.SERIALIZER);
+  }
+
+  public CompletableFuture<Message> newMessage(final Uuid author, final Uuid conversation, final String body) {
+    return call(NetworkCode.NEW_MESSAGE_REQUEST,
+                new Body() {
+                  @Override
+                  public void write(OutputStream out) throws IOException {
+                    Uuid.SERIALIZER.write(out, author);
+                    Uuid.SERIALIZER.write(out, conversation);
+                    Serializers.STRING.write(out, body);
+                  }
+                },
+                NetworkCode.NEW_MESSAGE_RESPONSE,
+                Serializers.nullable(Message.SERIALIZER));
+  }
+
+  public CompletableFuture<User> newUser(final String name) {
+    return call(NetworkCode.NEW_USER_REQUEST,
+                new Body() {
+                  @Override
+                  public void write(OutputStream out) throws IOException {
+                    Serializers.STRING.write(out, name);
+                  }
+                },
+                NetworkCode.NEW_USER_RESPONSE,
+                Serializers.nullable(User.SERIALIZER));
+  }
+
+  public CompletableFuture<ConversationHeader> newConversation(final String title, final Uuid owner) {
+    return call(NetworkCode.NEW_CONVERSATION_REQUEST,
+                new Body() {
+                  @Override
+                  public void write(OutputStream out) throws IOException {
+                    Serializers.STRING.write(out, title);
+                    Uuid.SERIALIZER.write(out, owner);
+                  }
+                },
+                NetworkCode.NEW_CONVERSATION_RESPONSE,
+                Serializers.nullable(ConversationHeader.SERIALIZER));
+  }
+
+  public CompletableFuture<Boolean> followUser(Uuid user, Uuid followed) {
+    return call(NetworkCode.FOLLOW_USER_REQUEST,
+                idsBody(user, followed),
+                NetworkCode.FOLLOW_USER_RESPONSE,
+                Serializers.BOOLEAN);
+  }
+
+  public CompletableFuture<Boolean> unfollowUser(Uuid user, Uuid followed) {
+    return call(NetworkCode.UNFOLLOW_USER_REQUEST,
+                idsBody(user, followed),
+                NetworkCode.UNFOLLOW_USER_RESPONSE,
+                Serializers.BOOLEAN);
+  }
+
+  public CompletableFuture<Boolean> followConversation(Uuid user, Uuid conversation) {
+    return call(NetworkCode.FOLLOW_CONVERSATION_REQUEST,
+                idsBody(user, conversation),
+                NetworkCode.FOLLOW_CONVERSATION_RESPONSE,
+                Serializers.BOOLEAN);
+  }
+
+  public CompletableFuture<Boolean> unfollowConversation(Uuid user, Uuid conversation) {
+    return call(NetworkCode.UNFOLLOW_CONVERSATION_REQUEST,
+                idsBody(user, conversation),
+                NetworkCode.UNFOLLOW_CONVERSATION_RESPONSE,
+                Serializers.BOOLEAN);
+  }
+
+  public CompletableFuture<Interests> getInterests(Uuid user) {
+    return call(NetworkCode.GET_INTERESTS_REQUEST,
+                idsBody(user),
+                NetworkCode.GET_INTERESTS_RESPONSE,
+                Interests.SERIALIZER);
+  }
+
+  public CompletableFuture<StatusUpdate> statusUpdate(Uuid user) {
+    return call(NetworkCode.STATUS_UPDATE_REQUEST,
+                idsBody(user),
+                NetworkCode.STATUS_UPDATE_RESPONSE,
+                StatusUpdate.SERIALIZER);
+  }
+
+  // IN FLIGHT
+  //
+  // The number of requests that have been sent and not yet answered.
+  public synchronized int inFlight() {
+    return inFlight;
+  }
+
+  // WAITING
+  //
+  // The number of requests waiting for a place to be sent.
+  public synchronized int waiting() {
+    return waiting.size();
+  }
+
+  // CLOSE
+  //
+  // Close the connection. Every request that has not been answered fails.
+  @Override
+  public void close() {
+
+    final Link current;
+    final Collection<Call<?>> dropped;
+
+    synchronized (this) {
+      closed = true;
+      current = link;
+      link = null;
+      dropped = new ArrayList<>(waiting);
+      waiting.clear();
+    }
+
+    for (final Call<?> call : dropped) {
+      call.fail(new IOException("Client closed"));
+    }
+
+    if (current != null) {
+      current.breakLink(new IOException("Client closed"));
+    }
+
+    timeline.stop();
+  }
+
+  private <T> CompletableFuture<T> call(int request, Body body, int response, Serializer<T> serializer) {
+
+    final Call<T> call = new Call<>(request, body, response, serializer);
+
+    boolean send = false;
+
+    synchronized (this) {
+      if (closed) {
+        call.future.completeExceptionally(new IOException("Client closed"));
+        return call.future;
+      }
+      if (inFlight < maxInFlight) {
+        inFlight++;
+        send = true;
+      } else if (waiting.size() < maxWaiting) {
+        waiting.add(call);
+      } else {
+        call.future.completeExceptionally(new RejectedExecutionException(String.format(
+            "%d requests in flight and %d waiting", inFlight, waiting.size())));
+        return call.future;
+      }
+    }
+
+    if (send) {
+      send(call);
+    }
+
+    return call.future;
+  }
+
+  // Send a call that already has a place in flight.
+  private void send(final Call<?> call) {
+
+    call.placed = true;
+
+    final byte[] bytes;
+    try {
+      bytes = call.encode();
+    } catch (IOException ex) {
+      call.fail(ex);
+      return;
+    }
+
+    final Link current;
+    synchronized (this) {
+      if (link == null && !closed) {
+        link = new Link();
+        link.start();
+      }
+      current = link;
+    }
+
+    if (current == null) {
+      call.fail(new IOException("Client closed"));
+      return;
+    }
+
+    call.id = nextId.incrementAndGet();
+    call.link = current;
+    current.pending.put(call.id, call);
+
+    call.timeout = timeline.scheduleIn(timeoutMs, new Runnable() {
+      @Override
+      public void run() {
+        call.fail(new TimeoutException(String.format(
+            "No response to request %d within %dms", call.request, timeoutMs)));
+      }
+    });
+
+    current.outgoing.add(new Frame(call.id, bytes));
+
+    // The link may have broken after it was picked and before the call was
+    // added to it, in which case nothing else will fail the call.
+    if (current.broken.get()) {
+      call.fail(new IOException("Connection failed"));
+    }
+  }
+
+  // A call finished, so its place can go to the next waiting call.
+  private void release() {
+
+    final Call<?> next;
+
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) {
+        inFlight--;
+      }
+    }
+
+    if (next != null) {
+      send(next);
+    }
+  }
+
+  private static Body idsBody(final Collection<Uuid> ids) {
+    return new Body() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+      }
+    };
+  }
+
+  private static Body idsBody(final Uuid... ids) {
+    return new Body() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        for (final Uuid id : ids) {
+          Uuid.SERIALIZER.write(out, id);
+        }
+      }
+    };
+  }
+}
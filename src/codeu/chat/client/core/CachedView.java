@@ -0,0 +1,347 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.common.Versions;
+import codeu.chat.util.Uuid;
+
+// CACHED VIEW
+//
+// A view that keeps what it has read from the server so that asking for the
+// same users, conversations and messages again is answered locally. Before
+// answering from the cache, it asks the server for its versions (a few bytes
+// rather than a whole table) and drops anything the server has added to
+// since. Versions are checked at most once every "freshMs" so that a burst of
+// lookups costs at most one check. Call "invalidate" after writing to the
+// server so that the write is seen by the next read.
+//
+// Users and conversations never change once they are made, so they only need
+// to be fetched again when there are new ones. A message only changes when a
+// message is added after it (it gets a "next"), so messages that already have
+// a next are kept when the message version moves and the rest are dropped
+// along with the conversation payloads (whose last message may have moved).
+//
+// Each cache holds at most "maxEntries" entries and drops the least recently
+// used entry when full. The full lists of users and conversations are only
+// kept if they fit.
+public final class CachedView implements BasicView {
+
+  private final BasicView view;
+  private final int maxEntries;
+  private final long freshMs;
+
+  private Versions versions;
+  private long checkedMs;
+  private boolean checkNow = true;
+
+  // Set when the last check could not read the versions (like from a server
+  // that does not know the request). Until "freshMs" has passed, reads go
+  // straight to the server rather than asking for the versions again first.
+  private boolean versionsFailed = false;
+
+  // The full lists as the server last sent them. Null when they need to be
+  // fetched again.
+  private Collection<User> users;
+  private Collection<ConversationHeader> conversations;
+
+  private final Map<Uuid, User> userById;
+  private final Map<Uuid, ConversationHeader> conversationById;
+  private final Map<Uuid, ConversationPayload> payloadById;
+  private final Map<Uuid, Message> messageById;
+
+  public CachedView(BasicView view, int maxEntries, long freshMs) {
+    this.view = view;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.freshMs = Math.max(0, freshMs);
+
+    this.userById = lru(this.maxEntries);
+    this.conversationById = lru(this.maxEntries);
+    this.payloadById = lru(this.maxEntries);
+    this.messageById = lru(this.maxEntries);
+  }
+
+  // INVALIDATE
+  //
+  // Make the next read check the server's versions, even if they were checked
+  // recently.
+  public synchronized void invalidate() {
+    checkNow = true;
+  }
+
+  @Override
+  public synchronized Collection<User> getUsers() {
+
+    if (!refresh()) {
+      return view.getUsers();
+    }
+
+    if (users == null) {
+      final Collection<User> fetched = view.getUsers();
+      for (final User user : fetched) {
+        userById.put(user.id, user);
+      }
+      users = fetched.size() <= maxEntries ? new ArrayList<>(fetched) : null;
+      return fetched;
+    }
+
+    return new ArrayList<>(users);
+  }
+
+  @Override
+  public synchronized Collection<ConversationHeader> getConversations() {
+
+    if (!refresh()) {
+      return view.getConversations();
+    }
+
+    if (conversations == null) {
+      final Collection<ConversationHeader> fetched = view.getConversations();
+      for (final ConversationHeader conversation : fetched) {
+        conversationById.put(conversation.id, conversation);
+      }
+      conversations = fetched.size() <= maxEntries ? new ArrayList<>(fetched) : null;
+      return fetched;
+    }
+
+    return new ArrayList<>(conversations);
+  }
+
+  // FIND USER
+  //
+  // Get a single user by id. If the user is not cached, all users are fetched.
+  // Returns null if there is no such user.
+  public synchronized User findUser(Uuid id) {
+
+    if (refresh()) {
+      final User cached = userById.get(id);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    for (final User user : getUsers()) {
+      if (Uuid.equals(user.id, id)) {
+        return user;
+      }
+    }
+
+    return null;
+  }
+
+  // FIND CONVERSATION
+  //
+  // Get a single conversation header by id. If the conversation is not cached,
+  // all conversations are fetched. Returns null if there is no such
+  // conversation.
+  public synchronized ConversationHeader findConversation(Uuid id) {
+
+    if (refresh()) {
+      final ConversationHeader cached = conversationById.get(id);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    for (final ConversationHeader conversation : getConversations()) {
+      if (Uuid.equals(conversation.id, id)) {
+        return conversation;
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public synchronized Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+
+    if (!refresh()) {
+      return view.getConversationPayloads(ids);
+    }
+
+    final Collection<ConversationPayload> found = new ArrayList<>();
+    final Collection<Uuid> missing = new ArrayList<>();
+
+    for (final Uuid id : ids) {
+      final ConversationPayload cached = payloadById.get(id);
+      if (cached == null) {
+        missing.add(id);
+      } else {
+        found.add(cached);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      for (final ConversationPayload payload : view.getConversationPayloads(missing)) {
+        payloadById.put(payload.id, payload);
+        found.add(payload);
+      }
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized Collection<Message> getMessages(Collection<Uuid> ids) {
+
+    if (!refresh()) {
+      return view.getMessages(ids);
+    }
+
+    final Collection<Message> found = new ArrayList<>();
+    final Collection<Uuid> missing = new ArrayList<>();
+
+    for (final Uuid id : ids) {
+      final Message cached = messageById.get(id);
+      if (cached == null) {
+        missing.add(id);
+      } else {
+        found.add(cached);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      for (final Message message : view.getMessages(missing)) {
+        messageById.put(message.id, message);
+        found.add(message);
+      }
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized Collection<Message> getMessagePage(Uuid first, int count) {
+
+    if (!refresh()) {
+      return view.getMessagePage(first, count);
+    }
+
+    // Use as much of the page as is cached. The page is complete if it reaches
+    // "count" messages or the end of the conversation.
+    final List<Message> page = new ArrayList<>();
+    Uuid next = first;
+
+    while (page.size() < count) {
+      final Message cached = messageById.get(next);
+      if (cached == null) {
+        break;
+      }
+      page.add(cached);
+      if (cached.next == null || Uuid.equals(cached.next, Uuid.NULL)) {
+        return page;
+      }
+      next = cached.next;
+    }
+
+    if (page.size() < count) {
+      for (final Message message : view.getMessagePage(next, count - page.size())) {
+        messageById.put(message.id, message);
+        page.add(message);
+      }
+    }
+
+    return page;
+  }
+
+  @Override
+  public ServerInfo getInfo() {
+    return view.getInfo();
+  }
+
+  @Override
+  public Versions getVersions() {
+    return view.getVersions();
+  }
+
+  // Check the server's versions (unless they were checked recently) and drop
+  // whatever is out of date. Returns false if the versions could not be read,
+  // in which case nothing is cached and the caller should go to the server.
+  // A failed check is not tried again until "freshMs" has passed, even after
+  // "invalidate", as nothing is cached that could be out of date.
+  private boolean refresh() {
+
+    final long now = System.currentTimeMillis();
+
+    if (versionsFailed && now - checkedMs < freshMs) {
+      return false;
+    }
+
+    if (!checkNow && versions != null && now - checkedMs < freshMs) {
+      return true;
+    }
+
+    final Versions latest = view.getVersions();
+
+    checkNow = false;
+    checkedMs = now;
+
+    if (latest == null) {
+      versionsFailed = true;
+      versions = null;
+      users = null;
+      conversations = null;
+      userById.clear();
+      conversationById.clear();
+      payloadById.clear();
+      messageById.clear();
+      return false;
+    }
+
+    versionsFailed = false;
+
+    if (versions == null || latest.users != versions.users) {
+      users = null;
+    }
+
+    if (versions == null || latest.conversations != versions.conversations) {
+      conversations = null;
+    }
+
+    if (versions == null || latest.messages != versions.messages) {
+      payloadById.clear();
+      for (final Iterator<Message> it = messageById.values().iterator(); it.hasNext(); ) {
+        final Message message = it.next();
+        if (message.next == null || Uuid.equals(message.next, Uuid.NULL)) {
+          it.remove();
+        }
+      }
+    }
+
+    versions = latest;
+    return true;
+  }
+
+  private static <K, V> Map<K, V> lru(final int maxEntries) {
+    return new LinkedHashMap<K, V>(16, 0.75f, true /* access order */) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+}
@@ -18,20 +18,71 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 
-import codeu.chat.common.BasicView;
+import codeu.chat.common.BasicController;
+import codeu.chat.common.BasicInterests;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ConnectionSource;
 
 public class Context {
 
-  private final BasicView view;
-  private final Controller controller;
+  // How many users, conversations and messages the client keeps, and how long
+  // (in milliseconds) it trusts them before asking the server if anything is
+  // new.
+  private static final int CACHE_ENTRIES = 4096;
+  private static final long CACHE_FRESH_MS = 500;
+
+  // How many users or conversations to ask the server for at a time when
+  // looking one up by name.
+  private static final int LOOKUP_PAGE = 64;
+
+  private final View server;
+  private final CachedView view;
+  private final BasicController controller;
+  private final BasicInterests interests;
 
   public Context(ConnectionSource source) {
-    this.view = new View(source);
-    this.controller = new Controller(source);
+
+    this.server = new View(source);
+    this.view = new CachedView(server, CACHE_ENTRIES, CACHE_FRESH_MS);
+
+    // Anything this client adds must show up in its next read, so every write
+    // makes the cache check the server's versions again.
+    final Controller remote = new Controller(source);
+    this.interests = remote;
+    this.controller = new BasicController() {
+
+      @Override
+      public Message newMessage(Uuid author, Uuid conversation, String body) {
+        try {
+          return remote.newMessage(author, conversation, body);
+        } finally {
+          view.invalidate();
+        }
+      }
+
+      @Override
+      public User newUser(String name) {
+        try {
+          return remote.newUser(name);
+        } finally {
+          view.invalidate();
+        }
+      }
+
+      @Override
+      public ConversationHeader newConversation(String title, Uuid owner) {
+        try {
+          return remote.newConversation(title, owner);
+        } finally {
+          view.invalidate();
+        }
+      }
+    };
   }
 
   public UserContext create(String name) {
@@ -51,7 +102,117 @@ public class Context {
     return users;
   }
 
+  // FIND USER
+  //
+  // The first user whose name is exactly "name", or null if there is none.
+  // Only users with that name are fetched from the server rather than every
+  // user. If the server cannot search, every user is fetched and searched here.
+  public UserContext findUser(String name) {
+
+    Uuid after = Uuid.NULL;
+
+    while (true) {
+
+      final Collection<User> page = server.searchUsers(name, false, after, LOOKUP_PAGE);
+
+      if (page == null) {
+        for (final UserContext user : allUsers().values()) {
+          if (user.user.name.equals(name)) {
+            return user;
+          }
+        }
+        return null;
+      }
+
+      // The server ignores case so there may be near matches to skip.
+      for (final User user : page) {
+        if (user.name.equals(name)) {
+          return new UserContext(user, view, controller);
+        }
+        after = user.id;
+      }
+
+      if (page.size() < LOOKUP_PAGE) {
+        return null;
+      }
+    }
+  }
+
+  // FIND CONVERSATION
+  //
+  // The first conversation whose title is exactly "title", as seen by "user",
+  // or null if there is none. Looked up in the same way as "findUser".
+  public ConversationContext findConversation(UserContext user, String title) {
+
+    Uuid after = Uuid.NULL;
+
+    while (true) {
+
+      final Collection<ConversationHeader> page =
+          server.searchConversations(title, false, after, LOOKUP_PAGE);
+
+      if (page == null) {
+        for (final ConversationContext conversation : user.conversations().values()) {
+          if (conversation.conversation.title.equals(title)) {
+            return conversation;
+          }
+        }
+        return null;
+      }
+
+      for (final ConversationHeader conversation : page) {
+        if (conversation.title.equals(title)) {
+          return new ConversationContext(user.user, conversation, view, controller);
+        }
+        after = conversation.id;
+      }
+
+      if (page.size() < LOOKUP_PAGE) {
+        return null;
+      }
+    }
+  }
+
+  // SEARCH USERS
+  //
+  // A page of the users whose names start with "prefix", ignoring case, in
+  // name order (see View.searchUsers). Never cached. Returns null if the
+  // server could not be asked.
+  public Collection<User> searchUsers(String prefix, Uuid after, int count) {
+    return server.searchUsers(prefix, true, after, count);
+  }
+
+  // SEARCH CONVERSATIONS
+  //
+  // A page of the conversations whose titles start with "prefix", in the same
+  // way as "searchUsers".
+  public Collection<ConversationHeader> searchConversations(String prefix, Uuid after, int count) {
+    return server.searchConversations(prefix, true, after, count);
+  }
+
+  // INTERESTS
+  //
+  // Follow users and conversations and get status updates about them. The
+  // server keeps the interests, so they are shared by every client.
+  public BasicInterests interests() {
+    return interests;
+  }
+
   public ServerInfo getInfo() {
     return view.getInfo();
   }
+
+  // GET STATS
+  //
+  // How the server is doing. Never cached.
+  public ServerStats getStats() {
+    return server.getStats();
+  }
+
+  // SEARCH MESSAGES
+  //
+  // Search the server's messages (see View.searchMessages). Never cached.
+  public Collection<Message> searchMessages(String query, Uuid conversation, int limit) {
+    return server.searchMessages(query, conversation, limit);
+  }
 }
@@ -17,17 +17,21 @@ package codeu.chat.client.core;
 import java.util.Collection;
 
 import codeu.chat.common.BasicController;
+import codeu.chat.common.BasicInterests;
 import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Interests;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.StatusUpdate;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
+import codeu.chat.util.Spans;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
 
-public class Controller implements BasicController {
+public class Controller implements BasicController, BasicInterests {
 
   private final static Logger.Log LOG = Logger.newLog(Controller.class);
 
@@ -39,11 +43,27 @@ public class Controller implements BasicController {
 
   @Override
   public Message newMessage(Uuid author, Uuid conversation, String body) {
+    return newMessage(author, conversation, body, 0);
+  }
+
+  // NEW MESSAGE
+  //
+  // Add a message as above, traced with the given trace id (see Spans). The
+  // server, relay and every server that reads the message from the relay will
+  // record their stages under the trace. A trace of zero sends the message
+  // untraced. Servers that do not support tracing reject traced messages.
+  public Message newMessage(Uuid author, Uuid conversation, String body, long trace) {
 
     Message response = null;
+    final long start = System.nanoTime();
 
     try (final Connection connection = source.connect()) {
 
+      if (trace != 0) {
+        Serializers.INTEGER.write(connection.out(), NetworkCode.TRACED_REQUEST);
+        Serializers.LONG.write(connection.out(), trace);
+      }
+
       Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_MESSAGE_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), author);
       Uuid.SERIALIZER.write(connection.out(), conversation);
@@ -59,6 +79,33 @@ public class Controller implements BasicController {
       LOG.error(ex, "Exception during call on server.");
     }
 
+    Spans.record(trace, Spans.CLIENT_SEND, start, System.nanoTime());
+
+    return response;
+  }
+
+  // GET SPANS
+  //
+  // Get the spans that the server has recorded for a trace (or for every trace
+  // if the trace is zero). Returns null if the server could not be asked.
+  public Collection<Spans.Span> getSpans(long trace) {
+
+    Collection<Spans.Span> response = null;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_SPANS_REQUEST);
+      Serializers.LONG.write(connection.out(), trace);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_SPANS_RESPONSE) {
+        response = Serializers.collection(Spans.Span.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
     return response;
   }
 
@@ -110,4 +157,107 @@ public class Controller implements BasicController {
 
     return response;
   }
+
+  @Override
+  public boolean followUser(Uuid user, Uuid followed) {
+    return changeInterest(NetworkCode.FOLLOW_USER_REQUEST,
+                          NetworkCode.FOLLOW_USER_RESPONSE,
+                          user,
+                          followed);
+  }
+
+  @Override
+  public boolean unfollowUser(Uuid user, Uuid followed) {
+    return changeInterest(NetworkCode.UNFOLLOW_USER_REQUEST,
+                          NetworkCode.UNFOLLOW_USER_RESPONSE,
+                          user,
+                          followed);
+  }
+
+  @Override
+  public boolean followConversation(Uuid user, Uuid conversation) {
+    return changeInterest(NetworkCode.FOLLOW_CONVERSATION_REQUEST,
+                          NetworkCode.FOLLOW_CONVERSATION_RESPONSE,
+                          user,
+                          conversation);
+  }
+
+  @Override
+  public boolean unfollowConversation(Uuid user, Uuid conversation) {
+    return changeInterest(NetworkCode.UNFOLLOW_CONVERSATION_REQUEST,
+                          NetworkCode.UNFOLLOW_CONVERSATION_RESPONSE,
+                          user,
+                          conversation);
+  }
+
+  @Override
+  public Interests getInterests(Uuid user) {
+
+    Interests response = null;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_INTERESTS_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), user);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_INTERESTS_RESPONSE) {
+        response = Interests.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return response;
+  }
+
+  @Override
+  public StatusUpdate statusUpdate(Uuid user) {
+
+    StatusUpdate response = null;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.STATUS_UPDATE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), user);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.STATUS_UPDATE_RESPONSE) {
+        response = StatusUpdate.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return response;
+  }
+
+  // All four follow and unfollow requests send the user and the thing being
+  // followed, and get back whether anything changed.
+  private boolean changeInterest(int request, int expectedResponse, Uuid user, Uuid target) {
+
+    boolean response = false;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), request);
+      Uuid.SERIALIZER.write(connection.out(), user);
+      Uuid.SERIALIZER.write(connection.out(), target);
+
+      if (Serializers.INTEGER.read(connection.in()) == expectedResponse) {
+        response = Serializers.BOOLEAN.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return response;
+  }
 }
@@ -62,9 +62,17 @@ public final class ConversationContext {
     // a new copy.
     final ConversationPayload updated = getUpdated();
 
-    return updated == null ?
+    if (updated == null) {
+      return null;
+    }
+
+    // Callers walk forward from the first message, so read ahead of them.
+    final MessageStream stream = new MessageStream(view);
+    final Message first = stream.first(updated.firstMessage);
+
+    return first == null ?
         null :
-        getMessage(updated.firstMessage);
+        new MessageContext(first, view, stream);
   }
 
   public MessageContext lastMessage() {
@@ -26,12 +26,27 @@ public final class MessageContext {
   public final Message message;
   private final BasicView view;
 
+  // Set when this message was read as part of walking through a conversation
+  // so that "next" can use the messages that were fetched ahead.
+  private final MessageStream stream;
+
   public MessageContext(Message message, BasicView view) {
+    this(message, view, null);
+  }
+
+  MessageContext(Message message, BasicView view, MessageStream stream) {
     this.message = message;
     this.view = view;
+    this.stream = stream;
   }
 
   public MessageContext next() {
+
+    if (stream != null) {
+      final Message next = stream.next(message);
+      return next == null ? null : new MessageContext(next, view, stream);
+    }
+
     return message.next == null ? null : getMessage(message.next);
   }
 
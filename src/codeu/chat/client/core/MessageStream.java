@@ -0,0 +1,254 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Message;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// MESSAGE STREAM
+//
+// Reads a conversation one message at a time while fetching pages of the
+// messages that come next in the background, so that walking through a
+// conversation does not wait on the server for each message.
+//
+// How far to read ahead is worked out from how quickly messages are being
+// taken and how long a page takes to arrive: there should always be enough
+// messages buffered to cover the time it takes to fetch more. The read ahead
+// is kept between MIN_PAGE and MAX_PAGE messages.
+final class MessageStream {
+
+  private final static Logger.Log LOG = Logger.newLog(MessageStream.class);
+
+  static final int MIN_PAGE = 16;
+  static final int MAX_PAGE = 1024;
+
+  // How much weight new measurements get in the running averages.
+  private static final double SMOOTHING = 0.25;
+
+  // Buffer twice what is needed to cover a fetch so that a slow page does not
+  // leave the reader waiting.
+  private static final double HEADROOM = 2.0;
+
+  // Background fetches run on daemon threads so that a stream that is never
+  // finished does not keep the client running.
+  private static final Executor FETCHER = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "message-prefetch");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final BasicView view;
+
+  // All guarded by "this".
+  private final ArrayDeque<Message> ahead = new ArrayDeque<>();
+  private Uuid fetchFrom;          // first message not yet fetched, NULL at the end
+  private CompletableFuture<Void> fetching;
+
+  private double takeMs = -1;      // average time between takes
+  private double fetchMs = -1;     // average time for a page to arrive
+  private long lastTakeMs = -1;
+
+  MessageStream(BasicView view) {
+    this.view = view;
+  }
+
+  // FIRST
+  //
+  // Fetch the first page starting with the message "first" and return that
+  // message, or null if it cannot be found.
+  synchronized Message first(Uuid first) {
+
+    if (first == null || Uuid.equals(first, Uuid.NULL)) {
+      return null;  // no messages
+    }
+
+    ahead.clear();
+    fetchFrom = first;
+    fetchNow();
+    return take(first);
+  }
+
+  // NEXT
+  //
+  // Get the message after "current". This is normally already buffered.
+  synchronized Message next(Message current) {
+
+    if (current.next == null || Uuid.equals(current.next, Uuid.NULL)) {
+      return null;
+    }
+
+    final long now = System.currentTimeMillis();
+    if (lastTakeMs >= 0) {
+      takeMs = average(takeMs, now - lastTakeMs);
+    }
+    lastTakeMs = now;
+
+    return take(current.next);
+  }
+
+  // READ AHEAD
+  //
+  // The number of messages to keep buffered given what has been measured.
+  synchronized int readAhead() {
+
+    if (takeMs < 0 || fetchMs < 0) {
+      return MIN_PAGE;
+    }
+
+    final double needed = HEADROOM * fetchMs / Math.max(takeMs, 0.01);
+    return (int) Math.max(MIN_PAGE, Math.min(MAX_PAGE, Math.ceil(needed)));
+  }
+
+  // Take the message with the given id from the front of the buffer, waiting
+  // for a fetch if it is still on its way. If the buffer does not start with
+  // that message (the reader jumped somewhere else), start again from it.
+  private Message take(Uuid id) {
+
+    while (true) {
+
+      final Message head = ahead.peekFirst();
+
+      if (head != null && Uuid.equals(head.id, id)) {
+        ahead.pollFirst();
+        prefetch();
+        return head;
+      }
+
+      if (head != null) {
+        ahead.clear();
+        fetchFrom = id;
+      } else if (fetching == null && !Uuid.equals(fetchFrom, id)) {
+        fetchFrom = id;
+      }
+
+      if (fetching != null) {
+        waitForFetch();
+      } else if (fetchFrom != null && !Uuid.equals(fetchFrom, Uuid.NULL)) {
+        fetchNow();
+        if (ahead.isEmpty()) {
+          return null;  // not on the server
+        }
+      } else {
+        return null;
+      }
+    }
+  }
+
+  // Start fetching the next page if fewer messages are buffered than should
+  // be and there are more to get.
+  private void prefetch() {
+
+    if (fetching != null ||
+        fetchFrom == null ||
+        Uuid.equals(fetchFrom, Uuid.NULL) ||
+        ahead.size() >= readAhead()) {
+      return;
+    }
+
+    final Uuid from = fetchFrom;
+    final int count = readAhead();
+
+    fetching = CompletableFuture.runAsync(new Runnable() {
+      @Override
+      public void run() {
+        Collection<Message> page = Collections.emptyList();
+        try {
+          page = fetch(from, count);
+        } finally {
+          fetched(from, page);
+        }
+      }
+    }, FETCHER);
+  }
+
+  private void fetchNow() {
+    final Uuid from = fetchFrom;
+    fetchedLocked(from, fetch(from, readAhead()));
+  }
+
+  private void waitForFetch() {
+
+    final CompletableFuture<Void> waitFor = fetching;
+
+    try {
+      // Let go of the lock so that the fetch can add what it found. The fetch
+      // always clears "fetching" when it is done, even if it failed.
+      while (fetching == waitFor) {
+        wait();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Runs without the lock so that the reader can keep taking buffered
+  // messages while the page is on its way.
+  private Collection<Message> fetch(Uuid from, int count) {
+
+    final long start = System.currentTimeMillis();
+    final Collection<Message> page = view.getMessagePage(from, count);
+
+    synchronized (this) {
+      fetchMs = average(fetchMs, System.currentTimeMillis() - start);
+    }
+
+    return page;
+  }
+
+  private synchronized void fetched(Uuid from, Collection<Message> page) {
+    fetching = null;
+    fetchedLocked(from, page);
+    notifyAll();
+    prefetch();
+  }
+
+  private void fetchedLocked(Uuid from, Collection<Message> page) {
+
+    // The reader may have jumped somewhere else while the page was on its way.
+    if (!Uuid.equals(from, fetchFrom)) {
+      return;
+    }
+
+    Message last = null;
+    for (final Message message : page) {
+      ahead.addLast(message);
+      last = message;
+    }
+
+    if (last == null) {
+      LOG.warning("No messages found starting at %s", from);
+      fetchFrom = Uuid.NULL;
+    } else {
+      fetchFrom = last.next == null ? Uuid.NULL : last.next;
+    }
+  }
+
+  private static double average(double average, double sample) {
+    return average < 0 ? sample : average + SMOOTHING * (sample - average);
+  }
+}
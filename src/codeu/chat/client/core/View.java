@@ -16,9 +16,12 @@ package codeu.chat.client.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import codeu.chat.common.*;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
@@ -36,12 +39,42 @@ public class View implements BasicView {
 
   private final ConnectionSource source;
 
+  // Local copies of the server's users and conversations. Each call only asks
+  // the server for what was added since the last call.
+  private final Replica<User> users = new Replica<User>(
+      NetworkCode.GET_USERS_SINCE_REQUEST,
+      NetworkCode.GET_USERS_SINCE_RESPONSE,
+      Delta.serializer(User.SERIALIZER)) {
+    @Override
+    protected Uuid id(User user) { return user.id; }
+  };
+
+  private final Replica<ConversationHeader> conversations = new Replica<ConversationHeader>(
+      NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE,
+      Delta.serializer(ConversationHeader.SERIALIZER)) {
+    @Override
+    protected Uuid id(ConversationHeader conversation) { return conversation.id; }
+  };
+
   public View(ConnectionSource source) {
     this.source = source;
   }
 
   @Override
   public Collection<User> getUsers() {
+    final Collection<User> replica = users.sync();
+    return replica == null ? getAllUsers() : replica;
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversations() {
+    final Collection<ConversationHeader> replica = conversations.sync();
+    return replica == null ? getAllConversations() : replica;
+  }
+
+  // Get every user from a server that cannot send only what has changed.
+  private Collection<User> getAllUsers() {
 
     final Collection<User> users = new ArrayList<>();
 
@@ -63,8 +96,9 @@ public class View implements BasicView {
     return users;
   }
 
-  @Override
-  public Collection<ConversationHeader> getConversations() {
+  // Get every conversation from a server that cannot send only what has
+  // changed.
+  private Collection<ConversationHeader> getAllConversations() {
 
     final Collection<ConversationHeader> summaries = new ArrayList<>();
 
@@ -132,6 +166,157 @@ public class View implements BasicView {
     return messages;
   }
 
+  @Override
+  public Collection<Message> getMessagePage(Uuid first, int count) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGE_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), first);
+      Serializers.INTEGER.write(connection.out(), count);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGE_PAGE_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  // SEARCH MESSAGES
+  //
+  // Ask the server for the newest messages (newest first) that contain every
+  // word in "query". Pass Uuid.NULL as the conversation to search all
+  // conversations. The server may send back fewer than "limit" messages.
+  public Collection<Message> searchMessages(String query, Uuid conversation, int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Serializers.STRING.write(connection.out(), query);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  // SEARCH USERS
+  //
+  // Ask the server for a page of users by name, ignoring case. If "prefix" is
+  // true, names only need to start with "text". Pass Uuid.NULL as "after" for
+  // the first page and the id of the last user of a page for the next one.
+  // Returns null if the server could not be asked.
+  public Collection<User> searchUsers(String text, boolean prefix, Uuid after, int count) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_USERS_REQUEST);
+      Serializers.STRING.write(connection.out(), text);
+      Serializers.BOOLEAN.write(connection.out(), prefix);
+      Uuid.SERIALIZER.write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), count);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_USERS_RESPONSE) {
+        return Serializers.collection(User.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Server did not handle SEARCH_USERS_REQUEST.");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  // SEARCH CONVERSATIONS
+  //
+  // Ask the server for a page of conversations by title, in the same way as
+  // "searchUsers". Returns null if the server could not be asked.
+  public Collection<ConversationHeader> searchConversations(String text,
+                                                            boolean prefix,
+                                                            Uuid after,
+                                                            int count) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_CONVERSATIONS_REQUEST);
+      Serializers.STRING.write(connection.out(), text);
+      Serializers.BOOLEAN.write(connection.out(), prefix);
+      Uuid.SERIALIZER.write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), count);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_CONVERSATIONS_RESPONSE) {
+        return Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Server did not handle SEARCH_CONVERSATIONS_REQUEST.");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  @Override
+  public Versions getVersions() {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_VERSIONS_REQUEST);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_VERSIONS_RESPONSE) {
+        return Versions.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    // Without versions the caller cannot know if its data is current.
+    return null;
+  }
+
+  // GET STATS
+  //
+  // Ask the server for a snapshot of its request counts, latencies and lanes.
+  // Returns null if the server could not be asked.
+  public ServerStats getStats() {
+
+    try (final Connection connection = this.source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SERVER_STATS_REQUEST);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SERVER_STATS_RESPONSE) {
+        return ServerStats.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Server did not respond with server stats.");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
   public ServerInfo getInfo() {
 
     try (final Connection connection = this.source.connect()) {
@@ -155,4 +340,84 @@ public class View implements BasicView {
     // If we get here it means something went wrong and null should be returned
     return null;
   }
+
+  // REPLICA
+  //
+  // A copy of one of the server's tables that is kept current by asking the
+  // server for the values added since the last sequence number it sent. The
+  // server decides if the copy should be replaced (after a restart) or added
+  // to.
+  private abstract class Replica<T> {
+
+    private final int request;
+    private final int response;
+    private final Serializer<Delta<T>> serializer;
+
+    private final Map<Uuid, T> values = new LinkedHashMap<>();
+    private long epoch = 0;
+    private long sequence = 0;
+
+    // Cleared if the server does not know the request so that it is not
+    // asked again.
+    private boolean supported = true;
+
+    public Replica(int request, int response, Serializer<Delta<T>> serializer) {
+      this.request = request;
+      this.response = response;
+      this.serializer = serializer;
+    }
+
+    protected abstract Uuid id(T value);
+
+    // SYNC
+    //
+    // Bring the copy up to date and return everything in it, oldest first.
+    // Returns null if the server cannot send changes, in which case the caller
+    // must ask for everything.
+    public synchronized Collection<T> sync() {
+
+      if (!supported) {
+        return null;
+      }
+
+      try (final Connection connection = source.connect()) {
+
+        Serializers.INTEGER.write(connection.out(), request);
+        Serializers.LONG.write(connection.out(), epoch);
+        Serializers.LONG.write(connection.out(), sequence);
+
+        final int reply = Serializers.INTEGER.read(connection.in());
+
+        if (reply == response) {
+
+          final Delta<T> delta = serializer.read(connection.in());
+
+          if (delta.complete) {
+            values.clear();
+          }
+          for (final T value : delta.values) {
+            values.put(id(value), value);
+          }
+
+          epoch = delta.epoch;
+          sequence = delta.sequence;
+
+          return new ArrayList<>(values.values());
+
+        } else if (reply == NetworkCode.NO_MESSAGE) {
+          LOG.info("Server cannot send changes (request %d). Fetching everything instead.", request);
+          supported = false;
+          return null;
+        } else {
+          LOG.error("Response from server failed.");
+        }
+
+      } catch (Exception ex) {
+        System.out.println("ERROR: Exception during call on server. Check log for details.");
+        LOG.error(ex, "Exception during call on server.");
+      }
+
+      return new ArrayList<>();
+    }
+  }
 }
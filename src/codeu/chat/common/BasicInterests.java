@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import codeu.chat.util.Uuid;
+
+// BASIC INTERESTS
+//
+// Lets a user follow other users and conversations, and find out what has
+// happened to them. The server keeps the interests and counts activity as it
+// happens so that a status update is a single request.
+public interface BasicInterests {
+
+  // FOLLOW USER
+  //
+  // Start following "followed". Returns false if "user" already follows them,
+  // if they are the same user, or if either user does not exist.
+  boolean followUser(Uuid user, Uuid followed);
+
+  // UNFOLLOW USER
+  //
+  // Stop following "followed". Returns false if "user" did not follow them.
+  boolean unfollowUser(Uuid user, Uuid followed);
+
+  // FOLLOW CONVERSATION
+  //
+  // Start following a conversation. Returns false if "user" already follows
+  // it or if the user or conversation does not exist.
+  boolean followConversation(Uuid user, Uuid conversation);
+
+  // UNFOLLOW CONVERSATION
+  //
+  // Stop following a conversation. Returns false if "user" did not follow it.
+  boolean unfollowConversation(Uuid user, Uuid conversation);
+
+  // GET INTERESTS
+  //
+  // The users and conversations that "user" follows.
+  Interests getInterests(Uuid user);
+
+  // STATUS UPDATE
+  //
+  // Everything that happened to what "user" follows since their last status
+  // update. Asking for a status update starts counting again from zero.
+  StatusUpdate statusUpdate(Uuid user);
+}
@@ -52,9 +52,22 @@ public interface BasicView {
   //   Return all messages whose id is found in the given collection.
   Collection<Message> getMessages(Collection<Uuid> ids);
 
+  // GET MESSAGE PAGE
+  //
+  //   Return up to "count" messages in conversation order, starting with the
+  //   message whose id is "first" and following each message's "next". Fewer
+  //   messages are returned when the end of the conversation is reached.
+  Collection<Message> getMessagePage(Uuid first, int count);
+
   // GET SERVER INFO
   //
   //  Return the current server information
   ServerInfo getInfo();
 
+  // GET VERSIONS
+  //
+  //  Return the current version of the users, conversations and messages. Each
+  //  version changes whenever something of that kind is added.
+  Versions getVersions();
+
 }
@@ -58,8 +58,6 @@ public final class ConversationHeader {
   //reset counter every time "status update" is called
   public int messageCounter;
 
-  public int messageCounter;
-
   public ConversationHeader(Uuid id, Uuid owner, Time creation, String title) {
 
     this.id = id;
@@ -0,0 +1,74 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// DELTA
+//
+// The values that were added to the server after a given point in its change
+// sequence, along with the sequence number to ask from next time. Sequence
+// numbers only mean something within one "epoch" (one run of the server's
+// model). When a client asks with an epoch that is not the server's, it gets
+// every value back and should replace what it has rather than add to it.
+public final class Delta<T> {
+
+  public static <T> Serializer<Delta<T>> serializer(final Serializer<T> serializer) {
+
+    final Serializer<Collection<T>> values = Serializers.collection(serializer);
+
+    return new Serializer<Delta<T>>() {
+
+      @Override
+      public void write(OutputStream out, Delta<T> value) throws IOException {
+        Serializers.LONG.write(out, value.epoch);
+        Serializers.LONG.write(out, value.sequence);
+        Serializers.BOOLEAN.write(out, value.complete);
+        values.write(out, value.values);
+      }
+
+      @Override
+      public Delta<T> read(InputStream in) throws IOException {
+        return new Delta<T>(
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.BOOLEAN.read(in),
+            values.read(in)
+        );
+      }
+    };
+  }
+
+  public final long epoch;
+  public final long sequence;
+
+  // True when "values" is everything rather than only what changed.
+  public final boolean complete;
+
+  public final Collection<T> values;
+
+  public Delta(long epoch, long sequence, boolean complete, Collection<T> values) {
+    this.epoch = epoch;
+    this.sequence = sequence;
+    this.complete = complete;
+    this.values = values;
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// INTERESTS
+//
+// The users and conversations that a user follows.
+public final class Interests {
+
+  public static final Serializer<Interests> SERIALIZER = new Serializer<Interests>() {
+
+    @Override
+    public void write(OutputStream out, Interests value) throws IOException {
+      Serializers.collection(Uuid.SERIALIZER).write(out, value.users);
+      Serializers.collection(Uuid.SERIALIZER).write(out, value.conversations);
+    }
+
+    @Override
+    public Interests read(InputStream in) throws IOException {
+      return new Interests(
+          Serializers.collection(Uuid.SERIALIZER).read(in),
+          Serializers.collection(Uuid.SERIALIZER).read(in)
+      );
+    }
+  };
+
+  public final Collection<Uuid> users;
+  public final Collection<Uuid> conversations;
+
+  public Interests(Collection<Uuid> users, Collection<Uuid> conversations) {
+    this.users = users;
+    this.conversations = conversations;
+  }
+}
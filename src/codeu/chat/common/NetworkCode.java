@@ -14,6 +14,11 @@
 
 package codeu.chat.common;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
 public final class NetworkCode {
 
   public static final int
@@ -37,5 +42,67 @@ public final class NetworkCode {
       RELAY_WRITE_REQUEST = 29,
       RELAY_WRITE_RESPONSE = 30,
       SERVER_INFO_REQUEST = 31,
-      SERVER_INFO_RESPONSE = 32;
+      SERVER_INFO_RESPONSE = 32,
+      RELAY_READ_COMPACT_REQUEST = 33,
+      RELAY_READ_COMPACT_RESPONSE = 34,
+      GET_VERSIONS_REQUEST = 35,
+      GET_VERSIONS_RESPONSE = 36,
+      GET_USERS_SINCE_REQUEST = 37,
+      GET_USERS_SINCE_RESPONSE = 38,
+      GET_CONVERSATIONS_SINCE_REQUEST = 39,
+      GET_CONVERSATIONS_SINCE_RESPONSE = 40,
+      FOLLOW_USER_REQUEST = 41,
+      FOLLOW_USER_RESPONSE = 42,
+      UNFOLLOW_USER_REQUEST = 43,
+      UNFOLLOW_USER_RESPONSE = 44,
+      FOLLOW_CONVERSATION_REQUEST = 45,
+      FOLLOW_CONVERSATION_RESPONSE = 46,
+      UNFOLLOW_CONVERSATION_REQUEST = 47,
+      UNFOLLOW_CONVERSATION_RESPONSE = 48,
+      GET_INTERESTS_REQUEST = 49,
+      GET_INTERESTS_RESPONSE = 50,
+      STATUS_UPDATE_REQUEST = 51,
+      STATUS_UPDATE_RESPONSE = 52,
+      PIPELINE_REQUEST = 53,
+      PIPELINE_RESPONSE = 54,
+      GET_MESSAGE_PAGE_REQUEST = 55,
+      GET_MESSAGE_PAGE_RESPONSE = 56,
+      SERVER_STATS_REQUEST = 57,
+      SERVER_STATS_RESPONSE = 58,
+      TRACED_REQUEST = 59,
+      RELAY_READ_TRACED_REQUEST = 60,
+      RELAY_READ_TRACED_RESPONSE = 61,
+      GET_SPANS_REQUEST = 62,
+      GET_SPANS_RESPONSE = 63,
+      SEARCH_MESSAGES_REQUEST = 64,
+      SEARCH_MESSAGES_RESPONSE = 65,
+      SEARCH_USERS_REQUEST = 66,
+      SEARCH_USERS_RESPONSE = 67,
+      SEARCH_CONVERSATIONS_REQUEST = 68,
+      SEARCH_CONVERSATIONS_RESPONSE = 69;
+
+  // Names for each code, found by looking at the constants above so that the
+  // names can never fall out of step with the codes.
+  private static final Map<Integer, String> NAMES = new HashMap<>();
+
+  static {
+    for (final Field field : NetworkCode.class.getFields()) {
+      if (field.getType() == int.class && Modifier.isStatic(field.getModifiers())) {
+        try {
+          NAMES.put(field.getInt(null), field.getName());
+        } catch (IllegalAccessException ex) {
+          // Public constants can always be read.
+        }
+      }
+    }
+  }
+
+  // NAME
+  //
+  // The name of a code (like "NEW_MESSAGE_REQUEST"), or the number if it is
+  // not a known code.
+  public static String name(int code) {
+    final String name = NAMES.get(code);
+    return name == null ? Integer.toString(code) : name;
+  }
 }
@@ -102,6 +102,13 @@ public interface Relay {
     // the relay.
     Component message();
 
+    // TRACE
+    //
+    // The trace id that the message was written to the relay with, or zero if
+    // it was not traced (see Spans). Relays that do not know about traces
+    // always return zero.
+    default long trace() { return 0; }
+
   }
 
   // PACK
@@ -123,6 +130,20 @@ public interface Relay {
                 Bundle.Component conversation,
                 Bundle.Component message);
 
+  // WRITE
+  //
+  // Write a message as above, carrying a trace id along with it so that the
+  // time spent in the relay can be recorded against the trace (see Spans).
+  // Relays that do not support traces write the message untraced.
+  default boolean write(Uuid teamId,
+                        Secret teamSecret,
+                        Bundle.Component user,
+                        Bundle.Component conversation,
+                        Bundle.Component message,
+                        long trace) {
+    return write(teamId, teamSecret, user, conversation, message);
+  }
+
   // READ
   //
   // Read a series of bundles from the relay. Given a Uuid as the starting point
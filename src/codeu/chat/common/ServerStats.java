@@ -0,0 +1,346 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Histogram;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+
+// SERVER STATS
+//
+// A snapshot of what the server has been doing since it started: how many of
+// each request it has handled and how long they took, how many connections it
+// has accepted, how far behind each of its lanes is and how well it is keeping
+// up with the relay. All times are in microseconds unless the name says
+// otherwise.
+public final class ServerStats {
+
+  // LATENCY
+  //
+  // The summary of a histogram.
+  public static final class Latency {
+
+    public static final Serializer<Latency> SERIALIZER = new Serializer<Latency>() {
+
+      @Override
+      public void write(OutputStream out, Latency value) throws IOException {
+        Serializers.LONG.write(out, value.count);
+        Serializers.LONG.write(out, value.mean);
+        Serializers.LONG.write(out, value.p50);
+        Serializers.LONG.write(out, value.p90);
+        Serializers.LONG.write(out, value.p99);
+        Serializers.LONG.write(out, value.max);
+      }
+
+      @Override
+      public Latency read(InputStream in) throws IOException {
+        return new Latency(
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in)
+        );
+      }
+    };
+
+    public final long count;
+    public final long mean;
+    public final long p50;
+    public final long p90;
+    public final long p99;
+    public final long max;
+
+    public Latency(long count, long mean, long p50, long p90, long p99, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    public static Latency of(Histogram histogram) {
+      return new Latency(histogram.count(),
+                         histogram.mean(),
+                         histogram.percentile(50),
+                         histogram.percentile(90),
+                         histogram.percentile(99),
+                         histogram.max());
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%d p50=%d p90=%d p99=%d max=%d",
+                           count, mean, p50, p90, p99, max);
+    }
+  }
+
+  // COMMAND
+  //
+  // How many requests of one type (a NetworkCode) were handled, how many of
+  // them failed and how long they took.
+  public static final class Command {
+
+    public static final Serializer<Command> SERIALIZER = new Serializer<Command>() {
+
+      @Override
+      public void write(OutputStream out, Command value) throws IOException {
+        Serializers.INTEGER.write(out, value.code);
+        Serializers.LONG.write(out, value.errors);
+        Latency.SERIALIZER.write(out, value.latency);
+      }
+
+      @Override
+      public Command read(InputStream in) throws IOException {
+        return new Command(
+            Serializers.INTEGER.read(in),
+            Serializers.LONG.read(in),
+            Latency.SERIALIZER.read(in)
+        );
+      }
+    };
+
+    public final int code;
+    public final long errors;
+    public final Latency latency;
+
+    public Command(int code, long errors, Latency latency) {
+      this.code = code;
+      this.errors = errors;
+      this.latency = latency;
+    }
+  }
+
+  // LANE
+  //
+  // How one of the server's timeline lanes is keeping up: how many events are
+  // waiting, how late events started (lag) and how long they ran.
+  public static final class Lane {
+
+    public static final Serializer<Lane> SERIALIZER = new Serializer<Lane>() {
+
+      @Override
+      public void write(OutputStream out, Lane value) throws IOException {
+        Serializers.STRING.write(out, value.name);
+        Serializers.INTEGER.write(out, value.depth);
+        Latency.SERIALIZER.write(out, value.lag);
+        Latency.SERIALIZER.write(out, value.runTime);
+      }
+
+      @Override
+      public Lane read(InputStream in) throws IOException {
+        return new Lane(
+            Serializers.STRING.read(in),
+            Serializers.INTEGER.read(in),
+            Latency.SERIALIZER.read(in),
+            Latency.SERIALIZER.read(in)
+        );
+      }
+    };
+
+    public final String name;
+    public final int depth;
+    public final Latency lag;
+    public final Latency runTime;
+
+    public Lane(String name, int depth, Latency lag, Latency runTime) {
+      this.name = name;
+      this.depth = depth;
+      this.lag = lag;
+      this.runTime = runTime;
+    }
+  }
+
+  // MEMORY
+  //
+  // How many entries one part of the model holds and roughly how many bytes of
+  // heap they take.
+  public static final class Memory {
+
+    public static final Serializer<Memory> SERIALIZER = new Serializer<Memory>() {
+
+      @Override
+      public void write(OutputStream out, Memory value) throws IOException {
+        Serializers.STRING.write(out, value.name);
+        Serializers.LONG.write(out, value.count);
+        Serializers.LONG.write(out, value.bytes);
+      }
+
+      @Override
+      public Memory read(InputStream in) throws IOException {
+        return new Memory(
+            Serializers.STRING.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in)
+        );
+      }
+    };
+
+    public final String name;
+    public final long count;
+    public final long bytes;
+
+    public Memory(String name, long count, long bytes) {
+      this.name = name;
+      this.count = count;
+      this.bytes = bytes;
+    }
+  }
+
+  public static final Serializer<ServerStats> SERIALIZER = new Serializer<ServerStats>() {
+
+    @Override
+    public void write(OutputStream out, ServerStats value) throws IOException {
+      Time.SERIALIZER.write(out, value.startTime);
+      Time.SERIALIZER.write(out, value.time);
+      Serializers.LONG.write(out, value.connections);
+      Serializers.LONG.write(out, value.connectionsLastMinute);
+      Serializers.collection(Command.SERIALIZER).write(out, value.commands);
+      Serializers.collection(Lane.SERIALIZER).write(out, value.lanes);
+      Serializers.LONG.write(out, value.relayPollErrors);
+      Serializers.LONG.write(out, value.relaySendErrors);
+      Serializers.LONG.write(out, value.relayLastReadMs);
+      Latency.SERIALIZER.write(out, value.relayPoll);
+      Latency.SERIALIZER.write(out, value.relaySend);
+      Latency.SERIALIZER.write(out, value.relayDelay);
+      Serializers.collection(Memory.SERIALIZER).write(out, value.memory);
+    }
+
+    @Override
+    public ServerStats read(InputStream in) throws IOException {
+      return new ServerStats(
+          Time.SERIALIZER.read(in),
+          Time.SERIALIZER.read(in),
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Serializers.collection(Command.SERIALIZER).read(in),
+          Serializers.collection(Lane.SERIALIZER).read(in),
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Latency.SERIALIZER.read(in),
+          Latency.SERIALIZER.read(in),
+          Latency.SERIALIZER.read(in),
+          Serializers.collection(Memory.SERIALIZER).read(in)
+      );
+    }
+  };
+
+  public final Time startTime;
+  public final Time time;  // when the snapshot was taken
+
+  // Connections accepted since the server started and in the last minute.
+  public final long connections;
+  public final long connectionsLastMinute;
+
+  public final Collection<Command> commands;
+  public final Collection<Lane> lanes;
+
+  // Relay reads and writes that failed, how long ago (in milliseconds) the
+  // relay was last read without an error (-1 if never), how long reads and
+  // writes took and how long after being written to the relay each message
+  // was added here (the relay sync lag).
+  public final long relayPollErrors;
+  public final long relaySendErrors;
+  public final long relayLastReadMs;
+  public final Latency relayPoll;
+  public final Latency relaySend;
+  public final Latency relayDelay;
+
+  // What the model holds: each kind of entity and each index over them.
+  public final Collection<Memory> memory;
+
+  public ServerStats(Time startTime,
+                     Time time,
+                     long connections,
+                     long connectionsLastMinute,
+                     Collection<Command> commands,
+                     Collection<Lane> lanes,
+                     long relayPollErrors,
+                     long relaySendErrors,
+                     long relayLastReadMs,
+                     Latency relayPoll,
+                     Latency relaySend,
+                     Latency relayDelay,
+                     Collection<Memory> memory) {
+
+    this.startTime = startTime;
+    this.time = time;
+    this.connections = connections;
+    this.connectionsLastMinute = connectionsLastMinute;
+    this.commands = commands;
+    this.lanes = lanes;
+    this.relayPollErrors = relayPollErrors;
+    this.relaySendErrors = relaySendErrors;
+    this.relayLastReadMs = relayLastReadMs;
+    this.relayPoll = relayPoll;
+    this.relaySend = relaySend;
+    this.relayDelay = relayDelay;
+    this.memory = memory;
+  }
+
+  @Override
+  public String toString() {
+
+    final StringBuilder builder = new StringBuilder();
+
+    builder.append(String.format("Up since %s (snapshot at %s)\n", startTime, time));
+    builder.append(String.format("Connections: %d total, %.2f/s over the last minute\n",
+                                 connections,
+                                 connectionsLastMinute / 60.0));
+
+    builder.append("Requests (us):\n");
+    for (final Command command : commands) {
+      builder.append(String.format("  %-36s errors=%d %s\n",
+                                   NetworkCode.name(command.code),
+                                   command.errors,
+                                   command.latency));
+    }
+
+    builder.append("Lanes (us):\n");
+    for (final Lane lane : lanes) {
+      builder.append(String.format("  %-12s depth=%d lag[%s] run[%s]\n",
+                                   lane.name,
+                                   lane.depth,
+                                   lane.lag,
+                                   lane.runTime));
+    }
+
+    builder.append(String.format("Relay: last read %s, %d read errors, %d write errors\n",
+                                 relayLastReadMs < 0 ? "never" : relayLastReadMs + "ms ago",
+                                 relayPollErrors,
+                                 relaySendErrors));
+    builder.append(String.format("  read (us)  %s\n", relayPoll));
+    builder.append(String.format("  write (us) %s\n", relaySend));
+    builder.append(String.format("  lag (us)   %s\n", relayDelay));
+
+    long totalBytes = 0;
+    builder.append("Memory (estimated):\n");
+    for (final Memory entry : memory) {
+      builder.append(String.format("  %-22s count=%-10d bytes=%d\n", entry.name, entry.count, entry.bytes));
+      totalBytes += entry.bytes;
+    }
+    builder.append(String.format("  %-22s %-16s bytes=%d\n", "total", "", totalBytes));
+
+    return builder.toString();
+  }
+}
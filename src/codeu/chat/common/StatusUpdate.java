@@ -0,0 +1,123 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// STATUS UPDATE
+//
+// What happened to the users and conversations that a user follows since the
+// last time they asked. There is an entry for everything they follow, even if
+// nothing happened to it.
+public final class StatusUpdate {
+
+  // USER ACTIVITY
+  //
+  // The conversations that a followed user created and the conversations they
+  // added messages to.
+  public static final class UserActivity {
+
+    public static final Serializer<UserActivity> SERIALIZER = new Serializer<UserActivity>() {
+
+      @Override
+      public void write(OutputStream out, UserActivity value) throws IOException {
+        Uuid.SERIALIZER.write(out, value.user);
+        Serializers.collection(Uuid.SERIALIZER).write(out, value.created);
+        Serializers.collection(Uuid.SERIALIZER).write(out, value.updated);
+      }
+
+      @Override
+      public UserActivity read(InputStream in) throws IOException {
+        return new UserActivity(
+            Uuid.SERIALIZER.read(in),
+            Serializers.collection(Uuid.SERIALIZER).read(in),
+            Serializers.collection(Uuid.SERIALIZER).read(in)
+        );
+      }
+    };
+
+    public final Uuid user;
+    public final Collection<Uuid> created;
+    public final Collection<Uuid> updated;
+
+    public UserActivity(Uuid user, Collection<Uuid> created, Collection<Uuid> updated) {
+      this.user = user;
+      this.created = created;
+      this.updated = updated;
+    }
+  }
+
+  // CONVERSATION ACTIVITY
+  //
+  // The number of messages added to a followed conversation.
+  public static final class ConversationActivity {
+
+    public static final Serializer<ConversationActivity> SERIALIZER = new Serializer<ConversationActivity>() {
+
+      @Override
+      public void write(OutputStream out, ConversationActivity value) throws IOException {
+        Uuid.SERIALIZER.write(out, value.conversation);
+        Serializers.INTEGER.write(out, value.messages);
+      }
+
+      @Override
+      public ConversationActivity read(InputStream in) throws IOException {
+        return new ConversationActivity(
+            Uuid.SERIALIZER.read(in),
+            Serializers.INTEGER.read(in)
+        );
+      }
+    };
+
+    public final Uuid conversation;
+    public final int messages;
+
+    public ConversationActivity(Uuid conversation, int messages) {
+      this.conversation = conversation;
+      this.messages = messages;
+    }
+  }
+
+  public static final Serializer<StatusUpdate> SERIALIZER = new Serializer<StatusUpdate>() {
+
+    @Override
+    public void write(OutputStream out, StatusUpdate value) throws IOException {
+      Serializers.collection(UserActivity.SERIALIZER).write(out, value.users);
+      Serializers.collection(ConversationActivity.SERIALIZER).write(out, value.conversations);
+    }
+
+    @Override
+    public StatusUpdate read(InputStream in) throws IOException {
+      return new StatusUpdate(
+          Serializers.collection(UserActivity.SERIALIZER).read(in),
+          Serializers.collection(ConversationActivity.SERIALIZER).read(in)
+      );
+    }
+  };
+
+  public final Collection<UserActivity> users;
+  public final Collection<ConversationActivity> conversations;
+
+  public StatusUpdate(Collection<UserActivity> users, Collection<ConversationActivity> conversations) {
+    this.users = users;
+    this.conversations = conversations;
+  }
+}
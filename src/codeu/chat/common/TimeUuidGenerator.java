@@ -0,0 +1,185 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.util.Uuid;
+
+// Create new uuids that are unique and come out in the order they were made.
+// Each id is a 63 bit value made of:
+//
+//   [ 41 bits ] milliseconds since EPOCH (good for about 69 years)
+//   [ 10 bits ] worker - one per thread that makes ids
+//   [ 12 bits ] sequence - counts ids made by the worker in that millisecond
+//
+// Every thread gets its own worker and keeps its own time and sequence, so
+// making an id never waits on another thread and two threads can never make
+// the same id. When a worker makes more than 4096 ids in one millisecond it
+// moves on to the next millisecond rather than waiting for the clock, and if
+// the clock goes backwards it keeps counting from where it was, so a worker's
+// ids only ever go up.
+//
+// Worker ids are never handed back, as there is no cheap way to know when a
+// thread is done. Once all but the last worker id are taken, every later
+// thread shares the last one, keeping its time and sequence in one atomic
+// value that is moved on with compare-and-set. Those threads can wait on each
+// other but never fail to make an id.
+//
+// The value is split over two links under the common root. Ids are compared
+// last link first (see the server's model), so the high half goes last and the
+// low half, with its sign bit flipped so that it compares as unsigned, goes in
+// the middle:
+//
+//   [ root ][ low 32 bits ^ 0x80000000 ][ high 31 bits ]
+//
+// That way a newer id from the same generator always compares as greater, and
+// ids can be used as cursors.
+public final class TimeUuidGenerator implements Uuid.Generator {
+
+  // 2017-01-01T00:00:00Z
+  public static final long EPOCH = 1483228800000L;
+
+  private static final int WORKER_BITS = 10;
+  private static final int SEQUENCE_BITS = 12;
+
+  private static final int MAX_WORKERS = 1 << WORKER_BITS;
+  private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+  // The worker id used by all threads after the first MAX_WORKERS - 1.
+  private static final int SHARED_WORKER = MAX_WORKERS - 1;
+
+  private static final class Worker {
+
+    public final long id;
+    public long millis = -1;
+    public int sequence = 0;
+
+    public Worker(long id) {
+      this.id = id;
+    }
+  }
+
+  private final Uuid commonRoot;
+  private final AtomicInteger nextWorker = new AtomicInteger();
+
+  // The last value made by the shared worker, or -1 before the first.
+  private final AtomicLong shared = new AtomicLong(-1);
+
+  // Threads past the first MAX_WORKERS - 1 get null and use "shared".
+  private final ThreadLocal<Worker> worker = new ThreadLocal<Worker>() {
+    @Override
+    protected Worker initialValue() {
+      int id;
+      do {
+        id = nextWorker.get();
+        if (id >= SHARED_WORKER) {
+          return null;
+        }
+      } while (!nextWorker.compareAndSet(id, id + 1));
+      return new Worker(id);
+    }
+  };
+
+  public TimeUuidGenerator(Uuid root) {
+    this.commonRoot = root;
+  }
+
+  @Override
+  public Uuid make() {
+    return toUuid(commonRoot, next());
+  }
+
+  // NEXT
+  //
+  // Make the next value for the calling thread.
+  long next() {
+
+    final Worker current = worker.get();
+
+    if (current == null) {
+      return nextShared();
+    }
+
+    final long now = System.currentTimeMillis() - EPOCH;
+
+    if (now > current.millis) {
+      current.millis = now;
+      current.sequence = 0;
+    } else if (current.sequence < MAX_SEQUENCE) {
+      current.sequence++;
+    } else {
+      current.millis++;
+      current.sequence = 0;
+    }
+
+    return value(current.millis, current.id, current.sequence);
+  }
+
+  // NEXT SHARED
+  //
+  // Make the next value for the shared worker. This follows the same rules as
+  // a thread's own worker, but on the last value made so that threads sharing
+  // the worker never make the same value.
+  private long nextShared() {
+
+    while (true) {
+
+      final long last = shared.get();
+      final long now = System.currentTimeMillis() - EPOCH;
+
+      final long lastMillis = last < 0 ? -1 : last >>> (WORKER_BITS + SEQUENCE_BITS);
+      final int lastSequence = (int) (last & MAX_SEQUENCE);
+
+      final long next;
+      if (now > lastMillis) {
+        next = value(now, SHARED_WORKER, 0);
+      } else if (lastSequence < MAX_SEQUENCE) {
+        next = value(lastMillis, SHARED_WORKER, lastSequence + 1);
+      } else {
+        next = value(lastMillis + 1, SHARED_WORKER, 0);
+      }
+
+      if (shared.compareAndSet(last, next)) {
+        return next;
+      }
+    }
+  }
+
+  private static long value(long millis, long worker, int sequence) {
+    return (millis << (WORKER_BITS + SEQUENCE_BITS)) |
+           (worker << SEQUENCE_BITS) |
+           sequence;
+  }
+
+  // MILLIS
+  //
+  // Get the time (since the Java epoch) that an id from this generator was
+  // made.
+  public static long millis(Uuid id) {
+    return (toValue(id) >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+  }
+
+  static Uuid toUuid(Uuid root, long value) {
+    return new Uuid(new Uuid(root, (int) value ^ Integer.MIN_VALUE), (int) (value >>> 32));
+  }
+
+  static long toValue(Uuid id) {
+    final long high = id.id();
+    final long low = (id.root().id() ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    return (high << 32) | low;
+  }
+}
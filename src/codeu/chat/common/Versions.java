@@ -0,0 +1,60 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// VERSIONS
+//
+// Counters that the server moves forward each time a user, conversation or
+// message is added. A client that has cached data can ask for the versions
+// (which is only a few bytes) and only fetch the data again when the matching
+// version has moved.
+public final class Versions {
+
+  public static final Serializer<Versions> SERIALIZER = new Serializer<Versions>() {
+
+    @Override
+    public void write(OutputStream out, Versions value) throws IOException {
+      Serializers.LONG.write(out, value.users);
+      Serializers.LONG.write(out, value.conversations);
+      Serializers.LONG.write(out, value.messages);
+    }
+
+    @Override
+    public Versions read(InputStream in) throws IOException {
+      return new Versions(
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in)
+      );
+    }
+  };
+
+  public final long users;
+  public final long conversations;
+  public final long messages;
+
+  public Versions(long users, long conversations, long messages) {
+    this.users = users;
+    this.conversations = conversations;
+    this.messages = messages;
+  }
+}
@@ -0,0 +1,425 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.server.RemoteRelay;
+import codeu.chat.util.Histogram;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Spans;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// LOAD GENERATOR
+//
+// Puts a chat server (and optionally a relay) under load and measures how long
+// each request takes. It speaks the wire protocol directly, rather than going
+// through the client's views, so that what is measured is the server and the
+// network and not the client's caches.
+//
+// "setup" makes the users and conversations that the load will use. "run" then
+// starts a number of threads that each make one request at a time (a closed
+// loop), picking each request from the mix. Requests made during the warm up
+// are not measured so that class loading and JIT compiling do not end up in
+// the numbers. Failed requests are counted but their times are not recorded.
+public final class LoadGenerator {
+
+  private final static Logger.Log LOG = Logger.newLog(LoadGenerator.class);
+
+  // How many recently sent messages to remember for "read" to ask for, and how
+  // many of them each "read" asks for.
+  private static final int RECENT_MESSAGES = 4096;
+  private static final int READ_COUNT = 8;
+
+  // How many bundles each "relay-read" asks for.
+  private static final int RELAY_READ_RANGE = 16;
+
+  // REPORT
+  //
+  // What happened during the measured part of a run. Latencies are in
+  // microseconds.
+  public static final class Report {
+
+    public final long elapsedMs;
+    public final Map<Mix.Operation, Histogram> latencies;
+    public final Map<Mix.Operation, Long> errors;
+
+    Report(long elapsedMs, Map<Mix.Operation, Histogram> latencies, Map<Mix.Operation, Long> errors) {
+      this.elapsedMs = elapsedMs;
+      this.latencies = latencies;
+      this.errors = errors;
+    }
+
+    // THROUGHPUT
+    //
+    // Successful requests per second for one operation, or for all operations
+    // when "operation" is null.
+    public double throughput(Mix.Operation operation) {
+      long count = 0;
+      for (final Map.Entry<Mix.Operation, Histogram> entry : latencies.entrySet()) {
+        if (operation == null || operation == entry.getKey()) {
+          count += entry.getValue().count();
+        }
+      }
+      return elapsedMs == 0 ? 0 : count * 1000.0 / elapsedMs;
+    }
+
+    @Override
+    public String toString() {
+
+      final StringBuilder builder = new StringBuilder();
+
+      builder.append(String.format("%-12s %10s %10s %10s %10s %10s %10s %8s\n",
+                                   "operation", "count", "ops/s", "p50(us)", "p90(us)", "p99(us)", "max(us)", "errors"));
+
+      long errorTotal = 0;
+      for (final Map.Entry<Mix.Operation, Histogram> entry : latencies.entrySet()) {
+        final Histogram histogram = entry.getValue();
+        final long errorCount = errors.get(entry.getKey());
+        errorTotal += errorCount;
+        builder.append(String.format("%-12s %10d %10.1f %10d %10d %10d %10d %8d\n",
+                                     entry.getKey().label,
+                                     histogram.count(),
+                                     throughput(entry.getKey()),
+                                     histogram.percentile(50),
+                                     histogram.percentile(90),
+                                     histogram.percentile(99),
+                                     histogram.max(),
+                                     errorCount));
+      }
+
+      builder.append(String.format("total %.1f ops/s over %.1f seconds, %d errors\n",
+                                   throughput(null),
+                                   elapsedMs / 1000.0,
+                                   errorTotal));
+
+      return builder.toString();
+    }
+  }
+
+  private final ConnectionSource server;
+  private final RemoteRelay relay;
+  private final Uuid teamId;
+  private final Secret teamSecret;
+  private final Mix mix;
+
+  private final List<User> users = new ArrayList<>();
+  private final List<ConversationHeader> conversations = new ArrayList<>();
+
+  // The last RECENT_MESSAGES messages sent, written round and round by all
+  // threads. Slots that have not been written yet are null.
+  private final AtomicReferenceArray<Uuid> recent = new AtomicReferenceArray<>(RECENT_MESSAGES);
+  private final AtomicLong sent = new AtomicLong();
+
+  // Sends are counted separately from "sent" (which only counts messages that
+  // were made) so that tracing picks every nth attempt.
+  private final AtomicLong attempts = new AtomicLong();
+  private volatile int traceEvery = 0;
+
+  // The last bundle each thread read from the relay. Each "relay-read" asks
+  // for what came after it, the way a server polls the relay.
+  private final ThreadLocal<Uuid> relayRoot = new ThreadLocal<Uuid>() {
+    @Override
+    protected Uuid initialValue() { return Uuid.NULL; }
+  };
+
+  // LOAD GENERATOR
+  //
+  // "relay", "teamId" and "teamSecret" may be null if the mix has no relay
+  // operations.
+  public LoadGenerator(ConnectionSource server,
+                       ConnectionSource relay,
+                       Uuid teamId,
+                       Secret teamSecret,
+                       Mix mix) {
+
+    if (mix.usesRelay() && (relay == null || teamId == null || teamSecret == null)) {
+      throw new IllegalArgumentException("The mix uses the relay but no relay or team was given");
+    }
+
+    this.server = server;
+    this.relay = relay == null ? null : new RemoteRelay(relay);
+    this.teamId = teamId;
+    this.teamSecret = teamSecret;
+    this.mix = mix;
+  }
+
+  // TRACE EVERY
+  //
+  // Trace one in every "every" sends (see Spans) so that the time each stage
+  // took can be fetched afterwards with TraceMain. Zero, the default, traces
+  // nothing.
+  public void traceEvery(int every) {
+    this.traceEvery = Math.max(0, every);
+  }
+
+  // SETUP
+  //
+  // Make "userCount" users and "conversationCount" conversations (each owned
+  // by one of the users) for the load to use.
+  public void setup(int userCount, int conversationCount) throws IOException {
+
+    final String prefix = Long.toString(System.currentTimeMillis(), 36);
+
+    for (int i = 0; i < Math.max(1, userCount); i++) {
+      users.add(newUser(String.format("load-%s-user-%d", prefix, i)));
+    }
+
+    for (int i = 0; i < Math.max(1, conversationCount); i++) {
+      conversations.add(newConversation(String.format("load-%s-conversation-%d", prefix, i),
+                                        users.get(i % users.size()).id));
+    }
+
+    LOG.info("Load set up with %d users and %d conversations", users.size(), conversations.size());
+  }
+
+  // RUN
+  //
+  // Make requests from "threads" threads for "warmupMs" and then for
+  // "durationMs" more, measuring only the second part. Blocks until every
+  // thread has finished.
+  public Report run(int threads, long warmupMs, long durationMs) throws InterruptedException {
+
+    if (users.isEmpty() || conversations.isEmpty()) {
+      throw new IllegalStateException("Call setup before run");
+    }
+
+    final Map<Mix.Operation, Histogram> latencies = new EnumMap<>(Mix.Operation.class);
+    for (final Mix.Operation operation : Mix.Operation.values()) {
+      latencies.put(operation, new Histogram());
+    }
+    final AtomicLongArray errors = new AtomicLongArray(Mix.Operation.values().length);
+
+    final long start = System.nanoTime();
+    final long measureFrom = start + warmupMs * 1000000L;
+    final long stopAt = measureFrom + durationMs * 1000000L;
+
+    final List<Thread> workers = new ArrayList<>();
+
+    for (int i = 0; i < Math.max(1, threads); i++) {
+
+      final Random random = new Random(start + i);
+
+      final Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (long now = System.nanoTime(); now < stopAt; now = System.nanoTime()) {
+
+            final Mix.Operation operation = mix.choose(random);
+
+            boolean ok;
+            try {
+              ok = perform(operation, random);
+            } catch (Exception ex) {
+              LOG.verbose("Load request %s failed: %s", operation.label, ex);
+              ok = false;
+            }
+
+            final long done = System.nanoTime();
+
+            if (now >= measureFrom && done <= stopAt) {
+              if (ok) {
+                latencies.get(operation).record((done - now) / 1000);
+              } else {
+                errors.incrementAndGet(operation.ordinal());
+              }
+            }
+          }
+        }
+      }, String.format("load-%d", i));
+
+      worker.setDaemon(true);
+      workers.add(worker);
+      worker.start();
+    }
+
+    for (final Thread worker : workers) {
+      worker.join();
+    }
+
+    // Only keep the operations that are in the mix so the report is not padded
+    // with empty rows.
+    final Map<Mix.Operation, Histogram> used = new EnumMap<>(Mix.Operation.class);
+    final Map<Mix.Operation, Long> errorCounts = new EnumMap<>(Mix.Operation.class);
+    for (final Mix.Operation operation : Mix.Operation.values()) {
+      if (mix.weight(operation) > 0) {
+        used.put(operation, latencies.get(operation));
+        errorCounts.put(operation, errors.get(operation.ordinal()));
+      }
+    }
+
+    return new Report(durationMs, used, errorCounts);
+  }
+
+  // Make one request. Returns false if the server or relay answered but said
+  // the request failed.
+  private boolean perform(Mix.Operation operation, Random random) throws IOException {
+
+    final User user = users.get(random.nextInt(users.size()));
+    final ConversationHeader conversation = conversations.get(random.nextInt(conversations.size()));
+
+    switch (operation) {
+
+      case SEND: {
+        final Message message = newMessage(user.id, conversation.id, body(random));
+        if (message == null) {
+          return false;
+        }
+        recent.set((int) (sent.getAndIncrement() % RECENT_MESSAGES), message.id);
+        return true;
+      }
+
+      case READ: {
+        final Collection<Uuid> ids = recentIds(random);
+        // Nothing to read until something has been sent.
+        return ids.isEmpty() || getMessages(ids).size() == ids.size();
+      }
+
+      case LIST:
+        return getAllConversations() != null;
+
+      case RELAY_WRITE: {
+        final Uuid messageId = new Uuid(user.id, random.nextInt() & Integer.MAX_VALUE);
+        final Time now = Time.now();
+        return relay.write(teamId,
+                           teamSecret,
+                           relay.pack(user.id, user.name, user.creation),
+                           relay.pack(conversation.id, conversation.title, conversation.creation),
+                           relay.pack(messageId, body(random), now));
+      }
+
+      case RELAY_READ: {
+        // A failed read throws so that it is counted as an error.
+        for (final Relay.Bundle bundle : relay.readOrFail(teamId, teamSecret, relayRoot.get(), RELAY_READ_RANGE)) {
+          relayRoot.set(bundle.id());
+        }
+        return true;
+      }
+
+      default:
+        throw new IllegalStateException("Unknown operation " + operation);
+    }
+  }
+
+  private Collection<Uuid> recentIds(Random random) {
+
+    final long count = Math.min(sent.get(), RECENT_MESSAGES);
+    // A set, as the server answers each id once no matter how often it is asked.
+    final Collection<Uuid> ids = new LinkedHashSet<>();
+
+    for (int i = 0; i < READ_COUNT && count > 0; i++) {
+      final Uuid id = recent.get(random.nextInt((int) count));
+      if (id != null) {
+        ids.add(id);
+      }
+    }
+
+    return ids;
+  }
+
+  private static String body(Random random) {
+    return String.format("load message %08x", random.nextInt());
+  }
+
+  private User newUser(String name) throws IOException {
+    try (final Connection connection = server.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
+      Serializers.STRING.write(connection.out(), name);
+      expect(connection, NetworkCode.NEW_USER_RESPONSE);
+      final User user = Serializers.nullable(User.SERIALIZER).read(connection.in());
+      if (user == null) {
+        throw new IOException(String.format("Server did not make user \"%s\"", name));
+      }
+      return user;
+    }
+  }
+
+  private ConversationHeader newConversation(String title, Uuid owner) throws IOException {
+    try (final Connection connection = server.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_CONVERSATION_REQUEST);
+      Serializers.STRING.write(connection.out(), title);
+      Uuid.SERIALIZER.write(connection.out(), owner);
+      expect(connection, NetworkCode.NEW_CONVERSATION_RESPONSE);
+      final ConversationHeader conversation =
+          Serializers.nullable(ConversationHeader.SERIALIZER).read(connection.in());
+      if (conversation == null) {
+        throw new IOException(String.format("Server did not make conversation \"%s\"", title));
+      }
+      return conversation;
+    }
+  }
+
+  private Message newMessage(Uuid author, Uuid conversation, String body) throws IOException {
+
+    final int every = traceEvery;
+    final long trace = every > 0 && attempts.getAndIncrement() % every == 0 ? Spans.newTrace() : 0;
+
+    try (final Connection connection = server.connect()) {
+      if (trace != 0) {
+        Serializers.INTEGER.write(connection.out(), NetworkCode.TRACED_REQUEST);
+        Serializers.LONG.write(connection.out(), trace);
+      }
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_MESSAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), author);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.STRING.write(connection.out(), body);
+      expect(connection, NetworkCode.NEW_MESSAGE_RESPONSE);
+      return Serializers.nullable(Message.SERIALIZER).read(connection.in());
+    }
+  }
+
+  private Collection<Message> getMessages(Collection<Uuid> ids) throws IOException {
+    try (final Connection connection = server.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
+      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      expect(connection, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
+      return Serializers.collection(Message.SERIALIZER).read(connection.in());
+    }
+  }
+
+  private Collection<ConversationHeader> getAllConversations() throws IOException {
+    try (final Connection connection = server.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      expect(connection, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
+      return Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in());
+    }
+  }
+
+  private static void expect(Connection connection, int response) throws IOException {
+    final int type = Serializers.INTEGER.read(connection.in());
+    if (type != response) {
+      throw new IOException(String.format("Expected response %d but got %d", response, type));
+    }
+  }
+}
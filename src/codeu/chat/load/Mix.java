@@ -0,0 +1,174 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+// MIX
+//
+// How often each kind of request is made by the load generator. A mix is
+// written as comma separated "operation=weight" pairs, for example:
+//
+//   send=40,read=40,list=15,relay-write=5
+//
+// Operations that are not listed are never made. Weights are relative to each
+// other, they do not need to add up to 100.
+public final class Mix {
+
+  // OPERATION
+  //
+  // send        : add a message to a conversation (NEW_MESSAGE_REQUEST)
+  // read        : get some recently sent messages (GET_MESSAGES_BY_ID_REQUEST)
+  // list        : get every conversation (GET_ALL_CONVERSATIONS_REQUEST)
+  // relay-write : write a message to the relay (RELAY_WRITE_REQUEST)
+  // relay-read  : read the bundles after the last one this thread read from
+  //               the relay, like a polling server (RELAY_READ_REQUEST)
+  public enum Operation {
+
+    SEND("send"),
+    READ("read"),
+    LIST("list"),
+    RELAY_WRITE("relay-write"),
+    RELAY_READ("relay-read");
+
+    public final String label;
+
+    Operation(String label) {
+      this.label = label;
+    }
+
+    public boolean usesRelay() {
+      return this == RELAY_WRITE || this == RELAY_READ;
+    }
+
+    public static Operation parse(String label) {
+      for (final Operation operation : values()) {
+        if (operation.label.equals(label)) {
+          return operation;
+        }
+      }
+      throw new IllegalArgumentException(String.format("Unknown operation \"%s\"", label));
+    }
+  }
+
+  public static final String DEFAULT = "send=40,read=40,list=20";
+
+  private final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+  private final int total;
+
+  private Mix(Map<Operation, Integer> weights) {
+
+    int total = 0;
+    for (final Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+      if (entry.getValue() > 0) {
+        this.weights.put(entry.getKey(), entry.getValue());
+        total += entry.getValue();
+      }
+    }
+
+    if (total <= 0) {
+      throw new IllegalArgumentException("A mix needs at least one operation with a weight above zero");
+    }
+
+    this.total = total;
+  }
+
+  // PARSE
+  //
+  // Read a mix from its "operation=weight,..." form. Throws an
+  // IllegalArgumentException if the mix cannot be read.
+  public static Mix parse(String text) {
+
+    final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+
+    for (final String part : text.split(",")) {
+
+      final String trimmed = part.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+
+      final String[] pair = trimmed.split("=");
+      if (pair.length != 2) {
+        throw new IllegalArgumentException(String.format("Expected operation=weight but got \"%s\"", trimmed));
+      }
+
+      final int weight;
+      try {
+        weight = Integer.parseInt(pair[1].trim());
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException(String.format("Bad weight in \"%s\"", trimmed));
+      }
+
+      if (weight < 0) {
+        throw new IllegalArgumentException(String.format("Negative weight in \"%s\"", trimmed));
+      }
+
+      weights.put(Operation.parse(pair[0].trim()), weight);
+    }
+
+    return new Mix(weights);
+  }
+
+  // CHOOSE
+  //
+  // Pick an operation at random in proportion to the weights.
+  public Operation choose(Random random) {
+
+    int pick = random.nextInt(total);
+
+    for (final Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+      pick -= entry.getValue();
+      if (pick < 0) {
+        return entry.getKey();
+      }
+    }
+
+    throw new IllegalStateException("Weights do not add up to the total");
+  }
+
+  // WEIGHT
+  //
+  // The weight given to an operation. Zero if the operation is not in the mix.
+  public int weight(Operation operation) {
+    final Integer weight = weights.get(operation);
+    return weight == null ? 0 : weight;
+  }
+
+  // USES RELAY
+  //
+  // Check if any operation in the mix needs a relay.
+  public boolean usesRelay() {
+    for (final Operation operation : weights.keySet()) {
+      if (operation.usesRelay()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (final Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(entry.getKey().label).append('=').append(entry.getValue());
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// BUNDLES
+//
+// The wire format for bundles and components as the relay sees them. The front
+// end uses these to talk to servers and the disk history uses the same format
+// for its records so that what is on disk is exactly what goes over the wire.
+final class Bundles {
+
+  static final Serializer<Relay.Bundle.Component> COMPONENT_SERIALIZER =
+      new Serializer<Relay.Bundle.Component>() {
+
+    @Override
+    public Relay.Bundle.Component read(InputStream in) throws IOException {
+
+      final Uuid id = Uuid.SERIALIZER.read(in);
+      final String text = Serializers.STRING.read(in);
+      final Time time = Time.SERIALIZER.read(in);
+
+      // I could have passed the relay and use its "pack" method but that would
+      // have been more work than just building an object here.
+      return new Relay.Bundle.Component() {
+        @Override
+        public Uuid id() { return id; }
+        @Override
+        public String text() { return text; }
+        @Override
+        public Time time() { return time; }
+      };
+    }
+
+    @Override
+    public void write(OutputStream out, Relay.Bundle.Component value) throws IOException {
+      Uuid.SERIALIZER.write(out, value.id());
+      Serializers.STRING.write(out, value.text());
+      Time.SERIALIZER.write(out, value.time());
+    }
+  };
+
+  static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
+      new Serializer<Relay.Bundle>() {
+
+    @Override
+    public Relay.Bundle read(InputStream in) throws IOException {
+
+      final Uuid id = Uuid.SERIALIZER.read(in);
+      final Time time = Time.SERIALIZER.read(in);
+      final Uuid team = Uuid.SERIALIZER.read(in);
+      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
+      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
+      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
+
+      return new Relay.Bundle() {
+        @Override
+        public Uuid id() { return id; }
+        @Override
+        public Time time() { return time; }
+        @Override
+        public Uuid team() { return team; }
+        @Override
+        public Relay.Bundle.Component user() { return user; }
+        @Override
+        public Relay.Bundle.Component conversation() { return conversation; }
+        @Override
+        public Relay.Bundle.Component message() { return message; }
+      };
+    }
+
+    @Override
+    public void write(OutputStream out, Relay.Bundle value) throws IOException {
+
+      // Bundles that the relay has already encoded can just have their bytes
+      // copied out.
+      if (value instanceof EncodedBundle) {
+        ((EncodedBundle) value).writeTo(out);
+        return;
+      }
+
+      Uuid.SERIALIZER.write(out, value.id());
+      Time.SERIALIZER.write(out, value.time());
+      Uuid.SERIALIZER.write(out, value.team());
+      COMPONENT_SERIALIZER.write(out, value.user());
+      COMPONENT_SERIALIZER.write(out, value.conversation());
+      COMPONENT_SERIALIZER.write(out, value.message());
+    }
+  };
+
+  // WRITE COMPACT
+  //
+  // Write a series of bundles in a format where each distinct user and
+  // conversation component is only sent once. The components are sent first as
+  // a dictionary and each bundle refers to its user and conversation by their
+  // index in the dictionary:
+  //
+  //   [ dictionary size ][ component ] ...
+  //   [ bundle count ][ id, time, team, user index, conversation index, message ] ...
+  //
+  // Components are matched on their encoded bytes so only components that would
+  // have been sent exactly the same way are merged. Only the relay writes this
+  // format and only servers read it, so the reader lives with the server (see
+  // RemoteRelay).
+  static void writeCompact(OutputStream out, Collection<Relay.Bundle> value) throws IOException {
+
+    final List<EncodedBundle> encoded = new ArrayList<>(value.size());
+    final Map<ByteBuffer, Integer> references = new HashMap<>();
+    final List<ByteBuffer> dictionary = new ArrayList<>();
+    final int[] indices = new int[value.size() * 2];
+
+    for (final Relay.Bundle bundle : value) {
+      final EncodedBundle next = EncodedBundle.encode(bundle);
+      indices[encoded.size() * 2] = reference(references, dictionary, next.userBytes());
+      indices[encoded.size() * 2 + 1] = reference(references, dictionary, next.conversationBytes());
+      encoded.add(next);
+    }
+
+    Serializers.INTEGER.write(out, dictionary.size());
+    for (final ByteBuffer component : dictionary) {
+      EncodedBundle.write(out, component);
+    }
+
+    Serializers.INTEGER.write(out, encoded.size());
+    for (int i = 0; i < encoded.size(); i++) {
+      encoded.get(i).writeCompactTo(out, indices[i * 2], indices[i * 2 + 1]);
+    }
+  }
+
+  private static int reference(Map<ByteBuffer, Integer> references,
+                               List<ByteBuffer> dictionary,
+                               ByteBuffer component) {
+
+    Integer index = references.get(component);
+
+    if (index == null) {
+      index = dictionary.size();
+      dictionary.add(component);
+      references.put(component, index);
+    }
+
+    return index;
+  }
+
+  private Bundles() { }
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// COMPONENT TABLE
+//
+// A table of encoded components that are shared between bundles. Most bundles
+// in a busy conversation have the same user and conversation components, so
+// rather than have every bundle hold its own copy of those bytes, bundles can
+// share one copy from the table.
+//
+// Components are matched on their bytes (not just their id) so that two
+// components are only shared if they would look the same on the wire. Each
+// entry counts how many bundles are using it and is dropped when the last one
+// releases it.
+final class ComponentTable {
+
+  private static final class Entry {
+
+    public final ByteBuffer bytes;
+    public int references = 0;
+
+    public Entry(ByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+
+  // INTERN
+  //
+  // Get the shared copy of the given component bytes. If there is no shared
+  // copy yet, a copy of the bytes will be made and added to the table.
+  public ByteBuffer intern(ByteBuffer bytes) {
+
+    Entry entry = entries.get(bytes);
+
+    if (entry == null) {
+      final ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+      copy.put(bytes.duplicate());
+      copy.flip();
+      entry = new Entry(copy);
+      entries.put(entry.bytes, entry);
+    }
+
+    entry.references++;
+
+    return entry.bytes;
+  }
+
+  // RELEASE
+  //
+  // Let the table know that a bundle is no longer using the given component.
+  public void release(ByteBuffer bytes) {
+
+    final Entry entry = entries.get(bytes);
+
+    if (entry != null && --entry.references <= 0) {
+      entries.remove(bytes);
+    }
+  }
+
+  // SIZE
+  //
+  // The number of distinct components in the table.
+  public int size() {
+    return entries.size();
+  }
+}
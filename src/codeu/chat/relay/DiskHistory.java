@@ -0,0 +1,599 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// DISK HISTORY
+//
+// A log-structured history that keeps bundles on disk. Bundles are appended to
+// a series of segment files. Each segment is named after the id of the first
+// bundle it holds and has a sparse index beside it that maps a bundle id to the
+// position of its record in the segment. Reads map the segment into memory and
+// walk forward from the closest index entry.
+//
+// The segment being written to keeps growing, so mapping it again after every
+// append would make nearly every read map the whole segment. Instead its
+// mapping is only redone once REMAP_BYTES have been appended past the end of
+// it, and reads of records after the mapped end read them from the file.
+//
+// Appends are written to the file but not forced to the disk, so they survive
+// the relay stopping but not the machine stopping.
+//
+// The only things kept in memory are the sparse index entries (one for every
+// INDEX_INTERVAL bytes of log) and a few numbers per segment. Old segments are
+// deleted once the history grows past "maxBytes" or once they are older than
+// "maxAgeMs".
+//
+// Each record in a segment is laid out as:
+//
+//   [ id : 4 bytes ][ length : 4 bytes ][ bundle : length bytes ]
+//
+// where the bundle is written with the same serializer used on the wire. Reads
+// hand out views of the mapped records so that sending them to a server is a
+// copy from the mapping rather than a decode and encode.
+public final class DiskHistory implements History, Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(DiskHistory.class);
+
+  private static final String LOG_SUFFIX = ".log";
+  private static final String INDEX_SUFFIX = ".idx";
+
+  private static final int RECORD_HEADER_BYTES = 8;
+  private static final int INDEX_ENTRY_BYTES = 12;
+
+  // How many bytes of log to allow between index entries. Smaller values make
+  // reads find their start faster but use more memory for the index.
+  private static final int INDEX_INTERVAL = 4096;
+
+  // How far the active segment can grow past its mapping before it is mapped
+  // again. Records past the mapping are read from the file.
+  private static final long REMAP_BYTES = 1 << 20;
+
+  private static final class Segment {
+
+    public final int base;
+    public final File log;
+    public final File index;
+
+    // The sparse index. Only the first "entries" values are valid.
+    public int[] ids = new int[16];
+    public long[] positions = new long[16];
+    public int entries = 0;
+
+    // The number of bytes of complete records in the log and the id of the
+    // last record. When the segment is empty "last" is "base - 1".
+    public long size = 0;
+    public int last;
+
+    // The last time this segment was written to. Used to enforce the max age.
+    public long modified;
+
+    // Only the active segment has open channels.
+    public FileChannel logChannel;
+    public FileChannel indexChannel;
+
+    // The last mapping of the segment. It always ends on a record boundary, so
+    // a record is either all in the mapping or all after it.
+    public MappedByteBuffer mapped;
+
+    public Segment(File directory, int base) {
+      this.base = base;
+      this.last = base - 1;
+      this.log = new File(directory, String.format("%010d%s", base, LOG_SUFFIX));
+      this.index = new File(directory, String.format("%010d%s", base, INDEX_SUFFIX));
+      this.modified = System.currentTimeMillis();
+    }
+
+    public void addIndex(int id, long position) {
+      if (entries == ids.length) {
+        ids = Arrays.copyOf(ids, entries * 2);
+        positions = Arrays.copyOf(positions, entries * 2);
+      }
+      ids[entries] = id;
+      positions[entries] = position;
+      entries++;
+    }
+
+    // Find the position of the closest indexed record at or before "id". If
+    // nothing is indexed before "id" the start of the segment is returned.
+    public long floor(int id) {
+      int low = 0;
+      int high = entries - 1;
+      long found = 0;
+      while (low <= high) {
+        final int middle = (low + high) >>> 1;
+        if (ids[middle] <= id) {
+          found = positions[middle];
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return found;
+    }
+
+    public long lastIndexed() {
+      return entries == 0 ? -INDEX_INTERVAL : positions[entries - 1];
+    }
+  }
+
+  private final File directory;
+  private final long segmentBytes;
+  private final long maxBytes;
+  private final long maxAgeMs;
+
+  private final List<Segment> segments = new ArrayList<>();
+  private long totalBytes = 0;
+  private long maps = 0;
+
+  // DISK HISTORY
+  //
+  // Open (or create) a history in "directory". A new segment is started when
+  // the current one reaches "segmentBytes". Segments are dropped, oldest first,
+  // while the history is larger than "maxBytes" or while the oldest segment
+  // has not been written to in "maxAgeMs". A value of zero or less for either
+  // limit means that limit will not be enforced. The segment being written to
+  // is never dropped.
+  public DiskHistory(File directory,
+                     long segmentBytes,
+                     long maxBytes,
+                     long maxAgeMs) throws IOException {
+
+    this.directory = directory;
+    // Records are found using int offsets into the mapped segment, so a segment
+    // cannot be larger than what an int can address.
+    this.segmentBytes = Math.min(Integer.MAX_VALUE, Math.max(INDEX_INTERVAL, segmentBytes));
+    this.maxBytes = maxBytes;
+    this.maxAgeMs = maxAgeMs;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException(String.format("Could not create history directory %s", directory));
+    }
+
+    recover();
+  }
+
+  @Override
+  public synchronized boolean append(Relay.Bundle bundle) {
+
+    try {
+
+      final EncodedBundle encoded = EncodedBundle.encode(bundle);
+
+      final int id = bundle.id().id();
+      final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + encoded.size());
+      record.putInt(id);
+      record.putInt(encoded.size());
+      encoded.writeTo(new OutputStream() {
+        @Override
+        public void write(int b) { record.put((byte) b); }
+        @Override
+        public void write(byte[] b, int offset, int length) { record.put(b, offset, length); }
+      });
+      record.flip();
+
+      Segment active = active();
+
+      if (active.size > 0 && active.size + record.remaining() > segmentBytes) {
+        active = roll(id);
+      }
+
+      final long position = active.size;
+
+      while (record.hasRemaining()) {
+        active.logChannel.write(record, position + record.position());
+      }
+
+      if (position - active.lastIndexed() >= INDEX_INTERVAL) {
+        final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.putInt(id);
+        entry.putLong(position);
+        entry.flip();
+        while (entry.hasRemaining()) {
+          active.indexChannel.write(entry, active.entries * (long) INDEX_ENTRY_BYTES + entry.position());
+        }
+        active.addIndex(id, position);
+      }
+
+      active.size += record.limit();
+      active.last = id;
+      active.modified = System.currentTimeMillis();
+      totalBytes += record.limit();
+
+      enforceRetention();
+
+      return true;
+
+    } catch (IOException ex) {
+
+      LOG.error(ex, "Failed to append bundle %s to history", bundle.id());
+      return false;
+
+    }
+  }
+
+  @Override
+  public synchronized Collection<Relay.Bundle> read(Uuid root, int count) {
+
+    final Collection<Relay.Bundle> found = new ArrayList<>();
+
+    if (count <= 0) {
+      return found;
+    }
+
+    // Assume that the root is not in the history and that we should start from
+    // the very start. If the root is found, move the start to be after the root.
+    int segmentIndex = 0;
+    long position = 0;
+
+    final int rootIndex = root == null || root.root() != null ? -1 : find(root.id());
+
+    try {
+
+      if (rootIndex >= 0) {
+        final Segment segment = segments.get(rootIndex);
+        final long rootPosition = seek(segment, root.id());
+        if (rootPosition >= 0) {
+          segmentIndex = rootIndex;
+          position = rootPosition + RECORD_HEADER_BYTES + window(segment, rootPosition).getInt(4);
+        }
+      }
+
+      for (; segmentIndex < segments.size() && found.size() < count; segmentIndex++, position = 0) {
+
+        final Segment segment = segments.get(segmentIndex);
+
+        ByteBuffer window = null;
+        long start = position;
+
+        while (position < segment.size && found.size() < count) {
+
+          if (window == null || position - start >= window.limit()) {
+            window = window(segment, position);
+            start = position;
+          }
+
+          final int offset = (int) (position - start);
+          final int length = window.getInt(offset + 4);
+
+          // Hand out a view of the record rather than a copy. It will only be
+          // decoded if someone asks for its fields.
+          final ByteBuffer view = window.duplicate();
+          view.position(offset + RECORD_HEADER_BYTES);
+          view.limit(offset + RECORD_HEADER_BYTES + length);
+          found.add(EncodedBundle.wrap(view));
+
+          position += RECORD_HEADER_BYTES + length;
+        }
+      }
+
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to read history after %s", root);
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized int lastId() {
+    return segments.isEmpty() ? 0 : Math.max(0, active().last);
+  }
+
+  // SIZE
+  //
+  // The number of bytes of records currently kept on disk.
+  public synchronized long size() {
+    return totalBytes;
+  }
+
+  // MAPS
+  //
+  // The number of times a segment has been mapped into memory.
+  synchronized long maps() {
+    return maps;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (final Segment segment : segments) {
+      closeChannels(segment);
+      segment.mapped = null;
+    }
+  }
+
+  // Find which segment holds the given id. Returns -1 if no segment does.
+  private int find(int id) {
+    int low = 0;
+    int high = segments.size() - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final Segment segment = segments.get(middle);
+      if (id < segment.base) {
+        high = middle - 1;
+      } else if (id > segment.last) {
+        low = middle + 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  // Find the position of the record with the given id in the segment. Returns
+  // -1 if the record could not be found.
+  private long seek(Segment segment, int id) throws IOException {
+
+    long position = segment.floor(id);
+
+    ByteBuffer window = null;
+    long start = position;
+
+    while (position < segment.size) {
+
+      if (window == null || position - start >= window.limit()) {
+        window = window(segment, position);
+        start = position;
+      }
+
+      final int offset = (int) (position - start);
+
+      if (window.getInt(offset) == id) {
+        return position;
+      }
+      position += RECORD_HEADER_BYTES + window.getInt(offset + 4);
+    }
+    return -1;
+  }
+
+  // The bytes of the segment from "position" (which must be the start of a
+  // record) onwards, with "position" at index zero. If "position" is in the
+  // mapping, the window is a view of the mapping up to its end. Otherwise the
+  // rest of the segment is read from the file.
+  private ByteBuffer window(Segment segment, long position) throws IOException {
+
+    final MappedByteBuffer mapped = map(segment);
+
+    if (position < mapped.capacity()) {
+      final ByteBuffer view = mapped.duplicate();
+      view.position((int) position);
+      return view.slice();
+    }
+
+    final ByteBuffer tail = ByteBuffer.allocate((int) (segment.size - position));
+    while (tail.hasRemaining()) {
+      if (segment.logChannel.read(tail, position + tail.position()) < 0) {
+        throw new IOException(String.format("Unexpected end of history segment %s", segment.log));
+      }
+    }
+    tail.flip();
+    return tail;
+  }
+
+  // Segments that are no longer written to never change, so they are mapped
+  // whole and only once. The active segment is mapped again only when it has
+  // grown REMAP_BYTES past its mapping.
+  private MappedByteBuffer map(Segment segment) throws IOException {
+
+    final long unmapped = segment.size - (segment.mapped == null ? 0 : segment.mapped.capacity());
+    final boolean sealed = segment.logChannel == null;
+
+    if (segment.mapped == null || (unmapped > 0 && (sealed || unmapped >= REMAP_BYTES))) {
+      try (final RandomAccessFile file = new RandomAccessFile(segment.log, "r")) {
+        segment.mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+      }
+      maps++;
+    }
+
+    return segment.mapped;
+  }
+
+  private Segment active() {
+    return segments.get(segments.size() - 1);
+  }
+
+  // Seal the active segment and start a new one whose first bundle will be "base".
+  private Segment roll(int base) throws IOException {
+
+    closeChannels(active());
+
+    final Segment segment = new Segment(directory, base);
+    openChannels(segment);
+    segments.add(segment);
+
+    LOG.info("Started history segment %s", segment.log);
+
+    return segment;
+  }
+
+  private void enforceRetention() {
+
+    final long now = System.currentTimeMillis();
+
+    while (segments.size() > 1) {
+
+      final Segment oldest = segments.get(0);
+
+      final boolean tooBig = maxBytes > 0 && totalBytes > maxBytes;
+      final boolean tooOld = maxAgeMs > 0 && now - oldest.modified > maxAgeMs;
+
+      if (!tooBig && !tooOld) {
+        break;
+      }
+
+      segments.remove(0);
+      totalBytes -= oldest.size;
+      oldest.mapped = null;
+
+      if (!oldest.log.delete() || !oldest.index.delete()) {
+        LOG.warning("Failed to delete history segment %s", oldest.log);
+      }
+
+      LOG.info(
+          "Dropped history segment %s (tooBig=%s tooOld=%s)",
+          oldest.log,
+          tooBig,
+          tooOld);
+    }
+  }
+
+  // Rebuild the in-memory state from what is on disk. Any partial record at
+  // the end of a segment (from a crash part way through a write) is cut off.
+  private void recover() throws IOException {
+
+    final File[] files = directory.listFiles();
+    final List<Integer> bases = new ArrayList<>();
+
+    for (final File file : files == null ? new File[0] : files) {
+      final String name = file.getName();
+      if (name.endsWith(LOG_SUFFIX)) {
+        try {
+          bases.add(Integer.parseInt(name.substring(0, name.length() - LOG_SUFFIX.length())));
+        } catch (NumberFormatException ex) {
+          LOG.warning("Ignoring unexpected file in history %s", file);
+        }
+      }
+    }
+
+    Collections.sort(bases);
+
+    for (final int base : bases) {
+
+      final Segment segment = new Segment(directory, base);
+
+      segment.modified = segment.log.lastModified();
+
+      loadIndex(segment);
+      scan(segment);
+
+      totalBytes += segment.size;
+      segments.add(segment);
+    }
+
+    if (segments.isEmpty()) {
+      segments.add(new Segment(directory, 1));
+    }
+
+    openChannels(active());
+
+    LOG.info(
+        "Recovered history segments=%d bytes=%d lastId=%d",
+        segments.size(),
+        totalBytes,
+        lastId());
+  }
+
+  private static void loadIndex(Segment segment) throws IOException {
+
+    if (!segment.index.exists()) {
+      return;
+    }
+
+    try (final RandomAccessFile file = new RandomAccessFile(segment.index, "r")) {
+
+      final long length = file.length() - (file.length() % INDEX_ENTRY_BYTES);
+      final ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+      while (buffer.remaining() >= INDEX_ENTRY_BYTES) {
+        segment.addIndex(buffer.getInt(), buffer.getLong());
+      }
+    }
+  }
+
+  // Walk the records after the last index entry to find the end of the segment
+  // and the id of its last bundle.
+  private static void scan(Segment segment) throws IOException {
+
+    try (final RandomAccessFile file = new RandomAccessFile(segment.log, "rw")) {
+
+      final long length = file.length();
+
+      // Drop any index entries that point past the end of the log as the
+      // records they point to are gone.
+      while (segment.entries > 0 && segment.positions[segment.entries - 1] >= length) {
+        segment.entries--;
+      }
+
+      long position = segment.entries == 0 ? 0 : segment.positions[segment.entries - 1];
+
+      final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+      while (position + RECORD_HEADER_BYTES <= length) {
+
+        header.clear();
+        file.getChannel().read(header, position);
+        header.flip();
+
+        final int id = header.getInt();
+        final int recordLength = header.getInt();
+
+        if (recordLength < 0 || position + RECORD_HEADER_BYTES + recordLength > length) {
+          break;
+        }
+
+        segment.last = id;
+        position += RECORD_HEADER_BYTES + recordLength;
+      }
+
+      if (position < length) {
+        LOG.warning(
+            "Truncating partial record in %s at %d (length was %d)",
+            segment.log,
+            position,
+            length);
+        file.setLength(position);
+      }
+
+      segment.size = position;
+    }
+
+    // Rewrite the index so that it matches the entries that survived.
+    try (final RandomAccessFile file = new RandomAccessFile(segment.index, "rw")) {
+      file.setLength(segment.entries * (long) INDEX_ENTRY_BYTES);
+    }
+  }
+
+  private static void openChannels(Segment segment) throws IOException {
+    segment.logChannel = new RandomAccessFile(segment.log, "rw").getChannel();
+    segment.indexChannel = new RandomAccessFile(segment.index, "rw").getChannel();
+  }
+
+  private static void closeChannels(Segment segment) throws IOException {
+    if (segment.logChannel != null) {
+      segment.logChannel.close();
+      segment.logChannel = null;
+    }
+    if (segment.indexChannel != null) {
+      segment.indexChannel.close();
+      segment.indexChannel = null;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// ENCODED BUNDLE
+//
+// A bundle that is kept in its wire format. Bundles never change once the
+// relay has accepted them, so rather than serializing a bundle every time a
+// server reads it, the relay encodes it once and keeps the bytes. Writing an
+// encoded bundle is just copying those bytes out.
+//
+// The bytes are kept as four ranges that, written one after the other, are
+// exactly what the bundle serializer would have written:
+//
+//   [ head : id, time, team ][ user ][ conversation ][ message ]
+//
+// The ranges may point into a heap array (bundles kept in memory) or into a
+// mapped segment file (bundles kept on disk). The fields are only decoded if
+// someone asks for them. None of the ranges are ever changed once the bundle
+// is made.
+final class EncodedBundle implements Relay.Bundle {
+
+  private static final int TIME_BYTES = 8;
+
+  private final Uuid id;
+
+  private final ByteBuffer head;
+  private final ByteBuffer user;
+  private final ByteBuffer conversation;
+  private final ByteBuffer message;
+
+  // Not part of the bytes. The relay only keeps traces for a short time, so
+  // they are added to the bundles as they are read (see "withTrace").
+  private final long trace;
+
+  // Set the first time any field other than the id is needed.
+  private Relay.Bundle decoded;
+
+  private EncodedBundle(Uuid id,
+                        ByteBuffer head,
+                        ByteBuffer user,
+                        ByteBuffer conversation,
+                        ByteBuffer message,
+                        long trace) {
+    this.id = id;
+    this.head = head;
+    this.user = user;
+    this.conversation = conversation;
+    this.message = message;
+    this.trace = trace;
+  }
+
+  // ENCODE
+  //
+  // Serialize a bundle once and keep the bytes. If the bundle is already
+  // encoded, it is returned as is.
+  public static EncodedBundle encode(Relay.Bundle bundle) throws IOException {
+
+    if (bundle instanceof EncodedBundle) {
+      return (EncodedBundle) bundle;
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Uuid.SERIALIZER.write(out, bundle.id());
+    Time.SERIALIZER.write(out, bundle.time());
+    Uuid.SERIALIZER.write(out, bundle.team());
+    final int userStart = out.size();
+    Bundles.COMPONENT_SERIALIZER.write(out, bundle.user());
+    final int conversationStart = out.size();
+    Bundles.COMPONENT_SERIALIZER.write(out, bundle.conversation());
+    final int messageStart = out.size();
+    Bundles.COMPONENT_SERIALIZER.write(out, bundle.message());
+    final int end = out.size();
+
+    final ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+
+    return new EncodedBundle(bundle.id(),
+                             slice(bytes, 0, userStart),
+                             slice(bytes, userStart, conversationStart),
+                             slice(bytes, conversationStart, messageStart),
+                             slice(bytes, messageStart, end),
+                             bundle.trace());
+  }
+
+  // WRAP
+  //
+  // Use bytes that are already in the wire format (from the position to the
+  // limit of the buffer) as a bundle. Only the lengths in the bytes are read to
+  // find where each range starts. Nothing is copied.
+  public static EncodedBundle wrap(ByteBuffer bytes) {
+
+    final ByteBuffer view = bytes.slice();
+
+    final int idEnd = skipUuid(view, 0);
+    final int userStart = skipUuid(view, idEnd + TIME_BYTES);
+    final int conversationStart = skipComponent(view, userStart);
+    final int messageStart = skipComponent(view, conversationStart);
+    final int end = skipComponent(view, messageStart);
+
+    return new EncodedBundle(readUuid(view, 0),
+                             slice(view, 0, userStart),
+                             slice(view, userStart, conversationStart),
+                             slice(view, conversationStart, messageStart),
+                             slice(view, messageStart, end),
+                             0);
+  }
+
+  // INTERN
+  //
+  // Create a copy of this bundle that shares its user and conversation bytes
+  // with other bundles through the given table. The head and message are copied
+  // into their own array so that this bundle does not keep the original,
+  // unshared, bytes alive. The copy must be released from the table when it is
+  // no longer needed.
+  public EncodedBundle intern(ComponentTable components) {
+
+    final ByteBuffer own = ByteBuffer.allocate(head.remaining() + message.remaining());
+    own.put(head.duplicate());
+    own.put(message.duplicate());
+
+    return new EncodedBundle(id,
+                             slice(own, 0, head.remaining()),
+                             components.intern(user),
+                             components.intern(conversation),
+                             slice(own, head.remaining(), own.capacity()),
+                             trace);
+  }
+
+  // WITH TRACE
+  //
+  // The same bundle (sharing the same bytes) carrying the given trace. It is
+  // still an encoded bundle, so it is written by copying its bytes like any
+  // other.
+  public EncodedBundle withTrace(long trace) {
+    return new EncodedBundle(id, head, user, conversation, message, trace);
+  }
+
+  // RELEASE
+  //
+  // Let the table know that this bundle no longer needs its shared components.
+  public void release(ComponentTable components) {
+    components.release(user);
+    components.release(conversation);
+  }
+
+  // WRITE TO
+  //
+  // Write the bundle in its wire format by copying out the encoded ranges.
+  public void writeTo(OutputStream out) throws IOException {
+    write(out, head);
+    write(out, user);
+    write(out, conversation);
+    write(out, message);
+  }
+
+  // WRITE COMPACT TO
+  //
+  // Write the bundle with its user and conversation replaced by references to
+  // a dictionary of components that was (or will be) sent separately.
+  public void writeCompactTo(OutputStream out,
+                             int userReference,
+                             int conversationReference) throws IOException {
+    write(out, head);
+    Serializers.INTEGER.write(out, userReference);
+    Serializers.INTEGER.write(out, conversationReference);
+    write(out, message);
+  }
+
+  // USER BYTES
+  //
+  // The encoded user component. This must not be changed.
+  public ByteBuffer userBytes() { return user; }
+
+  // CONVERSATION BYTES
+  //
+  // The encoded conversation component. This must not be changed.
+  public ByteBuffer conversationBytes() { return conversation; }
+
+  // WRITE RANGE
+  //
+  // Copy an encoded range to the stream without consuming the range.
+  public static void write(OutputStream out, ByteBuffer range) throws IOException {
+
+    if (range.hasArray()) {
+      out.write(range.array(), range.arrayOffset() + range.position(), range.remaining());
+    } else {
+      // Mapped ranges have no backing array so they need to be copied out in
+      // chunks. Use a duplicate so that the range itself is not consumed.
+      final ByteBuffer source = range.duplicate();
+      final byte[] chunk = new byte[Math.min(source.remaining(), 4096)];
+      while (source.hasRemaining()) {
+        final int length = Math.min(chunk.length, source.remaining());
+        source.get(chunk, 0, length);
+        out.write(chunk, 0, length);
+      }
+    }
+  }
+
+  // SIZE
+  //
+  // The number of bytes that "writeTo" will write.
+  public int size() {
+    return head.remaining() + user.remaining() + conversation.remaining() + message.remaining();
+  }
+
+  @Override
+  public Uuid id() { return id; }
+
+  @Override
+  public Time time() { return decoded().time(); }
+
+  @Override
+  public Uuid team() { return decoded().team(); }
+
+  @Override
+  public Relay.Bundle.Component user() { return decoded().user(); }
+
+  @Override
+  public Relay.Bundle.Component conversation() { return decoded().conversation(); }
+
+  @Override
+  public Relay.Bundle.Component message() { return decoded().message(); }
+
+  @Override
+  public long trace() { return trace; }
+
+  private synchronized Relay.Bundle decoded() {
+    if (decoded == null) {
+      try {
+        decoded = Bundles.BUNDLE_SERIALIZER.read(new InputStream() {
+
+          private final ByteBuffer[] ranges = {
+              head.duplicate(), user.duplicate(), conversation.duplicate(), message.duplicate()
+          };
+
+          private int current = 0;
+
+          @Override
+          public int read() {
+            while (current < ranges.length && !ranges[current].hasRemaining()) {
+              current++;
+            }
+            return current < ranges.length ? ranges[current].get() & 0xFF : -1;
+          }
+        });
+      } catch (IOException ex) {
+        // The bytes are in memory (or in a mapped file) so the only way to get
+        // here is if the bytes are not a bundle.
+        throw new IllegalStateException("Encoded bundle could not be decoded", ex);
+      }
+    }
+    return decoded;
+  }
+
+  private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+    final ByteBuffer view = bytes.duplicate();
+    view.position(start);
+    view.limit(end);
+    return view.slice();
+  }
+
+  // The Uuid format is a one byte length followed by that many 4 byte ids.
+  private static int skipUuid(ByteBuffer bytes, int position) {
+    return position + 1 + 4 * (bytes.get(position) & 0xFF);
+  }
+
+  private static Uuid readUuid(ByteBuffer bytes, int position) {
+    final int length = bytes.get(position) & 0xFF;
+    Uuid head = null;
+    for (int i = length - 1; i >= 0; i--) {
+      head = new Uuid(head, bytes.getInt(position + 1 + 4 * i));
+    }
+    return head;
+  }
+
+  // A component is a Uuid, a string (4 byte length and the bytes) and a time.
+  private static int skipComponent(ByteBuffer bytes, int position) {
+    final int textStart = skipUuid(bytes, position);
+    return textStart + 4 + bytes.getInt(textStart) + TIME_BYTES;
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.util.Collection;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Uuid;
+
+// HISTORY
+//
+// The history is where the relay keeps the bundles it has accepted. Bundles are
+// appended in the order the relay accepts them and are read back in that same
+// order. The relay numbers bundles linearly, so the history is able to use the
+// bundle id as a sequence number. Histories must be safe to use from more than
+// one thread.
+public interface History {
+
+  // APPEND
+  //
+  // Add a bundle to the end of the history. If the bundle could not be stored
+  // false will be returned and the history will be unchanged.
+  boolean append(Relay.Bundle bundle);
+
+  // READ
+  //
+  // Read up to "count" bundles that come after "root". If "root" is not in the
+  // history (it was never there or it has already been dropped) reading will
+  // start from the earliest bundle still in the history.
+  Collection<Relay.Bundle> read(Uuid root, int count);
+
+  // LAST ID
+  //
+  // Get the id of the newest bundle in the history. If the history is empty
+  // this will return 0. The relay uses this to continue numbering bundles
+  // after a restart.
+  int lastId();
+
+}
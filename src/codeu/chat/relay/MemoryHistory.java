@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// MEMORY HISTORY
+//
+// A history that only lives in memory. Once "maxHistory" bundles have been
+// added, each new bundle will push out the oldest bundle. Nothing survives
+// a restart. Bundles are kept encoded (see EncodedBundle) so that reads only
+// need to copy bytes, and bundles share their user and conversation bytes
+// through a component table so that each distinct user and conversation is
+// only kept once. All methods are synchronized so the history can be shared
+// between threads.
+public final class MemoryHistory implements History {
+
+  private final static Logger.Log LOG = Logger.newLog(MemoryHistory.class);
+
+  private final Queue<EncodedBundle> history = new LinkedList<>();
+  private final ComponentTable components = new ComponentTable();
+  private final int maxHistory;
+
+  public MemoryHistory(int maxHistory) {
+    this.maxHistory = Math.max(0, maxHistory);
+  }
+
+  @Override
+  public synchronized boolean append(Relay.Bundle bundle) {
+
+    final EncodedBundle encoded;
+
+    try {
+      encoded = EncodedBundle.encode(bundle).intern(components);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to encode bundle %s", bundle.id());
+      return false;
+    }
+
+    if (history.size() >= maxHistory) {
+       history.remove().release(components);
+    }
+
+    return history.offer(encoded);
+  }
+
+  @Override
+  public synchronized Collection<Relay.Bundle> read(Uuid root, int count) {
+
+    final Collection<Relay.Bundle> found = new ArrayList<>();
+
+    for (final EncodedBundle bundle : history) {
+
+      // Only add a bundle if there is room. We cannot stop
+      // searching in case we see the root later on.
+      if (found.size() < count) {
+        found.add(bundle);
+      }
+
+      // If the start is found, drop all previous bundles.
+      if (bundle.id().equals(root)) {
+        found.clear();
+      }
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized int lastId() {
+
+    int last = 0;
+
+    for (final EncodedBundle bundle : history) {
+      last = bundle.id().id();
+    }
+
+    return last;
+  }
+}
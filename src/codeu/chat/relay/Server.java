@@ -14,19 +14,19 @@
 
 package codeu.chat.relay;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.util.Logger;
-import codeu.chat.util.Logger;
+import codeu.chat.util.Spans;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
@@ -34,6 +34,10 @@ public final class Server implements Relay {
 
   private final static Logger.Log LOG = Logger.newLog(Server.class);
 
+  // The most traces to remember. Readers normally pick up a bundle within a
+  // few seconds of it being written, so only recent traces are needed.
+  private static final int MAX_TRACES = 4096;
+
   private static final class Component implements Relay.Bundle.Component {
 
     private final Uuid id;
@@ -102,12 +106,25 @@ public final class Server implements Relay {
 
   }
 
-  private final Queue<Relay.Bundle> history = new LinkedList<>();
-  private final Map<Uuid, Secret> teamSecrets = new HashMap<>();
+  // The relay's front end can handle connections on more than one thread, so
+  // teams are kept in a concurrent map and writes take the history's lock so
+  // that ids are handed out in the same order that bundles are added.
+  private final Map<Uuid, Secret> teamSecrets = new ConcurrentHashMap<>();
 
-  private final int maxHistory;
+  private final History history;
   private final int maxRead;
 
+  // The traces of recently written traced bundles, by bundle id. Traces are
+  // not part of the history (so the history's format does not change) which
+  // means that they are lost on restart and that old traced bundles are read
+  // back untraced.
+  private final Map<Uuid, Long> traces = new LinkedHashMap<Uuid, Long>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Uuid, Long> eldest) {
+      return size() > MAX_TRACES;
+    }
+  };
+
   // Okay, some reasoning behind why I'm using a statically initialized linear
   // generator for the ids for the relay server.
   //
@@ -124,8 +141,11 @@ public final class Server implements Relay {
   //
   // As a side note, the ids start at 1 and not 0 to avoid the first id from
   // matching the NULL id which is defined as (null, 0);
+  //
+  // When the history is kept on disk it does survive a restart, so the
+  // generator picks up from the last id in the history rather than from 1.
 
- private final Uuid.Generator idGenerator = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
+  private final Uuid.Generator idGenerator;
 
   // SERVER
   //
@@ -134,8 +154,19 @@ public final class Server implements Relay {
   //   - Keep "maxRead" small enough to avoid any one client from connecting to
   //     the server for too long.
   public Server(int maxHistory, int maxRead) {
-    this.maxHistory = Math.max(0, maxHistory);
+    this(new MemoryHistory(maxHistory), maxRead);
+  }
+
+  // SERVER
+  //
+  // Create a relay server that keeps its bundles in the given history. The
+  // same note about "maxRead" applies here.
+  public Server(History history, int maxRead) {
+    this.history = history;
     this.maxRead = Math.max(0, maxRead);
+    this.idGenerator = new LinearUuidGenerator(null,
+                                               Math.max(1, history.lastId()),
+                                               Integer.MAX_VALUE);
   }
 
   // ADD TEAM
@@ -147,11 +178,7 @@ public final class Server implements Relay {
 
     LOG.info("Adding team to relay %s", id);
 
-    final boolean open = teamSecrets.get(id) == null;
-
-    if (open) {
-      teamSecrets.put(id, secret);
-    }
+    final boolean open = teamSecrets.putIfAbsent(id, secret) == null;
 
     LOG.info(open ?
              "Adding team was successful" :
@@ -171,6 +198,16 @@ public final class Server implements Relay {
                        Relay.Bundle.Component user,
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
+    return write(teamId, teamSecret, user, conversation, message, 0);
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message,
+                       long trace) {
 
     if (authenticate(teamId, teamSecret)) {
 
@@ -181,17 +218,34 @@ public final class Server implements Relay {
           conversation.id(),
           message.id());
 
-      if (history.size() >= maxHistory) {
-         history.remove();
+      final long start = System.nanoTime();
+      final boolean appended;
+
+      synchronized (history) {
+
+        final Uuid bundleId = idGenerator.make();
+
+        // Remember the trace before the bundle can be read so that no reader
+        // sees the bundle without it.
+        if (trace != 0) {
+          synchronized (traces) {
+            traces.put(bundleId, trace);
+          }
+        }
+
+        appended = history.append(new Bundle(
+            bundleId,
+            Time.now(),
+            teamId,
+            user,
+            conversation,
+            message));
       }
 
-      return history.offer(new Bundle(
-          idGenerator.make(),
-          Time.now(),
-          teamId,
-          user,
-          conversation,
-          message));
+      Spans.record(trace, Spans.RELAY_APPEND, start, System.nanoTime());
+
+      return appended;
+
     } else {
 
       LOG.warning(
@@ -208,7 +262,7 @@ public final class Server implements Relay {
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
-    final Collection<Relay.Bundle> found = new ArrayList<>();
+    Collection<Relay.Bundle> found = new ArrayList<>();
 
     if (authenticate(teamId, teamSecret)) {
 
@@ -217,19 +271,7 @@ public final class Server implements Relay {
           range,
           maxRead);
 
-      for (final Relay.Bundle message : history) {
-
-        // Only add a message if there is room. We cannot stop
-        // searching in case we see the root later on.
-        if (found.size() < Math.min(range, maxRead)) {
-          found.add(message);
-        }
-
-        // If the start is found, drop all previous messages.
-        if (message.id().equals(root)) {
-          found.clear();
-        }
-      }
+      found = withTraces(history.read(root, Math.min(range, maxRead)));
 
       LOG.info(
           "Read request complete requested=%d fullfilled=%d",
@@ -246,6 +288,39 @@ public final class Server implements Relay {
     return found;
   }
 
+  // Give back the bundles with any traced bundles replaced by ones that carry
+  // their trace.
+  private Collection<Relay.Bundle> withTraces(Collection<Relay.Bundle> bundles) {
+
+    synchronized (traces) {
+
+      if (traces.isEmpty()) {
+        return bundles;
+      }
+
+      final Collection<Relay.Bundle> result = new ArrayList<>(bundles.size());
+
+      for (final Relay.Bundle bundle : bundles) {
+        final Long trace = traces.get(bundle.id());
+        result.add(trace == null ? bundle : withTrace(bundle, trace));
+      }
+
+      return result;
+    }
+  }
+
+  // Bundles from the history are already encoded, so this only makes a new
+  // bundle around the same bytes. It stays encoded so that sending it is
+  // still just a copy.
+  private static Relay.Bundle withTrace(Relay.Bundle bundle, long trace) {
+    try {
+      return EncodedBundle.encode(bundle).withTrace(trace);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to encode bundle %s - sending it without its trace", bundle.id());
+      return bundle;
+    }
+  }
+
   private boolean authenticate(Uuid id, Secret secret) {
     return id != null && secret != null && secret.equals(teamSecrets.get(id));
   }
@@ -14,18 +14,20 @@
 
 package codeu.chat.relay;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.util.EventLog;
 import codeu.chat.util.Logger;
-import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
-import codeu.chat.util.Time;
+import codeu.chat.util.Spans;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
 
@@ -33,75 +35,7 @@ public final class ServerFrontEnd {
 
   private final static Logger.Log LOG = Logger.newLog(ServerFrontEnd.class);
 
-  private static final Serializer<Relay.Bundle.Component> COMPONENT_SERIALIZER =
-      new Serializer<Relay.Bundle.Component>() {
-
-    @Override
-    public Relay.Bundle.Component read(InputStream in) throws IOException {
-
-      final Uuid id = Uuid.SERIALIZER.read(in);
-      final String text = Serializers.STRING.read(in);
-      final Time time = Time.SERIALIZER.read(in);
-
-      // I could have passed the relay and use its "pack" method but that would
-      // have been more work than just building an object here.
-      return new Relay.Bundle.Component() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public String text() { return text; }
-        @Override
-        public Time time() { return time; }
-      };
-    }
-
-    @Override
-    public void write(OutputStream out, Relay.Bundle.Component value) throws IOException {
-      Uuid.SERIALIZER.write(out, value.id());
-      Serializers.STRING.write(out, value.text());
-      Time.SERIALIZER.write(out, value.time());
-    }
-  };
-
-  private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
-      new Serializer<Relay.Bundle>() {
-
-    @Override
-    public Relay.Bundle read(InputStream in) throws IOException {
-
-      final Uuid id = Uuid.SERIALIZER.read(in);
-      final Time time = Time.SERIALIZER.read(in);
-      final Uuid team = Uuid.SERIALIZER.read(in);
-      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
-
-      return new Relay.Bundle() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public Time time() { return time; }
-        @Override
-        public Uuid team() { return team; }
-        @Override
-        public Relay.Bundle.Component user() { return user; }
-        @Override
-        public Relay.Bundle.Component conversation() { return conversation; }
-        @Override
-        public Relay.Bundle.Component message() { return message; }
-      };
-    }
-
-    @Override
-    public void write(OutputStream out, Relay.Bundle value) throws IOException {
-      Uuid.SERIALIZER.write(out, value.id());
-      Time.SERIALIZER.write(out, value.time());
-      Uuid.SERIALIZER.write(out, value.team());
-      COMPONENT_SERIALIZER.write(out, value.user());
-      COMPONENT_SERIALIZER.write(out, value.conversation());
-      COMPONENT_SERIALIZER.write(out, value.message());
-    }
-  };
+  private static final int RESPONSE_BUFFER_BYTES = 64 * 1024;
 
   private final Relay backEnd;
 
@@ -113,17 +47,50 @@ public final class ServerFrontEnd {
 
     LOG.info("Handling Connection - start");
 
-    switch (Serializers.INTEGER.read(connection.in())) {
-      case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection); break;
-      case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection); break;
+    int type = Serializers.INTEGER.read(connection.in());
+    final long start = System.nanoTime();
+
+    // A traced request is the trace id followed by a normal request.
+    long trace = 0;
+
+    if (type == NetworkCode.TRACED_REQUEST) {
+      trace = Serializers.LONG.read(connection.in());
+      type = Serializers.INTEGER.read(connection.in());
+    }
+
+    switch (type) {
+      case NetworkCode.RELAY_READ_REQUEST:
+      case NetworkCode.RELAY_READ_COMPACT_REQUEST:
+      case NetworkCode.RELAY_READ_TRACED_REQUEST:
+        handleReadMessage(connection, type);
+        break;
+      case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection, trace); break;
+      case NetworkCode.GET_SPANS_REQUEST: handleGetSpans(connection); break;
+      default:
+        // Let the caller know that the request is not supported so that it can
+        // try another request rather than waiting on a closed connection.
+        Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
+        break;
     }
 
+    EventLog.record(EventLog.TYPE_RELAY_REQUEST, type, null, null, System.nanoTime() - start);
+
     LOG.info("Handling Connection - end");
   }
 
-  private void handleReadMessage(Connection connection) throws IOException {
+  // HANDLE READ MESSAGE
+  //
+  // Read bundles from the back end and send them back to the caller. If the
+  // caller asked for the compact format, each distinct user and conversation
+  // will only be sent once (see Bundles.writeCompact). The traced format
+  // is the compact format after a list of the traced bundles:
+  //
+  //   [ int count ] count * ([ int bundle index ][ long trace ])
+  //
+  // so that untraced bundles cost nothing extra.
+  private void handleReadMessage(Connection connection, int type) throws IOException {
 
-    LOG.info("Handling Read Message - start");
+    LOG.info("Handling Read Message - start (type=%s)", NetworkCode.name(type));
 
     final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
     final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
@@ -140,21 +107,58 @@ public final class ServerFrontEnd {
 
     LOG.info("Reading result.size=%d", result.size());
 
-    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_RESPONSE);
-    Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+    // The bundles from the history are already encoded, so writing them is just
+    // copying their bytes. Gather the whole response into one buffer so that it
+    // goes out in a few large writes rather than one write per field.
+    final OutputStream out = new BufferedOutputStream(connection.out(), RESPONSE_BUFFER_BYTES);
+
+    if (type == NetworkCode.RELAY_READ_TRACED_REQUEST) {
+      Serializers.INTEGER.write(out, NetworkCode.RELAY_READ_TRACED_RESPONSE);
+      writeTraces(out, result);
+      Bundles.writeCompact(out, result);
+    } else if (type == NetworkCode.RELAY_READ_COMPACT_REQUEST) {
+      Serializers.INTEGER.write(out, NetworkCode.RELAY_READ_COMPACT_RESPONSE);
+      Bundles.writeCompact(out, result);
+    } else {
+      Serializers.INTEGER.write(out, NetworkCode.RELAY_READ_RESPONSE);
+      Serializers.collection(Bundles.BUNDLE_SERIALIZER).write(out, result);
+    }
+
+    out.flush();
 
     LOG.info("Handling Read Message - end");
   }
 
-  private void handleWriteMessage(Connection connection) throws IOException {
+  private static void writeTraces(OutputStream out, Collection<Relay.Bundle> bundles) throws IOException {
+
+    final List<Integer> indexes = new ArrayList<>();
+    final List<Long> traces = new ArrayList<>();
+
+    int index = 0;
+    for (final Relay.Bundle bundle : bundles) {
+      if (bundle.trace() != 0) {
+        indexes.add(index);
+        traces.add(bundle.trace());
+      }
+      index++;
+    }
+
+    Serializers.INTEGER.write(out, indexes.size());
+    for (int i = 0; i < indexes.size(); i++) {
+      Serializers.INTEGER.write(out, indexes.get(i));
+      Serializers.LONG.write(out, traces.get(i));
+    }
+  }
+
+  private void handleWriteMessage(Connection connection, long trace) throws IOException {
 
     LOG.info("Handling Write Message - start");
 
     final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
     final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
-    final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(connection.in());
-    final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(connection.in());
-    final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(connection.in());
+    final Relay.Bundle.Component user = Bundles.COMPONENT_SERIALIZER.read(connection.in());
+    final Relay.Bundle.Component conversation = Bundles.COMPONENT_SERIALIZER.read(connection.in());
+    final Relay.Bundle.Component message = Bundles.COMPONENT_SERIALIZER.read(connection.in());
 
     LOG.info(
         "Writing team=%s user=%s conversation=%s message=%s",
@@ -167,7 +171,8 @@ public final class ServerFrontEnd {
                                          teamSecret,
                                          user,
                                          conversation,
-                                         message);
+                                         message,
+                                         trace);
 
     LOG.info("Writing result=%s", result ? "success" : "fail");
 
@@ -176,4 +181,16 @@ public final class ServerFrontEnd {
 
     LOG.info("Handling Write Message - end");
   }
+
+  // HANDLE GET SPANS
+  //
+  // Send back the spans this process has recorded for a trace (or for every
+  // trace if the trace is zero).
+  private void handleGetSpans(Connection connection) throws IOException {
+
+    final long trace = Serializers.LONG.read(connection.in());
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.GET_SPANS_RESPONSE);
+    Serializers.collection(Spans.Span.SERIALIZER).write(connection.out(), Spans.snapshot(trace));
+  }
 }
@@ -0,0 +1,212 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// CLUSTER RELAY
+//
+// A relay made from a group of relay nodes where each node owns a partition of
+// the traffic. A message is written to the node that owns its conversation
+// (by the hash of the conversation id) so all messages in a conversation stay
+// in order on one node. Reads go to every node and are merged by the time the
+// nodes accepted each bundle.
+//
+// Each node has its own history and its own bundle ids, so a single bundle id
+// is not enough to say where a reader is. Instead, the id of each bundle that
+// this relay returns is a cursor with one link per node:
+//
+//   [ node 0 position ].[ node 1 position ] ... [ node N-1 position ]
+//
+// where each position is the id of the last bundle taken from that node (or 0
+// if nothing has been taken from it yet). Passing that id back to "read" as the
+// root continues every partition from where it left off. This relies on the
+// node bundle ids being single link ids - which is what the relay server uses.
+//
+// All nodes must be listed in the same order by every server using the
+// cluster, otherwise conversations will be written to different nodes.
+public final class ClusterRelay implements Relay {
+
+  private final static Logger.Log LOG = Logger.newLog(ClusterRelay.class);
+
+  private final List<Relay> nodes;
+
+  public ClusterRelay(List<? extends Relay> nodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("A relay cluster needs at least one node");
+    }
+    this.nodes = new ArrayList<>(nodes);
+  }
+
+  @Override
+  public Relay.Bundle.Component pack(Uuid id, String text, Time time) {
+    return nodes.get(0).pack(id, text, time);
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message) {
+
+    return nodes.get(partition(conversation.id())).write(teamId,
+                                                         teamSecret,
+                                                         user,
+                                                         conversation,
+                                                         message);
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message,
+                       long trace) {
+
+    return nodes.get(partition(conversation.id())).write(teamId,
+                                                         teamSecret,
+                                                         user,
+                                                         conversation,
+                                                         message,
+                                                         trace);
+  }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+
+    final Collection<Relay.Bundle> result = new ArrayList<>();
+
+    if (range <= 0) {
+      return result;
+    }
+
+    final int[] positions = decodeCursor(root);
+
+    // Ask each node for as much as could be returned. Anything that is not
+    // returned this time will be asked for again on the next read as the
+    // cursor only moves past bundles that were returned.
+    final List<Deque<Relay.Bundle>> pending = new ArrayList<>(nodes.size());
+
+    for (int i = 0; i < nodes.size(); i++) {
+      final Uuid nodeRoot = positions[i] == 0 ? Uuid.NULL : new Uuid(positions[i]);
+      pending.add(new ArrayDeque<>(nodes.get(i).read(teamId, teamSecret, nodeRoot, range)));
+    }
+
+    while (result.size() < range) {
+
+      final int next = earliest(pending);
+
+      if (next < 0) {
+        break;
+      }
+
+      final Relay.Bundle bundle = pending.get(next).removeFirst();
+      positions[next] = bundle.id().id();
+
+      result.add(withId(bundle, encodeCursor(positions)));
+    }
+
+    return result;
+  }
+
+  // PARTITION
+  //
+  // The index of the node that owns the given conversation.
+  public int partition(Uuid conversation) {
+    return Math.floorMod(conversation.hashCode(), nodes.size());
+  }
+
+  // Find the node whose next bundle was accepted first. Ties go to the lower
+  // node so that the merge is stable. Returns -1 when there is nothing left.
+  private static int earliest(List<Deque<Relay.Bundle>> pending) {
+
+    int best = -1;
+
+    for (int i = 0; i < pending.size(); i++) {
+      final Relay.Bundle head = pending.get(i).peekFirst();
+      if (head != null &&
+          (best < 0 || head.time().compareTo(pending.get(best).peekFirst().time()) < 0)) {
+        best = i;
+      }
+    }
+
+    return best;
+  }
+
+  private int[] decodeCursor(Uuid root) {
+
+    final int[] positions = new int[nodes.size()];
+
+    int length = 0;
+    for (Uuid current = root; current != null; current = current.root()) {
+      length++;
+    }
+
+    // A root that was not made by this cluster (like NULL) means start every
+    // partition from its earliest point.
+    if (length == positions.length) {
+      Uuid current = root;
+      for (int i = positions.length - 1; i >= 0; i--) {
+        positions[i] = current.id();
+        current = current.root();
+      }
+    } else if (!Uuid.equals(root, Uuid.NULL)) {
+      LOG.warning("Relay cursor %s does not match a cluster of %d nodes - reading from the start",
+                  root,
+                  positions.length);
+    }
+
+    return positions;
+  }
+
+  private static Uuid encodeCursor(int[] positions) {
+    Uuid cursor = null;
+    for (final int position : positions) {
+      cursor = new Uuid(cursor, position);
+    }
+    return cursor;
+  }
+
+  private static Relay.Bundle withId(final Relay.Bundle bundle, final Uuid id) {
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public Time time() { return bundle.time(); }
+      @Override
+      public Uuid team() { return bundle.team(); }
+      @Override
+      public Relay.Bundle.Component user() { return bundle.user(); }
+      @Override
+      public Relay.Bundle.Component conversation() { return bundle.conversation(); }
+      @Override
+      public Relay.Bundle.Component message() { return bundle.message(); }
+      @Override
+      public long trace() { return bundle.trace(); }
+    };
+  }
+}
@@ -18,17 +18,20 @@ import java.util.Collection;
 import java.util.HashSet;
 
 import codeu.chat.common.BasicController;
+import codeu.chat.common.BasicInterests;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Interests;
 import codeu.chat.common.Message;
-import codeu.chat.common.RandomUuidGenerator;
 import codeu.chat.common.RawController;
+import codeu.chat.common.StatusUpdate;
+import codeu.chat.common.TimeUuidGenerator;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
-public final class Controller implements RawController, BasicController {
+public final class Controller implements RawController, BasicController, BasicInterests {
 
   private final static Logger.Log LOG = Logger.newLog(Controller.class);
 
@@ -37,7 +40,7 @@ public final class Controller implements RawController, BasicController {
 
   public Controller(Uuid serverId, Model model) {
     this.model = model;
-    this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
+    this.uuidGenerator = new TimeUuidGenerator(serverId);
   }
 
   @Override
@@ -66,7 +69,7 @@ public final class Controller implements RawController, BasicController {
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
       message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body);
-      model.add(message);
+      model.add(message, conversation);
       LOG.info("Message added: %s", message.id);
 
       // Find and update the previous "last" message so that it's "next" value
@@ -95,6 +98,8 @@ public final class Controller implements RawController, BasicController {
       // Update the conversation to point to the new last message as it has changed.
 
       foundConversation.lastMessage = message.id;
+
+      model.interests().onMessage(author, conversation);
     }
 
     return message;
@@ -138,12 +143,47 @@ public final class Controller implements RawController, BasicController {
     if (foundOwner != null && isIdFree(id)) {
       conversation = new ConversationHeader(id, owner, creationTime, title);
       model.add(conversation);
+      model.interests().onConversation(owner, id);
       LOG.info("Conversation added: " + id);
     }
 
     return conversation;
   }
 
+  @Override
+  public boolean followUser(Uuid user, Uuid followed) {
+    return model.userById().first(user) != null &&
+           model.userById().first(followed) != null &&
+           model.interests().followUser(user, followed);
+  }
+
+  @Override
+  public boolean unfollowUser(Uuid user, Uuid followed) {
+    return model.interests().unfollowUser(user, followed);
+  }
+
+  @Override
+  public boolean followConversation(Uuid user, Uuid conversation) {
+    return model.userById().first(user) != null &&
+           model.conversationById().first(conversation) != null &&
+           model.interests().followConversation(user, conversation);
+  }
+
+  @Override
+  public boolean unfollowConversation(Uuid user, Uuid conversation) {
+    return model.interests().unfollowConversation(user, conversation);
+  }
+
+  @Override
+  public Interests getInterests(Uuid user) {
+    return model.interests().interests(user);
+  }
+
+  @Override
+  public StatusUpdate statusUpdate(Uuid user) {
+    return model.interests().statusUpdate(user);
+  }
+
   private Uuid createId() {
 
     Uuid candidate;
@@ -152,9 +192,10 @@ public final class Controller implements RawController, BasicController {
          isIdInUse(candidate);
          candidate = uuidGenerator.make()) {
 
-     // Assuming that "randomUuid" is actually well implemented, this
-     // loop should never be needed, but just incase make sure that the
-     // Uuid is not actually in use before returning it.
+     // Ids from the generator are unique within a run, so this loop should
+     // never be needed. An id saved by an earlier run could still come up
+     // again if the clock was set back, so make sure that the Uuid is not
+     // actually in use before returning it.
 
     }
 
@@ -162,9 +203,7 @@ public final class Controller implements RawController, BasicController {
   }
 
   private boolean isIdInUse(Uuid id) {
-    return model.messageById().first(id) != null ||
-           model.conversationById().first(id) != null ||
-           model.userById().first(id) != null;
+    return model.ids().contains(id);
   }
 
   private boolean isIdFree(Uuid id) { return !isIdInUse(id); }
@@ -0,0 +1,114 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+// FOOTPRINT
+//
+// Estimates of how many bytes of heap the model's objects take, for a 64 bit
+// JVM with compressed references (12 byte object headers, 4 byte references
+// and everything rounded up to 8 bytes). These are estimates - the JVM does
+// not say how big an object is - but they are close enough to size a heap and
+// to see which index is growing.
+//
+// Only what an object owns is counted. An entity owns the last two links of
+// its id (see TimeUuidGenerator), its creation time and its text. The root of
+// an id (the server's id) and ids that point at other entities (like a
+// message's author) are shared and are not counted again.
+final class Footprint {
+
+  private static final int HEADER = 12;
+  private static final int REFERENCE = 4;
+
+  // Java 9 and later keep strings that fit in Latin-1 as one byte per char.
+  private static final boolean COMPACT_STRINGS =
+      !System.getProperty("java.specification.version", "1.8").startsWith("1.");
+
+  // An id link: a reference to its root and an int.
+  public static final long UUID = align(HEADER + REFERENCE + 4);
+
+  // The links of an id that belong to the entity: everything below the root.
+  public static final long OWN_ID = 2 * UUID;
+
+  // A Time: a single long.
+  public static final long TIME = align(HEADER + 8);
+
+  // A Store link: key, value and next.
+  public static final long STORE_LINK = align(HEADER + 3 * REFERENCE);
+
+  // A TreeMap entry: key, value, left, right, parent and a boolean colour.
+  public static final long INDEX_ENTRY = align(HEADER + 5 * REFERENCE + 1);
+
+  // A Model change: a long and a reference, plus its slot in the list.
+  public static final long CHANGE = align(HEADER + 8 + REFERENCE) + REFERENCE;
+
+  // A HashMap entry: hash, key, value and next, plus its slot in the table.
+  public static final long HASH_ENTRY = align(HEADER + 4 + 3 * REFERENCE) + REFERENCE;
+
+  // A MessageIndex postings list without its array: the array and three ints.
+  public static final long POSTINGS = align(HEADER + REFERENCE + 3 * 4);
+
+  private Footprint() { }
+
+  public static long of(String text) {
+    if (text == null) {
+      return 0;
+    }
+    int bytesPerChar = COMPACT_STRINGS ? 1 : 2;
+    if (COMPACT_STRINGS) {
+      for (int i = 0; i < text.length(); i++) {
+        if (text.charAt(i) > 0xFF) {
+          bytesPerChar = 2;
+          break;
+        }
+      }
+    }
+    // The String object (value, hash and coder) and its array.
+    return align(HEADER + REFERENCE + 4 + 2) + align(HEADER + 4 + (long) text.length() * bytesPerChar);
+  }
+
+  public static long of(User user) {
+    return align(HEADER + 3 * REFERENCE) + OWN_ID + TIME + of(user.name);
+  }
+
+  public static long of(ConversationHeader conversation) {
+    return align(HEADER + 4 * REFERENCE) + OWN_ID + TIME + of(conversation.title);
+  }
+
+  public static long of(ConversationPayload payload) {
+    return align(HEADER + 3 * REFERENCE);
+  }
+
+  public static long of(Message message) {
+    return align(HEADER + 6 * REFERENCE) + OWN_ID + TIME + of(message.content);
+  }
+
+  // An array whose elements take "length" bytes in all.
+  public static long ofArray(int length) {
+    return align(HEADER + 4 + (long) length);
+  }
+
+  // The bytes a store adds on top of the values in it.
+  public static long ofIndex(int values, int keys) {
+    return values * STORE_LINK + keys * INDEX_ENTRY;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import codeu.chat.util.BloomFilter;
+import codeu.chat.util.Uuid;
+
+// ID REGISTRY
+//
+// Every id in use by a user, conversation or message, in one place so that
+// checking if an id is free is one lookup rather than one for each kind of
+// entity. The ids are kept in a concurrent hash set with a Bloom filter in
+// front of it. New ids are nearly always free, and for a free id the filter
+// almost always answers on its own without hashing into the set.
+//
+// The filter cannot grow, so when there are more ids than it was sized for a
+// filter twice the size is built from the set. Adds share a read lock and the
+// rebuild takes the write lock so that no add can land in the old filter
+// after the new one was filled. Checks take no lock.
+public final class IdRegistry {
+
+  private static final int INITIAL_EXPECTED = 1024;
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  private final Set<Uuid> ids = Collections.newSetFromMap(new ConcurrentHashMap<Uuid, Boolean>());
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private volatile BloomFilter filter = new BloomFilter(INITIAL_EXPECTED, FALSE_POSITIVE_RATE);
+
+  // ADD
+  //
+  // Mark an id as in use. Returns false if it already was.
+  public boolean add(Uuid id) {
+
+    lock.readLock().lock();
+    try {
+      if (!ids.add(id)) {
+        return false;
+      }
+      filter.add(hash(id));
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    if (ids.size() > filter.expected()) {
+      grow();
+    }
+
+    return true;
+  }
+
+  // CONTAINS
+  //
+  // Check if an id is in use.
+  public boolean contains(Uuid id) {
+    return filter.mightContain(hash(id)) && ids.contains(id);
+  }
+
+  // SIZE
+  //
+  // The number of ids in use.
+  public int size() {
+    return ids.size();
+  }
+
+  // BYTES
+  //
+  // An estimate of the heap the registry takes (see Footprint): a hash entry
+  // for each id and the filter's bits. The ids themselves belong to the
+  // entities and are not counted.
+  public long bytes() {
+    return ids.isEmpty() ? 0 : ids.size() * Footprint.HASH_ENTRY + filter.bits() / 8;
+  }
+
+  private void grow() {
+
+    lock.writeLock().lock();
+    try {
+
+      // Another add may have grown the filter already.
+      final int expected = filter.expected();
+      if (ids.size() <= expected) {
+        return;
+      }
+
+      final BloomFilter bigger = new BloomFilter(Math.max(expected * 2, ids.size()), FALSE_POSITIVE_RATE);
+      for (final Uuid id : ids) {
+        bigger.add(hash(id));
+      }
+      filter = bigger;
+
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // A 64 bit hash over every link of the id. Uuid.hashCode is only 32 bits,
+  // which is too few for a filter that may hold millions of ids.
+  static long hash(Uuid id) {
+    long hash = 0;
+    for (Uuid current = id; current != null; current = current.root()) {
+      hash = hash * 0x9E3779B97F4A7C15L + (current.id() & 0xFFFFFFFFL) + 1;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,233 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import codeu.chat.common.Interests;
+import codeu.chat.common.StatusUpdate;
+import codeu.chat.util.Uuid;
+
+// INTEREST INDEX
+//
+// Who follows which users and conversations, and what has happened to them
+// since each follower last asked. Activity is counted as it happens: adding a
+// message or conversation only touches the followers of its author and
+// conversation, and a status update hands back what has been counted without
+// looking at any messages.
+//
+// Like the model, this is not thread-safe. The server only uses it while
+// holding the model's lock.
+public final class InterestIndex {
+
+  // Everything kept for one follower. Insertion ordered so that status updates
+  // list things in the order they were followed.
+  private static final class Follower {
+
+    public final Map<Uuid, Set<Uuid>> created = new LinkedHashMap<>();
+    public final Map<Uuid, Set<Uuid>> updated = new LinkedHashMap<>();
+    public final Map<Uuid, Integer> messages = new LinkedHashMap<>();
+  }
+
+  private final Map<Uuid, Follower> followers = new HashMap<>();
+
+  // The reverse of the follows in "followers" so that activity only needs to
+  // visit the users who care about it.
+  private final Map<Uuid, Set<Uuid>> userFollowers = new HashMap<>();
+  private final Map<Uuid, Set<Uuid>> conversationFollowers = new HashMap<>();
+
+  public boolean followUser(Uuid user, Uuid followed) {
+
+    if (Uuid.equals(user, followed)) {
+      return false;
+    }
+
+    final Follower follower = follower(user);
+
+    if (follower.created.containsKey(followed)) {
+      return false;
+    }
+
+    follower.created.put(followed, new LinkedHashSet<Uuid>());
+    follower.updated.put(followed, new LinkedHashSet<Uuid>());
+    reverse(userFollowers, followed).add(user);
+    return true;
+  }
+
+  public boolean unfollowUser(Uuid user, Uuid followed) {
+
+    final Follower follower = followers.get(user);
+
+    if (follower == null || follower.created.remove(followed) == null) {
+      return false;
+    }
+
+    follower.updated.remove(followed);
+    unreverse(userFollowers, followed, user);
+    return true;
+  }
+
+  public boolean followConversation(Uuid user, Uuid conversation) {
+
+    final Follower follower = follower(user);
+
+    if (follower.messages.containsKey(conversation)) {
+      return false;
+    }
+
+    follower.messages.put(conversation, 0);
+    reverse(conversationFollowers, conversation).add(user);
+    return true;
+  }
+
+  public boolean unfollowConversation(Uuid user, Uuid conversation) {
+
+    final Follower follower = followers.get(user);
+
+    if (follower == null || follower.messages.remove(conversation) == null) {
+      return false;
+    }
+
+    unreverse(conversationFollowers, conversation, user);
+    return true;
+  }
+
+  public Interests interests(Uuid user) {
+
+    final Follower follower = followers.get(user);
+
+    return follower == null ?
+        new Interests(new ArrayList<Uuid>(), new ArrayList<Uuid>()) :
+        new Interests(new ArrayList<>(follower.created.keySet()),
+                      new ArrayList<>(follower.messages.keySet()));
+  }
+
+  // ON CONVERSATION
+  //
+  // Count a new conversation for everyone who follows its owner.
+  public void onConversation(Uuid owner, Uuid conversation) {
+    final Set<Uuid> users = userFollowers.get(owner);
+    if (users != null) {
+      for (final Uuid user : users) {
+        followers.get(user).created.get(owner).add(conversation);
+      }
+    }
+  }
+
+  // ON MESSAGE
+  //
+  // Count a new message for everyone who follows its author or its
+  // conversation.
+  public void onMessage(Uuid author, Uuid conversation) {
+
+    final Set<Uuid> authorFollowers = userFollowers.get(author);
+    if (authorFollowers != null) {
+      for (final Uuid user : authorFollowers) {
+        followers.get(user).updated.get(author).add(conversation);
+      }
+    }
+
+    final Set<Uuid> readers = conversationFollowers.get(conversation);
+    if (readers != null) {
+      for (final Uuid user : readers) {
+        final Map<Uuid, Integer> messages = followers.get(user).messages;
+        messages.put(conversation, messages.get(conversation) + 1);
+      }
+    }
+  }
+
+  // STATUS UPDATE
+  //
+  // Take everything counted for "user" since their last status update and
+  // start counting again.
+  public StatusUpdate statusUpdate(Uuid user) {
+
+    final Collection<StatusUpdate.UserActivity> users = new ArrayList<>();
+    final Collection<StatusUpdate.ConversationActivity> conversations = new ArrayList<>();
+
+    final Follower follower = followers.get(user);
+
+    if (follower != null) {
+
+      for (final Map.Entry<Uuid, Set<Uuid>> entry : follower.created.entrySet()) {
+        final Set<Uuid> updated = follower.updated.get(entry.getKey());
+        users.add(new StatusUpdate.UserActivity(entry.getKey(),
+                                                new ArrayList<>(entry.getValue()),
+                                                new ArrayList<>(updated)));
+        entry.getValue().clear();
+        updated.clear();
+      }
+
+      for (final Map.Entry<Uuid, Integer> entry : follower.messages.entrySet()) {
+        conversations.add(new StatusUpdate.ConversationActivity(entry.getKey(), entry.getValue()));
+        entry.setValue(0);
+      }
+    }
+
+    return new StatusUpdate(users, conversations);
+  }
+
+  // RESET ACTIVITY
+  //
+  // Forget all counted activity but keep who follows what. Used after
+  // replaying old data so that it is not reported as new.
+  public void resetActivity() {
+    for (final Follower follower : followers.values()) {
+      for (final Set<Uuid> created : follower.created.values()) {
+        created.clear();
+      }
+      for (final Set<Uuid> updated : follower.updated.values()) {
+        updated.clear();
+      }
+      for (final Map.Entry<Uuid, Integer> entry : follower.messages.entrySet()) {
+        entry.setValue(0);
+      }
+    }
+  }
+
+  private Follower follower(Uuid user) {
+    Follower follower = followers.get(user);
+    if (follower == null) {
+      follower = new Follower();
+      followers.put(user, follower);
+    }
+    return follower;
+  }
+
+  private static Set<Uuid> reverse(Map<Uuid, Set<Uuid>> index, Uuid key) {
+    Set<Uuid> values = index.get(key);
+    if (values == null) {
+      values = new LinkedHashSet<>();
+      index.put(key, values);
+    }
+    return values;
+  }
+
+  private static void unreverse(Map<Uuid, Set<Uuid>> index, Uuid key, Uuid value) {
+    final Set<Uuid> values = index.get(key);
+    if (values != null) {
+      values.remove(value);
+      if (values.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+}
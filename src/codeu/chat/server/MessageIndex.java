@@ -0,0 +1,313 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// MESSAGE INDEX
+//
+// An inverted index over the words in messages. Each message is given a
+// number in the order it was added and each term keeps the numbers of the
+// messages that contain it (its postings). As numbers are only ever added in
+// increasing order, postings are kept as the gaps between numbers written as
+// variable length ints - most gaps fit in one or two bytes - and adding a
+// message only appends to the end of its terms' postings.
+//
+// Each conversation also keeps postings for its messages, so limiting a
+// search to one conversation is just one more list to intersect.
+//
+// A term is a run of letters and digits, lower cased. Searches match messages
+// that contain every term in the query.
+//
+// Like the model, this is not thread-safe. The server only uses it while
+// holding the model's lock.
+public final class MessageIndex {
+
+  // Terms longer than this are cut short, so that a long run of characters
+  // (like a pasted link) does not make a large key.
+  private static final int MAX_TERM_LENGTH = 64;
+
+  // POSTINGS
+  //
+  // A sorted list of message numbers stored as variable length gaps.
+  static final class Postings {
+
+    private byte[] bytes = new byte[8];
+    private int length = 0;
+    private int count = 0;
+    private int last = -1;
+
+    public int count() { return count; }
+
+    public int bytes() { return bytes.length; }
+
+    // Add a number. Numbers must be added in increasing order - adding the
+    // last number again does nothing.
+    public void add(int number) {
+
+      if (number <= last) {
+        return;
+      }
+
+      if (length + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+
+      // Seven bits per byte, with the high bit set on all but the last byte.
+      int gap = number - last;
+      while ((gap & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+        gap >>>= 7;
+      }
+      bytes[length++] = (byte) gap;
+
+      last = number;
+      count++;
+    }
+
+    public Cursor cursor() {
+      return new Cursor(this);
+    }
+  }
+
+  // CURSOR
+  //
+  // Walks a postings list from the start. "current" is -1 before the first
+  // call to "next" and Integer.MAX_VALUE once the list is used up.
+  static final class Cursor {
+
+    private final Postings postings;
+    private int at = 0;
+    private int current = -1;
+
+    Cursor(Postings postings) {
+      this.postings = postings;
+    }
+
+    public int current() { return current; }
+
+    public int next() {
+
+      if (at >= postings.length) {
+        return current = Integer.MAX_VALUE;
+      }
+
+      int gap = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = postings.bytes[at++];
+        gap |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+
+      return current += gap;
+    }
+
+    // Move to the first number that is at least "target".
+    public int advance(int target) {
+      while (current < target) {
+        next();
+      }
+      return current;
+    }
+  }
+
+  private static final Comparator<Postings> BY_COUNT = new Comparator<Postings>() {
+    @Override
+    public int compare(Postings a, Postings b) {
+      return Integer.compare(a.count, b.count);
+    }
+  };
+
+  private final List<Message> messages = new ArrayList<>();
+  private final Map<String, Postings> terms = new HashMap<>();
+  private final Map<Uuid, Postings> conversations = new HashMap<>();
+
+  // ADD
+  //
+  // Index a message. "conversation" may be null if the message should only be
+  // found by searches across all conversations.
+  public void add(Message message, Uuid conversation) {
+
+    final int number = messages.size();
+    messages.add(message);
+
+    for (final String term : terms(message.content)) {
+      Postings postings = terms.get(term);
+      if (postings == null) {
+        postings = new Postings();
+        terms.put(term, postings);
+      }
+      postings.add(number);
+    }
+
+    if (conversation != null && !Uuid.equals(conversation, Uuid.NULL)) {
+      Postings postings = conversations.get(conversation);
+      if (postings == null) {
+        postings = new Postings();
+        conversations.put(conversation, postings);
+      }
+      postings.add(number);
+    }
+  }
+
+  // SEARCH
+  //
+  // Find messages that contain every term in "query". If "conversation" is not
+  // null (or NULL) only messages in that conversation are found. At most
+  // "limit" messages are returned - the most recently added ones, newest
+  // first. A query without any terms finds nothing.
+  public Collection<Message> search(String query, Uuid conversation, int limit) {
+
+    final Collection<Message> found = new ArrayList<>();
+    final Set<String> queryTerms = terms(query);
+
+    if (queryTerms.isEmpty() || limit <= 0) {
+      return found;
+    }
+
+    final List<Postings> lists = new ArrayList<>();
+
+    for (final String term : queryTerms) {
+      final Postings postings = terms.get(term);
+      if (postings == null) {
+        return found;
+      }
+      lists.add(postings);
+    }
+
+    if (conversation != null && !Uuid.equals(conversation, Uuid.NULL)) {
+      final Postings postings = conversations.get(conversation);
+      if (postings == null) {
+        return found;
+      }
+      lists.add(postings);
+    }
+
+    // Walk the shortest list and skip the others forward to each of its
+    // numbers. Keep the last "limit" matches in a ring as the newest are
+    // wanted and postings can only be read from the front.
+    Collections.sort(lists, BY_COUNT);
+
+    final Cursor[] cursors = new Cursor[lists.size()];
+    for (int i = 0; i < cursors.length; i++) {
+      cursors[i] = lists.get(i).cursor();
+    }
+
+    final int[] ring = new int[Math.min(limit, lists.get(0).count())];
+    long matches = 0;
+
+    boolean done = false;
+
+    while (!done) {
+
+      final int candidate = cursors[0].next();
+
+      if (candidate == Integer.MAX_VALUE) {
+        break;
+      }
+
+      boolean all = true;
+
+      for (int i = 1; i < cursors.length && all; i++) {
+        final int at = cursors[i].advance(candidate);
+        all = at == candidate;
+        done = at == Integer.MAX_VALUE;
+      }
+
+      if (all) {
+        ring[(int) (matches++ % ring.length)] = candidate;
+      }
+    }
+
+    final int kept = (int) Math.min(matches, ring.length);
+    for (int i = 1; i <= kept; i++) {
+      found.add(messages.get(ring[(int) ((matches - i) % ring.length)]));
+    }
+
+    return found;
+  }
+
+  // TERM COUNT
+  //
+  // The number of distinct terms in the index.
+  public int termCount() {
+    return terms.size();
+  }
+
+  // BYTES
+  //
+  // An estimate of the heap the index takes (see Footprint), not counting the
+  // messages themselves.
+  public long bytes() {
+
+    // The list of messages by number holds one reference for each.
+    long bytes = messages.isEmpty() ? 0 : Footprint.ofArray(messages.size() * 4);
+
+    for (final Map.Entry<String, Postings> entry : terms.entrySet()) {
+      bytes += Footprint.HASH_ENTRY + Footprint.of(entry.getKey()) + Footprint.POSTINGS +
+               Footprint.ofArray(entry.getValue().bytes());
+    }
+
+    for (final Postings postings : conversations.values()) {
+      bytes += Footprint.HASH_ENTRY + Footprint.POSTINGS + Footprint.ofArray(postings.bytes());
+    }
+
+    return bytes;
+  }
+
+  // TERMS
+  //
+  // Split text into its distinct terms, in the order they first appear.
+  static Set<String> terms(String text) {
+
+    final Set<String> terms = new LinkedHashSet<>();
+
+    if (text == null) {
+      return terms;
+    }
+
+    final StringBuilder term = new StringBuilder();
+
+    for (int i = 0; i <= text.length(); i++) {
+
+      final char c = i < text.length() ? text.charAt(i) : ' ';
+
+      if (Character.isLetterOrDigit(c)) {
+        if (term.length() < MAX_TERM_LENGTH) {
+          term.append(Character.toLowerCase(c));
+        }
+      } else if (term.length() > 0) {
+        terms.add(term.toString());
+        term.setLength(0);
+      }
+    }
+
+    return terms;
+  }
+}
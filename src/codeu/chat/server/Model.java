@@ -14,13 +14,17 @@
 
 package codeu.chat.server;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
+import codeu.chat.common.Versions;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.store.Store;
@@ -65,12 +69,63 @@ public final class Model {
 
   private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
   private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+
+  // Messages are searched by the words in them rather than by their whole
+  // text, so they get an inverted index in place of a text store.
+  private final MessageIndex messageIndex = new MessageIndex();
+
+  // Every user, conversation and message id so that checking if an id is
+  // taken does not need a lookup in each of the id stores.
+  private final IdRegistry ids = new IdRegistry();
+
+  // A value and the point in the change sequence where it was added.
+  private static final class Change<T> {
+
+    public final long sequence;
+    public final T value;
+
+    public Change(long sequence, T value) {
+      this.sequence = sequence;
+      this.value = value;
+    }
+  }
+
+  // Every add moves the change sequence forward. Users and conversations are
+  // also kept in the order they were added so that a client that has already
+  // seen everything up to some point in the sequence only needs to be sent
+  // what came after it.
+  //
+  // The epoch tells apart sequences from different runs of the server - a
+  // restarted server counts from zero again.
+  private final long epoch = System.currentTimeMillis();
+  private long sequence = 0;
+
+  private final List<Change<User>> userChanges = new ArrayList<>();
+  private final List<Change<ConversationHeader>> conversationChanges = new ArrayList<>();
+
+  private final InterestIndex interests = new InterestIndex();
+
+  // Each version is the sequence number of the last add of its kind so that
+  // clients can cheaply check if what they have cached is still current.
+  private long userVersion = 0;
+  private long conversationVersion = 0;
+  private long messageVersion = 0;
+
+  // Estimated bytes of the entities themselves (see Footprint), added up as
+  // they are added. The indexes' own overhead is worked out from their sizes.
+  private long userBytes = 0;
+  private long conversationBytes = 0;
+  private long payloadBytes = 0;
+  private long messageBytes = 0;
 
   public void add(User user) {
+    ids.add(user.id);
     userById.insert(user.id, user);
     userByTime.insert(user.creation, user);
     userByText.insert(user.name, user);
+    userBytes += Footprint.of(user);
+    userVersion = ++sequence;
+    userChanges.add(new Change<>(sequence, user));
   }
 
   public StoreAccessor<Uuid, User> userById() {
@@ -86,10 +141,16 @@ public final class Model {
   }
 
   public void add(ConversationHeader conversation) {
+    ids.add(conversation.id);
     conversationById.insert(conversation.id, conversation);
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
-    conversationPayloadById.insert(conversation.id, new ConversationPayload(conversation.id));
+    final ConversationPayload payload = new ConversationPayload(conversation.id);
+    conversationPayloadById.insert(conversation.id, payload);
+    conversationBytes += Footprint.of(conversation);
+    payloadBytes += Footprint.of(payload);
+    conversationVersion = ++sequence;
+    conversationChanges.add(new Change<>(sequence, conversation));
   }
 
   public StoreAccessor<Uuid, ConversationHeader> conversationById() {
@@ -109,9 +170,20 @@ public final class Model {
   }
 
   public void add(Message message) {
+    add(message, null);
+  }
+
+  // ADD
+  //
+  // Add a message that is part of "conversation" so that searches can be
+  // limited to that conversation.
+  public void add(Message message, Uuid conversation) {
+    ids.add(message.id);
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+    messageIndex.add(message, conversation);
+    messageBytes += Footprint.of(message);
+    messageVersion = ++sequence;
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -122,7 +194,112 @@ public final class Model {
     return messageByTime;
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  public MessageIndex messageIndex() {
+    return messageIndex;
+  }
+
+  // IDS
+  //
+  // Every id used by a user, conversation or message in the model. Payloads
+  // share their conversation's id.
+  public IdRegistry ids() {
+    return ids;
+  }
+
+  public Versions versions() {
+    return new Versions(userVersion, conversationVersion, messageVersion);
+  }
+
+  // MEMORY
+  //
+  // How many of each entity the model holds and roughly how many bytes they
+  // take, followed by the same for each index. An index's bytes are only its
+  // own overhead - its keys are fields of the entities, which are counted with
+  // the entities.
+  public List<ServerStats.Memory> memory() {
+
+    final List<ServerStats.Memory> memory = new ArrayList<>();
+
+    memory.add(new ServerStats.Memory("users", userById.size(), userBytes));
+    memory.add(new ServerStats.Memory("conversations", conversationById.size(), conversationBytes));
+    memory.add(new ServerStats.Memory("conversation-payloads", conversationPayloadById.size(), payloadBytes));
+    memory.add(new ServerStats.Memory("messages", messageById.size(), messageBytes));
+    memory.add(new ServerStats.Memory("changes",
+                                      userChanges.size() + conversationChanges.size(),
+                                      (userChanges.size() + conversationChanges.size()) * Footprint.CHANGE));
+
+    memory.add(index("user-by-id", userById));
+    memory.add(index("user-by-time", userByTime));
+    memory.add(index("user-by-text", userByText));
+    memory.add(index("conversation-by-id", conversationById));
+    memory.add(index("conversation-by-time", conversationByTime));
+    memory.add(index("conversation-by-text", conversationByText));
+    memory.add(index("payload-by-id", conversationPayloadById));
+    memory.add(index("message-by-id", messageById));
+    memory.add(index("message-by-time", messageByTime));
+    memory.add(new ServerStats.Memory("message-terms", messageIndex.termCount(), messageIndex.bytes()));
+    memory.add(new ServerStats.Memory("id-registry", ids.size(), ids.bytes()));
+
+    return memory;
+  }
+
+  public InterestIndex interests() {
+    return interests;
+  }
+
+  // EPOCH
+  //
+  // Identifies this run of the model. Sequence numbers from another epoch
+  // cannot be compared with this model's.
+  public long epoch() {
+    return epoch;
+  }
+
+  // SEQUENCE
+  //
+  // The sequence number of the last add.
+  public long sequence() {
+    return sequence;
+  }
+
+  // USERS SINCE
+  //
+  // All users added after the given sequence number, oldest first.
+  public Collection<User> usersSince(long sequence) {
+    return since(userChanges, sequence);
+  }
+
+  // CONVERSATIONS SINCE
+  //
+  // All conversations added after the given sequence number, oldest first.
+  public Collection<ConversationHeader> conversationsSince(long sequence) {
+    return since(conversationChanges, sequence);
+  }
+
+  private static ServerStats.Memory index(String name, Store<?, ?> store) {
+    return new ServerStats.Memory(name, store.size(), Footprint.ofIndex(store.size(), store.keyCount()));
+  }
+
+  private static <T> Collection<T> since(List<Change<T>> changes, long sequence) {
+
+    // Changes are in sequence order so the first one that is newer can be
+    // found with a binary search.
+    int low = 0;
+    int high = changes.size();
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (changes.get(middle).sequence <= sequence) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    final Collection<T> found = new ArrayList<>(changes.size() - low);
+    for (int i = low; i < changes.size(); i++) {
+      found.add(changes.get(i).value);
+    }
+    return found;
   }
 }
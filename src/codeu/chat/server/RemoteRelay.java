@@ -19,6 +19,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
@@ -120,6 +124,13 @@ public final class RemoteRelay implements Relay {
 
   private final ConnectionSource source;
 
+  // Start by asking the relay for the traced format, then the compact format.
+  // If the relay does not understand one, fall back to the next and stop
+  // asking. Traced writes fall back to plain writes in the same way.
+  private boolean tracedSupported = true;
+  private boolean compactSupported = true;
+  private boolean tracedWriteSupported = true;
+
   public RemoteRelay(ConnectionSource source) {
     this.source = source;
   }
@@ -135,11 +146,28 @@ public final class RemoteRelay implements Relay {
                        Relay.Bundle.Component user,
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
+    return write(teamId, teamSecret, user, conversation, message, 0);
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message,
+                       long trace) {
 
     boolean result = false;
 
+    final boolean traced = trace != 0 && tracedWriteSupported;
+
     try (final Connection connection = source.connect()) {
 
+      if (traced) {
+        Serializers.INTEGER.write(connection.out(), NetworkCode.TRACED_REQUEST);
+        Serializers.LONG.write(connection.out(), trace);
+      }
+
       Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), teamId);
       Secret.SERIALIZER.write(connection.out(), teamSecret);
@@ -147,8 +175,16 @@ public final class RemoteRelay implements Relay {
       COMPONENT_SERIALIZER.write(connection.out(), conversation);
       COMPONENT_SERIALIZER.write(connection.out(), message);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_WRITE_RESPONSE) {
+      final int reply = Serializers.INTEGER.read(connection.in());
+
+      if (reply == NetworkCode.RELAY_WRITE_RESPONSE) {
         result = Serializers.BOOLEAN.read(connection.in());
+      } else if (traced) {
+        // Newer relays answer an unknown request with NO_MESSAGE, but older
+        // ones just close the connection. Either way the message was not
+        // written.
+        LOG.warning("Relay did not handle TRACED_REQUEST - falling back to untraced writes");
+        tracedWriteSupported = false;
       } else {
         LOG.error("Server did not handle RELAY_WRITE_REQUEST");
       }
@@ -156,13 +192,70 @@ public final class RemoteRelay implements Relay {
       LOG.error(ex, "Unexpected error when sending RELAY_WRITE_REQUEST");;
     }
 
+    // The relay rejected the whole request, so nothing was written. Send it
+    // again without the trace.
+    if (traced && !tracedWriteSupported) {
+      return write(teamId, teamSecret, user, conversation, message, 0);
+    }
+
     return result;
   }
 
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+    try {
+      return readOrFail(teamId, teamSecret, root, range);
+    } catch (Exception ex) {
+      LOG.error(ex, "Unexpected error when reading from the relay");
+      return new ArrayList<>();
+    }
+  }
 
-    final Collection<Relay.Bundle> result = new ArrayList<>();
+  // READ OR FAIL
+  //
+  // The same as "read", but a read that fails throws rather than looking the
+  // same as there being nothing new to read.
+  public Collection<Relay.Bundle> readOrFail(Uuid teamId,
+                                             Secret teamSecret,
+                                             Uuid root,
+                                             int range) throws IOException {
+
+    if (tracedSupported) {
+      try (final Connection connection = source.connect()) {
+
+        Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_TRACED_REQUEST);
+        Uuid.SERIALIZER.write(connection.out(), teamId);
+        Secret.SERIALIZER.write(connection.out(), teamSecret);
+        Uuid.SERIALIZER.write(connection.out(), root);
+        Serializers.INTEGER.write(connection.out(), range);
+
+        if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_TRACED_RESPONSE) {
+          final Map<Integer, Long> traces = readTraces(connection.in());
+          return readCompact(connection.in(), traces);
+        }
+
+        LOG.warning("Relay did not handle RELAY_READ_TRACED_REQUEST - falling back to RELAY_READ_COMPACT_REQUEST");
+        tracedSupported = false;
+      }
+    }
+
+    if (compactSupported) {
+      try (final Connection connection = source.connect()) {
+
+        Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_COMPACT_REQUEST);
+        Uuid.SERIALIZER.write(connection.out(), teamId);
+        Secret.SERIALIZER.write(connection.out(), teamSecret);
+        Uuid.SERIALIZER.write(connection.out(), root);
+        Serializers.INTEGER.write(connection.out(), range);
+
+        if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_COMPACT_RESPONSE) {
+          return readCompact(connection.in(), Collections.<Integer, Long>emptyMap());
+        }
+
+        LOG.warning("Relay did not handle RELAY_READ_COMPACT_REQUEST - falling back to RELAY_READ_REQUEST");
+        compactSupported = false;
+      }
+    }
 
     try (final Connection connection = source.connect()) {
 
@@ -172,15 +265,91 @@ public final class RemoteRelay implements Relay {
       Uuid.SERIALIZER.write(connection.out(), root);
       Serializers.INTEGER.write(connection.out(), range);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_RESPONSE) {
-        result.addAll(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Server did not handle RELAY_READ_REQUEST");
+      if (Serializers.INTEGER.read(connection.in()) != NetworkCode.RELAY_READ_RESPONSE) {
+        throw new IOException("Relay did not handle RELAY_READ_REQUEST");
       }
-    } catch (Exception ex) {
-      LOG.error(ex, "Unexpected error when sending RELAY_READ_REQUEST");
+
+      return new ArrayList<>(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
     }
+  }
 
-    return result;
+  // READ TRACES
+  //
+  // Read the list of traced bundles that starts the relay's traced read
+  // response. Gives back the trace of each traced bundle by its index in the
+  // response.
+  private static Map<Integer, Long> readTraces(InputStream in) throws IOException {
+
+    final int count = Serializers.INTEGER.read(in);
+    final Map<Integer, Long> traces = new HashMap<>();
+
+    for (int i = 0; i < count; i++) {
+      final int index = Serializers.INTEGER.read(in);
+      traces.put(index, Serializers.LONG.read(in));
+    }
+
+    return traces;
+  }
+
+  // READ COMPACT
+  //
+  // Read the relay's compact read response. Each distinct user and conversation
+  // is sent once in a dictionary at the start and bundles refer to them by
+  // index. Bundles that refer to the same entry share the same component object.
+  // Bundles listed in "traces" (by index) carry that trace.
+  private static Collection<Relay.Bundle> readCompact(InputStream in,
+                                                      Map<Integer, Long> traces) throws IOException {
+
+    final int dictionarySize = Serializers.INTEGER.read(in);
+    final List<Relay.Bundle.Component> dictionary = new ArrayList<>(dictionarySize);
+
+    for (int i = 0; i < dictionarySize; i++) {
+      dictionary.add(COMPONENT_SERIALIZER.read(in));
+    }
+
+    final int count = Serializers.INTEGER.read(in);
+    final Collection<Relay.Bundle> bundles = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+
+      final Uuid id = Uuid.SERIALIZER.read(in);
+      final Time time = Time.SERIALIZER.read(in);
+      final Uuid team = Uuid.SERIALIZER.read(in);
+      final Relay.Bundle.Component user = lookup(dictionary, Serializers.INTEGER.read(in));
+      final Relay.Bundle.Component conversation = lookup(dictionary, Serializers.INTEGER.read(in));
+      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
+      final Long traced = traces.get(i);
+      final long trace = traced == null ? 0 : traced;
+
+      bundles.add(new Relay.Bundle() {
+        @Override
+        public Uuid id() { return id; }
+        @Override
+        public Time time() { return time; }
+        @Override
+        public Uuid team() { return team; }
+        @Override
+        public Relay.Bundle.Component user() { return user; }
+        @Override
+        public Relay.Bundle.Component conversation() { return conversation; }
+        @Override
+        public Relay.Bundle.Component message() { return message; }
+        @Override
+        public long trace() { return trace; }
+      });
+    }
+
+    return bundles;
+  }
+
+  private static Relay.Bundle.Component lookup(List<Relay.Bundle.Component> dictionary,
+                                               int index) throws IOException {
+    if (index < 0 || index >= dictionary.size()) {
+      throw new IOException(String.format(
+          "Component reference %d is outside of dictionary of size %d",
+          index,
+          dictionary.size()));
+    }
+    return dictionary.get(index);
   }
 }
@@ -24,6 +24,7 @@ import codeu.chat.client.core.Context;
 import codeu.chat.common.*;
 import codeu.chat.util.*;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Frame;
 
 public final class Server {
 
@@ -35,7 +36,24 @@ public final class Server {
 
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
 
+  private static final long LANE_REPORT_MS = 60000;  // 1 minute
+
+  // The most messages sent back for one page request, however many were asked
+  // for, so that one request cannot hold the model for too long.
+  private static final int MAX_MESSAGE_PAGE = 1024;
+
+  // The most messages, users or conversations sent back for one search, for
+  // the same reason.
+  private static final int MAX_SEARCH_RESULTS = 256;
+
+  // Client requests, relay traffic and housekeeping each get their own lane so
+  // that a slow relay does not hold up clients (and the other way around). As
+  // more than one thread can now touch the model, all access to the model (and
+  // the view and controller over it) must hold the model's lock.
   private final Timeline timeline = new Timeline();
+  private final Timeline.Lane clientLane = timeline.lane("client-io", 4, 256);
+  private final Timeline.Lane relayLane = timeline.lane("relay-sync", 1, 1024);
+  private final Timeline.Lane maintenanceLane = timeline.lane("maintenance", 1, 64);
 
   private final Map<Integer, Command> commands = new HashMap<>();
 
@@ -49,6 +67,8 @@ public final class Server {
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
+  private final ServerMetrics metrics = new ServerMetrics();
+
   public Server(final Uuid id, final Secret secret, final Relay relay) {
 
     this.id = id;
@@ -72,15 +92,21 @@ public final class Server {
         final Uuid conversation = Uuid.SERIALIZER.read(in);
         final String content = Serializers.STRING.read(in);
 
-        final Message message = controller.newMessage(author, conversation, content);
+        final Message message;
+        synchronized (model) {
+          message = controller.newMessage(author, conversation, content);
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
         Serializers.nullable(Message.SERIALIZER).write(out, message);
 
-        timeline.scheduleNow(createSendToRelayEvent(
-            author,
-            conversation,
-            message.id));
+        if (message != null) {
+          relayLane.scheduleNow(createSendToRelayEvent(
+              author,
+              conversation,
+              message.id,
+              Spans.current()));
+        }
       }
     });
 
@@ -90,7 +116,10 @@ public final class Server {
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         final String name = Serializers.STRING.read(in);
-        final User user = controller.newUser(name);
+        final User user;
+        synchronized (model) {
+          user = controller.newUser(name);
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
         Serializers.nullable(User.SERIALIZER).write(out, user);
@@ -104,7 +133,10 @@ public final class Server {
 
         final String title = Serializers.STRING.read(in);
         final Uuid owner = Uuid.SERIALIZER.read(in);
-        final ConversationHeader conversation = controller.newConversation(title, owner);
+        final ConversationHeader conversation;
+        synchronized (model) {
+          conversation = controller.newConversation(title, owner);
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
         Serializers.nullable(ConversationHeader.SERIALIZER).write(out, conversation);
@@ -116,7 +148,10 @@ public final class Server {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<User> users = view.getUsers();
+        final Collection<User> users;
+        synchronized (model) {
+          users = view.getUsers();
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.GET_USERS_RESPONSE);
         Serializers.collection(User.SERIALIZER).write(out, users);
@@ -128,7 +163,10 @@ public final class Server {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<ConversationHeader> conversations = view.getConversations();
+        final Collection<ConversationHeader> conversations;
+        synchronized (model) {
+          conversations = view.getConversations();
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
         Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
@@ -144,7 +182,10 @@ public final class Server {
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-        final Collection<ConversationPayload> conversations = view.getConversationPayloads(ids);
+        final Collection<ConversationPayload> conversations;
+        synchronized (model) {
+          conversations = view.getConversationPayloads(ids);
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
         Serializers.collection(ConversationPayload.SERIALIZER).write(out, conversations);
@@ -157,13 +198,35 @@ public final class Server {
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-        final Collection<Message> messages = view.getMessages(ids);
+        final Collection<Message> messages;
+        synchronized (model) {
+          messages = view.getMessages(ids);
+        }
 
         Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
         Serializers.collection(Message.SERIALIZER).write(out, messages);
       }
     });
 
+    // Get Message Page - A client wants a run of messages from a conversation,
+    // in order, starting from a given message.
+    this.commands.put(NetworkCode.GET_MESSAGE_PAGE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid first = Uuid.SERIALIZER.read(in);
+        final int count = Math.max(0, Math.min(MAX_MESSAGE_PAGE, Serializers.INTEGER.read(in)));
+
+        final Collection<Message> page;
+        synchronized (model) {
+          page = view.getMessagePage(first, count);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGE_PAGE_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, page);
+      }
+    });
+
     // Get Server Info - A client wants to see the current server version.
     this.commands.put(NetworkCode.SERVER_INFO_REQUEST, new Command() {
       @Override
@@ -172,28 +235,333 @@ public final class Server {
         // Write out server info response
         Serializers.INTEGER.write(out, NetworkCode.SERVER_INFO_RESPONSE);
         Uuid.SERIALIZER.write(out, view.getInfo().version);
+        Time.SERIALIZER.write(out, view.getInfo().startTime);
       }
     });
 
-    this.timeline.scheduleNow(new Runnable() {
+    // Server Stats - A client wants to see how the server is doing.
+    this.commands.put(NetworkCode.SERVER_STATS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Collection<ServerStats.Memory> memory;
+        synchronized (model) {
+          memory = model.memory();
+        }
+
+        final ServerStats stats = metrics.snapshot(view.getInfo().startTime, timeline.lanes(), memory);
+
+        Serializers.INTEGER.write(out, NetworkCode.SERVER_STATS_RESPONSE);
+        ServerStats.SERIALIZER.write(out, stats);
+      }
+    });
+
+    // Search Messages - A client wants the newest messages that contain every
+    //                   word in a query, in one conversation or in all of them.
+    this.commands.put(NetworkCode.SEARCH_MESSAGES_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String query = Serializers.STRING.read(in);
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Collection<Message> found;
+        synchronized (model) {
+          found = model.messageIndex().search(query, conversation, Math.min(limit, MAX_SEARCH_RESULTS));
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, found);
+      }
+    });
+
+    // Search Users - A client wants a page of the users with a name, or with
+    //                names that start with some text.
+    this.commands.put(NetworkCode.SEARCH_USERS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String text = Serializers.STRING.read(in);
+        final boolean prefix = Serializers.BOOLEAN.read(in);
+        final Uuid after = Uuid.SERIALIZER.read(in);
+        final int count = Serializers.INTEGER.read(in);
+
+        final Collection<User> found;
+        synchronized (model) {
+          found = view.searchUsers(text, prefix, after, Math.min(count, MAX_SEARCH_RESULTS));
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.SEARCH_USERS_RESPONSE);
+        Serializers.collection(User.SERIALIZER).write(out, found);
+      }
+    });
+
+    // Search Conversations - A client wants a page of the conversations with a
+    //                        title, or with titles that start with some text.
+    this.commands.put(NetworkCode.SEARCH_CONVERSATIONS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String text = Serializers.STRING.read(in);
+        final boolean prefix = Serializers.BOOLEAN.read(in);
+        final Uuid after = Uuid.SERIALIZER.read(in);
+        final int count = Serializers.INTEGER.read(in);
+
+        final Collection<ConversationHeader> found;
+        synchronized (model) {
+          found = view.searchConversations(text, prefix, after, Math.min(count, MAX_SEARCH_RESULTS));
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.SEARCH_CONVERSATIONS_RESPONSE);
+        Serializers.collection(ConversationHeader.SERIALIZER).write(out, found);
+      }
+    });
+
+    // Get Spans - A client wants the spans recorded for a traced request.
+    this.commands.put(NetworkCode.GET_SPANS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final long trace = Serializers.LONG.read(in);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_SPANS_RESPONSE);
+        Serializers.collection(Spans.Span.SERIALIZER).write(out, Spans.snapshot(trace));
+      }
+    });
+
+    // Get Versions - A client wants to know if anything has been added since it
+    //                last cached users, conversations or messages.
+    this.commands.put(NetworkCode.GET_VERSIONS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Versions versions;
+        synchronized (model) {
+          versions = view.getVersions();
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_VERSIONS_RESPONSE);
+        Versions.SERIALIZER.write(out, versions);
+      }
+    });
+
+    // Get Users Since - A client that already has the users up to some point
+    // in the model's change sequence wants only the ones added after it.
+    this.commands.put(NetworkCode.GET_USERS_SINCE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final long epoch = Serializers.LONG.read(in);
+        final long sequence = Serializers.LONG.read(in);
+
+        final Delta<User> delta;
+        synchronized (model) {
+          delta = view.getUsersSince(epoch, sequence);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_SINCE_RESPONSE);
+        Delta.serializer(User.SERIALIZER).write(out, delta);
+      }
+    });
+
+    // Get Conversations Since - Like Get Users Since but for conversations.
+    this.commands.put(NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final long epoch = Serializers.LONG.read(in);
+        final long sequence = Serializers.LONG.read(in);
+
+        final Delta<ConversationHeader> delta;
+        synchronized (model) {
+          delta = view.getConversationsSince(epoch, sequence);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE);
+        Delta.serializer(ConversationHeader.SERIALIZER).write(out, delta);
+      }
+    });
+
+    // Follow User - A user wants to follow another user.
+    this.commands.put(NetworkCode.FOLLOW_USER_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid user = Uuid.SERIALIZER.read(in);
+        final Uuid target = Uuid.SERIALIZER.read(in);
+
+        final boolean changed;
+        synchronized (model) {
+          changed = controller.followUser(user, target);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.FOLLOW_USER_RESPONSE);
+        Serializers.BOOLEAN.write(out, changed);
+      }
+    });
+
+    // Unfollow User - A user wants to stop following another user.
+    this.commands.put(NetworkCode.UNFOLLOW_USER_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid user = Uuid.SERIALIZER.read(in);
+        final Uuid target = Uuid.SERIALIZER.read(in);
+
+        final boolean changed;
+        synchronized (model) {
+          changed = controller.unfollowUser(user, target);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.UNFOLLOW_USER_RESPONSE);
+        Serializers.BOOLEAN.write(out, changed);
+      }
+    });
+
+    // Follow Conversation - A user wants to follow a conversation.
+    this.commands.put(NetworkCode.FOLLOW_CONVERSATION_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid user = Uuid.SERIALIZER.read(in);
+        final Uuid target = Uuid.SERIALIZER.read(in);
+
+        final boolean changed;
+        synchronized (model) {
+          changed = controller.followConversation(user, target);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.FOLLOW_CONVERSATION_RESPONSE);
+        Serializers.BOOLEAN.write(out, changed);
+      }
+    });
+
+    // Unfollow Conversation - A user wants to stop following a conversation.
+    this.commands.put(NetworkCode.UNFOLLOW_CONVERSATION_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid user = Uuid.SERIALIZER.read(in);
+        final Uuid target = Uuid.SERIALIZER.read(in);
+
+        final boolean changed;
+        synchronized (model) {
+          changed = controller.unfollowConversation(user, target);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.UNFOLLOW_CONVERSATION_RESPONSE);
+        Serializers.BOOLEAN.write(out, changed);
+      }
+    });
+
+    // Get Interests - A client wants the users and conversations a user follows.
+    this.commands.put(NetworkCode.GET_INTERESTS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid user = Uuid.SERIALIZER.read(in);
+
+        final Interests interests;
+        synchronized (model) {
+          interests = controller.getInterests(user);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_INTERESTS_RESPONSE);
+        Interests.SERIALIZER.write(out, interests);
+      }
+    });
+
+    // Status Update - A client wants everything that happened to what a user
+    // follows since they last asked. The activity is counted as messages and
+    // conversations are added, so this is only a copy.
+    this.commands.put(NetworkCode.STATUS_UPDATE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid user = Uuid.SERIALIZER.read(in);
+
+        final StatusUpdate update;
+        synchronized (model) {
+          update = controller.statusUpdate(user);
+        }
+
+        Serializers.INTEGER.write(out, NetworkCode.STATUS_UPDATE_RESPONSE);
+        StatusUpdate.SERIALIZER.write(out, update);
+      }
+    });
+
+    // Poll the relay for new messages every few seconds for as long as the
+    // server is running.
+    relayLane.scheduleAtFixedRate(0, RELAY_REFRESH_MS, new Runnable() {
       @Override
       public void run() {
         try {
 
           LOG.verbose("Reading update from relay...");
 
-          for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
-            lastSeen = bundle.id();
+          // Bundles from the same read will often share the same user and
+          // conversation components, so only resolve each component once per read.
+          final Map<Relay.Bundle.Component, User> users = new IdentityHashMap<>();
+          final Map<Relay.Bundle.Component, ConversationHeader> conversations = new IdentityHashMap<>();
+
+          // Only hold the model while applying the bundles, not while waiting
+          // on the relay.
+          final long start = System.nanoTime();
+          final Uuid root = lastSeen;
+          final Collection<Relay.Bundle> bundles;
+
+          try {
+            bundles = relay.read(id, secret, root, 32);
+          } catch (RuntimeException ex) {
+            metrics.onRelayPoll(System.nanoTime() - start, true, Collections.<Time>emptyList());
+            throw ex;
+          }
+
+          final Collection<Time> bundleTimes = new ArrayList<>();
+          for (final Relay.Bundle bundle : bundles) {
+            bundleTimes.add(bundle.time());
+          }
+          metrics.onRelayPoll(System.nanoTime() - start, false, bundleTimes);
+
+          synchronized (model) {
+            for (final Relay.Bundle bundle : bundles) {
+
+              final long applyStart = System.nanoTime();
+
+              onBundle(bundle, users, conversations);
+              lastSeen = bundle.id();
+
+              if (bundle.trace() != 0) {
+                final long waitStart = bundle.time().inMs() * 1000;
+                Spans.recordAt(bundle.trace(), Spans.RELAY_WAIT, waitStart, Spans.now() - waitStart);
+                Spans.record(bundle.trace(), Spans.REMOTE_APPLY, applyStart, System.nanoTime());
+              }
+            }
           }
 
+          EventLog.record(EventLog.TYPE_RELAY_POLL,
+                          bundles.size(),
+                          root,
+                          lastSeen,
+                          System.nanoTime() - start);
+
         } catch (Exception ex) {
 
           LOG.error(ex, "Failed to read update from relay.");
 
         }
+      }
+    });
 
-        timeline.scheduleIn(RELAY_REFRESH_MS, this);
+    // Log how each lane is keeping up so that it is possible to see when the
+    // server is falling behind.
+    maintenanceLane.scheduleAtFixedRate(LANE_REPORT_MS, LANE_REPORT_MS, new Runnable() {
+      @Override
+      public void run() {
+        for (final Timeline.Lane lane : timeline.lanes()) {
+          LOG.info("Lane %s", lane);
+        }
       }
     });
   }
@@ -250,17 +618,49 @@ public final class Server {
         controller.newMessage(commandUuid, ownerUuid, convoUuid, messageContent, commandCreation);
       }
 
+      // INTEREST reload - the 2nd element is the follower and the 3rd is the
+      // followed user or conversation
+      else if (commandType.equals("ADD-INTEREST-USER")) {
+        controller.followUser(commandUuid, Uuid.parse(logInfo.next()));
+      }
+
+      else if (commandType.equals("REMOVE-INTEREST-USER")) {
+        controller.unfollowUser(commandUuid, Uuid.parse(logInfo.next()));
+      }
+
+      else if (commandType.equals("ADD-INTEREST-CONVERSATION")) {
+        controller.followConversation(commandUuid, Uuid.parse(logInfo.next()));
+      }
+
+      else if (commandType.equals("REMOVE-INTEREST-CONVERSATION")) {
+        controller.unfollowConversation(commandUuid, Uuid.parse(logInfo.next()));
+      }
+
       line = bufferedReader.readLine();
     }
 
+    // Everything replayed above happened before this run, so none of it is new
+    // to the users following it.
+    model.interests().resetActivity();
+
     LOG.info("Successfully restored last logged server state.");
 
     fileReader.close();
     bufferedReader.close();
   }
 
+  // STOP
+  //
+  // Stop running requests and timed work. Connections that are already being
+  // handled may still finish.
+  public void stop() {
+    timeline.stop();
+  }
+
   public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
+    metrics.onConnection();
+    final long queued = System.nanoTime();
+    clientLane.scheduleNow(new Runnable() {
       @Override
       public void run() {
         try {
@@ -268,16 +668,16 @@ public final class Server {
           LOG.info("Handling connection...");
 
           final int type = Serializers.INTEGER.read(connection.in());
-          final Command command = commands.get(type);
-
-          if (command == null) {
-            // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
-            LOG.info("Connection rejected");
-          } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
+
+          if (type == NetworkCode.PIPELINE_REQUEST) {
+            // The connection now belongs to the pipeline and stays open.
+            Serializers.INTEGER.write(connection.out(), NetworkCode.PIPELINE_RESPONSE);
+            servePipeline(connection);
+            return;
           }
+
+          dispatch(type, connection.in(), connection.out(), queued);
+
         } catch (Exception ex) {
 
           LOG.error(ex, "Exception while handling connection.");
@@ -293,21 +693,153 @@ public final class Server {
     });
   }
 
-  private void onBundle(Relay.Bundle bundle) {
+  // Run the command for one request, with the request type already read.
+  // "queued" is when the request was put on the client lane. A traced request
+  // is the trace id followed by a normal request, which is run with the trace
+  // set as the thread's current trace.
+  private void dispatch(int type, InputStream in, OutputStream out, long queued) throws IOException {
+
+    if (type == NetworkCode.TRACED_REQUEST) {
+
+      final long trace = Serializers.LONG.read(in);
+      final int inner = Serializers.INTEGER.read(in);
+
+      Spans.record(trace, Spans.SERVER_QUEUE, queued, System.nanoTime());
+
+      final long previous = Spans.enter(trace);
+      try {
+        dispatch(inner, in, out, queued);
+      } finally {
+        Spans.exit(previous);
+      }
+      return;
+    }
+
+    final Command command = commands.get(type);
+    final long start = System.nanoTime();
+
+    // Unknown requests and requests that throw are counted as errors.
+    boolean failed = true;
+
+    try {
+      if (command == null) {
+        // The message type cannot be handled so return a dummy message.
+        Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+        LOG.info("Connection rejected");
+      } else {
+        command.onMessage(in, out);
+        failed = false;
+        LOG.info("Connection accepted");
+      }
+    } finally {
+      final long duration = System.nanoTime() - start;
+      metrics.onRequest(type, duration, failed);
+      Spans.record(Spans.current(), Spans.SERVER_HANDLE, start, start + duration);
+      EventLog.record(EventLog.TYPE_SERVER_REQUEST, type, null, null, duration);
+    }
+  }
+
+  // Read framed requests (see Frame) from a pipelined connection until it is
+  // closed. The reading happens on a thread of its own. Each request is run on
+  // the client lane like any other request, so many can be in progress at
+  // once, and its response is written back as soon as it is ready - so
+  // responses may go back in a different order than the requests came in.
+  private void servePipeline(final Connection connection) {
+
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+
+        final Object writeLock = new Object();
+
+        try {
+
+          final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.in()));
+          final OutputStream out = connection.out();
+
+          LOG.info("Pipeline started.");
+
+          for (Frame frame = Frame.read(in); frame != null; frame = Frame.read(in)) {
+
+            final Frame request = frame;
+            final long queued = System.nanoTime();
+
+            // Blocks when the client lane is full, which stops reading from
+            // this connection until the server catches up.
+            clientLane.scheduleNow(new Runnable() {
+              @Override
+              public void run() {
+
+                final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+                try {
+                  final InputStream body = new ByteArrayInputStream(request.bytes);
+                  dispatch(Serializers.INTEGER.read(body), body, response, queued);
+                } catch (Exception ex) {
+                  LOG.error(ex, "Exception while handling pipelined request.");
+                  response.reset();
+                  try {
+                    Serializers.INTEGER.write(response, NetworkCode.NO_MESSAGE);
+                  } catch (IOException never) {
+                    // Writing to memory does not fail.
+                  }
+                }
+
+                try {
+                  synchronized (writeLock) {
+                    Frame.write(out, request.id, response.toByteArray());
+                    out.flush();
+                  }
+                } catch (IOException ex) {
+                  LOG.warning("Failed to write pipelined response: %s", ex.getMessage());
+                }
+              }
+            });
+          }
+
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception while reading pipeline.");
+        }
+
+        LOG.info("Pipeline closed.");
+
+        try {
+          connection.close();
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception while closing connection.");
+        }
+      }
+    }, "pipeline-reader");
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void onBundle(Relay.Bundle bundle,
+                        Map<Relay.Bundle.Component, User> users,
+                        Map<Relay.Bundle.Component, ConversationHeader> conversations) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
     final Relay.Bundle.Component relayConversation = bundle.conversation();
-    final Relay.Bundle.Component relayMessage = bundle.user();
+    final Relay.Bundle.Component relayMessage = bundle.message();
 
-    User user = model.userById().first(relayUser.id());
+    User user = users.get(relayUser);
+
+    if (user == null) {
+      user = model.userById().first(relayUser.id());
+    }
 
     if (user == null) {
       user = controller.newUser(relayUser.id(), relayUser.text(), relayUser.time());
     }
 
-    ConversationHeader conversation = model.conversationById().first(relayConversation.id());
+    ConversationHeader conversation = conversations.get(relayConversation);
 
     if (conversation == null) {
+      conversation = model.conversationById().first(relayConversation.id());
+    }
+
+    if (conversation == null && user != null) {
 
       // As the relay does not tell us who made the conversation - the first person who
       // has a message in the conversation will get ownership over this server's copy
@@ -318,6 +850,14 @@ public final class Server {
                                                 relayConversation.time());
     }
 
+    if (user == null || conversation == null) {
+      LOG.warning("Dropping bundle %s - could not resolve user or conversation", bundle.id());
+      return;
+    }
+
+    users.put(relayUser, user);
+    conversations.put(relayConversation, conversation);
+
     Message message = model.messageById().first(relayMessage.id());
 
     if (message == null) {
@@ -331,18 +871,46 @@ public final class Server {
 
   private Runnable createSendToRelayEvent(final Uuid userId,
                                           final Uuid conversationId,
-                                          final Uuid messageId) {
+                                          final Uuid messageId,
+                                          final long trace) {
+    final long queued = System.nanoTime();
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final ConversationHeader conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
-        relay.write(id,
-                    secret,
-                    relay.pack(user.id, user.name, user.creation),
-                    relay.pack(conversation.id, conversation.title, conversation.creation),
-                    relay.pack(message.id, message.content, message.creation));
+
+        Spans.record(trace, Spans.RELAY_QUEUE, queued, System.nanoTime());
+
+        final User user;
+        final ConversationHeader conversation;
+        final Message message;
+
+        synchronized (model) {
+          user = view.findUser(userId);
+          conversation = view.findConversation(conversationId);
+          message = view.findMessage(messageId);
+        }
+
+        final long start = System.nanoTime();
+        boolean written = false;
+
+        try {
+          written = relay.write(id,
+                                secret,
+                                relay.pack(user.id, user.name, user.creation),
+                                relay.pack(conversation.id, conversation.title, conversation.creation),
+                                relay.pack(message.id, message.content, message.creation),
+                                trace);
+        } finally {
+          final long end = System.nanoTime();
+          metrics.onRelaySend(end - start, !written);
+          Spans.record(trace, Spans.RELAY_SEND, start, end);
+        }
+
+        EventLog.record(EventLog.TYPE_RELAY_SEND,
+                        NetworkCode.RELAY_WRITE_REQUEST,
+                        message.id,
+                        conversation.id,
+                        System.nanoTime() - start);
       }
     };
   }
@@ -0,0 +1,183 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import codeu.chat.common.ServerStats;
+import codeu.chat.util.Histogram;
+import codeu.chat.util.Time;
+import codeu.chat.util.Timeline;
+
+// SERVER METRICS
+//
+// Counters and latency histograms for everything the server does, kept from
+// when the server starts. Every method can be called from any thread without
+// locking - recording is a few atomic adds - so it is cheap enough to call on
+// every request. "snapshot" turns the current numbers into a ServerStats that
+// can be sent to a client.
+final class ServerMetrics {
+
+  // Connections are counted in one second buckets so that the accept rate can
+  // be given over the last minute.
+  private static final int RATE_SECONDS = 60;
+
+  private static final class CommandMetrics {
+    public final AtomicLong errors = new AtomicLong();
+    public final Histogram latency = new Histogram();
+  }
+
+  private final ConcurrentMap<Integer, CommandMetrics> commands = new ConcurrentHashMap<>();
+
+  private final AtomicLong connections = new AtomicLong();
+  private final AtomicLongArray connectionsInSecond = new AtomicLongArray(RATE_SECONDS);
+  private final AtomicLongArray secondOfBucket = new AtomicLongArray(RATE_SECONDS);
+
+  private final AtomicLong relayPollErrors = new AtomicLong();
+  private final AtomicLong relaySendErrors = new AtomicLong();
+  private volatile long relayLastReadMs = -1;
+  private final Histogram relayPoll = new Histogram();
+  private final Histogram relaySend = new Histogram();
+  private final Histogram relayDelay = new Histogram();
+
+  // ON CONNECTION
+  //
+  // A connection was accepted.
+  public void onConnection() {
+
+    connections.incrementAndGet();
+
+    final long second = System.currentTimeMillis() / 1000;
+    final int bucket = (int) (second % RATE_SECONDS);
+
+    // The first connection in a new second clears what the bucket held a
+    // minute ago. A connection counted between the two steps may be lost,
+    // which is fine for a rate.
+    final long held = secondOfBucket.get(bucket);
+    if (held != second && secondOfBucket.compareAndSet(bucket, held, second)) {
+      connectionsInSecond.set(bucket, 0);
+    }
+    connectionsInSecond.incrementAndGet(bucket);
+  }
+
+  // ON REQUEST
+  //
+  // A request of type "code" took "nanos" to handle. Failed requests are
+  // counted as errors and their times are recorded too.
+  public void onRequest(int code, long nanos, boolean failed) {
+
+    CommandMetrics metrics = commands.get(code);
+    if (metrics == null) {
+      final CommandMetrics created = new CommandMetrics();
+      metrics = commands.putIfAbsent(code, created);
+      if (metrics == null) {
+        metrics = created;
+      }
+    }
+
+    metrics.latency.record(nanos / 1000);
+    if (failed) {
+      metrics.errors.incrementAndGet();
+    }
+  }
+
+  // ON RELAY POLL
+  //
+  // The relay was read. On success, "bundleTimes" are the times the bundles
+  // read were written to the relay.
+  public void onRelayPoll(long nanos, boolean failed, Collection<Time> bundleTimes) {
+
+    relayPoll.record(nanos / 1000);
+
+    if (failed) {
+      relayPollErrors.incrementAndGet();
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    relayLastReadMs = now;
+
+    for (final Time time : bundleTimes) {
+      relayDelay.record((now - time.inMs()) * 1000);
+    }
+  }
+
+  // ON RELAY SEND
+  //
+  // A message was written to the relay.
+  public void onRelaySend(long nanos, boolean failed) {
+    relaySend.record(nanos / 1000);
+    if (failed) {
+      relaySendErrors.incrementAndGet();
+    }
+  }
+
+  // SNAPSHOT
+  //
+  // The numbers as they are now, with the state of each lane and what the
+  // model holds.
+  public ServerStats snapshot(Time startTime,
+                              Collection<Timeline.Lane> lanes,
+                              Collection<ServerStats.Memory> memory) {
+
+    final long now = System.currentTimeMillis();
+    final long second = now / 1000;
+
+    long lastMinute = 0;
+    for (int i = 0; i < RATE_SECONDS; i++) {
+      if (second - secondOfBucket.get(i) < RATE_SECONDS) {
+        lastMinute += connectionsInSecond.get(i);
+      }
+    }
+
+    // Sorted by code so that the output always comes out in the same order.
+    final Collection<ServerStats.Command> commandStats = new ArrayList<>();
+    for (final Map.Entry<Integer, CommandMetrics> entry : new TreeMap<>(commands).entrySet()) {
+      commandStats.add(new ServerStats.Command(entry.getKey(),
+                                               entry.getValue().errors.get(),
+                                               ServerStats.Latency.of(entry.getValue().latency)));
+    }
+
+    final Collection<ServerStats.Lane> laneStats = new ArrayList<>();
+    for (final Timeline.Lane lane : lanes) {
+      laneStats.add(new ServerStats.Lane(lane.name(),
+                                         lane.depth(),
+                                         ServerStats.Latency.of(lane.lag()),
+                                         ServerStats.Latency.of(lane.runTime())));
+    }
+
+    final long lastRead = relayLastReadMs;
+
+    return new ServerStats(startTime,
+                           Time.fromMs(now),
+                           connections.get(),
+                           lastMinute,
+                           commandStats,
+                           laneStats,
+                           relayPollErrors.get(),
+                           relaySendErrors.get(),
+                           lastRead < 0 ? -1 : now - lastRead,
+                           ServerStats.Latency.of(relayPoll),
+                           ServerStats.Latency.of(relaySend),
+                           ServerStats.Latency.of(relayDelay),
+                           memory);
+  }
+}
@@ -27,6 +27,27 @@ public final class View implements BasicView, SinglesView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
+  // How to get the text (the key in the text store) and the id of a value so
+  // that users and conversations can share the same search.
+  private interface Named<T> {
+    String text(T value);
+    Uuid id(T value);
+  }
+
+  private static final Named<User> USER_NAME = new Named<User>() {
+    @Override
+    public String text(User user) { return user.name; }
+    @Override
+    public Uuid id(User user) { return user.id; }
+  };
+
+  private static final Named<ConversationHeader> CONVERSATION_TITLE = new Named<ConversationHeader>() {
+    @Override
+    public String text(ConversationHeader conversation) { return conversation.title; }
+    @Override
+    public Uuid id(ConversationHeader conversation) { return conversation.id; }
+  };
+
   private final Model model;
 
   private static final ServerInfo info = new ServerInfo();
@@ -55,11 +76,83 @@ public final class View implements BasicView, SinglesView {
     return info;
   }
 
+  @Override
+  public Versions getVersions() {
+    return model.versions();
+  }
+
+  // GET USERS SINCE
+  //
+  // The users added after "sequence". If "epoch" is not the model's epoch the
+  // sequence means nothing here, so every user is returned.
+  public Delta<User> getUsersSince(long epoch, long sequence) {
+    final boolean complete = epoch != model.epoch();
+    return new Delta<>(model.epoch(),
+                       model.sequence(),
+                       complete,
+                       model.usersSince(complete ? 0 : sequence));
+  }
+
+  // GET CONVERSATIONS SINCE
+  //
+  // The conversations added after "sequence". If "epoch" is not the model's
+  // epoch every conversation is returned.
+  public Delta<ConversationHeader> getConversationsSince(long epoch, long sequence) {
+    final boolean complete = epoch != model.epoch();
+    return new Delta<>(model.epoch(),
+                       model.sequence(),
+                       complete,
+                       model.conversationsSince(complete ? 0 : sequence));
+  }
+
   @Override
   public Collection<Message> getMessages(Collection<Uuid> ids) {
     return intersect(model.messageById(), ids);
   }
 
+  @Override
+  public Collection<Message> getMessagePage(Uuid first, int count) {
+
+    final Collection<Message> page = new ArrayList<>();
+
+    Message message = model.messageById().first(first);
+
+    while (message != null && page.size() < count) {
+      page.add(message);
+      message = Uuid.equals(message.next, Uuid.NULL) ?
+          null :
+          model.messageById().first(message.next);
+    }
+
+    return page;
+  }
+
+  // SEARCH USERS
+  //
+  // Find users by name, ignoring case. If "prefix" is true, every user whose
+  // name starts with "text" is a match, otherwise the name must be all of
+  // "text". Matches come in name order. To get the next page, pass the id of
+  // the last user of the previous page as "after" (or null for the first
+  // page). At most "count" users are returned.
+  public Collection<User> searchUsers(String text, boolean prefix, Uuid after, int count) {
+    return search(model.userByText(), USER_NAME, text, prefix, after == null ? null : findUser(after), count);
+  }
+
+  // SEARCH CONVERSATIONS
+  //
+  // Find conversations by title, in the same way as "searchUsers".
+  public Collection<ConversationHeader> searchConversations(String text,
+                                                            boolean prefix,
+                                                            Uuid after,
+                                                            int count) {
+    return search(model.conversationByText(),
+                  CONVERSATION_TITLE,
+                  text,
+                  prefix,
+                  after == null ? null : findConversation(after),
+                  count);
+  }
+
   @Override
   public User findUser(Uuid id) { return model.userById().first(id); }
 
@@ -69,6 +162,52 @@ public final class View implements BasicView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
 
+  // The text stores are sorted without case, so all the keys that start with
+  // a prefix are next to each other and start at the prefix itself. Finding
+  // them is a lookup in the store's index and then a walk that stops at the
+  // first key without the prefix, or once the page is full.
+  private static <T> Collection<T> search(StoreAccessor<String, T> store,
+                                          Named<T> named,
+                                          String text,
+                                          boolean prefix,
+                                          T after,
+                                          int count) {
+
+    final Collection<T> found = new ArrayList<>();
+
+    if (text == null || count <= 0) {
+      return found;
+    }
+
+    // Start from the last value of the previous page and skip up to and
+    // including it, as there may be other values with the same key before it.
+    final String start = after == null ? text : named.text(after);
+    boolean skipping = after != null;
+
+    for (final T value : prefix ? store.after(start) : store.at(start)) {
+
+      final String key = named.text(value);
+
+      if (!key.regionMatches(true, 0, text, 0, text.length()) ||
+          (!prefix && key.length() != text.length())) {
+        break;
+      }
+
+      if (skipping) {
+        skipping = !Uuid.equals(named.id(value), named.id(after));
+        continue;
+      }
+
+      found.add(value);
+
+      if (found.size() >= count) {
+        break;
+      }
+    }
+
+    return found;
+  }
+
   private static <S,T> Collection<T> all(StoreAccessor<S,T> store) {
 
     final Collection<T> all = new ArrayList<>();
@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// BLOOM FILTER
+//
+// A fixed size set of bits that can say for certain that a key was never
+// added, but can only say that a key "might" have been added. Each key sets
+// a few bits picked by hashing it, and a key might be in the filter only if
+// all of its bits are set. It is used in front of a real set so that most
+// lookups for keys that are not there never touch the set.
+//
+// The filter is sized for an expected number of keys and a false positive
+// rate. Adding more keys than expected still works but the false positive
+// rate climbs, so owners should build a bigger filter when they pass the
+// expected count.
+//
+// Keys are longs. They are mixed before use, so they do not need to be well
+// spread, but keys that are equal will always be treated as the same key.
+//
+// Any number of threads can add and check at once without a lock.
+public final class BloomFilter {
+
+  private final AtomicLongArray words;
+  private final long bits;
+  private final int hashes;
+  private final int expected;
+
+  public BloomFilter(int expected, double falsePositiveRate) {
+
+    if (expected <= 0) {
+      throw new IllegalArgumentException("Expected keys must be positive");
+    }
+
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+    }
+
+    // The standard sizes: m = -n ln(p) / ln(2)^2 bits and k = (m / n) ln(2)
+    // hashes, with the bits rounded up to whole words.
+    final double ln2 = Math.log(2);
+    final long wanted = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+    final int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (wanted + 63) / 64));
+
+    this.words = new AtomicLongArray(wordCount);
+    this.bits = wordCount * 64L;
+    this.hashes = Math.max(1, (int) Math.round((double) bits / expected * ln2));
+    this.expected = expected;
+  }
+
+  // ADD
+  //
+  // Add a key. Once this returns, "mightContain" will be true for the key on
+  // every thread.
+  public void add(long key) {
+
+    final long hash = mix(key);
+    final long first = hash & 0xFFFFFFFFL;
+    final long second = hash >>> 32;
+
+    for (int i = 0; i < hashes; i++) {
+
+      final long bit = (first + i * second) % bits;
+      final int word = (int) (bit >>> 6);
+      final long mask = 1L << bit;
+
+      long old;
+      do {
+        old = words.get(word);
+      } while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask));
+    }
+  }
+
+  // MIGHT CONTAIN
+  //
+  // False if the key was never added. True if it was added, or (at about the
+  // false positive rate) if it was not.
+  public boolean mightContain(long key) {
+
+    final long hash = mix(key);
+    final long first = hash & 0xFFFFFFFFL;
+    final long second = hash >>> 32;
+
+    for (int i = 0; i < hashes; i++) {
+      final long bit = (first + i * second) % bits;
+      if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // EXPECTED
+  //
+  // The number of keys the filter was sized for.
+  public int expected() { return expected; }
+
+  // BITS
+  //
+  // The number of bits in the filter.
+  public long bits() { return bits; }
+
+  // HASHES
+  //
+  // The number of bits each key sets.
+  public int hashes() { return hashes; }
+
+  // The finishing step of MurmurHash3's 64 bit hash, which spreads every bit
+  // of the input over the whole output.
+  private static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+}
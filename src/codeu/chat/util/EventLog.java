@@ -0,0 +1,394 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// EVENT LOG
+//
+// A log of fixed size binary records for things that need to be measured, like
+// how long each request took. Unlike the text log, nothing is formatted when
+// an event is written - the fields are copied straight into a memory mapped
+// file - so it is cheap enough to record every request.
+//
+// Each file starts with a header:
+//
+//   [ int magic ][ int version ][ int record size ][ int unused ]
+//
+// followed by records:
+//
+//   [ long time    ]  nanoseconds since the epoch
+//   [ short type   ]  what happened (see the TYPE constants)
+//   [ short unused ]
+//   [ int code     ]  the network code of the request (if there is one)
+//   [ long first   ]  an id related to the event
+//   [ long second  ]  another id related to the event
+//   [ long duration]  nanoseconds the event took
+//
+// Ids are packed as their last two links (root link in the high 32 bits) so
+// ids with more than two links lose their earlier links.
+//
+// Files are a fixed size. When one is full the log moves to a new file and,
+// if there are more than "maxFiles" files, the oldest is deleted. Space in a
+// file that has not been written is zero, so records with a time of zero are
+// skipped when reading.
+public final class EventLog implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(EventLog.class);
+
+  public static final int MAGIC = 0x4345564C;  // "CEVL"
+  public static final int VERSION = 1;
+  public static final int HEADER_BYTES = 16;
+  public static final int RECORD_BYTES = 40;
+
+  // TYPES
+  //
+  // Server : a client request was handled (code is the request type).
+  // Relay  : a relay request was handled (code is the request type).
+  // Poll   : the server read from the relay (first is the last bundle seen).
+  // Send   : the server wrote a message to the relay (first is the message,
+  //          second is the conversation).
+  public static final short TYPE_SERVER_REQUEST = 1;
+  public static final short TYPE_RELAY_REQUEST = 2;
+  public static final short TYPE_RELAY_POLL = 3;
+  public static final short TYPE_RELAY_SEND = 4;
+
+  private static final String FILE_FORMAT = "events-%010d.bin";
+
+  // The command line flag that turns on the event log (see "enableFromArgs").
+  // Files are 16 MB (about 400,000 events) and the last 8 are kept.
+  public static final String FLAG = "--events=";
+  private static final int FLAG_FILE_BYTES = 16 * 1024 * 1024;
+  private static final int FLAG_FILES = 8;
+
+  // RECORD
+  //
+  // A single event read back from an event log file.
+  public static final class Record {
+
+    public final long time;
+    public final short type;
+    public final int code;
+    public final long first;
+    public final long second;
+    public final long duration;
+
+    public Record(long time, short type, int code, long first, long second, long duration) {
+      this.time = time;
+      this.type = type;
+      this.code = code;
+      this.first = first;
+      this.second = second;
+      this.duration = duration;
+    }
+  }
+
+  // VISITOR
+  //
+  // Called for each record when reading an event log file.
+  public interface Visitor {
+    void onRecord(Record record);
+  }
+
+  private static final class Segment {
+
+    public final long number;
+    public final MappedByteBuffer buffer;
+    public final AtomicLong next = new AtomicLong(HEADER_BYTES);
+
+    public Segment(long number, MappedByteBuffer buffer) {
+      this.number = number;
+      this.buffer = buffer;
+    }
+  }
+
+  // The event log that the static "record" writes to. Null when event logging
+  // is not enabled, which makes "record" close to free.
+  private static volatile EventLog active;
+
+  private final File directory;
+  private final int fileBytes;
+  private final int maxFiles;
+
+  // The epoch time (in nanoseconds) that matches "startNanos". Reading the
+  // monotonic clock and adding the offset is much cheaper than asking for the
+  // time of day with nanosecond precision.
+  private final long startEpochNanos = System.currentTimeMillis() * 1000000L;
+  private final long startNanos = System.nanoTime();
+
+  private volatile Segment current;
+  private boolean closed = false;
+
+  // EVENT LOG
+  //
+  // Open an event log that writes to files in "directory". Each file holds
+  // "fileBytes" (rounded down to a whole number of records) and at most
+  // "maxFiles" files are kept. New files are always started, existing files
+  // are never written to again.
+  public EventLog(File directory, int fileBytes, int maxFiles) throws IOException {
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException(String.format("Could not create event log directory %s", directory));
+    }
+
+    this.directory = directory;
+    this.fileBytes = HEADER_BYTES +
+        Math.max(1, (fileBytes - HEADER_BYTES) / RECORD_BYTES) * RECORD_BYTES;
+    this.maxFiles = Math.max(1, maxFiles);
+
+    final List<File> existing = files(directory);
+    final long last = existing.isEmpty() ? -1 : number(existing.get(existing.size() - 1));
+
+    this.current = open(last + 1);
+    trim();
+  }
+
+  // ENABLE
+  //
+  // Start sending events from the static "record" to the given directory.
+  public static synchronized void enable(File directory, int fileBytes, int maxFiles) throws IOException {
+    if (active == null) {
+      active = new EventLog(directory, fileBytes, maxFiles);
+    }
+  }
+
+  // ENABLE FROM ARGS
+  //
+  // Turn on the event log if "--events=<dir>" is anywhere in a program's
+  // arguments, and give back the other arguments so that they can be read as
+  // if the flag was never there. A log that cannot be opened is reported and
+  // left off rather than stopping the program.
+  public static String[] enableFromArgs(String[] args) {
+
+    final List<String> remaining = new ArrayList<>();
+
+    for (final String arg : args) {
+      if (arg.startsWith(FLAG)) {
+        final File directory = new File(arg.substring(FLAG.length()));
+        try {
+          enable(directory, FLAG_FILE_BYTES, FLAG_FILES);
+          LOG.info("Writing events to %s", directory);
+        } catch (IOException ex) {
+          LOG.error(ex, "Failed to open event log in %s", directory);
+        }
+      } else {
+        remaining.add(arg);
+      }
+    }
+
+    return remaining.toArray(new String[remaining.size()]);
+  }
+
+  // RECORD
+  //
+  // Write an event to the enabled event log. Does nothing if event logging has
+  // not been enabled.
+  public static void record(short type, int code, Uuid first, Uuid second, long durationNanos) {
+    final EventLog log = active;
+    if (log != null) {
+      log.write(type, code, pack(first), pack(second), durationNanos);
+    }
+  }
+
+  // IS ENABLED
+  //
+  // Check if there is an event log for "record" to write to. Callers can use
+  // this to skip timing work that would not be recorded.
+  public static boolean isEnabled() {
+    return active != null;
+  }
+
+  // WRITE
+  //
+  // Add a record to the log. Any number of threads can write at once - each
+  // write claims its own space in the file and writes straight into it.
+  public void write(short type, int code, long first, long second, long durationNanos) {
+
+    final long time = startEpochNanos + (System.nanoTime() - startNanos);
+
+    while (true) {
+
+      final Segment segment = current;
+
+      if (segment == null) {
+        return;  // closed
+      }
+
+      final long at = segment.next.getAndAdd(RECORD_BYTES);
+
+      if (at + RECORD_BYTES <= fileBytes) {
+        final int position = (int) at;
+        segment.buffer.putShort(position + 8, type);
+        segment.buffer.putInt(position + 12, code);
+        segment.buffer.putLong(position + 16, first);
+        segment.buffer.putLong(position + 24, second);
+        segment.buffer.putLong(position + 32, durationNanos);
+        // The time goes last as a non-zero time is what marks the record as
+        // written.
+        segment.buffer.putLong(position, time);
+        return;
+      }
+
+      roll(segment);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    final Segment segment = current;
+    current = null;
+    if (segment != null) {
+      segment.buffer.force();
+    }
+  }
+
+  // PACK
+  //
+  // Pack the last two links of an id into a long.
+  public static long pack(Uuid id) {
+    if (id == null) {
+      return 0;
+    }
+    final long root = id.root() == null ? 0 : id.root().id();
+    return (root << 32) | (id.id() & 0xFFFFFFFFL);
+  }
+
+  // UNPACK
+  //
+  // Turn a packed id back into a Uuid. Ids packed from a single link come back
+  // as a single link.
+  public static Uuid unpack(long packed) {
+    final int root = (int) (packed >>> 32);
+    final int id = (int) packed;
+    return root == 0 ? new Uuid(id) : new Uuid(new Uuid(root), id);
+  }
+
+  // FILES
+  //
+  // All event log files in a directory, oldest first.
+  public static List<File> files(File directory) {
+
+    final List<File> files = new ArrayList<>();
+    final File[] found = directory.listFiles();
+
+    if (found != null) {
+      Arrays.sort(found);
+      for (final File file : found) {
+        if (file.isFile() && file.getName().matches("events-\\d{10}\\.bin")) {
+          files.add(file);
+        }
+      }
+    }
+
+    return files;
+  }
+
+  // READ
+  //
+  // Read every written record in a file, in the order they are in the file.
+  // With many writers, records near each other may be slightly out of time
+  // order.
+  public static void read(File file, Visitor visitor) throws IOException {
+
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+         final FileChannel channel = raf.getChannel()) {
+
+      final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.limit() < HEADER_BYTES ||
+          buffer.getInt(0) != MAGIC ||
+          buffer.getInt(4) != VERSION ||
+          buffer.getInt(8) != RECORD_BYTES) {
+        throw new IOException(String.format("%s is not an event log file", file));
+      }
+
+      for (int at = HEADER_BYTES; at + RECORD_BYTES <= buffer.limit(); at += RECORD_BYTES) {
+        final long time = buffer.getLong(at);
+        if (time != 0) {
+          visitor.onRecord(new Record(time,
+                                      buffer.getShort(at + 8),
+                                      buffer.getInt(at + 12),
+                                      buffer.getLong(at + 16),
+                                      buffer.getLong(at + 24),
+                                      buffer.getLong(at + 32)));
+        }
+      }
+    }
+  }
+
+  // Move to a new file if "full" is still the current file. Other writers that
+  // found the same file full will see that it has already moved on.
+  private synchronized void roll(Segment full) {
+
+    if (closed || current != full) {
+      return;
+    }
+
+    try {
+      current = open(full.number + 1);
+      trim();
+    } catch (IOException ex) {
+      // Without a file there is nowhere to write. Stop writing rather than
+      // failing every caller.
+      LOG.error(ex, "Failed to start a new event log file - event log stopped");
+      current = null;
+      closed = true;
+    }
+  }
+
+  private Segment open(long number) throws IOException {
+
+    final File file = new File(directory, String.format(FILE_FORMAT, number));
+
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         final FileChannel channel = raf.getChannel()) {
+
+      // The mapping stays valid after the channel is closed.
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+      buffer.putInt(8, RECORD_BYTES);
+      buffer.putInt(12, 0);
+
+      return new Segment(number, buffer);
+    }
+  }
+
+  private void trim() {
+    final List<File> files = files(directory);
+    for (int i = 0; i < files.size() - maxFiles; i++) {
+      if (!files.get(i).delete()) {
+        LOG.warning("Failed to delete old event log file %s", files.get(i));
+      }
+    }
+  }
+
+  private static long number(File file) {
+    final String name = file.getName();
+    return Long.parseLong(name.substring("events-".length(), name.length() - ".bin".length()));
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HISTOGRAM
+//
+// A histogram of non-negative values that is safe to record into from any
+// number of threads. Values are counted in buckets that grow with the size of
+// the value: each power of two is split into 8 buckets, so any value read back
+// from the histogram is within 12.5% of the values that were recorded. This
+// keeps the histogram to a fixed, small size no matter how many values are
+// recorded or how large they are.
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Enough buckets for any non-negative long.
+  private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  // RECORD
+  //
+  // Add a value to the histogram. Negative values are recorded as zero.
+  public void record(long value) {
+
+    value = Math.max(0, value);
+
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+
+    for (long current = max.get(); value > current; current = max.get()) {
+      if (max.compareAndSet(current, value)) {
+        break;
+      }
+    }
+  }
+
+  // COUNT
+  //
+  // The number of values that have been recorded.
+  public long count() { return count.get(); }
+
+  // MAX
+  //
+  // The largest value that has been recorded (exactly).
+  public long max() { return max.get(); }
+
+  // MEAN
+  //
+  // The mean of all values that have been recorded (exactly).
+  public long mean() {
+    final long n = count.get();
+    return n == 0 ? 0 : total.get() / n;
+  }
+
+  // PERCENTILE
+  //
+  // The value that the given percent (0 to 100) of recorded values are at or
+  // below. The value returned is the top of the bucket the percentile falls in
+  // so it will never be less than the true value.
+  public long percentile(double percent) {
+
+    final long n = count.get();
+
+    if (n == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percent)) / 100));
+
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(max.get(), highest(i));
+      }
+    }
+
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%d p50=%d p90=%d p99=%d max=%d",
+                         count(),
+                         mean(),
+                         percentile(50),
+                         percentile(90),
+                         percentile(99),
+                         max());
+  }
+
+  // Values below SUB_BUCKETS get a bucket each. Above that, the bucket is the
+  // power of two the value is in and the next SUB_BUCKET_BITS bits after the
+  // highest bit.
+  private static int index(long value) {
+
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  // The lowest value that falls in the bucket.
+  private static long lowest(int index) {
+
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long sub = index % SUB_BUCKETS;
+
+    return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  // The highest value that falls in the bucket.
+  private static long highest(int index) {
+    return index + 1 < BUCKETS ? lowest(index + 1) - 1 : Long.MAX_VALUE;
+  }
+}
@@ -15,7 +15,12 @@
 package codeu.chat.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 public final class Logger {
 
@@ -32,9 +37,29 @@ public final class Logger {
 
   }
 
+  // OVERFLOW
+  //
+  // What to do when async output is enabled and the buffer of waiting records
+  // is full.
+  //
+  //   DROP  : Drop verbose and info records. Warnings and errors still wait
+  //           for room so they are never lost.
+  //   BLOCK : Every caller waits for room. Nothing is lost but a slow disk
+  //           will slow down everyone that logs.
+  public enum Overflow { DROP, BLOCK }
+
   private static final java.util.logging.Logger logger =
       java.util.logging.Logger.getLogger("codeu.chat");
 
+  // Looking up the calling class and method means walking the stack on every
+  // call, which costs more than the rest of logging put together. By default
+  // the class that created the log is used and the method is left out.
+  private static volatile boolean callerLookup = false;
+
+  // Set once async output is enabled. All handlers are then added to it rather
+  // than to the logger.
+  private static AsyncHandler async;
+
   static {
     logger.setLevel(java.util.logging.Level.INFO);
 
@@ -48,7 +73,7 @@ public final class Logger {
     final java.util.logging.Handler handler =
         new java.util.logging.FileHandler(file, true /* append */);
     handler.setFormatter(new java.util.logging.SimpleFormatter());
-    logger.addHandler(handler);
+    addHandler(handler);
   }
 
   public static void enableConsoleOutput() {
@@ -56,7 +81,47 @@ public final class Logger {
     final java.util.logging.Handler handler =
         new java.util.logging.ConsoleHandler();
     handler.setFormatter(new java.util.logging.SimpleFormatter());
-    logger.addHandler(handler);
+    addHandler(handler);
+  }
+
+  // ENABLE ASYNC OUTPUT
+  //
+  // Hand records to a background thread that writes them to the handlers
+  // rather than writing them on the thread that logged. Records are formatted
+  // on the calling thread and wait for the writer in a ring buffer that can
+  // hold "capacity" records. When the buffer is full, "overflow" decides what
+  // happens. Handlers that were already enabled, and any that are enabled
+  // later, are written to by the background thread. Calling this more than
+  // once has no effect.
+  public static synchronized void enableAsyncOutput(int capacity, Overflow overflow) {
+
+    if (async != null) {
+      return;
+    }
+
+    async = new AsyncHandler(capacity, overflow);
+
+    for (final java.util.logging.Handler handler : logger.getHandlers()) {
+      logger.removeHandler(handler);
+      async.add(handler);
+    }
+
+    logger.addHandler(async);
+
+    // Write out whatever is still waiting when the process exits.
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() { async.close(); }
+    });
+  }
+
+  // ENABLE CALLER LOOKUP
+  //
+  // Include the class and method that made each log call in the output. This
+  // walks the stack for every record that is logged so it should only be used
+  // when debugging.
+  public static void enableCallerLookup(boolean enabled) {
+    callerLookup = enabled;
   }
 
   public static Log newLog(Class<?> c) {
@@ -64,50 +129,199 @@ public final class Logger {
     final java.util.logging.Logger log =
         java.util.logging.Logger.getLogger(c.getName());
 
-    // Note: This Logger calls the standard java Logger, so the class/method lookup
-    // needs to go one level deeper.  Otherwise it will appear that all the log
-    // calls are coming from this object. Use logp() (log precise) to do this.
+    final String source = c.getName();
+
     return new Log() {
 
       @Override
       public void verbose(String message, Object... params) {
-        log.logp(java.util.logging.Level.FINE,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        write(Level.FINE, null, message, params);
       }
 
       @Override
       public void info(String message, Object... params) {
-        log.logp(java.util.logging.Level.INFO,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        write(Level.INFO, null, message, params);
       }
 
       @Override
       public void warning(String message, Object... params) {
-        log.logp(java.util.logging.Level.WARNING,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        write(Level.WARNING, null, message, params);
       }
 
       @Override
       public void error(String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        write(Level.SEVERE, null, message, params);
       }
 
       @Override
       public void error(Throwable error, String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params), error);
+        write(Level.SEVERE, error, message, params);
+      }
+
+      private void write(Level level, Throwable error, String message, Object... params) {
+
+        // Check the level first so that nothing is formatted for records that
+        // will not be written.
+        if (!log.isLoggable(level)) {
+          return;
+        }
+
+        final LogRecord record = new LogRecord(level, String.format(message, params));
+        record.setLoggerName(log.getName());
+        record.setThrown(error);
+
+        if (callerLookup) {
+          // Note: This Logger calls the standard java Logger, so the class/method
+          // lookup needs to go two levels deeper (past "write" and the Log
+          // method). Otherwise it will appear that all the log calls are coming
+          // from this object.
+          final StackTraceElement[] stack = new Throwable().getStackTrace();
+          final StackTraceElement caller = stack.length > 2 ? stack[2] : null;
+          record.setSourceClassName(caller == null ? source : caller.getClassName());
+          record.setSourceMethodName(caller == null ? null : caller.getMethodName());
+        } else {
+          record.setSourceClassName(source);
+          record.setSourceMethodName(null);
+        }
+
+        log.log(record);
       }
     };
   }
+
+  private static synchronized void addHandler(java.util.logging.Handler handler) {
+    if (async == null) {
+      logger.addHandler(handler);
+    } else {
+      async.add(handler);
+    }
+  }
+
+  // ASYNC HANDLER
+  //
+  // A handler that puts records in a ring buffer for a background thread to
+  // pass on to the real handlers.
+  private static final class AsyncHandler extends java.util.logging.Handler {
+
+    // How long the writer sleeps when there is nothing to write and no one has
+    // woken it. This only bounds how late a record can be if a wake-up is
+    // missed.
+    private static final long IDLE_NS = 100L * 1000 * 1000;
+
+    private final RingBuffer<LogRecord> buffer;
+    private final Overflow overflow;
+
+    private final List<java.util.logging.Handler> handlers = new ArrayList<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running = true;
+    private volatile boolean idle = false;
+
+    private final Thread writer = new Thread("logger-writer") {
+      @Override
+      public void run() {
+        while (running) {
+          if (!drain()) {
+            idle = true;
+            // Check again after saying that we are idle so that a record added
+            // in between is not missed.
+            if (buffer.size() == 0) {
+              LockSupport.parkNanos(this, IDLE_NS);
+            }
+            idle = false;
+          }
+        }
+        drain();
+      }
+    };
+
+    public AsyncHandler(int capacity, Overflow overflow) {
+      this.buffer = new RingBuffer<>(capacity);
+      this.overflow = overflow;
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+    public synchronized void add(java.util.logging.Handler handler) {
+      handlers.add(handler);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+
+      if (!running) {
+        return;
+      }
+
+      if (!buffer.offer(record)) {
+        if (overflow == Overflow.DROP && record.getLevel().intValue() < Level.WARNING.intValue()) {
+          dropped.incrementAndGet();
+          return;
+        }
+        while (!buffer.offer(record)) {
+          wake();
+          LockSupport.parkNanos(1000 * 1000);
+        }
+      }
+
+      if (idle) {
+        wake();
+      }
+    }
+
+    @Override
+    public void flush() {
+      drain();
+    }
+
+    @Override
+    public void close() {
+      running = false;
+      wake();
+      try {
+        writer.join(1000);
+      } catch (InterruptedException ex) {
+        // Write out what we can below.
+      }
+      drain();
+    }
+
+    private void wake() {
+      LockSupport.unpark(writer);
+    }
+
+    // Write everything in the buffer. Returns false if there was nothing to
+    // write. Synchronized as "flush" and "close" can drain from other threads.
+    private synchronized boolean drain() {
+
+      boolean wrote = false;
+
+      final long lost = dropped.getAndSet(0);
+      if (lost > 0) {
+        write(new LogRecord(Level.WARNING,
+                            String.format("Dropped %d log records as the log could not keep up", lost)));
+        wrote = true;
+      }
+
+      for (LogRecord record = buffer.poll(); record != null; record = buffer.poll()) {
+        write(record);
+        wrote = true;
+      }
+
+      if (wrote) {
+        for (final java.util.logging.Handler handler : handlers) {
+          handler.flush();
+        }
+      }
+
+      return wrote;
+    }
+
+    private void write(LogRecord record) {
+      for (final java.util.logging.Handler handler : handlers) {
+        handler.publish(record);
+      }
+    }
+  }
 }
@@ -0,0 +1,131 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// RING BUFFER
+//
+// A fixed size queue that any number of threads can add to and take from
+// without taking a lock. Each slot has a sequence number that says whether the
+// slot is ready to be written (sequence == position) or ready to be read
+// (sequence == position + 1). A thread claims a position by moving the head or
+// tail forward with a compare and set, so threads only ever wait on each
+// other for as long as it takes to copy one reference in or out.
+//
+// The capacity is rounded up to a power of two so that positions can be
+// turned into slots with a mask.
+public final class RingBuffer<T> {
+
+  private final int mask;
+  private final AtomicReferenceArray<T> slots;
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong tail = new AtomicLong();  // next position to write
+  private final AtomicLong head = new AtomicLong();  // next position to read
+
+  public RingBuffer(int capacity) {
+
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+    }
+
+    final int size = Integer.highestOneBit(capacity) == capacity ?
+        capacity :
+        Integer.highestOneBit(capacity) << 1;
+
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  // OFFER
+  //
+  // Add a value to the back of the buffer. Returns false, without waiting, if
+  // the buffer is full. Null values are not allowed.
+  public boolean offer(T value) {
+
+    if (value == null) {
+      throw new NullPointerException("Ring buffers cannot hold null");
+    }
+
+    while (true) {
+
+      final long position = tail.get();
+      final int slot = (int) (position & mask);
+      final long sequence = sequences.get(slot);
+
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          slots.set(slot, value);
+          sequences.set(slot, position + 1);
+          return true;
+        }
+      } else if (sequence < position) {
+        // The slot still holds a value from the last time around.
+        return false;
+      }
+
+      // Another thread took this position first. Try the next one.
+    }
+  }
+
+  // POLL
+  //
+  // Take the value from the front of the buffer. Returns null, without
+  // waiting, if the buffer is empty.
+  public T poll() {
+
+    while (true) {
+
+      final long position = head.get();
+      final int slot = (int) (position & mask);
+      final long sequence = sequences.get(slot);
+
+      if (sequence == position + 1) {
+        if (head.compareAndSet(position, position + 1)) {
+          final T value = slots.getAndSet(slot, null);
+          sequences.set(slot, position + mask + 1);
+          return value;
+        }
+      } else if (sequence < position + 1) {
+        // Nothing has been written to this slot yet.
+        return null;
+      }
+
+      // Another thread took this position first. Try the next one.
+    }
+  }
+
+  // SIZE
+  //
+  // The number of values in the buffer. As other threads may be adding and
+  // taking at the same time, this is only an estimate.
+  public int size() {
+    final long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  // CAPACITY
+  //
+  // The most values that the buffer can hold at once.
+  public int capacity() { return mask + 1; }
+}
@@ -0,0 +1,264 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// SPANS
+//
+// A small in-memory record of how long each stage of a traced request took. A
+// request is traced when the client gives it a trace id (any non-zero long).
+// The id is carried over the wire with the request, then with the message to
+// the relay and from the relay to every server that reads it, and each hop
+// records the stages it ran under that id. Fetching the spans for an id from
+// every process (see GET_SPANS_REQUEST) shows where the time went between a
+// client sending a message and another server applying it.
+//
+// Spans go into a fixed size ring shared by the whole process, so only the
+// most recent spans are kept. Nothing is recorded for untraced requests.
+//
+// Times are in microseconds since the epoch, taken from the monotonic clock
+// plus an offset (like the event log), so spans from one process line up with
+// each other. Spans from different machines are only as close as their
+// clocks.
+public final class Spans {
+
+  // STAGES
+  //
+  // Client send   : the client writing the request and reading the response.
+  // Server queue  : the request waiting for a client lane thread.
+  // Server handle : the server running the request.
+  // Relay queue   : the message waiting on the relay lane to be sent.
+  // Relay send    : the server writing the message to the relay.
+  // Relay append  : the relay adding the message to its history.
+  // Relay wait    : the message sitting in the relay until a server read it
+  //                 (from the relay's clock to the reading server's clock).
+  // Remote apply  : the reading server adding the message to its model.
+  public static final int CLIENT_SEND = 1;
+  public static final int SERVER_QUEUE = 2;
+  public static final int SERVER_HANDLE = 3;
+  public static final int RELAY_QUEUE = 4;
+  public static final int RELAY_SEND = 5;
+  public static final int RELAY_APPEND = 6;
+  public static final int RELAY_WAIT = 7;
+  public static final int REMOTE_APPLY = 8;
+
+  private static final int CAPACITY = 8192;
+
+  // SPAN
+  //
+  // One stage of one traced request.
+  public static final class Span {
+
+    public final long trace;
+    public final int stage;
+    public final long start;     // microseconds since the epoch
+    public final long duration;  // microseconds
+
+    public Span(long trace, int stage, long start, long duration) {
+      this.trace = trace;
+      this.stage = stage;
+      this.start = start;
+      this.duration = duration;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Span)) {
+        return false;
+      }
+      final Span span = (Span) other;
+      return trace == span.trace &&
+             stage == span.stage &&
+             start == span.start &&
+             duration == span.duration;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (trace ^ (trace >>> 32)) * 31 + stage * 17 + (int) start;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%016x %-13s start=%d duration(us)=%d",
+                           trace,
+                           stageName(stage),
+                           start,
+                           duration);
+    }
+
+    public static final Serializer<Span> SERIALIZER = new Serializer<Span>() {
+
+      @Override
+      public void write(OutputStream out, Span value) throws IOException {
+        Serializers.LONG.write(out, value.trace);
+        Serializers.INTEGER.write(out, value.stage);
+        Serializers.LONG.write(out, value.start);
+        Serializers.LONG.write(out, value.duration);
+      }
+
+      @Override
+      public Span read(InputStream in) throws IOException {
+        return new Span(Serializers.LONG.read(in),
+                        Serializers.INTEGER.read(in),
+                        Serializers.LONG.read(in),
+                        Serializers.LONG.read(in));
+      }
+    };
+  }
+
+  private static final AtomicReferenceArray<Span> slots = new AtomicReferenceArray<>(CAPACITY);
+  private static final AtomicLong next = new AtomicLong();
+
+  private static final long startEpochMicros = System.currentTimeMillis() * 1000L;
+  private static final long startNanos = System.nanoTime();
+
+  // The trace of the request that the current thread is running, so that work
+  // started by a request can carry its trace on without every method in
+  // between passing it along.
+  private static final ThreadLocal<long[]> current = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+
+  private Spans() { }
+
+  // NEW TRACE
+  //
+  // Make a random, non-zero trace id.
+  public static long newTrace() {
+    long trace;
+    do {
+      trace = ThreadLocalRandom.current().nextLong();
+    } while (trace == 0);
+    return trace;
+  }
+
+  // RECORD
+  //
+  // Record a stage that ran from "startNanos" to "endNanos" (both from
+  // System.nanoTime). Does nothing for the zero trace.
+  public static void record(long trace, int stage, long startNanos, long endNanos) {
+    if (trace != 0) {
+      add(new Span(trace, stage, toMicros(startNanos), (endNanos - startNanos) / 1000));
+    }
+  }
+
+  // RECORD AT
+  //
+  // Record a stage with a start already in microseconds since the epoch. Used
+  // when the start was measured by another process.
+  public static void recordAt(long trace, int stage, long startMicros, long durationMicros) {
+    if (trace != 0) {
+      add(new Span(trace, stage, startMicros, durationMicros));
+    }
+  }
+
+  // NOW
+  //
+  // The current time in microseconds since the epoch, on the same clock as
+  // recorded spans.
+  public static long now() {
+    return toMicros(System.nanoTime());
+  }
+
+  // CURRENT
+  //
+  // The trace of the request the current thread is running, or zero.
+  public static long current() {
+    return current.get()[0];
+  }
+
+  // ENTER
+  //
+  // Mark the current thread as running a request with the given trace.
+  // Returns the trace it replaces, which should be given back to "exit".
+  public static long enter(long trace) {
+    final long[] slot = current.get();
+    final long previous = slot[0];
+    slot[0] = trace;
+    return previous;
+  }
+
+  // EXIT
+  //
+  // Put back the trace that "enter" replaced.
+  public static void exit(long previous) {
+    current.get()[0] = previous;
+  }
+
+  // SNAPSHOT
+  //
+  // The spans still in the ring for a trace (or for every trace if "trace" is
+  // zero), ordered by start time.
+  public static List<Span> snapshot(long trace) {
+
+    final List<Span> found = new ArrayList<>();
+
+    for (int i = 0; i < CAPACITY; i++) {
+      final Span span = slots.get(i);
+      if (span != null && (trace == 0 || span.trace == trace)) {
+        found.add(span);
+      }
+    }
+
+    Collections.sort(found, BY_START);
+    return found;
+  }
+
+  // STAGE NAME
+  //
+  // A short name for a stage (like "server-handle").
+  public static String stageName(int stage) {
+    switch (stage) {
+      case CLIENT_SEND: return "client-send";
+      case SERVER_QUEUE: return "server-queue";
+      case SERVER_HANDLE: return "server-handle";
+      case RELAY_QUEUE: return "relay-queue";
+      case RELAY_SEND: return "relay-send";
+      case RELAY_APPEND: return "relay-append";
+      case RELAY_WAIT: return "relay-wait";
+      case REMOTE_APPLY: return "remote-apply";
+      default: return String.format("stage-%d", stage);
+    }
+  }
+
+  public static final Comparator<Span> BY_START = new Comparator<Span>() {
+    @Override
+    public int compare(Span a, Span b) {
+      return a.start != b.start ? Long.compare(a.start, b.start) : Integer.compare(a.stage, b.stage);
+    }
+  };
+
+  private static void add(Span span) {
+    slots.set((int) (next.getAndIncrement() & (CAPACITY - 1)), span);
+  }
+
+  private static long toMicros(long nanos) {
+    return startEpochMicros + (nanos - startNanos) / 1000;
+  }
+}
@@ -17,8 +17,9 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 public final class Time implements Comparable<Time> {
 
@@ -39,18 +40,51 @@ public final class Time implements Comparable<Time> {
     }
   };
 
-  private static final SimpleDateFormat formatter =
-      new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
+  // Unlike SimpleDateFormat, DateTimeFormatter can be shared between threads.
+  // Only whole seconds go through it - the milliseconds are added by hand.
+  private static final DateTimeFormatter FORMATTER =
+      DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
 
-  private final Date date;
+  // The text for the last second that was formatted. Times that are printed
+  // together are nearly always in the same second, so most calls to toString
+  // only need to add the milliseconds. The holder is immutable so that
+  // threads can swap it without a lock.
+  private static final class Prefix {
 
-  private Time(long totalMs) { this.date = new Date(totalMs); }
+    public final long second;
+    public final String text;
 
-  public long inMs() { return date.getTime(); }
+    public Prefix(long second, String text) {
+      this.second = second;
+      this.text = text;
+    }
+  }
+
+  private static volatile Prefix lastPrefix = new Prefix(Long.MIN_VALUE, "");
+
+  // The last time returned by "now". Times cannot be changed, so callers
+  // within the same millisecond can all share one.
+  private static volatile Time lastNow = new Time(Long.MIN_VALUE);
+
+  private final long ms;
+
+  private Time(long totalMs) { this.ms = totalMs; }
+
+  public long inMs() { return ms; }
 
   @Override
   public int compareTo(Time other) {
-    return date.compareTo(other.date);
+    return Long.compare(ms, other.ms);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Time && ((Time) other).ms == ms;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(ms);
   }
 
   public boolean inRange(Time start, Time end) {
@@ -59,11 +93,38 @@ public final class Time implements Comparable<Time> {
 
   @Override
   public String toString() {
-    return formatter.format(date);
+
+    final long second = Math.floorDiv(ms, 1000);
+    final int millis = (int) (ms - second * 1000);
+
+    Prefix prefix = lastPrefix;
+    if (prefix.second != second) {
+      prefix = new Prefix(second, FORMATTER.format(Instant.ofEpochSecond(second)));
+      lastPrefix = prefix;
+    }
+
+    final StringBuilder build = new StringBuilder(prefix.text.length() + 4);
+    build.append(prefix.text).append('.');
+    if (millis < 100) { build.append('0'); }
+    if (millis < 10) { build.append('0'); }
+    return build.append(millis).toString();
   }
 
   public static Time fromMs(long ms) { return new Time(ms); }
 
-  public static Time now() { return Time.fromMs(System.currentTimeMillis()); }
+  // NOW
+  //
+  // The current time. Calls made in the same millisecond get the same Time
+  // rather than each making a new one.
+  public static Time now() {
+    final long ms = System.currentTimeMillis();
+    final Time last = lastNow;
+    if (last.ms == ms) {
+      return last;
+    }
+    final Time time = new Time(ms);
+    lastNow = time;
+    return time;
+  }
 
 }
@@ -14,9 +14,15 @@
 
 package codeu.chat.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 // TIMELINE
 //
@@ -24,135 +30,460 @@ import java.util.concurrent.PriorityBlockingQueue;
 // when work needs to be ordered by time. The timeline manages its own threads
 // and there is no way to know outside of the code that is executed when the
 // code has been executed.
+//
+// Events that should happen now (which is most of them - every connection is
+// handled this way) go straight to the executor. Events that should happen
+// later are kept in a hashed wheel: a ring of buckets where each bucket holds
+// the events that are due in one "tick" of time. The scheduler thread walks
+// the ring one tick at a time and hands due events to the executor. Adding an
+// event is just putting it in a queue for the scheduler - there is no sorting
+// and the scheduler never needs to be interrupted. The cost is precision: an
+// event will run up to one tick after the time it was scheduled for (never
+// before).
+//
+// Events are executed on lanes. Each lane has its own workers and its own
+// bounded queue so that slow work on one lane (like talking to the relay) does
+// not hold up work on another (like answering clients). Every timeline has a
+// "default" lane with one worker - this is where the schedule calls on the
+// timeline itself put their events. Each lane keeps histograms of how late
+// events start (lag), how long they run and how deep its queue is, so it is
+// possible to see when a lane is falling behind.
 public final class Timeline {
 
   private final static Logger.Log LOG = Logger.newLog(Timeline.class);
 
-  private static final class Event implements Comparable<Event> {
+  private static final long DEFAULT_TICK_MS = 10;
+  private static final int DEFAULT_WHEEL_SIZE = 512;
+  private static final int DEFAULT_LANE_CAPACITY = 1024;
+
+  public static final String DEFAULT_LANE = "default";
+
+  // HANDLE
+  //
+  // A handle for an event on the timeline that can be used to stop the event
+  // from running.
+  public interface Handle {
+
+    // CANCEL
+    //
+    // Stop the event from running if it has not started yet. For a repeating
+    // event, this stops all future runs. Returns false if the event had already
+    // been cancelled.
+    boolean cancel();
+
+    // IS CANCELLED
+    //
+    // Check if the event has been cancelled.
+    boolean isCancelled();
+
+  }
+
+  private static final class Event implements Handle {
 
-    public final long time;
+    public final Lane lane;
     public final Runnable callback;
+    public final long period;
 
-    public Event(long time, Runnable callback) {
+    // When the event should next run. This is only changed by a lane worker
+    // when a repeating event is put back on the timeline.
+    public volatile long time;
+
+    // When the event was handed to its lane. Used to measure lag.
+    public volatile long queuedMs;
+    public volatile long queuedNs;
+
+    private volatile boolean cancelled = false;
+
+    public Event(Lane lane, long time, long period, Runnable callback) {
+      this.lane = lane;
       this.time = time;
+      this.period = period;
       this.callback = callback;
     }
 
     @Override
-    public int compareTo(Event other) {
-      return Long.compare(time, other.time);
+    public boolean cancel() {
+      final boolean wasCancelled = cancelled;
+      cancelled = true;
+      return !wasCancelled;
     }
+
+    @Override
+    public boolean isCancelled() { return cancelled; }
   }
 
-  private final BlockingQueue<Event> backlog = new PriorityBlockingQueue<>();
-  private final BlockingQueue<Runnable> todo = new LinkedBlockingQueue<>();
+  // LANE
+  //
+  // A named group of workers with its own queue. Events scheduled on a lane
+  // only run on that lane's workers. When a lane's queue is full, scheduling
+  // something to run now will block until there is room. Timed events that are
+  // due while the queue is full wait on the wheel for another tick. This means
+  // work running on a lane should not schedule more work on that same lane to
+  // run now, as it may end up waiting on itself.
+  public final class Lane {
 
-  private boolean running = true;
+    private final String name;
+    private final BlockingQueue<Event> queue;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final Histogram lag = new Histogram();
+    private final Histogram runTime = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+
+    private Lane(String name, int workerCount, int capacity) {
+
+      this.name = name;
+      this.queue = new LinkedBlockingQueue<>(Math.max(1, capacity));
+
+      for (int i = 0; i < Math.max(1, workerCount); i++) {
+        final Thread worker = new Thread(String.format("timeline-%s-%d", name, i)) {
+          @Override
+          public void run() { work(); }
+        };
+        worker.setDaemon(daemon);
+        workers.add(worker);
+      }
+    }
+
+    // NAME
+    //
+    // The name the lane was created with.
+    public String name() { return name; }
+
+    // DEPTH
+    //
+    // The number of events waiting for a worker right now.
+    public int depth() { return queue.size(); }
+
+    // LAG
+    //
+    // How long (in microseconds) after its scheduled time each event started
+    // running.
+    public Histogram lag() { return lag; }
+
+    // RUN TIME
+    //
+    // How long (in microseconds) each event took to run.
+    public Histogram runTime() { return runTime; }
+
+    // QUEUE DEPTH
+    //
+    // How many events were already waiting each time an event was added.
+    public Histogram queueDepth() { return queueDepth; }
+
+    // SCHEDULE NOW
+    //
+    // Add an event to this lane so that it will occur as soon as possible.
+    // This skips the scheduler and goes straight to the lane's queue.
+    public Handle scheduleNow(Runnable callback) {
+      final Event event = new Event(this, System.currentTimeMillis(), 0, callback);
+      put(event);
+      return event;
+    }
+
+    // SCHEDULE IN
+    //
+    // Add an event to this lane so that it will occur in approximately in a
+    // set amount of milliseconds.
+    public Handle scheduleIn(long ms, Runnable callback) {
+      return scheduleAt(System.currentTimeMillis() + ms, callback);
+    }
+
+    // SCHEDULE AT
+    //
+    // Add an event to this lane so that will occur approximately at a fixed
+    // point in time.
+    public Handle scheduleAt(long timeMs, Runnable callback) {
+      final Event event = new Event(this, timeMs, 0, callback);
+      if (timeMs <= System.currentTimeMillis()) {
+        put(event);
+      } else {
+        forceAdd(incoming, event);
+      }
+      return event;
+    }
+
+    // SCHEDULE AT FIXED RATE
+    //
+    // Add an event to this lane that will first occur in "delayMs" and then
+    // every "periodMs" after that until its handle is cancelled. The period is
+    // measured from when each run was due, not from when the last run finished.
+    public Handle scheduleAtFixedRate(long delayMs, long periodMs, Runnable callback) {
+
+      if (periodMs <= 0) {
+        throw new IllegalArgumentException("Period must be positive");
+      }
+
+      final Event event = new Event(this, System.currentTimeMillis() + delayMs, periodMs, callback);
+      forceAdd(incoming, event);
+      return event;
+    }
 
-  // This thread is used to track the time of events and moves events from the
-  // "backlog" queue to the "todo" queue when it is time to execute. They are
-  // separated to allow this thread to be safely interrupted.
-  private final Thread scheduler = new Thread() {
     @Override
-    public void run() {
+    public String toString() {
+      return String.format("%s: depth=%d lag(us)[%s] run(us)[%s] queue[%s]",
+                           name,
+                           depth(),
+                           lag,
+                           runTime,
+                           queueDepth);
+    }
+
+    private void start() {
+      for (final Thread worker : workers) {
+        worker.start();
+      }
+    }
+
+    private void interrupt() {
+      for (final Thread worker : workers) {
+        worker.interrupt();
+      }
+    }
+
+    private void join() {
+      for (final Thread worker : workers) {
+        forceJoin(worker);
+      }
+    }
+
+    // Block until there is room on the queue. This is how callers are slowed
+    // down when a lane cannot keep up.
+    private void put(Event event) {
+      queueDepth.record(queue.size());
+      queued(event);
+      while (true) {
+        try {
+          queue.put(event);
+          return;
+        } catch (InterruptedException ex) {
+          // Do nothing - allow this to try again.
+        }
+      }
+    }
+
+    // Try to add without blocking. This is what the scheduler uses so that one
+    // full lane does not stop due events reaching the other lanes.
+    private boolean offer(Event event) {
+      final int depth = queue.size();
+      queued(event);
+      if (queue.offer(event)) {
+        queueDepth.record(depth);
+        return true;
+      }
+      return false;
+    }
+
+    private void queued(Event event) {
+      event.queuedMs = System.currentTimeMillis();
+      event.queuedNs = System.nanoTime();
+    }
+
+    private void work() {
       while (running) {
 
         Event next;
 
         try {
-          next = backlog.take();
+          next = queue.take();
         } catch (InterruptedException ex) {
-          // Rather than try to handle the exception here, set "next"
-          // to null and let the normal flow handle the case.
-          next = null;
+          // It is time to exit. Let the loop check "running".
+          continue;
         }
 
-        long sleep = 0;
+        final long startNs = System.nanoTime();
 
-        if (next != null) {
-
-          final long now = System.currentTimeMillis();
+        // Lag is how late the event was when it reached the queue plus how
+        // long it waited in the queue.
+        lag.record(Math.max(0, next.queuedMs - next.time) * 1000 +
+                   (startNs - next.queuedNs) / 1000);
 
-          // Check which queue the event should be added to. If it
-          // is time to execute, it should be added to the "todo"
-          // queue. If it is not time, it should be added back to the
-          // "backlog".
-          // If the item is added back to the backlog, we know how long
-          // it will be until it will be executed. That means we can sleep
-          // until then.
-          if (next.time <= now) {
-            forceAdd(todo, next.callback);
-            sleep = 0;
-          } else {
-            // Put it back (it's not time).
-            forceAdd(backlog, next);
-            sleep = next.time - now;
+        try {
+          if (!next.isCancelled()) {
+            next.callback.run();
           }
+        } catch (Exception ex) {
+          // Catch all exceptions here to stop any rogue action from
+          // take down the timeline.
+          LOG.warning(
+              "An exception was seen on the timeline lane %s (%s)",
+              name,
+              ex.toString());
         }
 
-        if (sleep > 0) {
-          try {
-            Thread.sleep(sleep);
-          } catch (InterruptedException ex) {
-            // There are two cases this will happen:
-            //  1. A new item was added and we are being woken to
-            //     check if we need to update the time.
-            //  2. It is time to exit and we need to wake-up so that
-            //     we can check that "running" is "false".
-          }
+        runTime.record((System.nanoTime() - startNs) / 1000);
+
+        // A repeating event is put back for its next slot even if this run
+        // failed. If this run went past one or more slots, those runs are
+        // skipped rather than run back to back. It goes back through the
+        // scheduler so that a worker never blocks on its own full queue.
+        if (next.period > 0 && !next.isCancelled()) {
+          final long now = System.currentTimeMillis();
+          final long missed = Math.max(0, (now - next.time) / next.period);
+          next.time += (missed + 1) * next.period;
+          forceAdd(incoming, next);
         }
       }
     }
-  };
+  }
+
+  private final long tickMs;
+  private final boolean daemon;
+
+  // The wheel is only ever touched by the scheduler thread. Other threads pass
+  // new events to it through "incoming".
+  private final List<List<Event>> wheel;
+  private int waiting = 0;
+
+  private final BlockingQueue<Event> incoming = new LinkedBlockingQueue<>();
 
-  // This thread is used to run the code that was given to the time line. This
-  // worker does not need to know anything about the time. Once an event gets to
-  // here - it is considered "on time" and will be executed.
-  private final Thread executor = new Thread() {
+  private final Map<String, Lane> lanes = new LinkedHashMap<>();
+  private final Lane defaultLane;
+
+  private volatile boolean running = true;
+
+  // This thread is used to track the time of events and moves events from the
+  // wheel to their lane's queue when it is time to execute.
+  private final Thread scheduler = new Thread("timeline-scheduler") {
     @Override
     public void run() {
+
+      // The next tick that the wheel needs to process. All events in earlier
+      // ticks have been passed to their lanes.
+      long tick = System.currentTimeMillis() / tickMs;
+
       while (running) {
         try {
-          todo.take().run();
-        } catch (Exception ex) {
-          // Catch all exceptions here to stop any rogue action from
-          // take down the timeline.
-          LOG.warning(
-              "An exception was seen on the timeline (%s)",
-              ex.toString());
+
+          if (waiting == 0) {
+            // There is nothing on the wheel so there is no reason to wake for
+            // each tick. Wait for something to be added and pick up from now.
+            final Event next = incoming.take();
+            tick = System.currentTimeMillis() / tickMs;
+            place(next, tick);
+          }
+
+          for (Event next = incoming.poll(); next != null; next = incoming.poll()) {
+            place(next, tick);
+          }
+
+          final long now = System.currentTimeMillis();
+
+          while (tick <= now / tickMs) {
+            expire(tick);
+            tick++;
+          }
+
+          if (waiting > 0) {
+            // Sleep until the next tick - but wake early if something new is
+            // added as it may be due sooner than that.
+            final Event next = incoming.poll(tick * tickMs - now, TimeUnit.MILLISECONDS);
+            if (next != null) {
+              place(next, tick);
+            }
+          }
+
+        } catch (InterruptedException ex) {
+          // This happens when it is time to exit and we need to wake-up so
+          // that we can check that "running" is "false".
         }
       }
     }
   };
 
   public Timeline() {
+    this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, false);
+  }
+
+  // TIMELINE
+  //
+  // Create a timeline with the default tick and wheel. If "daemon" is true,
+  // its threads do not keep the process alive, which suits timelines owned by
+  // library code that callers may never stop.
+  public Timeline(boolean daemon) {
+    this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, daemon);
+  }
+
+  public Timeline(long tickMs, int wheelSize) {
+    this(tickMs, wheelSize, false);
+  }
+
+  // TIMELINE
+  //
+  // Create a timeline whose timed events run within "tickMs" of when they were
+  // scheduled. The wheel covers "wheelSize" ticks before events need to wait
+  // more than one turn of the wheel. Events that are that far out are fine,
+  // they are just checked once each time the wheel comes back around. Daemon
+  // timelines do not keep the process alive.
+  public Timeline(long tickMs, int wheelSize, boolean daemon) {
+
+    this.tickMs = Math.max(1, tickMs);
+    this.daemon = daemon;
+    this.wheel = new ArrayList<>(Math.max(1, wheelSize));
+
+    for (int i = 0; i < Math.max(1, wheelSize); i++) {
+      this.wheel.add(new ArrayList<Event>());
+    }
+
+    this.defaultLane = lane(DEFAULT_LANE, 1, DEFAULT_LANE_CAPACITY);
+
+    scheduler.setDaemon(daemon);
     scheduler.start();
-    executor.start();
+  }
+
+  // LANE
+  //
+  // Get the lane with the given name, creating it with "workers" threads and
+  // room for "capacity" waiting events if it does not exist yet. If the lane
+  // already exists, it is returned as it is.
+  public synchronized Lane lane(String name, int workers, int capacity) {
+
+    Lane lane = lanes.get(name);
+
+    if (lane == null) {
+      lane = new Lane(name, workers, capacity);
+      lanes.put(name, lane);
+      lane.start();
+    }
+
+    return lane;
+  }
+
+  // LANES
+  //
+  // All the lanes on this timeline in the order they were created.
+  public synchronized Collection<Lane> lanes() {
+    return new ArrayList<>(lanes.values());
   }
 
   // SCHEDULE NOW
   //
-  // Add an event to the timeline so that it will occur as soon as possible.
-  public void scheduleNow(Runnable callback) {
-    scheduleAt(System.currentTimeMillis(), callback);
+  // Add an event to the default lane so that it will occur as soon as possible.
+  public Handle scheduleNow(Runnable callback) {
+    return defaultLane.scheduleNow(callback);
   }
 
   // SCHEDULE IN
   //
-  // Add an event to the timeline so that it will occur in approximately in a
-  // set amount of milliseconds.
-  public void scheduleIn(long ms, Runnable callback) {
-    scheduleAt(System.currentTimeMillis() + ms, callback);
+  // Add an event to the default lane so that it will occur in approximately in
+  // a set amount of milliseconds.
+  public Handle scheduleIn(long ms, Runnable callback) {
+    return defaultLane.scheduleIn(ms, callback);
   }
 
   // SCHEDULE AT
   //
-  // Add an event to the timeline so that will occur approximately at a fixed
-  // point in time.
-  public void scheduleAt(long timeMs, Runnable callback) {
-    final Event event = new Event(timeMs, callback);
-    forceAdd(backlog, event);
-    scheduler.interrupt();  // wake it up
+  // Add an event to the default lane so that will occur approximately at a
+  // fixed point in time.
+  public Handle scheduleAt(long timeMs, Runnable callback) {
+    return defaultLane.scheduleAt(timeMs, callback);
+  }
+
+  // SCHEDULE AT FIXED RATE
+  //
+  // Add a repeating event to the default lane. See Lane.scheduleAtFixedRate.
+  public Handle scheduleAtFixedRate(long delayMs, long periodMs, Runnable callback) {
+    return defaultLane.scheduleAtFixedRate(delayMs, periodMs, callback);
   }
 
   // STOP
@@ -164,7 +495,9 @@ public final class Timeline {
     // Interrupt does not force a thread to exit. It signals the
     // thead that it is time to stop execution. As the threads may
     // be sleeping, this will force them awake.
-    executor.interrupt();
+    for (final Lane lane : lanes()) {
+      lane.interrupt();
+    }
     scheduler.interrupt();
   }
 
@@ -172,10 +505,62 @@ public final class Timeline {
   //
   // Wait for the timeline to shutdown. This is a blocking call.
   public void join() {
-    forceJoin(executor);
+    for (final Lane lane : lanes()) {
+      lane.join();
+    }
     forceJoin(scheduler);
   }
 
+  // Put an event into the bucket for the first tick that starts at or after the
+  // event's time. Events that are already due go to their lane. This must
+  // only be called from the scheduler thread.
+  private void place(Event event, long tick) {
+
+    if (event.isCancelled()) {
+      return;
+    }
+
+    final long due = (event.time + tickMs - 1) / tickMs;
+
+    if (due >= tick || !event.lane.offer(event)) {
+      // Either it is not time yet or its lane is full. A full lane gets
+      // another try when the tick comes around.
+      wheel.get((int) (Math.max(due, tick) % wheel.size())).add(event);
+      waiting++;
+    }
+  }
+
+  // Move all events that are due in the given tick to their lanes. Events in
+  // the same bucket that are due on a later turn of the wheel stay. Cancelled
+  // events are dropped. Events whose lane is full are moved to the next tick.
+  // This must only be called from the scheduler thread.
+  private void expire(long tick) {
+
+    final List<Event> bucket = wheel.get((int) (tick % wheel.size()));
+    final List<Event> retry = new ArrayList<>();
+
+    for (final Iterator<Event> it = bucket.iterator(); it.hasNext(); ) {
+
+      final Event event = it.next();
+
+      if (event.isCancelled()) {
+        it.remove();
+        waiting--;
+      } else if ((event.time + tickMs - 1) / tickMs <= tick) {
+        it.remove();
+        waiting--;
+        if (!event.lane.offer(event)) {
+          retry.add(event);
+        }
+      }
+    }
+
+    for (final Event event : retry) {
+      wheel.get((int) ((tick + 1) % wheel.size())).add(event);
+      waiting++;
+    }
+  }
+
   private static void forceJoin(Thread thread) {
     while (true) {
       try {
@@ -0,0 +1,232 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// BYTE RING
+//
+// A fixed size pipe of bytes from one writer to one reader, without locks. The
+// writer only moves the tail and the reader only moves the head, so each side
+// only ever reads the other's position. A side that cannot make progress (the
+// reader with nothing to read or the writer with no space) spins for a short
+// while, then parks until the other side wakes it. Positions are set (rather
+// than lazily set) so that a side about to park always either sees the other
+// side's progress or is seen waiting by it.
+//
+// Any number of threads may use each side, but only one at a time (for
+// example a thread that takes turns under a lock).
+//
+// The capacity is rounded up to a power of two so that positions can be
+// turned into offsets with a mask.
+final class ByteRing {
+
+  // How many times to check before parking. Handing a request to the other
+  // side and getting the response back is often quicker than a park.
+  private static final int SPINS = 256;
+
+  // A waiting side wakes up this often even if it was not woken, so that a
+  // missed wake up can only cost this much.
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final byte[] bytes;
+  private final int mask;
+
+  private final AtomicLong head = new AtomicLong();  // next position to read
+  private final AtomicLong tail = new AtomicLong();  // next position to write
+
+  private volatile Thread waitingReader;
+  private volatile Thread waitingWriter;
+
+  // The writer closes the ring when it is done (the reader gets end of stream
+  // once it has read everything). The reader closes the ring when it will not
+  // read any more (the writer gets an error).
+  private volatile boolean writerClosed;
+  private volatile boolean readerClosed;
+
+  private final InputStream in = new InputStream() {
+
+    @Override
+    public int read() throws IOException {
+      final byte[] one = new byte[1];
+      return ByteRing.this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      return ByteRing.this.read(buffer, offset, length);
+    }
+
+    @Override
+    public int available() {
+      return (int) (tail.get() - head.get());
+    }
+
+    @Override
+    public void close() {
+      closeReader();
+    }
+  };
+
+  private final OutputStream out = new OutputStream() {
+
+    @Override
+    public void write(int value) throws IOException {
+      ByteRing.this.write(new byte[] { (byte) value }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      ByteRing.this.write(buffer, offset, length);
+    }
+
+    @Override
+    public void close() {
+      closeWriter();
+    }
+  };
+
+  public ByteRing(int capacity) {
+
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+    }
+
+    final int size = Integer.highestOneBit(capacity) == capacity ?
+        capacity :
+        Integer.highestOneBit(capacity) << 1;
+
+    this.bytes = new byte[size];
+    this.mask = size - 1;
+  }
+
+  public InputStream in() { return in; }
+
+  public OutputStream out() { return out; }
+
+  public void closeReader() {
+    readerClosed = true;
+    LockSupport.unpark(waitingWriter);
+  }
+
+  public void closeWriter() {
+    writerClosed = true;
+    LockSupport.unpark(waitingReader);
+  }
+
+  // Read at least one byte (and at most "length"), waiting if there are none.
+  // Returns -1 once the writer has closed and everything has been read.
+  private int read(byte[] buffer, int offset, int length) throws IOException {
+
+    if (length == 0) {
+      return 0;
+    }
+
+    if (readerClosed) {
+      throw new IOException("Stream closed");
+    }
+
+    final long from = head.get();
+    long to = tail.get();
+
+    for (int spins = 0; to == from; spins++) {
+      if (writerClosed) {
+        // Check once more as the writer may have written just before closing.
+        to = tail.get();
+        if (to == from) {
+          return -1;
+        }
+        break;
+      }
+      if (spins < SPINS) {
+        Thread.yield();
+      } else {
+        waitingReader = Thread.currentThread();
+        if (tail.get() == from && !writerClosed) {
+          LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        waitingReader = null;
+      }
+      to = tail.get();
+    }
+
+    final int count = (int) Math.min(length, to - from);
+    copyOut(from, buffer, offset, count);
+
+    head.set(from + count);
+    LockSupport.unpark(waitingWriter);
+
+    return count;
+  }
+
+  // Write all of "length" bytes, waiting for space when the ring is full.
+  private void write(byte[] buffer, int offset, int length) throws IOException {
+
+    int written = 0;
+
+    while (written < length) {
+
+      final long to = tail.get();
+      long free = bytes.length - (to - head.get());
+
+      for (int spins = 0; free == 0; spins++) {
+        if (readerClosed) {
+          throw new IOException("Connection closed by the other side");
+        }
+        if (spins < SPINS) {
+          Thread.yield();
+        } else {
+          waitingWriter = Thread.currentThread();
+          if (bytes.length - (to - head.get()) == 0 && !readerClosed) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+          }
+          waitingWriter = null;
+        }
+        free = bytes.length - (to - head.get());
+      }
+
+      if (writerClosed || readerClosed) {
+        throw new IOException("Stream closed");
+      }
+
+      final int count = (int) Math.min(length - written, free);
+      copyIn(to, buffer, offset + written, count);
+
+      tail.set(to + count);
+      LockSupport.unpark(waitingReader);
+
+      written += count;
+    }
+  }
+
+  // Copy out of the ring, which may mean wrapping around the end of the array.
+  private void copyOut(long position, byte[] buffer, int offset, int count) {
+    final int start = (int) (position & mask);
+    final int first = Math.min(count, bytes.length - start);
+    System.arraycopy(bytes, start, buffer, offset, first);
+    System.arraycopy(bytes, 0, buffer, offset + first, count - first);
+  }
+
+  private void copyIn(long position, byte[] buffer, int offset, int count) {
+    final int start = (int) (position & mask);
+    final int first = Math.min(count, bytes.length - start);
+    System.arraycopy(buffer, offset, bytes, start, first);
+    System.arraycopy(buffer, offset + first, bytes, 0, count - first);
+  }
+}
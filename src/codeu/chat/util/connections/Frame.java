@@ -0,0 +1,93 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// FRAME
+//
+// One request or response on a pipelined connection. A pipelined connection
+// carries many requests at once, so each one is sent as:
+//
+//   [ int id ][ int length ][ length bytes ]
+//
+// The id is picked by the client and sent back with the response so that
+// responses can be matched to requests when they come back in a different
+// order. The bytes are exactly what would have been sent on a connection of
+// its own (the request type followed by its body, or the response type
+// followed by its body).
+public final class Frame {
+
+  // Frames larger than this are treated as a broken connection rather than
+  // trying to allocate whatever length was read.
+  public static final int MAX_BYTES = 64 * 1024 * 1024;
+
+  public final int id;
+  public final byte[] bytes;
+
+  public Frame(int id, byte[] bytes) {
+    this.id = id;
+    this.bytes = bytes;
+  }
+
+  // READ
+  //
+  // Read the next frame. Returns null if the connection was closed between
+  // frames.
+  public static Frame read(DataInputStream in) throws IOException {
+
+    final int id;
+    try {
+      id = in.readInt();
+    } catch (EOFException ex) {
+      return null;
+    }
+
+    final int length = in.readInt();
+
+    if (length < 0 || length > MAX_BYTES) {
+      throw new IOException(String.format("Bad frame length %d", length));
+    }
+
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+
+    return new Frame(id, bytes);
+  }
+
+  // WRITE
+  //
+  // Write a frame as a single write so that the header and body go out
+  // together. Callers sharing a stream must not write at the same time.
+  public static void write(OutputStream out, int id, byte[] bytes) throws IOException {
+
+    final byte[] frame = new byte[8 + bytes.length];
+
+    frame[0] = (byte) (id >>> 24);
+    frame[1] = (byte) (id >>> 16);
+    frame[2] = (byte) (id >>> 8);
+    frame[3] = (byte) id;
+    frame[4] = (byte) (bytes.length >>> 24);
+    frame[5] = (byte) (bytes.length >>> 16);
+    frame[6] = (byte) (bytes.length >>> 8);
+    frame[7] = (byte) bytes.length;
+
+    System.arraycopy(bytes, 0, frame, 8, bytes.length);
+    out.write(frame);
+  }
+}
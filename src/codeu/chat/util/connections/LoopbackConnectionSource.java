@@ -0,0 +1,147 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// LOOPBACK CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface for a client and server in the
+// same process, without sockets. It works like ServerConnectionSource: calls
+// to "connect" block until a client connects. Clients connect through the
+// source returned by "client". Each connection is a pair of byte rings, one
+// for each direction, so sending a request costs a copy into memory rather
+// than a trip through the kernel.
+//
+// This is meant for tests and benchmarks that want to measure the protocol
+// and the server without the network.
+public final class LoopbackConnectionSource implements ConnectionSource {
+
+  // The default size of each direction of a connection. Big enough for most
+  // requests and responses to fit without waiting for the other side.
+  public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+
+  // Put in the queue to wake up threads waiting in "connect" when the source
+  // is closed.
+  private static final Connection CLOSED = new Connection() {
+    @Override
+    public InputStream in() { throw new IllegalStateException(); }
+
+    @Override
+    public OutputStream out() { throw new IllegalStateException(); }
+
+    @Override
+    public void close() { }
+  };
+
+  private final int bufferBytes;
+  private final BlockingQueue<Connection> pending = new LinkedBlockingQueue<>();
+  private volatile boolean closed = false;
+
+  private final ConnectionSource client = new ConnectionSource() {
+
+    @Override
+    public Connection connect() throws IOException {
+
+      if (closed) {
+        throw new IOException("Loopback source is closed");
+      }
+
+      final ByteRing toServer = new ByteRing(bufferBytes);
+      final ByteRing toClient = new ByteRing(bufferBytes);
+
+      pending.add(end(toClient, toServer));
+
+      return end(toServer, toClient);
+    }
+
+    @Override
+    public void close() { }
+  };
+
+  public LoopbackConnectionSource() {
+    this(DEFAULT_BUFFER_BYTES);
+  }
+
+  public LoopbackConnectionSource(int bufferBytes) {
+    this.bufferBytes = bufferBytes;
+  }
+
+  // CLIENT
+  //
+  // The source that clients use to connect. Each call to its "connect" returns
+  // straight away with a connection whose other end is handed to the next
+  // call to this source's "connect".
+  public ConnectionSource client() {
+    return client;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    if (closed) {
+      throw new IOException("Loopback source is closed");
+    }
+
+    final Connection connection;
+    try {
+      connection = pending.take();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a connection", ex);
+    }
+
+    if (connection == CLOSED) {
+      pending.add(CLOSED);  // wake the next waiting thread too
+      throw new IOException("Loopback source is closed");
+    }
+
+    return connection;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    pending.add(CLOSED);
+  }
+
+  // One end of a connection: it writes to "outgoing" and reads from
+  // "incoming". Closing it closes both, so the other end reads the end of the
+  // stream and gets an error if it writes.
+  private static Connection end(final ByteRing outgoing, final ByteRing incoming) {
+
+    return new Connection() {
+
+      @Override
+      public InputStream in() {
+        return incoming.in();
+      }
+
+      @Override
+      public OutputStream out() {
+        return outgoing.out();
+      }
+
+      @Override
+      public void close() {
+        outgoing.closeWriter();
+        incoming.closeReader();
+      }
+    };
+  }
+}
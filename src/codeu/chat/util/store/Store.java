@@ -30,6 +30,11 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   private final Comparator<KEY> comparator;
 
+  // How many values and how many distinct keys (index entries) the store
+  // holds. Kept as values are inserted so that they are free to read.
+  private int size = 0;
+  private int keyCount = 0;
+
   public Store(Comparator<KEY> comparator) {
     this.index = new TreeMap<>(comparator);
     this.comparator = comparator;
@@ -51,6 +56,7 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     // should always be safe to call to current.
     final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
     current.next = newLink;
+    size++;
 
     // Before adding the link to the index, first check if the hint has an
     // equal key. If it does - do not add the index.
@@ -64,9 +70,25 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     //     why the insert is always put at the end of the series.
     if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
       index.put(key, newLink);
+      keyCount++;
     }
   }
 
+  // SIZE
+  //
+  // The number of values in the store. Values with equal keys are each
+  // counted.
+  public int size() {
+    return size;
+  }
+
+  // KEY COUNT
+  //
+  // The number of distinct keys in the store.
+  public int keyCount() {
+    return keyCount;
+  }
+
   @Override
   public VALUE first(KEY key) {
     final StoreLink<KEY, VALUE> link = index.get(key);
@@ -24,13 +24,36 @@ public final class TestRunner {
          JUnitCore.runClasses(
              codeu.chat.common.SecretTest.class,
              codeu.chat.common.ServerInfoTest.class,
+             codeu.chat.common.TimeUuidGeneratorTest.class,
+             codeu.chat.load.MixTest.class,
+             codeu.chat.relay.DiskHistoryTest.class,
+             codeu.chat.relay.EncodedBundleTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.ClusterRelayTest.class,
+             codeu.chat.server.IdRegistryTest.class,
+             codeu.chat.server.InterestIndexTest.class,
+             codeu.chat.server.MessageIndexTest.class,
+             codeu.chat.server.ModelTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.RemoteRelayTest.class,
+             codeu.chat.server.ServerMetricsTest.class,
+             codeu.chat.server.TracingTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.util.BloomFilterTest.class,
+             codeu.chat.util.EventLogTest.class,
+             codeu.chat.util.HistogramTest.class,
+             codeu.chat.util.RingBufferTest.class,
+             codeu.chat.util.SpansTest.class,
+             codeu.chat.util.connections.LoopbackConnectionSourceTest.class,
              codeu.chat.util.TimeTest.class,
+             codeu.chat.util.TimelineTest.class,
              codeu.chat.util.UuidTest.class,
              codeu.chat.util.store.StoreTest.class,
              codeu.chat.util.TokenizerTest.class,
+             codeu.chat.client.core.AsyncClientTest.class,
+             codeu.chat.client.core.CachedViewTest.class,
+             codeu.chat.client.core.MessageStreamTest.class,
              codeu.chat.client.commandline.ChatTest.class
          );
       for (final Failure failure : result.getFailures()) {
@@ -0,0 +1,183 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class AsyncClientTest {
+
+  private ServerSocket socket;
+  private Thread acceptor;
+
+  @Before
+  public void doBefore() throws IOException {
+    socket = new ServerSocket(0);
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    socket.close();
+    if (acceptor != null) {
+      acceptor.join(1000);
+    }
+  }
+
+  @Test
+  public void testManyRequestsInFlight() throws Exception {
+
+    final Server server = new Server(new Uuid(1), new Secret((byte) 1), new NoOpRelay());
+    accept(server);
+
+    try (final AsyncClient client = new AsyncClient(source(), 8, 1000, 10000)) {
+
+      final User user = client.newUser("user").get(10, TimeUnit.SECONDS);
+      final ConversationHeader conversation =
+          client.newConversation("conversation", user.id).get(10, TimeUnit.SECONDS);
+
+      // Far more requests than are allowed in flight at once.
+      final List<CompletableFuture<Message>> sent = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        sent.add(client.newMessage(user.id, conversation.id, "message " + i));
+      }
+
+      final Collection<Uuid> ids = new ArrayList<>();
+      for (final CompletableFuture<Message> future : sent) {
+        ids.add(future.get(10, TimeUnit.SECONDS).id);
+      }
+
+      assertEquals(200, client.getMessages(ids).get(10, TimeUnit.SECONDS).size());
+      assertEquals(0, client.inFlight());
+      assertEquals(0, client.waiting());
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testTimeoutAndLimits() throws Exception {
+
+    // A "server" that agrees to pipeline and then never answers.
+    acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final Socket client = socket.accept();
+          client.getInputStream().read(new byte[4]);
+          Serializers.INTEGER.write(client.getOutputStream(), NetworkCode.PIPELINE_RESPONSE);
+          client.getOutputStream().flush();
+          while (client.getInputStream().read() >= 0) { }
+        } catch (IOException ex) {
+          // The test is over.
+        }
+      }
+    });
+    acceptor.start();
+
+    try (final AsyncClient client = new AsyncClient(source(), 1, 1, 200)) {
+
+      final CompletableFuture<Collection<User>> first = client.getUsers();
+      final CompletableFuture<Collection<User>> second = client.getUsers();
+      final CompletableFuture<Collection<User>> third = client.getUsers();
+
+      // Only one place in flight and one place waiting.
+      assertTrue(third.isCompletedExceptionally());
+      assertEquals(1, client.waiting());
+
+      assertFailsWith(TimeoutException.class, first);
+      assertFailsWith(TimeoutException.class, second);
+
+      assertEquals(0, client.inFlight());
+    }
+  }
+
+  private static void assertFailsWith(Class<?> type, CompletableFuture<?> future) throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected the request to fail");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause().toString(), type.isInstance(ex.getCause()));
+    }
+  }
+
+  private void accept(final Server server) {
+    acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            server.handleConnection(wrap(socket.accept()));
+          }
+        } catch (IOException ex) {
+          // The socket was closed at the end of the test.
+        }
+      }
+    });
+    acceptor.start();
+  }
+
+  private ConnectionSource source() {
+    final int port = socket.getLocalPort();
+    return new ConnectionSource() {
+      @Override
+      public Connection connect() throws IOException {
+        return wrap(new Socket("localhost", port));
+      }
+
+      @Override
+      public void close() { }
+    };
+  }
+
+  private static Connection wrap(final Socket socket) {
+    return new Connection() {
+      @Override
+      public InputStream in() throws IOException { return socket.getInputStream(); }
+
+      @Override
+      public OutputStream out() throws IOException { return socket.getOutputStream(); }
+
+      @Override
+      public void close() throws IOException { socket.close(); }
+    };
+  }
+}
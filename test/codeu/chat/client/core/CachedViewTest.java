@@ -0,0 +1,246 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.common.Versions;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class CachedViewTest {
+
+  // A view that counts how often each table is read so that the tests can see
+  // when the cache went to the "server".
+  private static class CountingView implements BasicView {
+
+    public final List<User> users = new ArrayList<>();
+    public final Map<Uuid, Message> messages = new HashMap<>();
+    public long userVersion = 1;
+    public long messageVersion = 1;
+
+    public int userReads = 0;
+    public int messageReads = 0;
+    public int versionReads = 0;
+
+    @Override
+    public Collection<User> getUsers() {
+      userReads++;
+      return new ArrayList<>(users);
+    }
+
+    @Override
+    public Collection<ConversationHeader> getConversations() {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public Collection<Message> getMessages(Collection<Uuid> ids) {
+      messageReads++;
+      final Collection<Message> found = new ArrayList<>();
+      for (final Uuid id : ids) {
+        if (messages.containsKey(id)) {
+          found.add(messages.get(id));
+        }
+      }
+      return found;
+    }
+
+    @Override
+    public Collection<Message> getMessagePage(Uuid first, int count) {
+      messageReads++;
+      final Collection<Message> page = new ArrayList<>();
+      for (Message message = messages.get(first);
+           message != null && page.size() < count;
+           message = messages.get(message.next)) {
+        page.add(message);
+      }
+      return page;
+    }
+
+    @Override
+    public ServerInfo getInfo() {
+      return null;
+    }
+
+    @Override
+    public Versions getVersions() {
+      versionReads++;
+      return new Versions(userVersion, 0, messageVersion);
+    }
+  }
+
+  private CountingView server;
+  private CachedView view;
+
+  @Before
+  public void doBefore() {
+    server = new CountingView();
+    server.users.add(new User(new Uuid(1), "user", Time.now()));
+    // Only check versions when told to so that the tests do not depend on
+    // timing.
+    view = new CachedView(server, 16, Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testUsersReadOnce() {
+
+    assertEquals(1, view.getUsers().size());
+    assertEquals(1, view.getUsers().size());
+    assertNotNull(view.findUser(new Uuid(1)));
+
+    assertEquals(1, server.userReads);
+    assertEquals(1, server.versionReads);
+  }
+
+  @Test
+  public void testNewUserSeenAfterInvalidate() {
+
+    view.getUsers();
+
+    server.users.add(new User(new Uuid(2), "other", Time.now()));
+    server.userVersion++;
+
+    // Still trusting the last versions.
+    assertEquals(1, view.getUsers().size());
+
+    view.invalidate();
+    assertEquals(2, view.getUsers().size());
+    assertEquals(2, server.userReads);
+  }
+
+  @Test
+  public void testUnchangedVersionsKeepCache() {
+
+    view.getUsers();
+    view.invalidate();
+    view.getUsers();
+
+    assertEquals(1, server.userReads);
+    assertEquals(2, server.versionReads);
+  }
+
+  @Test
+  public void testOnlyTailMessagesDropped() {
+
+    final Uuid first = new Uuid(10);
+    final Uuid last = new Uuid(11);
+
+    server.messages.put(first, new Message(first, last, Uuid.NULL, Time.now(), new Uuid(1), "a"));
+    server.messages.put(last, new Message(last, Uuid.NULL, first, Time.now(), new Uuid(1), "b"));
+
+    assertEquals(2, view.getMessages(Arrays.asList(first, last)).size());
+    assertEquals(1, server.messageReads);
+
+    server.messageVersion++;
+    view.invalidate();
+
+    // "first" already has a next so it cannot change. "last" can.
+    view.getMessages(Arrays.asList(first));
+    assertEquals(1, server.messageReads);
+
+    view.getMessages(Arrays.asList(last));
+    assertEquals(2, server.messageReads);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDropped() {
+
+    final CachedView small = new CachedView(server, 2, Long.MAX_VALUE);
+
+    final Uuid[] ids = { new Uuid(20), new Uuid(21), new Uuid(22) };
+    for (final Uuid id : ids) {
+      server.messages.put(id, new Message(id, new Uuid(99), Uuid.NULL, Time.now(), new Uuid(1), "m"));
+    }
+
+    small.getMessages(Arrays.asList(ids[0]));
+    small.getMessages(Arrays.asList(ids[1]));
+    small.getMessages(Arrays.asList(ids[0]));  // make 1 the eldest
+    small.getMessages(Arrays.asList(ids[2]));  // pushes out 1
+    assertEquals(3, server.messageReads);
+
+    small.getMessages(Arrays.asList(ids[0]));
+    assertEquals(3, server.messageReads);
+
+    small.getMessages(Arrays.asList(ids[1]));
+    assertEquals(4, server.messageReads);
+  }
+
+  @Test
+  public void testNoVersionsMeansNoCache() {
+
+    final CountingView old = new CountingView() {
+      @Override
+      public Versions getVersions() {
+        versionReads++;
+        return null;
+      }
+    };
+    old.users.add(new User(new Uuid(1), "user", Time.now()));
+
+    final CachedView uncached = new CachedView(old, 16, Long.MAX_VALUE);
+    uncached.getUsers();
+    uncached.getUsers();
+    uncached.invalidate();
+    uncached.getUsers();
+
+    assertEquals(3, old.userReads);
+
+    // Once the versions could not be read, reads go straight to the server
+    // rather than paying for a second round trip each time.
+    assertEquals(1, old.versionReads);
+  }
+
+  @Test
+  public void testFailedCheckRetried() {
+
+    final CountingView flaky = new CountingView() {
+      @Override
+      public Versions getVersions() {
+        return versionReads++ == 0 ? null : super.getVersions();
+      }
+    };
+    flaky.users.add(new User(new Uuid(1), "user", Time.now()));
+
+    // With no freshness window every read checks again, so the cache comes
+    // back as soon as the server answers.
+    final CachedView retrying = new CachedView(flaky, 16, 0);
+    retrying.getUsers();
+    retrying.getUsers();
+    retrying.getUsers();
+
+    assertEquals(2, flaky.userReads);
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.common.Versions;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageStreamTest {
+
+  // A view holding a single conversation of "size" messages, where each page
+  // takes "delayMs" to arrive.
+  private static final class PagedView implements BasicView {
+
+    public final Map<Uuid, Message> messages = new HashMap<>();
+    public final AtomicInteger pages = new AtomicInteger();
+    private final long delayMs;
+
+    public PagedView(int size, long delayMs) {
+      this.delayMs = delayMs;
+      for (int i = 1; i <= size; i++) {
+        final Uuid next = i == size ? Uuid.NULL : new Uuid(i + 1);
+        messages.put(new Uuid(i), new Message(new Uuid(i), next, Uuid.NULL, Time.now(), Uuid.NULL, "m" + i));
+      }
+    }
+
+    @Override
+    public Collection<Message> getMessagePage(Uuid first, int count) {
+      pages.incrementAndGet();
+      try {
+        Thread.sleep(delayMs);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      final Collection<Message> page = new ArrayList<>();
+      for (Message message = messages.get(first);
+           message != null && page.size() < count;
+           message = messages.get(message.next)) {
+        page.add(message);
+      }
+      return page;
+    }
+
+    @Override
+    public Collection<User> getUsers() { return new ArrayList<>(); }
+
+    @Override
+    public Collection<ConversationHeader> getConversations() { return new ArrayList<>(); }
+
+    @Override
+    public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public Collection<Message> getMessages(Collection<Uuid> ids) {
+      final Collection<Message> found = new ArrayList<>();
+      for (final Uuid id : ids) {
+        if (messages.containsKey(id)) {
+          found.add(messages.get(id));
+        }
+      }
+      return found;
+    }
+
+    @Override
+    public ServerInfo getInfo() { return null; }
+
+    @Override
+    public Versions getVersions() { return null; }
+  }
+
+  @Test
+  public void testReadsInOrderWithPages() {
+
+    final PagedView view = new PagedView(500, 0);
+    final MessageStream stream = new MessageStream(view);
+
+    int count = 0;
+    for (Message message = stream.first(new Uuid(1));
+         message != null;
+         message = stream.next(message)) {
+      count++;
+      assertEquals(count, message.id.id());
+    }
+
+    assertEquals(500, count);
+    assertTrue("pages=" + view.pages.get(), view.pages.get() <= 500 / MessageStream.MIN_PAGE + 1);
+  }
+
+  @Test
+  public void testReadAheadGrowsWithLatency() throws InterruptedException {
+
+    final PagedView view = new PagedView(2000, 20);
+    final MessageStream stream = new MessageStream(view);
+
+    // Take messages much faster than a page arrives.
+    Message message = stream.first(new Uuid(1));
+    for (int i = 0; i < 200 && message != null; i++) {
+      message = stream.next(message);
+    }
+
+    assertTrue("readAhead=" + stream.readAhead(), stream.readAhead() > MessageStream.MIN_PAGE);
+  }
+
+  @Test
+  public void testEmptyConversation() {
+    assertNull(new MessageStream(new PagedView(0, 0)).first(Uuid.NULL));
+  }
+
+  @Test
+  public void testJumpStartsAgain() {
+
+    final PagedView view = new PagedView(100, 0);
+    final MessageStream stream = new MessageStream(view);
+
+    stream.first(new Uuid(1));
+
+    // Continue from a message that is not next in the buffer.
+    final Message jumped = stream.next(view.messages.get(new Uuid(50)));
+    assertEquals(51, jumped.id.id());
+    assertEquals(52, stream.next(jumped).id.id());
+  }
+}
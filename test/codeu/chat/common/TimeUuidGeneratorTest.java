@@ -0,0 +1,160 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.server.Model;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TimeUuidGeneratorTest {
+
+  @Test
+  public void testValueRoundTrip() {
+
+    final Uuid root = new Uuid(5);
+
+    for (final long value : new long[] { 0, 1, 0xFFFFFFFFL, 0x100000000L, Long.MAX_VALUE }) {
+      final Uuid id = TimeUuidGenerator.toUuid(root, value);
+      assertEquals(value, TimeUuidGenerator.toValue(id));
+      assertTrue(Uuid.equals(root, id.root().root()));
+    }
+  }
+
+  @Test
+  public void testIdsGoUp() {
+
+    final TimeUuidGenerator generator = new TimeUuidGenerator(new Uuid(1));
+
+    // Enough to run past the sequence in at least one millisecond.
+    long last = -1;
+    for (int i = 0; i < 100000; i++) {
+      final long next = generator.next();
+      assertTrue(next > last);
+      last = next;
+    }
+  }
+
+  @Test
+  public void testMillis() {
+
+    final long before = System.currentTimeMillis();
+    final Uuid id = new TimeUuidGenerator(new Uuid(1)).make();
+    final long after = System.currentTimeMillis();
+
+    final long millis = TimeUuidGenerator.millis(id);
+    assertTrue(millis >= before && millis <= after);
+  }
+
+  @Test
+  public void testThreadsNeverCollide() throws Exception {
+
+    final TimeUuidGenerator generator = new TimeUuidGenerator(new Uuid(1));
+    final List<List<Uuid>> made = new ArrayList<>();
+    final List<Thread> threads = new ArrayList<>();
+
+    for (int i = 0; i < 8; i++) {
+      final List<Uuid> ids = new ArrayList<>();
+      made.add(ids);
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 20000; j++) {
+            ids.add(generator.make());
+          }
+        }
+      });
+    }
+
+    for (final Thread thread : threads) { thread.start(); }
+    for (final Thread thread : threads) { thread.join(); }
+
+    final Set<Uuid> all = new HashSet<>();
+    for (final List<Uuid> ids : made) {
+      all.addAll(ids);
+    }
+
+    assertEquals(8 * 20000, all.size());
+  }
+
+  @Test
+  public void testMoreThreadsThanWorkers() throws Exception {
+
+    final TimeUuidGenerator generator = new TimeUuidGenerator(new Uuid(1));
+    final List<Uuid> made = Collections.synchronizedList(new ArrayList<Uuid>());
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    // Short-lived threads, a few at a time, well past the number of worker
+    // ids. The later ones all share the last worker.
+    final int threads = 1500;
+    final int batch = 50;
+
+    for (int i = 0; i < threads; i += batch) {
+      final List<Thread> running = new ArrayList<>();
+      for (int j = 0; j < batch; j++) {
+        running.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              long last = -1;
+              for (int k = 0; k < 100; k++) {
+                final Uuid id = generator.make();
+                assertTrue(TimeUuidGenerator.toValue(id) > last);
+                last = TimeUuidGenerator.toValue(id);
+                made.add(id);
+              }
+            } catch (Throwable ex) {
+              failures.add(ex);
+            }
+          }
+        });
+      }
+      for (final Thread thread : running) { thread.start(); }
+      for (final Thread thread : running) { thread.join(); }
+    }
+
+    assertEquals(Collections.<Throwable>emptyList(), failures);
+    assertEquals(threads * 100, new HashSet<>(made).size());
+  }
+
+  @Test
+  public void testModelOrderIsCreationOrder() {
+
+    final TimeUuidGenerator generator = new TimeUuidGenerator(new Uuid(1));
+    final Model model = new Model();
+    final List<Uuid> made = new ArrayList<>();
+
+    for (int i = 0; i < 1000; i++) {
+      final Uuid id = generator.make();
+      made.add(id);
+      model.add(new User(id, "user", Time.now()));
+    }
+
+    final List<Uuid> stored = new ArrayList<>();
+    for (final User user : model.userById().all()) {
+      stored.add(user.id);
+    }
+
+    assertEquals(made, stored);
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.load;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+public final class MixTest {
+
+  @Test
+  public void testParse() {
+
+    final Mix mix = Mix.parse("send=40, read=30,list=0,relay-read=5");
+
+    assertEquals(40, mix.weight(Mix.Operation.SEND));
+    assertEquals(30, mix.weight(Mix.Operation.READ));
+    assertEquals(0, mix.weight(Mix.Operation.LIST));
+    assertEquals(0, mix.weight(Mix.Operation.RELAY_WRITE));
+    assertEquals(5, mix.weight(Mix.Operation.RELAY_READ));
+    assertTrue(mix.usesRelay());
+    assertEquals("send=40,read=30,relay-read=5", mix.toString());
+
+    assertFalse(Mix.parse(Mix.DEFAULT).usesRelay());
+  }
+
+  @Test
+  public void testBadMixes() {
+    for (final String text : new String[] { "", "send=0", "send", "send=x", "send=-1", "write=5" }) {
+      try {
+        Mix.parse(text);
+        fail("Expected \"" + text + "\" to be rejected");
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testChooseFollowsWeights() {
+
+    final Mix mix = Mix.parse("send=3,list=1");
+    final Random random = new Random(1);
+
+    final Map<Mix.Operation, Integer> counts = new EnumMap<>(Mix.Operation.class);
+    for (int i = 0; i < 40000; i++) {
+      final Mix.Operation operation = mix.choose(random);
+      counts.put(operation, counts.containsKey(operation) ? counts.get(operation) + 1 : 1);
+    }
+
+    assertEquals(2, counts.size());
+    assertEquals(30000, counts.get(Mix.Operation.SEND), 600);
+    assertEquals(10000, counts.get(Mix.Operation.LIST), 600);
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class DiskHistoryTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final Uuid team = new Uuid(3);
+  private final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws IOException {
+    directory = temporaryFolder.newFolder("history");
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+
+    final Server relay = open(new DiskHistory(directory, 4096, 0, 0));
+
+    write(relay, 6, "Hello World");
+    write(relay, 7, "Hello World... again");
+
+    final Collection<Relay.Bundle> read = relay.read(team, secret, Uuid.NULL, 8);
+    assertEquals(2, read.size());
+
+    int expected = 6;
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.team(), team));
+      assertTrue(Uuid.equals(bundle.message().id(), new Uuid(expected++)));
+    }
+  }
+
+  @Test
+  public void testReadAfterRoot() throws IOException {
+
+    final Server relay = open(new DiskHistory(directory, 4096, 0, 0));
+
+    write(relay, 6, "One");
+    write(relay, 7, "Two");
+    write(relay, 8, "Three");
+
+    // The relay uses a linear id generator starting at 1 - so the first bundle
+    // will be 2 and reading after it should give the second message.
+    final Collection<Relay.Bundle> read = relay.read(team, secret, new Uuid(2), 1);
+    assertEquals(1, read.size());
+
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
+      assertEquals("Two", bundle.message().text());
+    }
+  }
+
+  @Test
+  public void testReadAcrossSegments() throws IOException {
+
+    // Use the smallest segments allowed so that the history is forced to
+    // roll over many times.
+    final DiskHistory history = new DiskHistory(directory, 1, 0, 0);
+    final Server relay = open(history);
+
+    for (int i = 0; i < 200; i++) {
+      write(relay, 100 + i, String.format("Message %d with some padding to fill segments", i));
+    }
+
+    assertTrue(directory.listFiles().length > 2);
+
+    Uuid last = Uuid.NULL;
+    int count = 0;
+    for (Collection<Relay.Bundle> read = relay.read(team, secret, last, 16);
+         !read.isEmpty();
+         read = relay.read(team, secret, last, 16)) {
+      for (final Relay.Bundle bundle : read) {
+        assertTrue(Uuid.equals(bundle.message().id(), new Uuid(100 + count)));
+        last = bundle.id();
+        count++;
+      }
+    }
+
+    assertEquals(200, count);
+  }
+
+  @Test
+  public void testPollingReusesMapping() throws IOException {
+
+    final DiskHistory history = new DiskHistory(directory, 1 << 20, 0, 0);
+    final Server relay = open(history);
+
+    write(relay, 100, "First");
+    Uuid last = relay.read(team, secret, Uuid.NULL, 16).iterator().next().id();
+
+    final long maps = history.maps();
+
+    // Like a server polling for new messages as they are written.
+    for (int i = 1; i < 50; i++) {
+      write(relay, 100 + i, String.format("Message %d", i));
+
+      final Collection<Relay.Bundle> read = relay.read(team, secret, last, 16);
+      assertEquals(1, read.size());
+
+      final Relay.Bundle bundle = read.iterator().next();
+      assertTrue(Uuid.equals(bundle.message().id(), new Uuid(100 + i)));
+      last = bundle.id();
+    }
+
+    // A read that starts in the mapping and carries on past it.
+    final Collection<Relay.Bundle> all = relay.read(team, secret, Uuid.NULL, 16);
+    assertEquals(16, all.size());
+
+    int expected = 100;
+    for (final Relay.Bundle bundle : all) {
+      assertTrue(Uuid.equals(bundle.message().id(), new Uuid(expected++)));
+    }
+
+    assertEquals(maps, history.maps());
+  }
+
+  @Test
+  public void testSurvivesRestart() throws IOException {
+
+    final DiskHistory first = new DiskHistory(directory, 4096, 0, 0);
+    final Server before = open(first);
+
+    write(before, 6, "Before restart");
+    first.close();
+
+    final DiskHistory second = new DiskHistory(directory, 4096, 0, 0);
+    final Server after = open(second);
+
+    assertEquals(2, second.lastId());
+
+    write(after, 7, "After restart");
+
+    final Collection<Relay.Bundle> read = after.read(team, secret, Uuid.NULL, 8);
+    assertEquals(2, read.size());
+
+    int expectedId = 2;
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.id(), new Uuid(expectedId++)));
+    }
+  }
+
+  @Test
+  public void testRetentionBySize() throws IOException {
+
+    final DiskHistory history = new DiskHistory(directory, 1, 2048, 0);
+    final Server relay = open(history);
+
+    for (int i = 0; i < 200; i++) {
+      write(relay, 100 + i, String.format("Message %d with some padding to fill segments", i));
+    }
+
+    assertTrue(history.size() <= 2048 + 4096);
+
+    // The oldest bundles should be gone so reading from the start should give
+    // something other than the first message.
+    for (final Relay.Bundle bundle : relay.read(team, secret, Uuid.NULL, 1)) {
+      assertFalse(Uuid.equals(bundle.message().id(), new Uuid(100)));
+    }
+  }
+
+  private Server open(History history) {
+    final Server relay = new Server(history, 16);
+    relay.addTeam(team, secret);
+    return relay;
+  }
+
+  private void write(Server relay, int message, String text) {
+    assertTrue(relay.write(team,
+                           secret,
+                           relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(message), text, Time.now())));
+  }
+}
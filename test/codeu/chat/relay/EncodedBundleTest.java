@@ -0,0 +1,147 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class EncodedBundleTest {
+
+  private static Relay.Bundle.Component component(final Uuid id, final String text, final Time time) {
+    return new Relay.Bundle.Component() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public String text() { return text; }
+      @Override
+      public Time time() { return time; }
+    };
+  }
+
+  private static Relay.Bundle bundle() {
+    final Time time = Time.fromMs(1234567);
+    final Relay.Bundle.Component user = component(new Uuid(new Uuid(1), 4), "User", time);
+    final Relay.Bundle.Component conversation = component(new Uuid(5), "Conversation", time);
+    final Relay.Bundle.Component message = component(new Uuid(6), "Hello World", time);
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return new Uuid(2); }
+      @Override
+      public Time time() { return time; }
+      @Override
+      public Uuid team() { return new Uuid(3); }
+      @Override
+      public Relay.Bundle.Component user() { return user; }
+      @Override
+      public Relay.Bundle.Component conversation() { return conversation; }
+      @Override
+      public Relay.Bundle.Component message() { return message; }
+    };
+  }
+
+  @Test
+  public void testEncodedBytesMatchSerializer() throws IOException {
+
+    final Relay.Bundle original = bundle();
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Bundles.BUNDLE_SERIALIZER.write(expected, original);
+
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    Bundles.BUNDLE_SERIALIZER.write(actual, EncodedBundle.encode(original));
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    assertEquals(expected.size(), EncodedBundle.encode(original).size());
+  }
+
+  @Test
+  public void testWrapDecodesFields() throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Bundles.BUNDLE_SERIALIZER.write(bytes, bundle());
+
+    final EncodedBundle wrapped = EncodedBundle.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+
+    assertTrue(Uuid.equals(new Uuid(2), wrapped.id()));
+    assertTrue(Uuid.equals(new Uuid(3), wrapped.team()));
+    assertTrue(Uuid.equals(new Uuid(new Uuid(1), 4), wrapped.user().id()));
+    assertEquals("Conversation", wrapped.conversation().text());
+    assertEquals("Hello World", wrapped.message().text());
+    assertEquals(1234567, wrapped.message().time().inMs());
+
+    final ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+    wrapped.writeTo(rewritten);
+    assertArrayEquals(bytes.toByteArray(), rewritten.toByteArray());
+
+    final Relay.Bundle read = Bundles.BUNDLE_SERIALIZER.read(
+        new ByteArrayInputStream(rewritten.toByteArray()));
+    assertTrue(Uuid.equals(new Uuid(6), read.message().id()));
+  }
+
+  @Test
+  public void testCompactSharesComponents() throws IOException {
+
+    final Collection<Relay.Bundle> bundles = Arrays.asList(bundle(), bundle(), bundle());
+
+    final ByteArrayOutputStream full = new ByteArrayOutputStream();
+    for (final Relay.Bundle bundle : bundles) {
+      Bundles.BUNDLE_SERIALIZER.write(full, bundle);
+    }
+
+    final ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    Bundles.writeCompact(compact, bundles);
+
+    // Reading the compact format back is tested with the server's reader (see
+    // RemoteRelayTest).
+    assertTrue(compact.size() < full.size());
+  }
+
+  @Test
+  public void testInternReleasesComponents() throws IOException {
+
+    final ComponentTable table = new ComponentTable();
+
+    final EncodedBundle first = EncodedBundle.encode(bundle()).intern(table);
+    final EncodedBundle second = EncodedBundle.encode(bundle()).intern(table);
+
+    // One user and one conversation, shared by both bundles.
+    assertEquals(2, table.size());
+
+    first.release(table);
+    assertEquals(2, table.size());
+
+    second.release(table);
+    assertEquals(0, table.size());
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Bundles.BUNDLE_SERIALIZER.write(expected, bundle());
+
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    second.writeTo(actual);
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+}
@@ -287,4 +287,38 @@ public final class ServerTest {
       assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
     }
   }
+
+  @Test
+  public void testTracesAreReadBack() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    assertTrue(relay.write(team,
+                           secret,
+                           relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(6), "Traced", Time.now()),
+                           77L));
+
+    assertTrue(relay.write(team,
+                           secret,
+                           relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(7), "Untraced", Time.now())));
+
+    final Relay.Bundle[] read = relay.read(team, secret, Uuid.NULL, 8).toArray(new Relay.Bundle[0]);
+
+    assertEquals(2, read.length);
+    assertEquals(77L, read[0].trace());
+    assertEquals("Traced", read[0].message().text());
+    assertEquals(0L, read[1].trace());
+
+    // The traced bundle is still encoded, so it is sent by copying its bytes.
+    assertTrue(read[0] instanceof EncodedBundle);
+  }
 }
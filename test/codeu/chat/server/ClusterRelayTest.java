@@ -0,0 +1,134 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.relay.Server;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ClusterRelayTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+  private static final Secret SECRET = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  private List<Server> nodes;
+  private ClusterRelay cluster;
+
+  @Before
+  public void doBefore() {
+    nodes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      final Server node = new Server(64, 64);
+      node.addTeam(TEAM, SECRET);
+      nodes.add(node);
+    }
+    cluster = new ClusterRelay(nodes);
+  }
+
+  private void write(int conversation, int message) {
+    assertTrue(cluster.write(TEAM,
+                             SECRET,
+                             cluster.pack(new Uuid(1), "User", Time.now()),
+                             cluster.pack(new Uuid(conversation), "Conversation", Time.now()),
+                             cluster.pack(new Uuid(message), "Message", Time.now())));
+  }
+
+  @Test
+  public void testConversationStaysOnOneNode() {
+
+    for (int message = 100; message < 110; message++) {
+      write(7, message);
+    }
+
+    final int owner = cluster.partition(new Uuid(7));
+
+    for (int i = 0; i < nodes.size(); i++) {
+      final Collection<Relay.Bundle> bundles = nodes.get(i).read(TEAM, SECRET, Uuid.NULL, 64);
+      assertEquals(i == owner ? 10 : 0, bundles.size());
+    }
+  }
+
+  @Test
+  public void testReadMergesAllPartitions() {
+
+    final Set<Uuid> written = new HashSet<>();
+
+    int message = 100;
+    for (int conversation = 1; conversation <= 12; conversation++) {
+      for (int i = 0; i < 3; i++) {
+        write(conversation, message);
+        written.add(new Uuid(message));
+        message++;
+      }
+    }
+
+    final Set<Uuid> read = new HashSet<>();
+    int count = 0;
+    Uuid cursor = Uuid.NULL;
+
+    // Read a few at a time so that the cursor has to carry every partition's
+    // position from one read to the next.
+    for (Collection<Relay.Bundle> bundles = cluster.read(TEAM, SECRET, cursor, 5);
+         !bundles.isEmpty();
+         bundles = cluster.read(TEAM, SECRET, cursor, 5)) {
+
+      assertTrue(bundles.size() <= 5);
+
+      for (final Relay.Bundle bundle : bundles) {
+        read.add(bundle.message().id());
+        cursor = bundle.id();
+        count++;
+      }
+    }
+
+    assertEquals(written.size(), count);
+    assertEquals(written, read);
+
+    // Nothing new has been written so reading again from the cursor should
+    // return nothing, even from a new cluster client.
+    assertTrue(new ClusterRelay(nodes).read(TEAM, SECRET, cursor, 5).isEmpty());
+
+    write(1, 500);
+
+    final Collection<Relay.Bundle> next = cluster.read(TEAM, SECRET, cursor, 5);
+    assertEquals(1, next.size());
+    assertEquals(new Uuid(500), next.iterator().next().message().id());
+  }
+
+  @Test
+  public void testUnknownCursorReadsFromStart() {
+
+    write(1, 100);
+    write(2, 101);
+
+    // A cursor from a single relay does not have a position for every node.
+    final Collection<Relay.Bundle> bundles =
+        cluster.read(TEAM, SECRET, new Uuid(new Uuid(4), 5), 8);
+
+    assertEquals(2, bundles.size());
+  }
+}
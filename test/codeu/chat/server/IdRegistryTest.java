@@ -0,0 +1,84 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Uuid;
+
+public final class IdRegistryTest {
+
+  @Test
+  public void testAddAndContains() {
+
+    final IdRegistry ids = new IdRegistry();
+    final Uuid id = new Uuid(new Uuid(7), 42);
+
+    assertFalse(ids.contains(id));
+    assertTrue(ids.add(id));
+    assertTrue(ids.contains(id));
+
+    // Same links, different object.
+    assertTrue(ids.contains(new Uuid(new Uuid(7), 42)));
+    assertFalse(ids.contains(new Uuid(42)));
+    assertFalse(ids.contains(new Uuid(new Uuid(42), 7)));
+  }
+
+  @Test
+  public void testAddTwice() {
+
+    final IdRegistry ids = new IdRegistry();
+
+    assertTrue(ids.add(new Uuid(1)));
+    assertFalse(ids.add(new Uuid(1)));
+    assertEquals(1, ids.size());
+  }
+
+  @Test
+  public void testIdsSurviveGrowing() {
+
+    final IdRegistry ids = new IdRegistry();
+
+    // Well past the size the first filter is built for.
+    for (int i = 0; i < 20000; i++) {
+      ids.add(new Uuid(new Uuid(3), i));
+    }
+
+    assertEquals(20000, ids.size());
+
+    for (int i = 0; i < 20000; i++) {
+      assertTrue(ids.contains(new Uuid(new Uuid(3), i)));
+    }
+
+    assertFalse(ids.contains(new Uuid(new Uuid(3), 20000)));
+  }
+
+  @Test
+  public void testModelAddsIds() {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    final Uuid user = controller.newUser("user").id;
+    final Uuid conversation = controller.newConversation("conversation", user).id;
+    final Uuid message = controller.newMessage(user, conversation, "hello").id;
+
+    assertTrue(model.ids().contains(user));
+    assertTrue(model.ids().contains(conversation));
+    assertTrue(model.ids().contains(message));
+    assertEquals(3, model.ids().size());
+  }
+}
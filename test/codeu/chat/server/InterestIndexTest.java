@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.StatusUpdate;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class InterestIndexTest {
+
+  private Model model;
+  private Controller controller;
+
+  private User reader;
+  private User writer;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    reader = controller.newUser("reader");
+    writer = controller.newUser("writer");
+  }
+
+  @Test
+  public void testFollowRules() {
+
+    assertFalse(controller.followUser(reader.id, reader.id));
+    assertTrue(controller.followUser(reader.id, writer.id));
+    assertFalse(controller.followUser(reader.id, writer.id));
+    assertFalse(controller.followUser(reader.id, new Uuid(12345)));
+
+    assertEquals(1, controller.getInterests(reader.id).users.size());
+
+    assertTrue(controller.unfollowUser(reader.id, writer.id));
+    assertFalse(controller.unfollowUser(reader.id, writer.id));
+
+    assertEquals(0, controller.getInterests(reader.id).users.size());
+  }
+
+  @Test
+  public void testFollowedUserActivity() {
+
+    controller.followUser(reader.id, writer.id);
+
+    final ConversationHeader conversation = controller.newConversation("title", writer.id);
+    controller.newMessage(writer.id, conversation.id, "one");
+    controller.newMessage(writer.id, conversation.id, "two");
+
+    // Activity by other users is not counted.
+    controller.newConversation("other", reader.id);
+
+    final StatusUpdate update = controller.statusUpdate(reader.id);
+
+    assertEquals(1, update.users.size());
+    final StatusUpdate.UserActivity activity = update.users.iterator().next();
+    assertTrue(Uuid.equals(writer.id, activity.user));
+    assertEquals(1, activity.created.size());
+    assertEquals(1, activity.updated.size());
+
+    // Asking again starts from zero.
+    final StatusUpdate.UserActivity again = controller.statusUpdate(reader.id).users.iterator().next();
+    assertEquals(0, again.created.size());
+    assertEquals(0, again.updated.size());
+  }
+
+  @Test
+  public void testFollowedConversationCounts() {
+
+    final ConversationHeader conversation = controller.newConversation("title", writer.id);
+    assertTrue(controller.followConversation(reader.id, conversation.id));
+
+    controller.newMessage(writer.id, conversation.id, "one");
+    controller.newMessage(reader.id, conversation.id, "two");
+
+    StatusUpdate update = controller.statusUpdate(reader.id);
+    assertEquals(1, update.conversations.size());
+    assertEquals(2, update.conversations.iterator().next().messages);
+
+    update = controller.statusUpdate(reader.id);
+    assertEquals(0, update.conversations.iterator().next().messages);
+
+    assertTrue(controller.unfollowConversation(reader.id, conversation.id));
+    controller.newMessage(writer.id, conversation.id, "three");
+    assertEquals(0, controller.statusUpdate(reader.id).conversations.size());
+  }
+
+  @Test
+  public void testResetActivity() {
+
+    final ConversationHeader conversation = controller.newConversation("title", writer.id);
+    controller.followConversation(reader.id, conversation.id);
+    controller.newMessage(writer.id, conversation.id, "old");
+
+    model.interests().resetActivity();
+
+    assertEquals(0, controller.statusUpdate(reader.id).conversations.iterator().next().messages);
+  }
+}
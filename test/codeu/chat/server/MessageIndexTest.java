@@ -0,0 +1,146 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageIndexTest {
+
+  private static final Uuid AUTHOR = new Uuid(1);
+  private static final Uuid FIRST = new Uuid(2);
+  private static final Uuid SECOND = new Uuid(3);
+
+  private MessageIndex index;
+  private int nextId;
+
+  @Before
+  public void doBefore() {
+    index = new MessageIndex();
+    nextId = 100;
+  }
+
+  private Message add(String text, Uuid conversation) {
+    final Message message = new Message(new Uuid(nextId++), Uuid.NULL, Uuid.NULL, Time.now(), AUTHOR, text);
+    index.add(message, conversation);
+    return message;
+  }
+
+  private static List<String> contents(Collection<Message> messages) {
+    final List<String> contents = new ArrayList<>();
+    for (final Message message : messages) {
+      contents.add(message.content);
+    }
+    return contents;
+  }
+
+  @Test
+  public void testTerms() {
+    assertEquals(Arrays.asList("hello", "world", "42"),
+                 new ArrayList<>(MessageIndex.terms("Hello, WORLD! hello 42")));
+    assertTrue(MessageIndex.terms("  ...  ").isEmpty());
+    assertTrue(MessageIndex.terms(null).isEmpty());
+  }
+
+  @Test
+  public void testPostingsRoundTrip() {
+
+    final MessageIndex.Postings postings = new MessageIndex.Postings();
+
+    // Gaps of every size from one byte to five.
+    final int[] numbers = { 0, 1, 2, 130, 20000, 3000000, 400000000, Integer.MAX_VALUE - 1 };
+
+    for (final int number : numbers) {
+      postings.add(number);
+    }
+    postings.add(numbers[numbers.length - 1]);  // repeats are ignored
+
+    assertEquals(numbers.length, postings.count());
+
+    final MessageIndex.Cursor cursor = postings.cursor();
+    for (final int number : numbers) {
+      assertEquals(number, cursor.next());
+    }
+    assertEquals(Integer.MAX_VALUE, cursor.next());
+  }
+
+  @Test
+  public void testSingleTerm() {
+
+    add("the quick brown fox", FIRST);
+    add("a lazy dog", FIRST);
+    add("THE end", SECOND);
+
+    assertEquals(Arrays.asList("THE end", "the quick brown fox"),
+                 contents(index.search("the", null, 10)));
+    assertTrue(index.search("cat", null, 10).isEmpty());
+    assertTrue(index.search("", null, 10).isEmpty());
+  }
+
+  @Test
+  public void testAllTermsMustMatch() {
+
+    add("red green blue", FIRST);
+    add("red blue", FIRST);
+    add("green blue", FIRST);
+    add("red green", FIRST);
+
+    assertEquals(Arrays.asList("red green", "red green blue"),
+                 contents(index.search("green red", null, 10)));
+    assertEquals(Arrays.asList("red green blue"),
+                 contents(index.search("blue RED green", null, 10)));
+    assertTrue(index.search("red purple", null, 10).isEmpty());
+  }
+
+  @Test
+  public void testConversationScope() {
+
+    add("hello from the first", FIRST);
+    add("hello from the second", SECOND);
+    add("hello again first", FIRST);
+
+    assertEquals(Arrays.asList("hello again first", "hello from the first"),
+                 contents(index.search("hello", FIRST, 10)));
+    assertEquals(Arrays.asList("hello from the second"),
+                 contents(index.search("hello", SECOND, 10)));
+    assertEquals(3, index.search("hello", Uuid.NULL, 10).size());
+    assertTrue(index.search("hello", new Uuid(99), 10).isEmpty());
+  }
+
+  @Test
+  public void testLimitKeepsNewest() {
+
+    for (int i = 0; i < 1000; i++) {
+      add(String.format("message %d %s", i, i % 3 == 0 ? "fizz" : "buzz"), i % 2 == 0 ? FIRST : SECOND);
+    }
+
+    // Multiples of six are fizz and in the first conversation.
+    assertEquals(Arrays.asList("message 996 fizz", "message 990 fizz", "message 984 fizz"),
+                 contents(index.search("fizz message", FIRST, 3)));
+
+    assertEquals(167, index.search("fizz", FIRST, 1000).size());
+    assertTrue(index.search("fizz", FIRST, 0).isEmpty());
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.ServerStats;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ModelTest {
+
+  @Test
+  public void testEmptyMemory() {
+
+    for (final ServerStats.Memory entry : new Model().memory()) {
+      assertEquals(entry.name, 0, entry.count);
+      assertEquals(entry.name, 0, entry.bytes);
+    }
+  }
+
+  @Test
+  public void testMemoryCounts() {
+
+    final Model model = new Model();
+    final Uuid server = new Uuid(1);
+    final Time time = Time.now();
+
+    final User user = new User(new Uuid(server, 1), "user", time);
+    final ConversationHeader conversation =
+        new ConversationHeader(new Uuid(server, 2), user.id, time, "conversation");
+
+    model.add(user);
+    model.add(conversation);
+
+    // Every message has the same text and time, so the time index only gets
+    // one key and the search index only one term.
+    for (int i = 0; i < 10; i++) {
+      model.add(new Message(new Uuid(server, 100 + i), Uuid.NULL, Uuid.NULL, time, user.id, "hello"));
+    }
+
+    final Map<String, ServerStats.Memory> memory = byName(model.memory());
+
+    assertEquals(1, memory.get("users").count);
+    assertEquals(1, memory.get("conversations").count);
+    assertEquals(1, memory.get("conversation-payloads").count);
+    assertEquals(10, memory.get("messages").count);
+    assertEquals(2, memory.get("changes").count);
+
+    assertEquals(10, memory.get("message-by-id").count);
+    assertEquals(1, memory.get("message-terms").count);
+    assertEquals(12, memory.get("id-registry").count);
+    assertTrue(memory.get("id-registry").bytes >= 12 * Footprint.HASH_ENTRY);
+
+    // The id index has ten keys where the search index has one term whose
+    // postings take a byte per message.
+    assertEquals(Footprint.ofIndex(10, 10), memory.get("message-by-id").bytes);
+    assertTrue(memory.get("message-terms").bytes > 0);
+    assertTrue(memory.get("message-terms").bytes < memory.get("message-by-id").bytes);
+  }
+
+  @Test
+  public void testLongerTextTakesMore() {
+
+    final Model small = new Model();
+    final Model large = new Model();
+    final Uuid author = new Uuid(1);
+    final Time time = Time.now();
+
+    small.add(new Message(new Uuid(2), Uuid.NULL, Uuid.NULL, time, author, "hi"));
+    large.add(new Message(new Uuid(2), Uuid.NULL, Uuid.NULL, time, author, new String(new char[1000])));
+
+    final long smallBytes = byName(small.memory()).get("messages").bytes;
+    final long largeBytes = byName(large.memory()).get("messages").bytes;
+
+    assertTrue(smallBytes > 0);
+    assertTrue(largeBytes >= smallBytes + 990);
+  }
+
+  private static Map<String, ServerStats.Memory> byName(Iterable<ServerStats.Memory> memory) {
+    final Map<String, ServerStats.Memory> byName = new HashMap<>();
+    for (final ServerStats.Memory entry : memory) {
+      byName.put(entry.name, entry);
+    }
+    return byName;
+  }
+}
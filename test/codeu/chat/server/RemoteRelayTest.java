@@ -0,0 +1,118 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.relay.ServerFrontEnd;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.LoopbackConnectionSource;
+
+// Reads from a real relay front end over a loopback connection so that the
+// server's decoder is checked against the relay's writer.
+public final class RemoteRelayTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+  private static final Secret SECRET = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  private codeu.chat.relay.Server relay;
+  private LoopbackConnectionSource relaySource;
+
+  @Before
+  public void doBefore() {
+
+    relay = new codeu.chat.relay.Server(64, 64);
+    relay.addTeam(TEAM, SECRET);
+
+    final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
+    relaySource = new LoopbackConnectionSource();
+
+    final Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            try (final Connection connection = relaySource.connect()) {
+              frontEnd.handleConnection(connection);
+            }
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the test.
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @After
+  public void doAfter() {
+    relaySource.close();
+  }
+
+  @Test
+  public void testCompactReadRoundTrip() {
+
+    final Time time = Time.fromMs(1234567);
+    final Relay.Bundle.Component user = relay.pack(new Uuid(new Uuid(1), 4), "User", time);
+    final Relay.Bundle.Component conversation = relay.pack(new Uuid(5), "Conversation", time);
+    final Relay.Bundle.Component other = relay.pack(new Uuid(7), "Other", time);
+
+    // Two conversations so that the dictionary has more than one entry per
+    // kind of component.
+    for (int i = 0; i < 4; i++) {
+      assertTrue(relay.write(TEAM,
+                             SECRET,
+                             user,
+                             i % 2 == 0 ? conversation : other,
+                             relay.pack(new Uuid(10 + i), "Message " + i, Time.fromMs(2000000 + i))));
+    }
+
+    final List<Relay.Bundle> read =
+        new ArrayList<>(new RemoteRelay(relaySource.client()).read(TEAM, SECRET, Uuid.NULL, 64));
+
+    assertEquals(4, read.size());
+
+    for (int i = 0; i < read.size(); i++) {
+
+      final Relay.Bundle bundle = read.get(i);
+
+      assertTrue(Uuid.equals(TEAM, bundle.team()));
+      assertTrue(Uuid.equals(new Uuid(new Uuid(1), 4), bundle.user().id()));
+      assertEquals("User", bundle.user().text());
+      assertEquals(1234567, bundle.user().time().inMs());
+      assertEquals(i % 2 == 0 ? "Conversation" : "Other", bundle.conversation().text());
+      assertTrue(Uuid.equals(new Uuid(10 + i), bundle.message().id()));
+      assertEquals("Message " + i, bundle.message().text());
+      assertEquals(2000000 + i, bundle.message().time().inMs());
+    }
+
+    // Bundles that refer to the same dictionary entry share one component.
+    assertSame(read.get(0).user(), read.get(1).user());
+    assertSame(read.get(0).conversation(), read.get(2).conversation());
+    assertNotSame(read.get(0).conversation(), read.get(1).conversation());
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.client.core.Controller;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Timeline;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.LoopbackConnectionSource;
+
+public final class ServerMetricsTest {
+
+  @Test
+  public void testSnapshot() throws Exception {
+
+    final ServerMetrics metrics = new ServerMetrics();
+
+    metrics.onConnection();
+    metrics.onConnection();
+    metrics.onRequest(NetworkCode.NEW_USER_REQUEST, 2000000, false);
+    metrics.onRequest(NetworkCode.NEW_USER_REQUEST, 4000000, true);
+    metrics.onRequest(NetworkCode.GET_USERS_REQUEST, 1000000, false);
+    metrics.onRelaySend(1000000, true);
+    metrics.onRelayPoll(1000000, false, Arrays.asList(Time.fromMs(System.currentTimeMillis() - 2000)));
+
+    final Timeline timeline = new Timeline();
+    final ServerStats stats;
+    try {
+      stats = roundTrip(metrics.snapshot(Time.now(),
+                                         timeline.lanes(),
+                                         Arrays.asList(new ServerStats.Memory("messages", 3, 300))));
+    } finally {
+      timeline.stop();
+    }
+
+    assertEquals(2, stats.connections);
+    assertEquals(2, stats.connectionsLastMinute);
+
+    // Sorted by code.
+    final Iterator<ServerStats.Command> commands = stats.commands.iterator();
+    final ServerStats.Command getUsers = commands.next();
+    final ServerStats.Command newUser = commands.next();
+    assertFalse(commands.hasNext());
+
+    assertEquals(NetworkCode.GET_USERS_REQUEST, getUsers.code);
+    assertEquals(1, getUsers.latency.count);
+    assertEquals(0, getUsers.errors);
+
+    assertEquals(NetworkCode.NEW_USER_REQUEST, newUser.code);
+    assertEquals(2, newUser.latency.count);
+    assertEquals(1, newUser.errors);
+    assertEquals(4000, newUser.latency.max);
+
+    assertEquals(1, stats.relaySendErrors);
+    assertEquals(0, stats.relayPollErrors);
+    assertTrue(stats.relayLastReadMs >= 0);
+    assertTrue(stats.relayDelay.max >= 2000 * 1000);
+
+    assertFalse(stats.lanes.isEmpty());
+    assertEquals(300, stats.memory.iterator().next().bytes);
+    assertTrue(stats.toString().contains("NEW_USER_REQUEST"));
+  }
+
+  @Test
+  public void testNoRelayReads() {
+
+    final ServerMetrics metrics = new ServerMetrics();
+    metrics.onRelayPoll(1000, true, Collections.<Time>emptyList());
+
+    final ServerStats stats = metrics.snapshot(Time.now(),
+                                                   Collections.<Timeline.Lane>emptyList(),
+                                                   Collections.<ServerStats.Memory>emptyList());
+
+    assertEquals(-1, stats.relayLastReadMs);
+    assertEquals(1, stats.relayPollErrors);
+  }
+
+  @Test
+  public void testFromServer() throws Exception {
+
+    final LoopbackConnectionSource source = new LoopbackConnectionSource();
+    final Server server = new Server(new Uuid(1), new Secret((byte) 1), new NoOpRelay());
+
+    final Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            server.handleConnection(source.connect());
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the test.
+        }
+      }
+    });
+    acceptor.start();
+
+    try {
+      final codeu.chat.client.core.View view = new codeu.chat.client.core.View(source.client());
+      final User user = new Controller(source.client()).newUser("user");
+      assertNotNull(user);
+
+      final ServerInfo info = view.getInfo();
+      assertNotNull(info);
+      assertNotNull(info.startTime);
+
+      final ServerStats stats = view.getStats();
+      assertNotNull(stats);
+
+      boolean found = false;
+      for (final ServerStats.Command command : stats.commands) {
+        found |= command.code == NetworkCode.NEW_USER_REQUEST && command.latency.count >= 1;
+      }
+      assertTrue(found);
+      assertTrue(stats.connections >= 3);
+    } finally {
+      source.close();
+      acceptor.join(1000);
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testNames() {
+    assertEquals("NEW_MESSAGE_REQUEST", NetworkCode.name(NetworkCode.NEW_MESSAGE_REQUEST));
+    assertEquals("SERVER_STATS_RESPONSE", NetworkCode.name(NetworkCode.SERVER_STATS_RESPONSE));
+    assertEquals("9999", NetworkCode.name(9999));
+  }
+
+  private static ServerStats roundTrip(ServerStats stats) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ServerStats.SERIALIZER.write(out, stats);
+    return ServerStats.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.client.core.Controller;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.relay.ServerFrontEnd;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Spans;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.LoopbackConnectionSource;
+
+public final class TracingTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+  private static final Secret SECRET = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  private LoopbackConnectionSource relaySource;
+  private LoopbackConnectionSource serverSource;
+  private Server server;
+
+  @Before
+  public void doBefore() {
+
+    final codeu.chat.relay.Server relay = new codeu.chat.relay.Server(64, 64);
+    relay.addTeam(TEAM, SECRET);
+
+    final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
+
+    relaySource = new LoopbackConnectionSource();
+    serverSource = new LoopbackConnectionSource();
+    server = new Server(TEAM, SECRET, new RemoteRelay(relaySource.client()));
+
+    final Thread relayAcceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            try (final Connection connection = relaySource.connect()) {
+              frontEnd.handleConnection(connection);
+            }
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the test.
+        }
+      }
+    });
+    relayAcceptor.setDaemon(true);
+    relayAcceptor.start();
+
+    final Thread serverAcceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            server.handleConnection(serverSource.connect());
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the test.
+        }
+      }
+    });
+    serverAcceptor.setDaemon(true);
+    serverAcceptor.start();
+  }
+
+  @After
+  public void doAfter() {
+    server.stop();
+    serverSource.close();
+    relaySource.close();
+  }
+
+  @Test
+  public void testTracedWriteToOldRelay() throws Exception {
+
+    // A relay from before tracing closes the connection on any request it
+    // does not know, rather than answering NO_MESSAGE.
+    final LoopbackConnectionSource oldRelaySource = new LoopbackConnectionSource();
+    final AtomicInteger traced = new AtomicInteger();
+    final AtomicInteger written = new AtomicInteger();
+
+    final Thread oldRelay = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            try (final Connection connection = oldRelaySource.connect()) {
+              final int type = Serializers.INTEGER.read(connection.in());
+              if (type == NetworkCode.RELAY_WRITE_REQUEST) {
+                written.incrementAndGet();
+                Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_RESPONSE);
+                Serializers.BOOLEAN.write(connection.out(), true);
+              } else {
+                traced.incrementAndGet();
+              }
+            }
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the test.
+        }
+      }
+    });
+    oldRelay.setDaemon(true);
+    oldRelay.start();
+
+    try {
+
+      final RemoteRelay relay = new RemoteRelay(oldRelaySource.client());
+      final Relay.Bundle.Component component = relay.pack(new Uuid(1), "text", Time.now());
+
+      assertTrue(relay.write(TEAM, SECRET, component, component, component, Spans.newTrace()));
+      assertTrue(relay.write(TEAM, SECRET, component, component, component, Spans.newTrace()));
+
+      // Only the first write tries the trace. Both are sent again untraced.
+      assertEquals(1, traced.get());
+      assertEquals(2, written.get());
+
+    } finally {
+      oldRelaySource.close();
+    }
+  }
+
+  @Test
+  public void testTraceReachesTheRelay() throws Exception {
+
+    final Controller controller = new Controller(serverSource.client());
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation("conversation", user.id);
+
+    final long trace = Spans.newTrace();
+    final Message message = controller.newMessage(user.id, conversation.id, "traced", trace);
+    assertNotNull(message);
+
+    // Sending to the relay happens after the response, on the relay lane.
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (!stages(Spans.snapshot(trace)).contains(Spans.RELAY_SEND) &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    final Set<Integer> stages = stages(controller.getSpans(trace));
+
+    assertTrue(stages.contains(Spans.CLIENT_SEND));
+    assertTrue(stages.contains(Spans.SERVER_QUEUE));
+    assertTrue(stages.contains(Spans.SERVER_HANDLE));
+    assertTrue(stages.contains(Spans.RELAY_QUEUE));
+    assertTrue(stages.contains(Spans.RELAY_SEND));
+    assertTrue(stages.contains(Spans.RELAY_APPEND));
+
+    // Another server reading from the relay gets the trace with the bundle.
+    final Collection<Relay.Bundle> bundles =
+        new RemoteRelay(relaySource.client()).read(TEAM, SECRET, Uuid.NULL, 64);
+
+    boolean found = false;
+    for (final Relay.Bundle bundle : bundles) {
+      if (Uuid.equals(bundle.message().id(), message.id)) {
+        assertEquals(trace, bundle.trace());
+        found = true;
+      }
+    }
+    assertTrue(found);
+  }
+
+  @Test
+  public void testUntracedMessageHasNoTrace() throws Exception {
+
+    final Controller controller = new Controller(serverSource.client());
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation("conversation", user.id);
+    final Message message = controller.newMessage(user.id, conversation.id, "untraced");
+    assertNotNull(message);
+
+    final RemoteRelay reader = new RemoteRelay(relaySource.client());
+
+    final long deadline = System.currentTimeMillis() + 5000;
+    Relay.Bundle found = null;
+    while (found == null && System.currentTimeMillis() < deadline) {
+      for (final Relay.Bundle bundle : reader.read(TEAM, SECRET, Uuid.NULL, 64)) {
+        if (Uuid.equals(bundle.message().id(), message.id)) {
+          found = bundle;
+        }
+      }
+      Thread.sleep(10);
+    }
+
+    assertNotNull(found);
+    assertEquals(0, found.trace());
+  }
+
+  private static Set<Integer> stages(Collection<Spans.Span> spans) {
+    final Set<Integer> stages = new HashSet<>();
+    for (final Spans.Span span : spans) {
+      stages.add(span.stage);
+    }
+    return stages;
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Delta;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+  }
+
+  @Test
+  public void testUsersSince() {
+
+    final User first = controller.newUser("first");
+
+    final Delta<User> all = view.getUsersSince(model.epoch(), 0);
+    assertFalse(all.complete);
+    assertEquals(1, all.values.size());
+    assertEquals(model.sequence(), all.sequence);
+
+    final User second = controller.newUser("second");
+
+    final Delta<User> next = view.getUsersSince(all.epoch, all.sequence);
+    assertEquals(1, next.values.size());
+    assertTrue(Uuid.equals(second.id, next.values.iterator().next().id));
+
+    final Delta<User> none = view.getUsersSince(next.epoch, next.sequence);
+    assertEquals(0, none.values.size());
+    assertEquals(next.sequence, none.sequence);
+  }
+
+  @Test
+  public void testConversationsSince() {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader first = controller.newConversation("first", user.id);
+
+    final Delta<ConversationHeader> all = view.getConversationsSince(model.epoch(), 0);
+    assertEquals(1, all.values.size());
+
+    // Users and messages move the sequence but are not conversations.
+    controller.newUser("other");
+    controller.newMessage(user.id, first.id, "hello");
+    final ConversationHeader second = controller.newConversation("second", user.id);
+
+    final Delta<ConversationHeader> next = view.getConversationsSince(all.epoch, all.sequence);
+    assertEquals(1, next.values.size());
+    assertTrue(Uuid.equals(second.id, next.values.iterator().next().id));
+  }
+
+  @Test
+  public void testMessagePage() {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation("title", user.id);
+
+    final List<Message> sent = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      sent.add(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+
+    final List<Message> page = new ArrayList<>(view.getMessagePage(sent.get(2).id, 4));
+    assertEquals(4, page.size());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(Uuid.equals(sent.get(2 + i).id, page.get(i).id));
+    }
+
+    // Stops at the end of the conversation.
+    assertEquals(2, view.getMessagePage(sent.get(8).id, 4).size());
+    assertEquals(0, view.getMessagePage(Uuid.NULL, 4).size());
+  }
+
+  @Test
+  public void testOtherEpochGetsEverything() {
+
+    controller.newUser("first");
+    controller.newUser("second");
+
+    final Delta<User> delta = view.getUsersSince(model.epoch() + 1, model.sequence());
+
+    assertTrue(delta.complete);
+    assertEquals(2, delta.values.size());
+  }
+
+  private static List<String> names(Collection<User> users) {
+    final List<String> names = new ArrayList<>();
+    for (final User user : users) {
+      names.add(user.name);
+    }
+    return names;
+  }
+
+  @Test
+  public void testSearchUsersByPrefix() {
+
+    for (final String name : new String[] { "bob", "Alice", "alex", "ALBERT", "al", "carol" }) {
+      controller.newUser(name);
+    }
+
+    final List<String> found = names(view.searchUsers("al", true, null, 10));
+
+    assertEquals(4, found.size());
+    assertEquals("al", found.get(0));
+    assertTrue(found.containsAll(Arrays.asList("al", "ALBERT", "alex", "Alice")));
+
+    assertTrue(view.searchUsers("zed", true, null, 10).isEmpty());
+    assertEquals(6, view.searchUsers("", true, null, 10).size());
+  }
+
+  @Test
+  public void testSearchUsersExact() {
+
+    final User first = controller.newUser("sam");
+    controller.newUser("samantha");
+    final User second = controller.newUser("SAM");
+
+    final List<User> found = new ArrayList<>(view.searchUsers("Sam", false, null, 10));
+
+    assertEquals(2, found.size());
+    assertTrue(Uuid.equals(first.id, found.get(0).id));
+    assertTrue(Uuid.equals(second.id, found.get(1).id));
+  }
+
+  @Test
+  public void testSearchUsersPaging() {
+
+    // Equal names so that paging has to step over values with the same key.
+    for (int i = 0; i < 7; i++) {
+      controller.newUser(i < 4 ? "same" : "same " + i);
+    }
+    controller.newUser("other");
+
+    final List<Uuid> seen = new ArrayList<>();
+    Uuid after = null;
+
+    for (Collection<User> page = view.searchUsers("same", true, after, 3);
+         !page.isEmpty();
+         page = view.searchUsers("same", true, after, 3)) {
+
+      assertTrue(page.size() <= 3);
+
+      for (final User user : page) {
+        assertFalse(seen.contains(user.id));
+        seen.add(user.id);
+        after = user.id;
+      }
+    }
+
+    assertEquals(7, seen.size());
+  }
+
+  @Test
+  public void testSearchConversations() {
+
+    final User user = controller.newUser("user");
+    controller.newConversation("Rust", user.id);
+    controller.newConversation("ruby", user.id);
+    controller.newConversation("python", user.id);
+
+    assertEquals(2, view.searchConversations("RU", true, null, 10).size());
+    assertEquals(1, view.searchConversations("ruby", false, null, 10).size());
+    assertTrue(view.searchConversations("rub", false, null, 10).isEmpty());
+  }
+}
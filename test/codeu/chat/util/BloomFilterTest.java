@@ -0,0 +1,71 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class BloomFilterTest {
+
+  @Test
+  public void testAddedKeysAreAlwaysFound() {
+
+    final BloomFilter filter = new BloomFilter(1000, 0.01);
+
+    for (long key = 0; key < 5000; key++) {
+      filter.add(key);
+    }
+
+    // Even past the expected count, nothing that was added can be missed.
+    for (long key = 0; key < 5000; key++) {
+      assertTrue(filter.mightContain(key));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRateNearTarget() {
+
+    final BloomFilter filter = new BloomFilter(10000, 0.01);
+
+    for (long key = 0; key < 10000; key++) {
+      filter.add(key);
+    }
+
+    int falsePositives = 0;
+    for (long key = 10000; key < 110000; key++) {
+      if (filter.mightContain(key)) {
+        falsePositives++;
+      }
+    }
+
+    // 1% of 100000 is 1000. Leave room for the sizes being rounded.
+    assertTrue(falsePositives < 2000);
+  }
+
+  @Test
+  public void testEmptyFilterHasNothing() {
+
+    final BloomFilter filter = new BloomFilter(100, 0.01);
+
+    assertFalse(filter.mightContain(0));
+    assertFalse(filter.mightContain(42));
+    assertFalse(filter.mightContain(-1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadRate() {
+    new BloomFilter(100, 1.0);
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class EventLogTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws IOException {
+    directory = temporaryFolder.newFolder("events");
+  }
+
+  private static List<EventLog.Record> readAll(File directory) throws IOException {
+    final List<EventLog.Record> records = new ArrayList<>();
+    for (final File file : EventLog.files(directory)) {
+      EventLog.read(file, new EventLog.Visitor() {
+        @Override
+        public void onRecord(EventLog.Record record) { records.add(record); }
+      });
+    }
+    return records;
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+
+    final EventLog log = new EventLog(directory, 4096, 4);
+
+    final long before = System.currentTimeMillis();
+
+    log.write(EventLog.TYPE_SERVER_REQUEST,
+              7,
+              EventLog.pack(new Uuid(new Uuid(1), 2)),
+              EventLog.pack(new Uuid(3)),
+              1500);
+    log.close();
+
+    final List<EventLog.Record> records = readAll(directory);
+
+    assertEquals(1, records.size());
+
+    final EventLog.Record record = records.get(0);
+
+    assertEquals(EventLog.TYPE_SERVER_REQUEST, record.type);
+    assertEquals(7, record.code);
+    assertEquals(1500, record.duration);
+    assertTrue(Uuid.equals(new Uuid(new Uuid(1), 2), EventLog.unpack(record.first)));
+    assertTrue(Uuid.equals(new Uuid(3), EventLog.unpack(record.second)));
+    assertTrue(record.time / 1000000 >= before - 1000);
+    assertTrue(record.time / 1000000 <= System.currentTimeMillis() + 1000);
+  }
+
+  @Test
+  public void testRollsAndTrimsFiles() throws IOException {
+
+    // Room for 4 records per file.
+    final EventLog log = new EventLog(directory,
+                                      EventLog.HEADER_BYTES + 4 * EventLog.RECORD_BYTES,
+                                      2);
+
+    for (int i = 0; i < 10; i++) {
+      log.write(EventLog.TYPE_RELAY_REQUEST, i, 0, 0, i);
+    }
+    log.close();
+
+    // 10 records need 3 files, only the newest 2 are kept.
+    assertEquals(2, EventLog.files(directory).size());
+
+    final List<EventLog.Record> records = readAll(directory);
+    assertEquals(6, records.size());
+    assertEquals(4, records.get(0).code);
+    assertEquals(9, records.get(5).code);
+  }
+
+  @Test
+  public void testReopenStartsNewFile() throws IOException {
+
+    new EventLog(directory, 4096, 4).close();
+    new EventLog(directory, 4096, 4).close();
+
+    assertEquals(2, EventLog.files(directory).size());
+  }
+
+  @Test
+  public void testArgsWithoutFlagUnchanged() {
+
+    // Only arguments without the flag, so the shared event log stays off.
+    final String[] args = { "7", "ABCDEF", "--eventsfoo", "2007" };
+
+    assertArrayEquals(args, EventLog.enableFromArgs(args));
+    assertFalse(EventLog.isEnabled());
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class HistogramTest {
+
+  @Test
+  public void testEmpty() {
+
+    final Histogram histogram = new Histogram();
+
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.mean());
+    assertEquals(0, histogram.max());
+    assertEquals(0, histogram.percentile(99));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+
+    final Histogram histogram = new Histogram();
+
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(10, histogram.count());
+    assertEquals(5, histogram.mean());
+    assertEquals(10, histogram.max());
+    assertEquals(5, histogram.percentile(50));
+    assertEquals(10, histogram.percentile(100));
+  }
+
+  @Test
+  public void testLargeValuesAreClose() {
+
+    final Histogram histogram = new Histogram();
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    final long p50 = histogram.percentile(50);
+    final long p99 = histogram.percentile(99);
+
+    // Values are never under reported and are within one bucket (12.5%).
+    assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+    assertTrue(p99 >= 990000 && p99 <= 990000 * 1.125);
+    assertEquals(1000000, histogram.percentile(100));
+  }
+
+  @Test
+  public void testNegativeRecordedAsZero() {
+
+    final Histogram histogram = new Histogram();
+    histogram.record(-5);
+
+    assertEquals(1, histogram.count());
+    assertEquals(0, histogram.max());
+  }
+}
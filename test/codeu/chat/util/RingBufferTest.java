@@ -0,0 +1,111 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class RingBufferTest {
+
+  @Test
+  public void testCapacityRoundsUp() {
+    assertEquals(8, new RingBuffer<Integer>(5).capacity());
+    assertEquals(8, new RingBuffer<Integer>(8).capacity());
+    assertEquals(1, new RingBuffer<Integer>(1).capacity());
+  }
+
+  @Test
+  public void testFirstInFirstOut() {
+
+    final RingBuffer<Integer> buffer = new RingBuffer<>(4);
+
+    assertNull(buffer.poll());
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(i));
+    }
+
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+
+    assertEquals(Integer.valueOf(0), buffer.poll());
+    assertTrue(buffer.offer(4));
+
+    for (int i = 1; i <= 4; i++) {
+      assertEquals(Integer.valueOf(i), buffer.poll());
+    }
+
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testManyProducers() throws InterruptedException {
+
+    final RingBuffer<Long> buffer = new RingBuffer<>(64);
+    final int producers = 4;
+    final int perProducer = 10000;
+
+    final List<Thread> threads = new ArrayList<>();
+
+    for (int p = 0; p < producers; p++) {
+      final long base = (long) p * perProducer;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (long i = 0; i < perProducer; i++) {
+            while (!buffer.offer(base + i)) {
+              Thread.yield();
+            }
+          }
+        }
+      });
+    }
+
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+
+    // Every value must come out exactly once, and values from any one producer
+    // must come out in the order that producer added them.
+    final long[] next = new long[producers];
+    final AtomicLong total = new AtomicLong();
+
+    for (int taken = 0; taken < producers * perProducer; ) {
+      final Long value = buffer.poll();
+      if (value == null) {
+        Thread.yield();
+        continue;
+      }
+      final int producer = (int) (value / perProducer);
+      assertEquals(next[producer], value % perProducer);
+      next[producer]++;
+      total.addAndGet(value);
+      taken++;
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final long n = (long) producers * perProducer;
+    assertEquals(n * (n - 1) / 2, total.get());
+    assertNull(buffer.poll());
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class SpansTest {
+
+  @Test
+  public void testSnapshotOnlyHasTheTrace() {
+
+    // The ring is shared by the whole process, so use traces that no other
+    // test will.
+    final long trace = Spans.newTrace();
+    final long other = Spans.newTrace();
+
+    final long start = System.nanoTime();
+
+    Spans.record(trace, Spans.SERVER_HANDLE, start + 2000000, start + 3000000);
+    Spans.record(other, Spans.SERVER_HANDLE, start, start + 1000000);
+    Spans.record(trace, Spans.SERVER_QUEUE, start, start + 2000000);
+
+    final List<Spans.Span> spans = Spans.snapshot(trace);
+
+    assertEquals(2, spans.size());
+
+    // Ordered by start, not by when they were recorded.
+    assertEquals(Spans.SERVER_QUEUE, spans.get(0).stage);
+    assertEquals(2000, spans.get(0).duration);
+    assertEquals(Spans.SERVER_HANDLE, spans.get(1).stage);
+    assertEquals(1000, spans.get(1).duration);
+    assertEquals(2000, spans.get(1).start - spans.get(0).start);
+  }
+
+  @Test
+  public void testZeroTraceIsNotRecorded() {
+
+    final int before = Spans.snapshot(0).size();
+
+    final long now = System.nanoTime();
+    Spans.record(0, Spans.SERVER_HANDLE, now, now);
+    Spans.recordAt(0, Spans.RELAY_WAIT, Spans.now(), 0);
+
+    assertEquals(before, Spans.snapshot(0).size());
+  }
+
+  @Test
+  public void testEnterAndExit() {
+
+    assertEquals(0, Spans.current());
+
+    final long outer = Spans.enter(5);
+    assertEquals(0, outer);
+    assertEquals(5, Spans.current());
+
+    final long inner = Spans.enter(6);
+    assertEquals(5, inner);
+    assertEquals(6, Spans.current());
+
+    Spans.exit(inner);
+    assertEquals(5, Spans.current());
+
+    Spans.exit(outer);
+    assertEquals(0, Spans.current());
+  }
+
+  @Test
+  public void testSerializer() throws Exception {
+
+    final Spans.Span span = new Spans.Span(-3, Spans.REMOTE_APPLY, 1500000000000000L, 42);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Spans.Span.SERIALIZER.write(out, span);
+
+    final Spans.Span read = Spans.Span.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(span, read);
+  }
+}
@@ -14,6 +14,9 @@
 
 package codeu.chat.util;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
 import static org.junit.Assert.*;
 import org.junit.Test;
 import org.junit.Before;
@@ -25,4 +28,33 @@ public final class TimeTest {
     assertEquals(0, Time.fromMs(0).inMs());
     assertEquals(10, Time.fromMs(10).inMs());
   }
+
+  @Test
+  public void testCompare() {
+    assertTrue(Time.fromMs(1).compareTo(Time.fromMs(2)) < 0);
+    assertTrue(Time.fromMs(2).compareTo(Time.fromMs(1)) > 0);
+    assertEquals(0, Time.fromMs(Long.MAX_VALUE).compareTo(Time.fromMs(Long.MAX_VALUE)));
+    assertTrue(Time.fromMs(Long.MIN_VALUE).compareTo(Time.fromMs(Long.MAX_VALUE)) < 0);
+    assertEquals(Time.fromMs(5), Time.fromMs(5));
+  }
+
+  @Test
+  public void testToString() {
+
+    final SimpleDateFormat expected = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
+
+    // Same second, different seconds, and times before the epoch (which round
+    // the other way when split into seconds and milliseconds).
+    for (final long ms : new long[] { 0, 7, 999, 1000, 1499846400123L, 1499846400045L, -1, -1001 }) {
+      assertEquals(expected.format(new Date(ms)), Time.fromMs(ms).toString());
+    }
+  }
+
+  @Test
+  public void testNow() {
+    final long before = System.currentTimeMillis();
+    final Time now = Time.now();
+    final long after = System.currentTimeMillis();
+    assertTrue(now.inMs() >= before && now.inMs() <= after);
+  }
 }
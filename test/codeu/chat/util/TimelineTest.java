@@ -0,0 +1,186 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class TimelineTest {
+
+  private Timeline timeline;
+
+  @Before
+  public void doBefore() {
+    timeline = new Timeline(5, 8);
+  }
+
+  @After
+  public void doAfter() {
+    timeline.stop();
+    timeline.join();
+  }
+
+  @Test
+  public void testScheduleNow() throws InterruptedException {
+
+    final CountDownLatch done = new CountDownLatch(1);
+
+    timeline.scheduleNow(new Runnable() {
+      @Override
+      public void run() { done.countDown(); }
+    });
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDaemonThreads() throws InterruptedException {
+
+    final Timeline daemon = new Timeline(true);
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger daemons = new AtomicInteger();
+
+    try {
+      daemon.scheduleNow(new Runnable() {
+        @Override
+        public void run() {
+          if (Thread.currentThread().isDaemon()) {
+            daemons.incrementAndGet();
+          }
+          done.countDown();
+        }
+      });
+
+      assertTrue(done.await(1, TimeUnit.SECONDS));
+      assertEquals(1, daemons.get());
+    } finally {
+      daemon.stop();
+      daemon.join();
+    }
+  }
+
+  @Test
+  public void testScheduleInIsNotEarly() throws InterruptedException {
+
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicLong ranAt = new AtomicLong();
+
+    // Far enough out that the event needs more than one turn of the wheel.
+    final long start = System.currentTimeMillis();
+
+    timeline.scheduleIn(100, new Runnable() {
+      @Override
+      public void run() {
+        ranAt.set(System.currentTimeMillis());
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertTrue(ranAt.get() - start >= 100);
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+
+    final AtomicInteger runs = new AtomicInteger();
+
+    final Timeline.Handle handle = timeline.scheduleIn(50, new Runnable() {
+      @Override
+      public void run() { runs.incrementAndGet(); }
+    });
+
+    assertTrue(handle.cancel());
+    assertFalse(handle.cancel());
+    assertTrue(handle.isCancelled());
+
+    Thread.sleep(150);
+
+    assertEquals(0, runs.get());
+  }
+
+  @Test
+  public void testFixedRate() throws InterruptedException {
+
+    final CountDownLatch done = new CountDownLatch(3);
+    final AtomicInteger runs = new AtomicInteger();
+
+    final Timeline.Handle handle = timeline.scheduleAtFixedRate(0, 20, new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+
+    handle.cancel();
+
+    // Let anything that was already running finish before taking a count.
+    Thread.sleep(50);
+    final int stoppedAt = runs.get();
+    Thread.sleep(100);
+
+    assertEquals(stoppedAt, runs.get());
+  }
+
+  @Test
+  public void testLanesRunSeparately() throws InterruptedException {
+
+    final Timeline.Lane slow = timeline.lane("slow", 1, 4);
+    final Timeline.Lane fast = timeline.lane("fast", 2, 4);
+
+    assertSame(slow, timeline.lane("slow", 8, 8));
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    // Block the only worker on the slow lane. The fast lane should not notice.
+    slow.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          // Let the test end.
+        }
+      }
+    });
+
+    fast.scheduleNow(new Runnable() {
+      @Override
+      public void run() { done.countDown(); }
+    });
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+
+    release.countDown();
+
+    Thread.sleep(50);
+
+    assertEquals(1, fast.runTime().count());
+    assertEquals(1, fast.lag().count());
+    assertEquals(1, slow.runTime().count());
+    assertEquals(0, slow.depth());
+  }
+}
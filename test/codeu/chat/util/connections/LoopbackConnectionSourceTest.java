@@ -0,0 +1,186 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import codeu.chat.client.core.Controller;
+import codeu.chat.client.core.View;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Uuid;
+
+public final class LoopbackConnectionSourceTest {
+
+  private LoopbackConnectionSource source;
+  private Thread acceptor;
+
+  @After
+  public void doAfter() throws Exception {
+    if (source != null) {
+      source.close();
+    }
+    if (acceptor != null) {
+      acceptor.join(1000);
+    }
+  }
+
+  @Test
+  public void testMoreThanTheBuffer() throws Exception {
+
+    // Much more data than the buffer holds, so both sides have to wait for
+    // each other and the ring wraps around many times.
+    source = new LoopbackConnectionSource(16);
+
+    final byte[] sent = new byte[100000];
+    new Random(1).nextBytes(sent);
+
+    final Connection client = source.client().connect();
+    final Connection server = source.connect();
+
+    final AtomicReference<byte[]> echoed = new AtomicReference<>();
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          echoed.set(readAll(client.in(), sent.length));
+        } catch (IOException ex) {
+          // Checked below.
+        }
+      }
+    });
+    reader.start();
+
+    final Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          client.out().write(sent, 0, 5);
+          client.out().write(sent, 5, sent.length - 5);
+        } catch (IOException ex) {
+          // Checked below.
+        }
+      }
+    });
+    writer.start();
+
+    // Echo back whatever arrives, a few bytes at a time.
+    server.out().write(readAll(server.in(), sent.length));
+
+    writer.join(10000);
+    reader.join(10000);
+
+    assertArrayEquals(sent, echoed.get());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+
+    source = new LoopbackConnectionSource();
+
+    final Connection client = source.client().connect();
+    final Connection server = source.connect();
+
+    client.out().write(new byte[] { 1, 2, 3 });
+    client.close();
+
+    // Everything written before the close is still read, then the stream ends.
+    final byte[] read = new byte[8];
+    assertEquals(3, server.in().read(read));
+    assertEquals(-1, server.in().read(read));
+
+    try {
+      server.out().write(new byte[64 * 1024 + 1]);
+      fail("Expected writing to a closed connection to fail");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    source.close();
+
+    try {
+      source.connect();
+      fail("Expected connect to fail after the source was closed");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testServer() throws Exception {
+
+    source = new LoopbackConnectionSource();
+
+    final Server server = new Server(new Uuid(1), new Secret((byte) 1), new NoOpRelay());
+
+    acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            server.handleConnection(source.connect());
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the test.
+        }
+      }
+    });
+    acceptor.start();
+
+    try {
+      final Controller controller = new Controller(source.client());
+      final View view = new View(source.client());
+
+      final User user = controller.newUser("user");
+      final ConversationHeader conversation = controller.newConversation("conversation", user.id);
+
+      final Collection<Uuid> ids = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        ids.add(controller.newMessage(user.id, conversation.id, "message " + i).id);
+      }
+
+      final Collection<Message> messages = view.getMessages(ids);
+      assertEquals(100, messages.size());
+      assertEquals(1, view.getUsers().size());
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static byte[] readAll(InputStream in, int length) throws IOException {
+    final byte[] bytes = new byte[length];
+    for (int at = 0; at < length; ) {
+      final int read = in.read(bytes, at, Math.min(7, length - at));
+      if (read < 0) {
+        return Arrays.copyOf(bytes, at);
+      }
+      at += read;
+    }
+    return bytes;
+  }
+}
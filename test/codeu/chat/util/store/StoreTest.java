@@ -47,6 +47,22 @@ public final class StoreTest {
     assertOrder(store.all(), order);
   }
 
+  @Test
+  public void testSizeAndKeyCount() {
+
+    assertEquals(0, store.size());
+    assertEquals(0, store.keyCount());
+
+    store.insert(2, 20);
+    store.insert(1, 10);
+    store.insert(2, 21);
+    store.insert(3, 30);
+    store.insert(2, 22);
+
+    assertEquals(5, store.size());
+    assertEquals(3, store.keyCount());
+  }
+
   @Test
   public void testOrderReverseOrderInsert() {
 